@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.cli;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.accumulo.core.client.AccumuloException;
+import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.Instance;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.TableExistsException;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.client.ZooKeeperInstance;
+import org.apache.accumulo.core.conf.Property;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.accumulo.core.security.ColumnVisibility;
+import org.apache.hadoop.io.Text;
+import org.calrissian.accumulorecipes.commons.domain.StoreConfig;
+import org.calrissian.accumulorecipes.commons.support.Constants;
+import org.calrissian.accumulorecipes.commons.support.qfd.ShardValueEncoder;
+import org.calrissian.accumulorecipes.commons.support.qfd.ShardValueView;
+
+/**
+ * Copies a shard table into a new table, rewriting any version 1 shard values into the compact version 2 encoding
+ * along the way. Every other key (field index entries, values already in version 2) is copied as-is, with its
+ * visibility and timestamp intact, and the splits of the source table are carried over to the new one.
+ * <p/>
+ * The new table is created with the properties of the source table, which includes its iterators (the field index
+ * expiration and the empty value filter of a shard table), so it's queried and compacted the same way. A destination
+ * table that already exists has to be configured the same as the source table.
+ * <p/>
+ * This is meant to be run while nothing is writing to the source table. Once it completes, the source table can be
+ * swapped out for the new one (for instance by renaming both tables).
+ */
+public class ShardTableRewriter {
+
+    private final Connector connector;
+    private final StoreConfig config;
+
+    private long numKeys;
+    private long numRewritten;
+
+    public ShardTableRewriter(Connector connector, StoreConfig config) {
+        this.connector = connector;
+        this.config = config;
+    }
+
+    /**
+     * Copies the source table into the destination table, creating the latter if necessary. The given authorizations
+     * must cover every visibility in the source table, anything they don't cover won't be copied.
+     */
+    public void rewrite(String sourceTable, String destTable, Authorizations auths)
+        throws TableNotFoundException, AccumuloSecurityException, AccumuloException, TableExistsException {
+
+        if (!connector.tableOperations().exists(destTable)) {
+            connector.tableOperations().create(destTable, false);
+            copyProperties(sourceTable, destTable);
+        } else {
+            Map<String, String> sourceProperties = getTableProperties(sourceTable);
+            Map<String, String> destProperties = getTableProperties(destTable);
+            if (!sourceProperties.equals(destProperties))
+                throw new IllegalArgumentException("The table " + destTable + " is not configured the same as " + sourceTable);
+        }
+
+        SortedSet<Text> splits = new TreeSet<Text>(connector.tableOperations().listSplits(sourceTable));
+        if (splits.size() > 0)
+            connector.tableOperations().addSplits(destTable, splits);
+
+        ShardValueView shardValue = new ShardValueView();
+        ShardValueEncoder encoder = new ShardValueEncoder();
+
+        Scanner scanner = connector.createScanner(sourceTable, auths);
+        BatchWriter writer = connector.createBatchWriter(destTable, config.getMaxMemory(), config.getMaxLatency(),
+            config.getMaxWriteThreads());
+        try {
+            for (Map.Entry<Key, Value> entry : scanner) {
+                Key key = entry.getKey();
+                Value value = rewriteValue(key, entry.getValue(), shardValue, encoder);
+
+                Mutation mutation = new Mutation(key.getRowData().toArray());
+                mutation.put(key.getColumnFamily(), key.getColumnQualifier(), new ColumnVisibility(key.getColumnVisibility()),
+                    key.getTimestamp(), value);
+                writer.addMutation(mutation);
+                numKeys++;
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Sets the table properties of the destination table to those of the source table, removing those the source
+     * table doesn't have.
+     */
+    private void copyProperties(String sourceTable, String destTable) throws AccumuloException, AccumuloSecurityException, TableNotFoundException {
+        Map<String, String> sourceProperties = getTableProperties(sourceTable);
+        Map<String, String> destProperties = getTableProperties(destTable);
+
+        for (Map.Entry<String, String> property : sourceProperties.entrySet()) {
+            if (!property.getValue().equals(destProperties.get(property.getKey())))
+                connector.tableOperations().setProperty(destTable, property.getKey(), property.getValue());
+        }
+
+        for (String property : destProperties.keySet()) {
+            if (!sourceProperties.containsKey(property))
+                connector.tableOperations().removeProperty(destTable, property);
+        }
+    }
+
+    private Map<String, String> getTableProperties(String table) throws AccumuloException, TableNotFoundException {
+        Map<String, String> properties = new HashMap<String, String>();
+        for (Map.Entry<String, String> property : connector.tableOperations().getProperties(table)) {
+            if (property.getKey().startsWith(Property.TABLE_PREFIX.getKey()))
+                properties.put(property.getKey(), property.getValue());
+        }
+        return properties;
+    }
+
+    private Value rewriteValue(Key key, Value value, ShardValueView shardValue, ShardValueEncoder encoder) {
+        if (!key.getColumnFamily().toString().startsWith(Constants.PREFIX_E))
+            return value;
+
+        try {
+            shardValue.reset(value.get());
+        } catch (IOException e) {
+            // not something we know how to rewrite, leave it be
+            return value;
+        }
+
+        if (shardValue.getVersion() != 1)
+            return value;
+
+        encoder.reset();
+        for (int i = 0; i < shardValue.size(); i++)
+            encoder.add(shardValue, i);
+        numRewritten++;
+        return encoder.toValue();
+    }
+
+    /**
+     * @return the number of keys copied into the destination table
+     */
+    public long getNumKeys() {
+        return numKeys;
+    }
+
+    /**
+     * @return the number of version 1 shard values that were rewritten
+     */
+    public long getNumRewritten() {
+        return numRewritten;
+    }
+
+    public static void main(String args[]) throws Exception {
+
+        if (args.length < 6 || args.length > 7) {
+            System.out.println("Usage: " + ShardTableRewriter.class.getName() + " <zookeepers> <instance> <username> <password> <sourceTable> <destTable> [auths: a,b,c]");
+            System.exit(1);
+        }
+
+        String zookeepers = args[0];
+        String instance = args[1];
+        String username = args[2];
+        String password = args[3];
+        String sourceTable = args[4];
+        String destTable = args[5];
+        Authorizations auths = args.length == 7 ? new Authorizations(args[6].split(",")) : new Authorizations();
+
+        Instance accInst = new ZooKeeperInstance(instance, zookeepers);
+        Connector connector = accInst.getConnector(username, password.getBytes());
+
+        ShardTableRewriter rewriter = new ShardTableRewriter(connector, new StoreConfig());
+        rewriter.rewrite(sourceTable, destTable, auths);
+
+        System.out.println("Copied " + rewriter.getNumKeys() + " keys, rewrote " + rewriter.getNumRewritten() + " shard values");
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.domain;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Options for decoding query results on the decode pool of the store rather than on the thread consuming them.
+ */
+public class DecodeOptions {
+
+    public static final int DEFAULT_QUEUE_SIZE = 16;
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final long DEFAULT_TIMEOUT = 10 * 60 * 1000;
+
+    private final int decodeThreads;
+    private final int queueSize;
+    private final int batchSize;
+    private final boolean ordered;
+    private final long timeout;
+
+    /**
+     * Decodes up to the given number of batches at once using the default queue and batch sizes.
+     *
+     * @param decodeThreads the maximum number of batches to decode at once on the decode pool
+     * @param ordered       whether results should be delivered in the order the scanner returned them
+     */
+    public DecodeOptions(int decodeThreads, boolean ordered) {
+        this(decodeThreads, DEFAULT_QUEUE_SIZE, DEFAULT_BATCH_SIZE, ordered);
+    }
+
+    /**
+     * @param decodeThreads the maximum number of batches to decode at once on the decode pool
+     * @param queueSize     the maximum number of batches being decoded or waiting to be consumed before the scanner
+     *                      is no longer read from
+     * @param batchSize     the number of results handed to a decode thread at a time
+     * @param ordered       whether results should be delivered in the order the scanner returned them
+     */
+    public DecodeOptions(int decodeThreads, int queueSize, int batchSize, boolean ordered) {
+        this(decodeThreads, queueSize, batchSize, ordered, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param decodeThreads the maximum number of batches to decode at once on the decode pool
+     * @param queueSize     the maximum number of batches being decoded or waiting to be consumed before the scanner
+     *                      is no longer read from
+     * @param batchSize     the number of results handed to a decode thread at a time
+     * @param ordered       whether results should be delivered in the order the scanner returned them
+     * @param timeout       time in milliseconds to wait for the consumer to pick up results before giving up on the query
+     */
+    public DecodeOptions(int decodeThreads, int queueSize, int batchSize, boolean ordered, long timeout) {
+        checkArgument(decodeThreads > 0, "The number of decode threads must be greater than 0");
+        checkArgument(queueSize > 0, "The decode queue size must be greater than 0");
+        checkArgument(batchSize > 0, "The decode batch size must be greater than 0");
+        checkArgument(timeout > 0, "The decode timeout must be greater than 0");
+
+        this.decodeThreads = decodeThreads;
+        this.queueSize = queueSize;
+        this.batchSize = batchSize;
+        this.ordered = ordered;
+        this.timeout = timeout;
+    }
+
+    /**
+     * The maximum number of batches to decode at once on the decode pool
+     */
+    public int getDecodeThreads() {
+        return decodeThreads;
+    }
+
+    /**
+     * The maximum number of batches being decoded or waiting to be consumed before the scanner is no longer read from
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * The number of results handed to a decode thread at a time
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Whether results are delivered in the order the scanner returned them. When false, each batch is delivered as
+     * soon as it's been decoded, so one slow batch doesn't hold up the others.
+     */
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Time in milliseconds to wait for the consumer to pick up results. Once it runs out, the scanner is closed and
+     * the consumer gets an error if it comes back, so results that are abandoned without being closed don't hold on
+     * to it forever.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+}
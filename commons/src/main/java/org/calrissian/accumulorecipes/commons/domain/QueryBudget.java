@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.domain;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the time a query may run for and the number of results it may return. A query which runs out of its budget
+ * returns the results found so far rather than all of them.
+ */
+public class QueryBudget {
+
+    private final long timeoutMillis;
+    private final int maxResults;
+
+    /**
+     * @param timeout    the time the query may run for
+     * @param unit       the unit of the timeout
+     * @param maxResults the number of results the query may return
+     */
+    public QueryBudget(long timeout, TimeUnit unit, int maxResults) {
+        checkNotNull(unit);
+        checkArgument(timeout > 0, "The timeout must be greater than 0");
+        checkArgument(maxResults > 0, "The maximum number of results must be greater than 0");
+
+        this.timeoutMillis = unit.toMillis(timeout);
+        this.maxResults = maxResults;
+    }
+
+    public long getTimeout(TimeUnit unit) {
+        return unit.convert(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The number of results the query may return
+     */
+    public int getMaxResults() {
+        return maxResults;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.domain;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.calrissian.accumulorecipes.commons.iterators.support.QueryCounters;
+import org.calrissian.accumulorecipes.commons.support.qfd.AttributeIndexKey;
+import org.calrissian.mango.criteria.domain.Node;
+
+/**
+ * Describes how a query is planned and, when it's been profiled, the work the tablet servers did to run it.
+ */
+public class QueryExplanation {
+
+    private final Node optimizedQuery;
+    private final String fieldIndexJexl;
+    private final String jexl;
+    private final Map<AttributeIndexKey, Long> cardinalities;
+    private final Set<String> shards;
+    private final Set<String> scanShards;
+    private final int ranges;
+    private final long planningTimeNanos;
+    private final QueryCounters counters;
+
+    public QueryExplanation(Node optimizedQuery, String fieldIndexJexl, String jexl, Map<AttributeIndexKey, Long> cardinalities,
+        Set<String> shards, Set<String> scanShards, int ranges, long planningTimeNanos, QueryCounters counters) {
+        this.optimizedQuery = optimizedQuery;
+        this.fieldIndexJexl = fieldIndexJexl;
+        this.jexl = jexl;
+        this.cardinalities = cardinalities;
+        this.shards = shards;
+        this.scanShards = scanShards;
+        this.ranges = ranges;
+        this.planningTimeNanos = planningTimeNanos;
+        this.counters = counters;
+    }
+
+    /**
+     * The query after it's been optimized by the planner
+     */
+    public Node getOptimizedQuery() {
+        return optimizedQuery;
+    }
+
+    /**
+     * The expression the field index is walked with, generated from the optimized query. Null when the planner found
+     * nothing could match.
+     */
+    public String getFieldIndexJexl() {
+        return fieldIndexJexl;
+    }
+
+    /**
+     * The expression candidate events are evaluated against, generated from the original query
+     */
+    public String getJexl() {
+        return jexl;
+    }
+
+    /**
+     * The cardinality of each key and value of the query, summed over the shards they were found in
+     */
+    public Map<AttributeIndexKey, Long> getCardinalities() {
+        return cardinalities;
+    }
+
+    /**
+     * The shards the query is run against
+     */
+    public Set<String> getShards() {
+        return shards;
+    }
+
+    /**
+     * The shards, out of {@link #getShards()}, that are evaluated by scanning every document in them rather than by
+     * walking their field index
+     */
+    public Set<String> getScanShards() {
+        return scanShards;
+    }
+
+    /**
+     * The number of ranges scanned in the shard table
+     */
+    public int getRanges() {
+        return ranges;
+    }
+
+    public long getPlanningTime(TimeUnit unit) {
+        return unit.convert(planningTimeNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The work done by the tablet servers running the query, summed over every range. Null unless the query was
+     * profiled.
+     */
+    public QueryCounters getCounters() {
+        return counters;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryExplanation{" +
+            "optimizedQuery=" + optimizedQuery +
+            ", fieldIndexJexl='" + fieldIndexJexl + '\'' +
+            ", jexl='" + jexl + '\'' +
+            ", cardinalities=" + cardinalities +
+            ", shards=" + shards.size() +
+            ", scanShards=" + scanShards.size() +
+            ", ranges=" + ranges +
+            ", planningTimeMillis=" + getPlanningTime(TimeUnit.MILLISECONDS) +
+            ", counters=" + counters +
+            '}';
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.domain;
+
+import java.util.List;
+
+/**
+ * A page of query results, along with the token to pass back to the store to get the next page.
+ */
+public class QueryPage<T> {
+
+    private final List<T> results;
+    private final String continuationToken;
+
+    public QueryPage(List<T> results, String continuationToken) {
+        this.results = results;
+        this.continuationToken = continuationToken;
+    }
+
+    public List<T> getResults() {
+        return results;
+    }
+
+    /**
+     * An opaque token from which the next page of results is read, or null when there are no more results
+     */
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public boolean hasMore() {
+        return continuationToken != null;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.domain;
+
+import java.util.List;
+
+/**
+ * The results of a query run within a {@link QueryBudget}, along with whether they're all of the query's results.
+ */
+public class QueryResults<T> {
+
+    private final List<T> results;
+    private final boolean complete;
+
+    public QueryResults(List<T> results, boolean complete) {
+        this.results = results;
+        this.complete = complete;
+    }
+
+    public List<T> getResults() {
+        return results;
+    }
+
+    /**
+     * Whether the query ran to completion. When false, the query ran out of time or hit its maximum number of
+     * results, and there may be more results than those returned.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+}
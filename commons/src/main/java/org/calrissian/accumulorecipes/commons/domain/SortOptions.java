@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.domain;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Options for returning only the first results of a query in a given order, rather than all of them in the order they
+ * are stored in.
+ */
+public class SortOptions {
+
+    private final String field;
+    private final int limit;
+    private final boolean descending;
+
+    /**
+     * Sorts results by their timestamp.
+     *
+     * @param limit      the number of results to return
+     * @param descending whether the latest results should be returned first
+     */
+    public SortOptions(int limit, boolean descending) {
+        checkArgument(limit > 0, "The limit must be greater than 0");
+
+        this.field = null;
+        this.limit = limit;
+        this.descending = descending;
+    }
+
+    /**
+     * Sorts results by the value of the given attribute. Results without the attribute are returned last.
+     *
+     * @param field      the key of the attribute to sort on
+     * @param limit      the number of results to return
+     * @param descending whether the greatest values should be returned first
+     */
+    public SortOptions(String field, int limit, boolean descending) {
+        checkNotNull(field);
+        checkArgument(limit > 0, "The limit must be greater than 0");
+
+        this.field = field;
+        this.limit = limit;
+        this.descending = descending;
+    }
+
+    /**
+     * The key of the attribute results are sorted on, or null when they're sorted by their timestamp
+     */
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * The number of results to return
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Whether results are returned from the greatest to the least
+     */
+    public boolean isDescending() {
+        return descending;
+    }
+}
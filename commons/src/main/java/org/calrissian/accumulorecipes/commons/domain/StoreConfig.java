@@ -17,12 +17,26 @@ package org.calrissian.accumulorecipes.commons.domain;
 
 public class StoreConfig {
 
+    public static final int DEFAULT_INGEST_QUEUE_SIZE = 1000;
+    public static final int DEFAULT_DECODE_THREADS = Runtime.getRuntime().availableProcessors();
+
     private final int maxQueryThreads;
 
     private final long maxMemory;
     private final long maxLatency;
     private final int maxWriteThreads;
 
+    private int ingestThreads;
+    private int ingestQueueSize = DEFAULT_INGEST_QUEUE_SIZE;
+
+    private int indexBufferSize;
+    private long indexBufferLatency;
+
+    private int indexCacheSize;
+    private long indexCacheTtl;
+
+    private int decodeThreads = DEFAULT_DECODE_THREADS;
+
     /**
      * Default config that defaults the all the store config values.
      */
@@ -65,6 +79,67 @@ public class StoreConfig {
         this.maxWriteThreads = maxWriteThreads;
     }
 
+    private StoreConfig(StoreConfig config) {
+        this(config.maxQueryThreads, config.maxMemory, config.maxLatency, config.maxWriteThreads);
+        this.ingestThreads = config.ingestThreads;
+        this.ingestQueueSize = config.ingestQueueSize;
+        this.indexBufferSize = config.indexBufferSize;
+        this.indexBufferLatency = config.indexBufferLatency;
+        this.indexCacheSize = config.indexCacheSize;
+        this.indexCacheTtl = config.indexCacheTtl;
+        this.decodeThreads = config.decodeThreads;
+    }
+
+    /**
+     * Copies this config with the pipelined ingest enabled.
+     *
+     * @param ingestThreads   the number of threads to use for encoding mutations on save; 0 encodes on the calling thread
+     * @param ingestQueueSize the maximum number of encoded mutation batches to queue in front of each writer
+     */
+    public StoreConfig withIngest(int ingestThreads, int ingestQueueSize) {
+        StoreConfig config = new StoreConfig(this);
+        config.ingestThreads = ingestThreads;
+        config.ingestQueueSize = ingestQueueSize;
+        return config;
+    }
+
+    /**
+     * Copies this config with the buffering of global index entries across saves enabled.
+     *
+     * @param indexBufferSize    the maximum number of distinct global index entries to aggregate before writing; 0 disables buffering
+     * @param indexBufferLatency time in milliseconds to hold aggregated global index entries before writing; 0 only flushes on size
+     */
+    public StoreConfig withIndexBuffer(int indexBufferSize, long indexBufferLatency) {
+        StoreConfig config = new StoreConfig(this);
+        config.indexBufferSize = indexBufferSize;
+        config.indexBufferLatency = indexBufferLatency;
+        return config;
+    }
+
+    /**
+     * Copies this config with the caching of global index lookups across queries enabled.
+     *
+     * @param indexCacheSize the maximum number of global index lookups to cache for query planning; 0 disables caching
+     * @param indexCacheTtl  time in milliseconds to cache a global index lookup for
+     */
+    public StoreConfig withIndexCache(int indexCacheSize, long indexCacheTtl) {
+        StoreConfig config = new StoreConfig(this);
+        config.indexCacheSize = indexCacheSize;
+        config.indexCacheTtl = indexCacheTtl;
+        return config;
+    }
+
+    /**
+     * Copies this config with the given size of the pool query results are decoded on.
+     *
+     * @param decodeThreads the number of threads shared by all queries given decode options to decode their results on
+     */
+    public StoreConfig withDecodeThreads(int decodeThreads) {
+        StoreConfig config = new StoreConfig(this);
+        config.decodeThreads = decodeThreads;
+        return config;
+    }
+
     /**
      * The number of concurrent threads to spawn for querying
      */
@@ -94,4 +169,56 @@ public class StoreConfig {
     public int getMaxWriteThreads() {
         return maxWriteThreads;
     }
+
+    /**
+     * The number of threads to use for encoding mutations on save. When 0, mutations are encoded on the calling thread.
+     */
+    public int getIngestThreads() {
+        return ingestThreads;
+    }
+
+    /**
+     * The maximum number of encoded mutation batches to queue in front of each writer before blocking the encoders
+     */
+    public int getIngestQueueSize() {
+        return ingestQueueSize;
+    }
+
+    /**
+     * The maximum number of distinct global index entries to aggregate across saves before writing. When 0, the
+     * index entries are aggregated per save only.
+     */
+    public int getIndexBufferSize() {
+        return indexBufferSize;
+    }
+
+    /**
+     * time in milliseconds to hold aggregated global index entries before writing. If set to 0 they are only written
+     * when the buffer fills up or the store is flushed
+     */
+    public long getIndexBufferLatency() {
+        return indexBufferLatency;
+    }
+
+    /**
+     * The maximum number of global index lookups to cache for planning queries. When 0, every query looks up the
+     * global index.
+     */
+    public int getIndexCacheSize() {
+        return indexCacheSize;
+    }
+
+    /**
+     * time in milliseconds to cache a global index lookup for
+     */
+    public long getIndexCacheTtl() {
+        return indexCacheTtl;
+    }
+
+    /**
+     * The number of threads shared by all queries given decode options to decode their results on
+     */
+    public int getDecodeThreads() {
+        return decodeThreads;
+    }
 }
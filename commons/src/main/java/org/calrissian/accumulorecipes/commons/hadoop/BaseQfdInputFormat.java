@@ -16,7 +16,6 @@
 package org.calrissian.accumulorecipes.commons.hadoop;
 
 import static org.apache.accumulo.core.util.format.DefaultFormatter.formatEntry;
-import static org.calrissian.accumulorecipes.commons.iterators.support.EventFields.initializeKryo;
 import static org.calrissian.accumulorecipes.commons.support.Constants.END_BYTE;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -26,7 +25,6 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
-import com.esotericsoftware.kryo.Kryo;
 import com.google.common.base.Function;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
@@ -84,6 +82,9 @@ public abstract class BaseQfdInputFormat<T extends AttributeStore, W extends Set
         IteratorSetting setting = new IteratorSetting(16, optimizedQueryIteratorClass);
         setting.addOption(BooleanLogicIterator.QUERY_OPTION, originalJexl);
         setting.addOption(BooleanLogicIterator.FIELD_INDEX_QUERY, jexl);
+        OptimizedQueryIterator.setScanShards(setting, logicalPlan.getScanShards());
+
+        log.debug("Shards scanned in full: " + logicalPlan.getScanShards());
 
         final String[] selectFields = job.getConfiguration().getStrings(SELECT_FIELDS);
 
@@ -114,9 +115,6 @@ public abstract class BaseQfdInputFormat<T extends AttributeStore, W extends Set
 
         final W sharedWritable = getWritable();
 
-        Kryo kryo = new Kryo();
-        initializeKryo(kryo);
-
         final Function<Map.Entry<Key, Value>, T> xform = getTransform(context.getConfiguration());
 
         return new RecordReaderBase<Key, W>() {
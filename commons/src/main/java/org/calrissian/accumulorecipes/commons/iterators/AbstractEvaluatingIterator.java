@@ -19,7 +19,6 @@ package org.calrissian.accumulorecipes.commons.iterators;
 import static java.util.Arrays.copyOfRange;
 import static org.apache.commons.lang.StringUtils.join;
 import static org.apache.commons.lang.StringUtils.splitPreserveAllTokens;
-import static org.calrissian.accumulorecipes.commons.iterators.support.EventFields.initializeKryo;
 import static org.calrissian.accumulorecipes.commons.support.Constants.NULL_BYTE;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -29,7 +28,6 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
-import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.ByteBufferOutput;
 import com.google.common.collect.Sets;
 import org.apache.accumulo.core.client.IteratorSetting;
@@ -44,6 +42,8 @@ import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
 import org.apache.commons.jexl2.parser.ParseException;
 import org.apache.log4j.Logger;
 import org.calrissian.accumulorecipes.commons.iterators.support.EventFields;
+import org.calrissian.accumulorecipes.commons.iterators.support.KryoContext;
+import org.calrissian.accumulorecipes.commons.iterators.support.QueryCounters;
 import org.calrissian.accumulorecipes.commons.iterators.support.QueryEvaluator;
 
 /**
@@ -67,7 +67,6 @@ public abstract class AbstractEvaluatingIterator implements SortedKeyValueIterat
     public static final String UNEVALUTED_EXPRESSIONS = "unevaluated.expressions";
     protected static final byte[] EMPTY_BYTE = new byte[0];
     private static Logger log = Logger.getLogger(AbstractEvaluatingIterator.class);
-    private static Kryo kryo = new Kryo();
     protected SortedKeyValueIterator<Key,Value> iterator;
     private PartialKey comparator = null;
     private Key currentKey = new Key();
@@ -78,22 +77,51 @@ public abstract class AbstractEvaluatingIterator implements SortedKeyValueIterat
     private EventFields event = null;
     private Range seekRange = null;
     private Set<String> skipExpressions = null;
+    private QueryCounters counters = null;
 
     protected static final String SELECT_FIELDS = "selectFields";
     protected Set<String> selectFields;
 
+    protected static final String COUNT_ONLY = "countOnly";
+    protected boolean countOnly = false;
+
+    // whether every field needs to be filled into the event, rather than only the selected and queried ones
+    private boolean allFieldsNeeded = true;
+    private boolean fieldsSkipped = false;
+
     public static void setSelectFields(IteratorSetting is, Set<String> selectFields) {
         is.addOption(SELECT_FIELDS, join(selectFields, NULL_BYTE));
     }
 
+    /**
+     * Makes matching events get returned with an empty value rather than their serialized fields, for when only the
+     * number of matches is needed.
+     */
+    public static void setCountOnly(IteratorSetting is) {
+        is.addOption(COUNT_ONLY, Boolean.toString(true));
+    }
+
     protected AbstractEvaluatingIterator(AbstractEvaluatingIterator other, IteratorEnvironment env) {
         iterator = other.iterator.deepCopy(env);
         event = other.event;
+        counters = other.counters;
     }
 
     public AbstractEvaluatingIterator() {
     }
 
+    /**
+     * Sets the counters the event keys read, seeks, evaluations and matches are counted into. This needs to be
+     * called before init. Nothing is counted or timed when no counters are set.
+     */
+    public void setCounters(QueryCounters counters) {
+        this.counters = counters;
+    }
+
+    public QueryCounters getCounters() {
+        return counters;
+    }
+
     /**
      * Copy of IteratorUtil.maximizeStartKeyTimeStamp due to IllegalAccessError
      *
@@ -138,6 +166,23 @@ public abstract class AbstractEvaluatingIterator implements SortedKeyValueIterat
      */
     public abstract void fillMap(EventFields event, Key key, Value value) throws Exception;
 
+    /**
+     * Whether the given field needs to be filled into the event being aggregated. When select fields are given, or
+     * only matches are being counted, only the fields which are selected or referenced by the criteria are needed, so
+     * implementations of fillMap should check this before copying a field out of the key or value.
+     *
+     * @param key   current Key
+     * @param field name of the field
+     */
+    protected boolean isFieldNeeded(Key key, String field) {
+        if (allFieldsNeeded || (selectFields != null && selectFields.contains(field)) || evaluator.isQueried(key, field))
+            return true;
+
+        // the event still has fields, even if none of them end up in it
+        fieldsSkipped = true;
+        return false;
+    }
+
     /**
      * Provides the ability to skip this key and all of the following ones that match using the comparator.
      *
@@ -152,6 +197,7 @@ public abstract class AbstractEvaluatingIterator implements SortedKeyValueIterat
      */
     public void reset() {
         event.clear();
+        fieldsSkipped = false;
     }
 
     private void aggregateRowColumn(EventFields event) throws IOException {
@@ -188,32 +234,50 @@ public abstract class AbstractEvaluatingIterator implements SortedKeyValueIterat
 
                 if (iterator.hasTop()) {
                     aggregateRowColumn(event);
+                    boolean hasFields = event.size() > 0 || fieldsSkipped;
+                    if (counters != null && hasFields)
+                        counters.incrementCandidates();
 
                     // Evaluate the event against the expression
-                    if (event.size() > 0 && this.evaluator.evaluate(returnKey, event)) {
+                    boolean matched;
+                    if (counters != null) {
+                        long evaluationStart = System.nanoTime();
+                        matched = hasFields && this.evaluator.evaluate(returnKey, event);
+                        counters.addEvaluationTime(System.nanoTime() - evaluationStart);
+                    } else {
+                        matched = hasFields && this.evaluator.evaluate(returnKey, event);
+                    }
+                    if (matched) {
                         if (log.isDebugEnabled()) {
                             log.debug("Event evaluated to true, key = " + returnKey);
                         }
-                        // Create a byte array
-                        byte[] serializedMap = new byte[event.getByteSize() + (event.size() * 20)];
-                        // Wrap in ByteBuffer to work with Kryo
-                        ByteBuffer buf = ByteBuffer.wrap(serializedMap);
-                        // Serialize the EventFields object
-
-                        Set<String> keysToRemove = new HashSet<String>();
-                        if(selectFields != null) {
-                            for(String field : event.keys()) {
-                                if(!selectFields.contains(field))
-                                    keysToRemove.add(field);
+                        if (countOnly) {
+                            // only the key is needed to count the match
+                            returnValue = new Value(EMPTY_BYTE);
+                        } else {
+                            // Create a byte array
+                            byte[] serializedMap = new byte[event.getByteSize() + (event.size() * 20)];
+                            // Wrap in ByteBuffer to work with Kryo
+                            ByteBuffer buf = ByteBuffer.wrap(serializedMap);
+                            // Serialize the EventFields object
+
+                            Set<String> keysToRemove = new HashSet<String>();
+                            if(selectFields != null) {
+                                for(String field : event.keys()) {
+                                    if(!selectFields.contains(field))
+                                        keysToRemove.add(field);
+                                }
                             }
-                        }
 
-                        for(String field : keysToRemove)
-                            event.removeAll(field);
+                            for(String field : keysToRemove)
+                                event.removeAll(field);
 
-                        event.write(kryo, new ByteBufferOutput(buf), event);
-                        // Truncate array to the used size.
-                        returnValue = new Value(copyOfRange(serializedMap, 0, buf.position()));
+                            event.write(KryoContext.get(), new ByteBufferOutput(buf), event);
+                            // Truncate array to the used size.
+                            returnValue = new Value(copyOfRange(serializedMap, 0, buf.position()));
+                        }
+                        if (counters != null)
+                            counters.incrementMatches(returnKey.getSize() + returnValue.getSize());
                     } else {
                         returnKey = null;
                         returnValue = null;
@@ -293,12 +357,14 @@ public abstract class AbstractEvaluatingIterator implements SortedKeyValueIterat
         validateOptions(options);
         event = new EventFields();
         this.comparator = getKeyComparator();
-        this.iterator = source;
+        this.iterator = counters != null ? new ReadCountingIterator(source, counters, false) : source;
 
         String eventFieldsOpt = options.get(SELECT_FIELDS);
 
         if (eventFieldsOpt != null)
             selectFields = Sets.newHashSet(splitPreserveAllTokens(eventFieldsOpt, NULL_BYTE));
+        countOnly = Boolean.parseBoolean(options.get(COUNT_ONLY));
+        allFieldsNeeded = selectFields == null && !countOnly;
 
         try {
             // Replace any expressions that we should not evaluate.
@@ -314,7 +380,6 @@ public abstract class AbstractEvaluatingIterator implements SortedKeyValueIterat
         } catch (ParseException e) {
             throw new IllegalArgumentException("Failed to parse criteria", e);
         }
-        initializeKryo(kryo);
     }
 
     public IteratorOptions describeOptions() {
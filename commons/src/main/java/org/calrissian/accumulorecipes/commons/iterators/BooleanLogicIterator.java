@@ -60,6 +60,7 @@ import org.apache.log4j.Logger;
 import org.calrissian.accumulorecipes.commons.iterators.support.BooleanLogicTreeNode;
 import org.calrissian.accumulorecipes.commons.iterators.support.FieldIndexKeyParser;
 import org.calrissian.accumulorecipes.commons.iterators.support.JexlOperatorConstants;
+import org.calrissian.accumulorecipes.commons.iterators.support.QueryCounters;
 import org.calrissian.accumulorecipes.commons.iterators.support.QueryParser;
 import org.calrissian.accumulorecipes.commons.iterators.support.QueryParser.QueryTerm;
 import org.calrissian.accumulorecipes.commons.iterators.support.RangeCalculator.RangeBounds;
@@ -87,6 +88,7 @@ public class BooleanLogicIterator implements SortedKeyValueIterator<Key, Value>,
     private Map<String, Long> termCardinalities = new HashMap<String, Long>();
     private Range overallRange = null;
     private FieldIndexKeyParser keyParser;
+    private QueryCounters counters = null;
 
     public BooleanLogicIterator() {
         keyParser = new FieldIndexKeyParser();
@@ -97,6 +99,7 @@ public class BooleanLogicIterator implements SortedKeyValueIterator<Key, Value>,
         if (other.sourceIterator != null) {
             this.sourceIterator = other.sourceIterator.deepCopy(env);
         }
+        this.counters = other.counters;
         keyParser = new FieldIndexKeyParser();
         rangerators = new ArrayList<BooleanLogicTreeNode>();
         log.debug("Congratulations, you've reached the BooleanLogicIterator");
@@ -224,6 +227,18 @@ public class BooleanLogicIterator implements SortedKeyValueIterator<Key, Value>,
         return new BooleanLogicIterator(this, env);
     }
 
+    /**
+     * Sets the counters the field index keys read and seeks are counted into. This needs to be called before init.
+     * Nothing is counted when no counters are set.
+     */
+    public void setCounters(QueryCounters counters) {
+        this.counters = counters;
+    }
+
+    public QueryCounters getCounters() {
+        return counters;
+    }
+
     /**
      * <b>init</b> is responsible for setting up the iterator. It will pull the serialized boolean parse tree from the options mapping and construct the
      * appropriate sub-iterators
@@ -242,8 +257,10 @@ public class BooleanLogicIterator implements SortedKeyValueIterator<Key, Value>,
             if (log.isDebugEnabled()) {
                 log.debug("Congratulations, you've reached the BooleanLogicIterator.init method");
             }
-            // Copy the source iterator
+            // Copy the source iterator, counting the reads of every term when profiling
             sourceIterator = source.deepCopy(env);
+            if (counters != null)
+                sourceIterator = new ReadCountingIterator(sourceIterator, counters, true);
 
             // Potentially take advantage of term cardinalities
             String[] terms = null;
@@ -1769,6 +1786,13 @@ public class BooleanLogicIterator implements SortedKeyValueIterator<Key, Value>,
     public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
         if (!initfailed) {
 
+            // A range resuming a scan from an event of a row only starts the field index terms which can be seeked to
+            // that event there, everything else is seeked from the start of the row. The events before the range
+            // which can still be returned are left for the caller to skip.
+            Range eventRange = range;
+            if (range.getStartKey() != null && range.getStartKey().getColumnFamilyData().length() != 0)
+                range = new Range(new Key(range.getStartKey().getRow()), true, range.getEndKey(), range.isEndKeyInclusive());
+
             this.overallRange = range;
             if (log.isDebugEnabled()) {
                 log.debug("seek, overallRange: " + overallRange);
@@ -1789,7 +1813,10 @@ public class BooleanLogicIterator implements SortedKeyValueIterator<Key, Value>,
             reHeapPriorityQueue(this.root);
             for (BooleanLogicTreeNode node : positives) {
                 node.setDone(false);
-                node.seek(range, columnFamilies, inclusive);
+                if (node.getUserObject() instanceof FieldIndexIterator && !node.isNegated())
+                    node.seek(eventRange, columnFamilies, inclusive);
+                else
+                    node.seek(range, columnFamilies, inclusive);
                 if (log.isDebugEnabled()) {
                     String tk = "empty";
                     if (node.hasTop()) {
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.iterators;
+
+import static org.apache.commons.lang.StringUtils.splitPreserveAllTokens;
+import static org.calrissian.accumulorecipes.commons.support.Constants.NULL_BYTE;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SkippingIterator;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Only returns the keys whose column family starts with one of a set of prefixes. Rather than filtering every key
+ * in a row, this seeks directly to the next prefix (or the next row once the last prefix has been passed). This
+ * allows a single range over many rows to carry the same column family restriction as a prefix range per row.
+ */
+public class ColumnFamilyPrefixIterator extends SkippingIterator {
+
+    public static final String PREFIXES = "prefixes";
+
+    private SortedSet<ByteSequence> prefixes;
+
+    // iterator predecessor seek options to pass through
+    private Range latestRange;
+    private Collection<ByteSequence> latestColumnFamilies;
+    private boolean latestInclusive;
+
+    private boolean finished = true;
+
+    public static void setPrefixes(IteratorSetting is, Collection<String> prefixes) {
+        is.addOption(PREFIXES, StringUtils.join(prefixes, NULL_BYTE));
+    }
+
+    public ColumnFamilyPrefixIterator() {
+    }
+
+    public ColumnFamilyPrefixIterator(ColumnFamilyPrefixIterator other, IteratorEnvironment env) {
+        setSource(other.getSource().deepCopy(env));
+        prefixes = other.prefixes;
+    }
+
+    @Override
+    public void init(SortedKeyValueIterator<Key,Value> source, Map<String,String> options, IteratorEnvironment env) throws IOException {
+        super.init(source, options, env);
+
+        String prefixesOpt = options.get(PREFIXES);
+        if (prefixesOpt == null)
+            throw new IllegalArgumentException(PREFIXES + " must be set for " + ColumnFamilyPrefixIterator.class.getName());
+
+        prefixes = new TreeSet<ByteSequence>();
+        for (String prefix : splitPreserveAllTokens(prefixesOpt, NULL_BYTE))
+            prefixes.add(new ArrayByteSequence(prefix.getBytes("UTF-8")));
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key,Value> deepCopy(IteratorEnvironment env) {
+        return new ColumnFamilyPrefixIterator(this, env);
+    }
+
+    @Override
+    public boolean hasTop() {
+        return !finished && super.hasTop();
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+        // save parameters for future internal seeks
+        latestRange = range;
+        latestColumnFamilies = columnFamilies;
+        latestInclusive = inclusive;
+        finished = false;
+
+        super.seek(range, columnFamilies, inclusive);
+    }
+
+    @Override
+    protected void consume() throws IOException {
+        while (!finished && getSource().hasTop()) {
+            Key top = getSource().getTopKey();
+            ByteSequence cf = top.getColumnFamilyData();
+
+            ByteSequence nextPrefix = null;
+            for (ByteSequence prefix : prefixes) {
+                if (startsWith(cf, prefix))
+                    return;
+                if (prefix.compareTo(cf) > 0) {
+                    nextPrefix = prefix;
+                    break;
+                }
+            }
+
+            Key nextKey = nextPrefix != null ?
+                new Key(top.getRow(), new Text(nextPrefix.toArray())) : top.followingKey(PartialKey.ROW);
+
+            if (latestRange.afterEndKey(nextKey))
+                finished = true;
+            else
+                getSource().seek(new Range(nextKey, true, latestRange.getEndKey(), latestRange.isEndKeyInclusive()),
+                    latestColumnFamilies, latestInclusive);
+        }
+    }
+
+    private static boolean startsWith(ByteSequence cf, ByteSequence prefix) {
+        if (cf.length() < prefix.length())
+            return false;
+
+        for (int i = 0; i < prefix.length(); i++) {
+            if (cf.byteAt(i) != prefix.byteAt(i))
+                return false;
+        }
+        return true;
+    }
+}
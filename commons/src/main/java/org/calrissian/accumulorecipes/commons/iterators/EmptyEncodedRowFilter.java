@@ -15,14 +15,13 @@
  */
 package org.calrissian.accumulorecipes.commons.iterators;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
 
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.iterators.Filter;
 import org.calrissian.accumulorecipes.commons.support.Constants;
+import org.calrissian.accumulorecipes.commons.support.qfd.ShardValueView;
 
 /**
  * A simple filter to skip over keys where the content encoded in the value is either missing, or the number
@@ -35,10 +34,7 @@ public class EmptyEncodedRowFilter extends Filter {
 
         if(key.getColumnFamily().toString().startsWith(Constants.PREFIX_E)) {
             try {
-                ByteArrayInputStream bais = new ByteArrayInputStream(value.get());
-                DataInputStream dis = new DataInputStream(bais);
-                long size = dis.readInt();
-                return value.get().length > 0 &&  size > 0;
+                return ShardValueView.getSize(value.get()) > 0;
             } catch (IOException e) {
                 return false;
             }
@@ -16,17 +16,14 @@
  */
 package org.calrissian.accumulorecipes.commons.iterators;
 
+import static java.util.Arrays.copyOfRange;
 import static org.calrissian.accumulorecipes.commons.iterators.MetadataExpirationFilter.shouldExpire;
-import static org.calrissian.accumulorecipes.commons.support.Constants.NULL_BYTE;
-import static org.calrissian.accumulorecipes.commons.util.RowEncoderUtil.decodeRow;
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.List;
 import java.util.Map;
 
+import org.apache.accumulo.core.data.ArrayByteSequence;
 import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.PartialKey;
@@ -40,6 +37,7 @@ import org.apache.commons.jexl2.parser.ParseException;
 import org.apache.hadoop.io.Text;
 import org.calrissian.accumulorecipes.commons.iterators.support.EventFields;
 import org.calrissian.accumulorecipes.commons.iterators.support.QueryEvaluator;
+import org.calrissian.accumulorecipes.commons.support.qfd.ShardValueView;
 
 public class EvaluatingIterator extends AbstractEvaluatingIterator {
 
@@ -47,6 +45,8 @@ public class EvaluatingIterator extends AbstractEvaluatingIterator {
 
     LRUMap visibilityMap = new LRUMap();
 
+    private final ShardValueView shardValue = new ShardValueView();
+
     public EvaluatingIterator() {
         super();
     }
@@ -97,35 +97,29 @@ public class EvaluatingIterator extends AbstractEvaluatingIterator {
         // each field name and field value are stored in the column qualifier
         // separated by a \0.
 
-        List<Map.Entry<Key,Value>> entryList = Collections.emptyList();
+        byte[] bytes = value.get();
         try {
-            ByteArrayInputStream bais = new ByteArrayInputStream(value.get());
-            DataInputStream dis = new DataInputStream(bais);
-            dis.readInt();
-            dis.readLong(); // because we have expiration as the first byte
-            entryList = decodeRow(key, bais);
-            bais.close();
+            shardValue.reset(bytes);
         } catch (Exception e) {
             /**
              * It's possible there is no content encoded into the value, if this is the case, adding no fields to the
              * event will cause it to be skipped by the {@link AbstractEvaluatingIterator}
              */
+            return;
         }
 
-        try {
-              for(Map.Entry<Key,Value> kv : entryList) {
-
-                long expiration = Long.parseLong(kv.getKey().getColumnFamily().toString());
-                if(!shouldExpire(expiration, kv.getKey().getTimestamp())) {
-                    String colq = kv.getKey().getColumnQualifier().toString();
-                    int idx = colq.indexOf(NULL_BYTE);
-                    String fieldName = colq.substring(0, idx);
-                    String fieldValue = colq.substring(idx + 1);
-                    event.put(fieldName, new EventFields.FieldValue(getColumnVisibility(kv.getKey()), fieldValue.getBytes(), kv.getValue().get()));
-                }
-              }
-        } catch(Exception e) {
-            throw new RuntimeException(e);
+        for(int i = 0; i < shardValue.size(); i++) {
+            if(!shouldExpire(shardValue.getExpiration(i), shardValue.getTimestamp(i))) {
+                String field = shardValue.getKey(i);
+                if(!isFieldNeeded(key, field))
+                    continue;
+
+                int aliasValueOffset = shardValue.getAliasValueOffset(i);
+                int metadataOffset = shardValue.getMetadataOffset(i);
+                byte[] fieldValue = copyOfRange(bytes, aliasValueOffset, aliasValueOffset + shardValue.getAliasValueLength(i));
+                byte[] metadata = copyOfRange(bytes, metadataOffset, metadataOffset + shardValue.getMetadataLength(i));
+                event.put(field, new EventFields.FieldValue(getColumnVisibility(shardValue.getVisibility(i)), fieldValue, metadata));
+            }
         }
 
     }
@@ -135,11 +129,20 @@ public class EvaluatingIterator extends AbstractEvaluatingIterator {
      * @return
      */
     public ColumnVisibility getColumnVisibility(Key key) {
-        ColumnVisibility result = (ColumnVisibility) visibilityMap.get(key.getColumnVisibility());
+        return getColumnVisibility(key.getColumnVisibilityData());
+    }
+
+    /**
+     * @param visibility may be a view over a larger array, it's only copied when it has not been seen before
+     * @return
+     */
+    public ColumnVisibility getColumnVisibility(ByteSequence visibility) {
+        ColumnVisibility result = (ColumnVisibility) visibilityMap.get(visibility);
         if (result != null)
             return result;
-        result = new ColumnVisibility(key.getColumnVisibility().getBytes());
-        visibilityMap.put(key.getColumnVisibility(), result);
+        byte[] copy = visibility.toArray();
+        result = new ColumnVisibility(copy);
+        visibilityMap.put(new ArrayByteSequence(copy), result);
         return result;
     }
 
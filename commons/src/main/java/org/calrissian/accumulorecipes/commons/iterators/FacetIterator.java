@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.iterators;
+
+import static org.apache.commons.lang.StringUtils.join;
+import static org.apache.commons.lang.StringUtils.splitPreserveAllTokens;
+import static org.calrissian.accumulorecipes.commons.support.Constants.NULL_BYTE;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.google.common.collect.Sets;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.hadoop.io.WritableUtils;
+import org.calrissian.accumulorecipes.commons.iterators.support.EventFields;
+import org.calrissian.accumulorecipes.commons.iterators.support.KryoContext;
+
+/**
+ * Stacked on top of the query iterator, this returns a single key/value for each range it's seeked to holding, for each
+ * of the configured fields, the number of results within the range holding each distinct value of the field. Values are
+ * kept in their encoded form (the alias and normalized value of the attribute), so they can be merged with the counts
+ * of other ranges before being decoded on the client. A result holding a value more than once is only counted once for
+ * it, even when it's held under different visibilities.
+ */
+public class FacetIterator extends RangeAggregatingIterator {
+
+    protected static final String FIELDS = "fields";
+
+    private Set<String> fields;
+    private Map<String, Map<String, Long>> facets;
+    private final EventFields eventFields = new EventFields();
+    private final Set<String> values = new HashSet<String>();
+
+    public FacetIterator() {
+        super("facets");
+    }
+
+    private FacetIterator(FacetIterator other, IteratorEnvironment env) {
+        super(other, env);
+        this.fields = other.fields;
+    }
+
+    public static void setFields(IteratorSetting is, Set<String> fields) {
+        is.addOption(FIELDS, join(fields, NULL_BYTE));
+    }
+
+    /**
+     * @return the counts of each encoded value, by field, held in a value returned by this iterator
+     */
+    public static Map<String, Map<String, Long>> decodeFacets(Value value) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(value.get()));
+            Map<String, Map<String, Long>> facets = new HashMap<String, Map<String, Long>>();
+            int numFields = WritableUtils.readVInt(in);
+            for (int i = 0; i < numFields; i++) {
+                String field = WritableUtils.readString(in);
+                int numValues = WritableUtils.readVInt(in);
+                Map<String, Long> counts = new HashMap<String, Long>(numValues);
+                for (int j = 0; j < numValues; j++)
+                    counts.put(WritableUtils.readString(in), WritableUtils.readVLong(in));
+                facets.put(field, counts);
+            }
+            return facets;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Value encodeFacets(Map<String, Map<String, Long>> facets) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        WritableUtils.writeVInt(out, facets.size());
+        for (Map.Entry<String, Map<String, Long>> facet : facets.entrySet()) {
+            WritableUtils.writeString(out, facet.getKey());
+            WritableUtils.writeVInt(out, facet.getValue().size());
+            for (Map.Entry<String, Long> count : facet.getValue().entrySet()) {
+                WritableUtils.writeString(out, count.getKey());
+                WritableUtils.writeVLong(out, count.getValue());
+            }
+        }
+        out.flush();
+        return new Value(bytes.toByteArray());
+    }
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env) throws IOException {
+        super.init(source, options, env);
+
+        String fieldsOpt = options.get(FIELDS);
+        if (fieldsOpt == null)
+            throw new IllegalArgumentException("The fields to count values for need to be specified");
+        fields = Sets.newHashSet(splitPreserveAllTokens(fieldsOpt, NULL_BYTE));
+    }
+
+    @Override
+    protected void reset() {
+        facets = new HashMap<String, Map<String, Long>>();
+    }
+
+    @Override
+    protected void aggregate(Key key, Value value) throws IOException {
+        eventFields.clear();
+        eventFields.read(KryoContext.get(), new Input(value.get()), EventFields.class);
+
+        for (String field : fields) {
+            Set<EventFields.FieldValue> fieldValues = eventFields.get(field);
+            if (fieldValues == null)
+                continue;
+
+            values.clear();
+            for (EventFields.FieldValue fieldValue : fieldValues)
+                values.add(new String(fieldValue.getValue(), "UTF-8"));
+
+            Map<String, Long> counts = facets.get(field);
+            if (counts == null) {
+                counts = new HashMap<String, Long>();
+                facets.put(field, counts);
+            }
+            for (String val : values) {
+                Long count = counts.get(val);
+                counts.put(val, count == null ? 1 : count + 1);
+            }
+        }
+    }
+
+    @Override
+    protected Value encodeAggregate() throws IOException {
+        return encodeFacets(facets);
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env) {
+        return new FacetIterator(this, env);
+    }
+}
@@ -233,6 +233,14 @@ public class FieldIndexIterator extends WrappingIterator {
                         currentRow = r.getStartKey().getRow();
                     }
                     this.range = buildRange(currentRow);
+                    // a range resuming a scan from an event of the row starts the matches of a single value there
+                    if (r.getStartKey().getColumnFamilyData().length() != 0 && isSingleValue() &&
+                        currentRow.equals(r.getStartKey().getRow())) {
+                        Text startCq = new Text(fValue + NULL_BYTE);
+                        startCq.append(r.getStartKey().getColumnFamilyData().getBackingArray(),
+                            r.getStartKey().getColumnFamilyData().offset(), r.getStartKey().getColumnFamilyData().length());
+                        this.range = new Range(new Key(currentRow, fName, startCq), true, range.getEndKey(), range.isEndKeyInclusive());
+                    }
                 } else {
                     currentRow = getFirstRow();
                     this.range = buildRange(currentRow);
@@ -540,6 +548,13 @@ public class FieldIndexIterator extends WrappingIterator {
         }
     }
 
+    /**
+     * Whether the term matches a single value, whose entries in a row are sorted by event
+     */
+    private boolean isSingleValue() {
+        return !fOperator.equals(">") && !fOperator.equals(">=") && !fOperator.equals("<") && !fOperator.equals("<=");
+    }
+
     private Range buildRange(Text rowId) {
 
         if (fOperator.equals(">")) {
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.iterators;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Stacked on top of the query iterator, this returns a single key/value for each range it's seeked to holding the
+ * number of results within the range whose timestamp falls into each of a fixed number of equally sized time buckets.
+ * Results outside of the buckets aren't counted. Only the buckets holding results are kept and encoded, so neither the
+ * tablet servers nor the partial histograms of many ranges grow with the number of buckets.
+ */
+public class HistogramIterator extends RangeAggregatingIterator {
+
+    protected static final String START = "start";
+    protected static final String BUCKET_SIZE = "bucketSize";
+    protected static final String BUCKETS = "buckets";
+
+    /**
+     * The most buckets a histogram can have, as the client holds a count for each of them
+     */
+    public static final int MAX_BUCKETS = 100000;
+
+    private long start;
+    private long bucketSize;
+    private int buckets;
+    private SortedMap<Integer, Long> histogram;
+
+    public HistogramIterator() {
+        super("histogram");
+    }
+
+    private HistogramIterator(HistogramIterator other, IteratorEnvironment env) {
+        super(other, env);
+        this.start = other.start;
+        this.bucketSize = other.bucketSize;
+        this.buckets = other.buckets;
+    }
+
+    /**
+     * @param start the timestamp the first bucket starts at
+     * @param bucketSize the number of milliseconds covered by each bucket
+     * @param buckets the number of buckets, at most {@link #MAX_BUCKETS}
+     */
+    public static void setBuckets(IteratorSetting is, long start, long bucketSize, int buckets) {
+        checkArgument(bucketSize > 0, "Buckets need to cover at least a millisecond");
+        checkArgument(buckets >= 0 && buckets <= MAX_BUCKETS, "The number of buckets needs to be between 0 and " + MAX_BUCKETS);
+        is.addOption(START, Long.toString(start));
+        is.addOption(BUCKET_SIZE, Long.toString(bucketSize));
+        is.addOption(BUCKETS, Integer.toString(buckets));
+    }
+
+    /**
+     * Adds the counts held in a value returned by this iterator to the given buckets
+     */
+    public static void mergeHistogram(Value value, long[] histogram) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(value.get()));
+            int numBuckets = WritableUtils.readVInt(in);
+            for (int i = 0; i < numBuckets; i++) {
+                int bucket = WritableUtils.readVInt(in);
+                histogram[bucket] += WritableUtils.readVLong(in);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Value encodeHistogram(SortedMap<Integer, Long> histogram) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        WritableUtils.writeVInt(out, histogram.size());
+        for (Map.Entry<Integer, Long> bucket : histogram.entrySet()) {
+            WritableUtils.writeVInt(out, bucket.getKey());
+            WritableUtils.writeVLong(out, bucket.getValue());
+        }
+        out.flush();
+        return new Value(bytes.toByteArray());
+    }
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env) throws IOException {
+        super.init(source, options, env);
+
+        if (!options.containsKey(START) || !options.containsKey(BUCKET_SIZE) || !options.containsKey(BUCKETS))
+            throw new IllegalArgumentException("The start, size and number of buckets need to be specified");
+
+        start = Long.parseLong(options.get(START));
+        bucketSize = Long.parseLong(options.get(BUCKET_SIZE));
+        buckets = Integer.parseInt(options.get(BUCKETS));
+        if (bucketSize <= 0 || buckets < 0 || buckets > MAX_BUCKETS)
+            throw new IllegalArgumentException("Invalid buckets: " + buckets + " of " + bucketSize + "ms");
+    }
+
+    @Override
+    protected void reset() {
+        histogram = new TreeMap<Integer, Long>();
+    }
+
+    @Override
+    protected void aggregate(Key key, Value value) throws IOException {
+        long timestamp = key.getTimestamp();
+        if (timestamp >= start) {
+            long bucket = (timestamp - start) / bucketSize;
+            if (bucket < buckets) {
+                Long count = histogram.get((int) bucket);
+                histogram.put((int) bucket, count == null ? 1 : count + 1);
+            }
+        }
+    }
+
+    @Override
+    protected Value encodeAggregate() throws IOException {
+        return encodeHistogram(histogram);
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env) {
+        return new HistogramIterator(this, env);
+    }
+}
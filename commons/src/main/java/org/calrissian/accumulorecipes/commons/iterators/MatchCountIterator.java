@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.iterators;
+
+import java.io.IOException;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+
+/**
+ * Stacked on top of the query iterator, this returns a single key/value for each range it's seeked to holding the
+ * number of results within the range.
+ */
+public class MatchCountIterator extends RangeAggregatingIterator {
+
+    private long count;
+
+    public MatchCountIterator() {
+        super("count");
+    }
+
+    private MatchCountIterator(MatchCountIterator other, IteratorEnvironment env) {
+        super(other, env);
+    }
+
+    /**
+     * @return the count held in a value returned by this iterator
+     */
+    public static long decodeCount(Value value) {
+        return Long.parseLong(new String(value.get()));
+    }
+
+    @Override
+    protected void reset() {
+        count = 0;
+    }
+
+    @Override
+    protected void aggregate(Key key, Value value) throws IOException {
+        count++;
+    }
+
+    @Override
+    protected Value encodeAggregate() throws IOException {
+        return new Value(Long.toString(count).getBytes());
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env) {
+        return new MatchCountIterator(this, env);
+    }
+}
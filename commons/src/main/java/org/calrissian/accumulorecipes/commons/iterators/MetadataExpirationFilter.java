@@ -15,18 +15,8 @@
  */
 package org.calrissian.accumulorecipes.commons.iterators;
 
-import static java.lang.Math.min;
-import static org.calrissian.accumulorecipes.commons.util.RowEncoderUtil.decodeRow;
-import static org.calrissian.accumulorecipes.commons.util.RowEncoderUtil.encodeRow;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
-import java.util.Map;
 
 import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.Key;
@@ -34,39 +24,34 @@ import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.iterators.WrappingIterator;
 import org.calrissian.accumulorecipes.commons.support.Constants;
+import org.calrissian.accumulorecipes.commons.support.qfd.ShardValueEncoder;
+import org.calrissian.accumulorecipes.commons.support.qfd.ShardValueView;
 
 public class MetadataExpirationFilter extends WrappingIterator {
 
+    private final ShardValueView shardValue = new ShardValueView();
+    private final ShardValueEncoder encoder = new ShardValueEncoder();
     private Value extractedValue;
+
+    /**
+     * Removes the expired attributes from the given shard value. Values of either version are read, but a value that
+     * had attributes removed is always rewritten in the latest version.
+     */
     public Value extractExpiredAttributes(Key k, Value v) {
 
         if(k.getColumnFamily().toString().startsWith(Constants.PREFIX_E)) {
 
-            ByteArrayInputStream bais = new ByteArrayInputStream(v.get());
-            DataInputStream dis = new DataInputStream(bais);
+            byte[] bytes = v.get();
             try {
-                dis.readInt();
-                long expiration = dis.readLong();
-                if(shouldExpire(expiration, parseTimestampFromKey(k))) {
-                    long newMinExpiration = Long.MAX_VALUE;
-                    List<Map.Entry<Key,Value>> finalKeyValList = new ArrayList();
-                    for(Map.Entry<Key,Value> curEntry : decodeRow(k, bais)) {
-                        long curExpiration = Long.parseLong(curEntry.getKey().getColumnFamily().toString());
-                        if(!shouldExpire(curExpiration, curEntry.getKey().getTimestamp())) {
-                            min(curExpiration, newMinExpiration);
-                            finalKeyValList.add(curEntry);
-                        }
+                long expiresAt = ShardValueView.getExpiresAt(bytes, parseTimestampFromKey(k));
+                if(expiresAt > -1 && System.currentTimeMillis() > expiresAt) {
+                    shardValue.reset(bytes);
+                    encoder.reset();
+                    for(int i = 0; i < shardValue.size(); i++) {
+                        if(!shouldExpire(shardValue.getExpiration(i), shardValue.getTimestamp(i)))
+                            encoder.add(shardValue, i);
                     }
-
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    DataOutputStream dos = new DataOutputStream(baos);
-                    dos.writeInt(finalKeyValList.size());
-                    dos.writeLong(newMinExpiration != Long.MAX_VALUE ? newMinExpiration : -1);
-                    dos.flush();
-                    encodeRow(finalKeyValList, baos);
-                    baos.flush();
-
-                    return new Value(baos.toByteArray());
+                    return encoder.toValue();
                 }
             } catch (IOException e) {
                 return v;
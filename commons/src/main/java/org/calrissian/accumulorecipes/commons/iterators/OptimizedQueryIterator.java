@@ -16,12 +16,21 @@
  */
 package org.calrissian.accumulorecipes.commons.iterators;
 
+import static com.google.common.collect.Sets.newHashSet;
+import static org.apache.commons.lang.StringUtils.join;
+import static org.apache.commons.lang.StringUtils.splitPreserveAllTokens;
+import static org.calrissian.accumulorecipes.commons.support.Constants.END_BYTE;
+import static org.calrissian.accumulorecipes.commons.support.Constants.NULL_BYTE;
+import static org.calrissian.accumulorecipes.commons.support.Constants.PREFIX_E;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
+import org.apache.accumulo.core.client.IteratorSetting;
 import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.PartialKey;
@@ -30,7 +39,9 @@ import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.iterators.IteratorEnvironment;
 import org.apache.accumulo.core.iterators.OptionDescriber;
 import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.hadoop.io.Text;
 import org.apache.log4j.Logger;
+import org.calrissian.accumulorecipes.commons.iterators.support.QueryCounters;
 
 /**
  * This iterator internally uses the BooleanLogicIterator to find event UIDs in the field index portion of the partition and uses the EvaluatingIterator to
@@ -38,12 +49,71 @@ import org.apache.log4j.Logger;
  */
 public class OptimizedQueryIterator implements SortedKeyValueIterator<Key, Value>, OptionDescriber {
 
+    public static final String SCAN_SHARDS = "scanShards";
+    public static final String PROFILE = "profile";
+    public static final String DEADLINE = "deadline";
+    public static final String RESULT_LIMIT = "resultLimit";
+
+    public static final String YIELD_COLFAM = END_BYTE + "yield";
+
+    private static final Text YIELD_COLFAM_TEXT = new Text(YIELD_COLFAM);
+
     private static Logger log = Logger.getLogger(OptimizedQueryIterator.class);
     private EvaluatingIterator event = null;
     private SortedKeyValueIterator<Key, Value> index = null;
     private Key key = null;
     private Value value = null;
     private boolean eventSpecificRange = false;
+    private Set<String> scanShards = Collections.emptySet();
+    private boolean profile = false;
+    private QueryCounters counters = null;
+    private Key countersKey = null;
+    private long deadline = 0;
+    private long resultLimit = 0;
+    private long results = 0;
+    private Key lastResult = null;
+    private Key yieldKey = null;
+    private boolean yielded = false;
+    private boolean trailing = false;
+
+    /**
+     * Sets the shards whose documents should all be evaluated rather than found through the field index
+     */
+    public static void setScanShards(IteratorSetting is, Collection<String> scanShards) {
+        if (!scanShards.isEmpty())
+            is.addOption(SCAN_SHARDS, join(scanShards, NULL_BYTE));
+    }
+
+    /**
+     * Makes the iterator return the {@link QueryCounters} of each range it's seeked to after the range's results
+     */
+    public static void setProfile(IteratorSetting is, boolean profile) {
+        if (profile)
+            is.addOption(PROFILE, Boolean.toString(profile));
+    }
+
+    /**
+     * Makes the iterator stop evaluating a range once the given time has passed, or once it has returned the given
+     * number of results from the range and finds another one, whichever comes first. A range that's cut short ends
+     * with a key in its row whose column family is {@link #YIELD_COLFAM}, reporting the shard which wasn't read
+     * through. The deadline is compared against the clock of the tablet server.
+     * <p/>
+     * When the tablet server seeks the iterator again to resume a range after the last result it returned, the
+     * results returned before count towards the limit. A range resumed by a new scan session starts counting again.
+     *
+     * @param deadline    the time, in milliseconds since the epoch, to stop at, or 0 for no deadline
+     * @param resultLimit the number of results to return from each range at most, or 0 for no limit
+     */
+    public static void setBudget(IteratorSetting is, long deadline, long resultLimit) {
+        if (deadline > 0)
+            is.addOption(DEADLINE, Long.toString(deadline));
+        if (resultLimit > 0)
+            is.addOption(RESULT_LIMIT, Long.toString(resultLimit));
+    }
+
+    public static boolean isYieldKey(Key key) {
+        return key.getColumnFamily().equals(YIELD_COLFAM_TEXT);
+    }
 
     public OptimizedQueryIterator() {
     }
@@ -51,6 +121,11 @@ public class OptimizedQueryIterator implements SortedKeyValueIterator<Key, Value
     public OptimizedQueryIterator(OptimizedQueryIterator other, IteratorEnvironment env) {
         this.event = other.event;
         this.index = other.index;
+        this.scanShards = other.scanShards;
+        this.profile = other.profile;
+        this.counters = other.counters;
+        this.deadline = other.deadline;
+        this.resultLimit = other.resultLimit;
     }
 
     public IteratorOptions describeOptions() {
@@ -59,6 +134,10 @@ public class OptimizedQueryIterator implements SortedKeyValueIterator<Key, Value
         options.put(BooleanLogicIterator.FIELD_INDEX_QUERY, "modified criteria for the field index criteria portion");
         options.put(ReadAheadIterator.QUEUE_SIZE, "parallel queue size");
         options.put(ReadAheadIterator.TIMEOUT, "parallel iterator timeout");
+        options.put(SCAN_SHARDS, "shards to evaluate every document of rather than using the field index");
+        options.put(PROFILE, "whether to return the query counters at the end of each range");
+        options.put(DEADLINE, "the time in milliseconds since the epoch to stop evaluating each range at");
+        options.put(RESULT_LIMIT, "the number of results to return from each range at most");
         return new IteratorOptions(getClass().getSimpleName(), "evaluates event objects against an expression using the field index", options, null);
     }
 
@@ -74,20 +153,36 @@ public class OptimizedQueryIterator implements SortedKeyValueIterator<Key, Value
             throw new IllegalArgumentException("Invalid options");
         }
 
+        String scanShardsOpt = options.get(SCAN_SHARDS);
+        if (scanShardsOpt != null)
+            scanShards = newHashSet(splitPreserveAllTokens(scanShardsOpt, NULL_BYTE));
+        profile = Boolean.parseBoolean(options.get(PROFILE));
+        // nothing is counted or timed unless profiling
+        if (profile)
+            counters = new QueryCounters();
+        if (options.containsKey(DEADLINE))
+            deadline = Long.parseLong(options.get(DEADLINE));
+        if (options.containsKey(RESULT_LIMIT))
+            resultLimit = Long.parseLong(options.get(RESULT_LIMIT));
+
         // Setup the EvaluatingIterator
         event = getEvaluatingIterator();
+        event.setCounters(counters);
         event.init(source.deepCopy(env), options, env);
 
         // if queue size and timeout are set, then use the read ahead iterator
         if (options.containsKey(ReadAheadIterator.QUEUE_SIZE) && options.containsKey(ReadAheadIterator.TIMEOUT)) {
             BooleanLogicIterator bli = new BooleanLogicIterator();
+            bli.setCounters(counters);
             bli.init(source, options, env);
             index = new ReadAheadIterator();
             index.init(bli, options, env);
         } else {
-            index = new BooleanLogicIterator();
-            // index.setDebug(Level.DEBUG);
-            index.init(source, options, env);
+            BooleanLogicIterator bli = new BooleanLogicIterator();
+            bli.setCounters(counters);
+            // bli.setDebug(Level.DEBUG);
+            bli.init(source, options, env);
+            index = bli;
         }
 
     }
@@ -121,12 +216,20 @@ public class OptimizedQueryIterator implements SortedKeyValueIterator<Key, Value
         if (log.isDebugEnabled()) {
             log.debug("next");
         }
+        if (trailing) {
+            key = null;
+            value = null;
+            returnTrailing();
+            return;
+        }
         if (key != null) {
             key = null;
             value = null;
         }
 
-        if (eventSpecificRange) {
+        if (pastDeadline()) {
+            yielded = true;
+        } else if (eventSpecificRange) {
             // Then this will probably return nothing
             event.next();
             if (event.hasTop()) {
@@ -136,7 +239,17 @@ public class OptimizedQueryIterator implements SortedKeyValueIterator<Key, Value
         } else {
 
             do {
-                index.next();
+                if (pastDeadline()) {
+                    yielded = true;
+                    break;
+                }
+                if (profile) {
+                    long indexStart = System.nanoTime();
+                    index.next();
+                    counters.addIndexTime(System.nanoTime() - indexStart);
+                } else {
+                    index.next();
+                }
                 // If the index has a match, then seek the event to the key
                 if (index.hasTop()) {
                     Key eventKey = index.getTopKey();
@@ -159,15 +272,38 @@ public class OptimizedQueryIterator implements SortedKeyValueIterator<Key, Value
             log.warn("Value: " + ((value == null) ? "null" : value.toString()));
             throw new IOException("Return values are inconsistent");
         }
-
+        returnTrailing();
     }
 
     public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
         if (log.isDebugEnabled()) {
             log.debug("seek, range:" + range);
         }
-        // Test the range to see if it is event specific.
-        if (null != range.getEndKey() && range.getEndKey().getColumnFamily() != null && range.getEndKey().getColumnFamily().getLength() != 0) {
+        key = null;
+        value = null;
+        eventSpecificRange = false;
+
+        if (profile)
+            counters.clear();
+        trailing = false;
+        countersKey = profile && range.getStartKey() != null ? QueryCounters.countersKey(range.getStartKey().getRow()) : null;
+        // the counters have already been returned if the range is resuming the scan after them
+        if (countersKey != null && !range.contains(countersKey))
+            countersKey = null;
+
+        if (!resumesAfterLastResult(range))
+            results = 0;
+        lastResult = null;
+        yielded = false;
+        yieldKey = (deadline > 0 || resultLimit > 0) && range.getStartKey() != null ?
+            new Key(range.getStartKey().getRow(), YIELD_COLFAM_TEXT) : null;
+        // the budget can only be enforced when the range can hold the key reporting it's been cut short
+        if (yieldKey != null && !range.contains(yieldKey))
+            yieldKey = null;
+
+        if (pastDeadline()) {
+            yielded = true;
+        } else if (null != range.getEndKey() && range.getEndKey().getColumnFamily() != null && range.getEndKey().getColumnFamily().getLength() != 0) {
             if (log.isDebugEnabled()) {
                 log.debug("Jumping straight to the event");
             }
@@ -179,18 +315,44 @@ public class OptimizedQueryIterator implements SortedKeyValueIterator<Key, Value
                 key = event.getTopKey();
                 value = event.getTopValue();
             }
+        } else if (range.getStartKey() != null && scanShards.contains(range.getStartKey().getRow().toString())) {
+            if (log.isDebugEnabled()) {
+                log.debug("Evaluating every event in the shard");
+            }
+            // The planner found that most of the shard will need evaluating anyways, so the events are read in order
+            // rather than through the index. Only the event portion of the shard is read.
+            eventSpecificRange = true;
+            Text row = range.getStartKey().getRow();
+            Range eventsRange = new Range(new Key(row, new Text(PREFIX_E)), true, new Key(row, new Text(PREFIX_E + END_BYTE)), false)
+                .clip(range, true);
+            if (eventsRange != null)
+                event.seek(eventsRange, Collections.<ByteSequence>emptyList(), false);
+            if (eventsRange != null && event.hasTop()) {
+                key = event.getTopKey();
+                value = event.getTopValue();
+            }
         } else {
             if (log.isDebugEnabled()) {
                 log.debug("Using BooleanLogicIteratorJexl");
             }
-            // Seek the boolean logic iterator
+            // Seek the boolean logic iterator. When the range resumes a scan from an event of a row, it seeks the field
+            // index terms it can straight to that event, but can still return matches of the events before it, which
+            // are skipped here.
+            long indexStart = profile ? System.nanoTime() : 0;
             index.seek(range, columnFamilies, inclusive);
+            Key startKey = range.getStartKey();
+            if (startKey != null && startKey.getColumnFamilyData().length() != 0) {
+                while (index.hasTop() && index.getTopKey().compareTo(startKey, PartialKey.ROW_COLFAM) < 0)
+                    index.next();
+            }
+            if (profile)
+                counters.addIndexTime(System.nanoTime() - indexStart);
 
             // If the index has a match, then seek the event to the key
             if (index.hasTop()) {
                 Key eventKey = index.getTopKey();
                 // Range eventRange = new Range(eventKey, eventKey);
-                Range eventRange = new Range(eventKey.getRow());
+                Range eventRange = new Range(eventKey.getRow()).clip(range, true);
                 HashSet<ByteSequence> cf = new HashSet<ByteSequence>();
                 cf.add(eventKey.getColumnFamilyData());
                 event.seek(eventRange, cf, true);
@@ -199,9 +361,59 @@ public class OptimizedQueryIterator implements SortedKeyValueIterator<Key, Value
                     value = event.getTopValue();
                 } else {
                     next();
+                    return;
                 }
             }
         }
+        returnTrailing();
+    }
+
+    /**
+     * @return whether the given range resumes the scan of the row of the last result returned, after that result
+     */
+    private boolean resumesAfterLastResult(Range range) {
+        Key startKey = range.getStartKey();
+        return lastResult != null && startKey != null && startKey.getRow().equals(lastResult.getRow()) &&
+            startKey.compareTo(lastResult, PartialKey.ROW_COLFAM) >= 0;
+    }
+
+    /**
+     * @return whether the range should stop being evaluated, as its deadline has passed
+     */
+    private boolean pastDeadline() {
+        return yieldKey != null && deadline > 0 && System.currentTimeMillis() > deadline;
+    }
+
+    /**
+     * Counts the result about to be returned, or drops it and cuts the range short if the range has already returned
+     * as many results as it may. Once the range has no more results, returns the entries that end it: the counters
+     * of the range when profiling, followed by the key reporting the range was cut short if it was.
+     */
+    private void returnTrailing() {
+        if (key != null && !trailing) {
+            if (yieldKey != null && resultLimit > 0 && results >= resultLimit) {
+                key = null;
+                value = null;
+                yielded = true;
+            } else {
+                results++;
+                lastResult = key;
+                return;
+            }
+        }
+        if (key != null)
+            return;
+        if (countersKey != null) {
+            key = countersKey;
+            value = counters.toValue();
+            countersKey = null;
+            trailing = true;
+        } else if (yielded && yieldKey != null) {
+            key = yieldKey;
+            value = new Value(new byte[0]);
+            yieldKey = null;
+            trailing = true;
+        }
     }
 
     protected EvaluatingIterator getEvaluatingIterator() {
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.iterators;
+
+import static org.calrissian.accumulorecipes.commons.support.Constants.END_BYTE;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Stacked on top of the query iterator, this consumes all of the results within each range it's seeked to and returns
+ * a single key/value holding an aggregate of them instead, built up by the subclass. The key is in the row of the last
+ * result, with a column family that sorts after anything in the shard table, so a scan resuming after it doesn't
+ * aggregate the range again. When the range ends before that key, the key of the last result is used instead.
+ * Nothing is returned for ranges without results.
+ */
+public abstract class RangeAggregatingIterator implements SortedKeyValueIterator<Key, Value> {
+
+    private final Text aggregateColFam;
+
+    private SortedKeyValueIterator<Key, Value> source;
+    private Key topKey;
+    private Value topValue;
+
+    /**
+     * @param name distinguishes the column family of the returned key from those of other aggregating iterators
+     */
+    protected RangeAggregatingIterator(String name) {
+        this.aggregateColFam = new Text(END_BYTE + name);
+    }
+
+    protected RangeAggregatingIterator(RangeAggregatingIterator other, IteratorEnvironment env) {
+        this.aggregateColFam = other.aggregateColFam;
+        this.source = other.source.deepCopy(env);
+    }
+
+    /**
+     * Starts a new aggregate for the range being seeked to.
+     */
+    protected abstract void reset();
+
+    /**
+     * Adds a result of the range to the aggregate.
+     */
+    protected abstract void aggregate(Key key, Value value) throws IOException;
+
+    /**
+     * @return the aggregate of the results of the range, encoded into the value to return
+     */
+    protected abstract Value encodeAggregate() throws IOException;
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env) throws IOException {
+        this.source = source;
+    }
+
+    @Override
+    public boolean hasTop() {
+        return topKey != null;
+    }
+
+    @Override
+    public void next() throws IOException {
+        topKey = null;
+        topValue = null;
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+        topKey = null;
+        topValue = null;
+
+        source.seek(range, columnFamilies, inclusive);
+
+        reset();
+        Key last = null;
+        while (source.hasTop()) {
+            aggregate(source.getTopKey(), source.getTopValue());
+
+            if (last == null)
+                last = new Key();
+            last.set(source.getTopKey());
+            source.next();
+        }
+
+        if (last != null) {
+            topKey = new Key(last.getRow(), aggregateColFam);
+            if (!range.contains(topKey))
+                topKey = new Key(last);
+            topValue = encodeAggregate();
+        }
+    }
+
+    @Override
+    public Key getTopKey() {
+        return topKey;
+    }
+
+    @Override
+    public Value getTopValue() {
+        return topValue;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.iterators;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.calrissian.accumulorecipes.commons.iterators.support.QueryCounters;
+
+/**
+ * Counts the keys read from and the seeks done on its source into the given counters. Deep copies count into the
+ * same counters, so wrapping the source of an iterator which deep copies it for each of its terms counts the reads
+ * of all of them. This isn't configured on a table; the query iterators wrap their sources with it.
+ */
+public class ReadCountingIterator implements SortedKeyValueIterator<Key, Value> {
+
+    private final SortedKeyValueIterator<Key, Value> source;
+    private final QueryCounters counters;
+    private final boolean fieldIndex;
+
+    /**
+     * @param fieldIndex whether the source is read for field index entries rather than events
+     */
+    public ReadCountingIterator(SortedKeyValueIterator<Key, Value> source, QueryCounters counters, boolean fieldIndex) {
+        this.source = source;
+        this.counters = counters;
+        this.fieldIndex = fieldIndex;
+    }
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean hasTop() {
+        return source.hasTop();
+    }
+
+    @Override
+    public void next() throws IOException {
+        source.next();
+        if (source.hasTop())
+            counters.incrementKeysRead(fieldIndex);
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+        counters.incrementSeeks(fieldIndex);
+        source.seek(range, columnFamilies, inclusive);
+        if (source.hasTop())
+            counters.incrementKeysRead(fieldIndex);
+    }
+
+    @Override
+    public Key getTopKey() {
+        return source.getTopKey();
+    }
+
+    @Override
+    public Value getTopValue() {
+        return source.getTopValue();
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env) {
+        return new ReadCountingIterator(source.deepCopy(env), counters, fieldIndex);
+    }
+}
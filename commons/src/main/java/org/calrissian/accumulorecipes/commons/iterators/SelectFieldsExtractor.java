@@ -17,20 +17,10 @@ package org.calrissian.accumulorecipes.commons.iterators;
 
 import static org.apache.commons.lang.StringUtils.splitPreserveAllTokens;
 import static org.calrissian.accumulorecipes.commons.support.Constants.NULL_BYTE;
-import static org.calrissian.accumulorecipes.commons.util.RowEncoderUtil.decodeRow;
-import static org.calrissian.accumulorecipes.commons.util.RowEncoderUtil.encodeRow;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.Collection;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.apache.accumulo.core.client.IteratorSetting;
 import org.apache.accumulo.core.data.Key;
@@ -39,16 +29,23 @@ import org.apache.accumulo.core.iterators.IteratorEnvironment;
 import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
 import org.apache.accumulo.core.iterators.WrappingIterator;
 import org.apache.commons.lang.StringUtils;
+import org.calrissian.accumulorecipes.commons.support.qfd.ShardValueEncoder;
+import org.calrissian.accumulorecipes.commons.support.qfd.ShardValueView;
 
 /**
  * Given a set of fieldNames and fieldValues encoded into the value of a single keyValue, this will filter
- * those fieldNames which are included in a given set of selectFields.
+ * those fieldNames which are included in a given set of selectFields. Values holding only selected fields are
+ * returned as they are, without being encoded again.
  */
 public class SelectFieldsExtractor extends WrappingIterator {
 
     protected static final String SELECT_FIELDS = "selectFields";
     private Set<String> selectFields;
 
+    private final ShardValueView shardValue = new ShardValueView();
+    private final ShardValueEncoder encoder = new ShardValueEncoder();
+    private boolean[] selected = new boolean[8];
+
     public static void setSelectFields(IteratorSetting is, Set<String> selectFields) {
         is.addOption(SELECT_FIELDS, StringUtils.join(selectFields, NULL_BYTE));
     }
@@ -68,34 +65,31 @@ public class SelectFieldsExtractor extends WrappingIterator {
 
     @Override public Value getTopValue() {
 
-        Collection<Map.Entry<Key,Value>> keysValues = Lists.newArrayList();
         try {
-            ByteArrayInputStream bais = new ByteArrayInputStream(super.getTopValue().get());
-            DataInputStream dis = new DataInputStream(bais);
-            dis.readInt();
-            long expiration = dis.readLong();
-            List<Map.Entry<Key,Value>> map = decodeRow(getTopKey(), bais);
-            for(Map.Entry<Key,Value> entry : map) {
-                if(selectFields.contains(extractKey(entry.getKey()))) {
-                    keysValues.add(Maps.immutableEntry(entry.getKey(), entry.getValue()));
-                }
+            Value value = super.getTopValue();
+            shardValue.reset(value.get());
+
+            int numSelected = 0;
+            if (selected.length < shardValue.size())
+                selected = new boolean[shardValue.size()];
+            for(int i = 0; i < shardValue.size(); i++) {
+                selected[i] = selectFields.contains(shardValue.getKey(i));
+                if(selected[i])
+                    numSelected++;
             }
 
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            DataOutputStream dos = new DataOutputStream(baos);
-            dos.writeInt(keysValues.size());
-            dos.writeLong(expiration);
-            dos.flush();
-            encodeRow(keysValues, baos);
-            return new Value(baos.toByteArray());
+            // nothing to filter out, so the value can be returned as it is
+            if(numSelected == shardValue.size())
+                return value;
+
+            encoder.reset();
+            for(int i = 0; i < shardValue.size(); i++) {
+                if(selected[i])
+                    encoder.add(shardValue, i);
+            }
+            return encoder.toValue();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
-
-    protected String extractKey(Key key) {
-        String cq =  key.getColumnQualifier().toString();
-        int idx = cq.indexOf(NULL_BYTE);
-        return cq.substring(0, idx);
-    }
 }
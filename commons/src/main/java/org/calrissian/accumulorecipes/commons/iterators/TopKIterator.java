@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.iterators;
+
+import static java.util.Collections.reverseOrder;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import com.esotericsoftware.kryo.io.Input;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.calrissian.accumulorecipes.commons.domain.SortOptions;
+import org.calrissian.accumulorecipes.commons.iterators.support.EventFields;
+import org.calrissian.accumulorecipes.commons.iterators.support.KryoContext;
+
+/**
+ * Stacked on top of the query iterator, this consumes all of the results within each range it's seeked to and only
+ * returns the first few of them in the order given by {@link SortOptions}, by keeping a bounded heap of the best
+ * results seen so far. Results are sorted either by their key timestamp or by the encoded value of an attribute,
+ * which sorts the same way as the value itself for values of the same type. When a result has more than one value
+ * for the attribute, it's sorted on the least of them.
+ * <p/>
+ * The results kept are returned in key order, as tablet servers need to return keys in order, so the client still
+ * needs to merge and sort the results of each range; {@link #rank(Key, Value, String)} and
+ * {@link #bestFirst(SortOptions)} do so the same way as this iterator. If a scan is resumed part way through the
+ * results kept for a range, the rest of the range is ranked again, which can only return more results than needed.
+ */
+public class TopKIterator implements SortedKeyValueIterator<Key, Value> {
+
+    protected static final String FIELD = "field";
+    protected static final String LIMIT = "limit";
+    protected static final String DESCENDING = "descending";
+
+    private SortedKeyValueIterator<Key, Value> source;
+    private SortOptions sortOptions;
+    private Iterator<Ranked> results;
+    private Ranked top;
+
+    public TopKIterator() {
+    }
+
+    private TopKIterator(TopKIterator other, IteratorEnvironment env) {
+        this.source = other.source.deepCopy(env);
+        this.sortOptions = other.sortOptions;
+    }
+
+    public static void setSortOptions(IteratorSetting is, SortOptions sortOptions) {
+        if (sortOptions.getField() != null)
+            is.addOption(FIELD, sortOptions.getField());
+        is.addOption(LIMIT, Integer.toString(sortOptions.getLimit()));
+        is.addOption(DESCENDING, Boolean.toString(sortOptions.isDescending()));
+    }
+
+    /**
+     * Pairs a result of the query iterator with the value it's sorted on. The key and value are copied.
+     *
+     * @param field the attribute results are sorted on, or null when they're sorted by timestamp
+     */
+    public static Ranked rank(Key key, Value value, String field) {
+        String sortValue = null;
+        if (field != null) {
+            EventFields eventFields = new EventFields();
+            eventFields.read(KryoContext.get(), new Input(value.get()), EventFields.class);
+            Set<EventFields.FieldValue> fieldValues = eventFields.get(field);
+            if (fieldValues != null) {
+                try {
+                    for (EventFields.FieldValue fieldValue : fieldValues) {
+                        String encoded = new String(fieldValue.getValue(), "UTF-8");
+                        if (sortValue == null || encoded.compareTo(sortValue) < 0)
+                            sortValue = encoded;
+                    }
+                } catch (UnsupportedEncodingException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        return new Ranked(new Key(key), new Value(value.get(), true), sortValue);
+    }
+
+    /**
+     * @return a comparator ordering ranked results from the one to return first to the one to return last
+     */
+    public static Comparator<Ranked> bestFirst(final SortOptions sortOptions) {
+        return new Comparator<Ranked>() {
+            @Override
+            public int compare(Ranked o1, Ranked o2) {
+                int comparison;
+                if (sortOptions.getField() == null) {
+                    comparison = Long.valueOf(o1.key.getTimestamp()).compareTo(o2.key.getTimestamp());
+                } else {
+                    // results without the attribute are always last
+                    if (o1.sortValue == null || o2.sortValue == null) {
+                        if (o1.sortValue != o2.sortValue)
+                            return o1.sortValue == null ? 1 : -1;
+                        comparison = 0;
+                    } else {
+                        comparison = o1.sortValue.compareTo(o2.sortValue);
+                    }
+                }
+                if (sortOptions.isDescending())
+                    comparison = -comparison;
+                return comparison != 0 ? comparison : o1.key.compareTo(o2.key);
+            }
+        };
+    }
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env) throws IOException {
+        this.source = source;
+
+        if (!options.containsKey(LIMIT))
+            throw new IllegalArgumentException("The number of results to return needs to be specified");
+
+        int limit = Integer.parseInt(options.get(LIMIT));
+        boolean descending = Boolean.parseBoolean(options.get(DESCENDING));
+        String field = options.get(FIELD);
+        sortOptions = field != null ? new SortOptions(field, limit, descending) : new SortOptions(limit, descending);
+    }
+
+    @Override
+    public boolean hasTop() {
+        return top != null;
+    }
+
+    @Override
+    public void next() throws IOException {
+        top = results.hasNext() ? results.next() : null;
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+        source.seek(range, columnFamilies, inclusive);
+
+        // the head of the heap is the worst of the results kept so far
+        Comparator<Ranked> worstFirst = reverseOrder(bestFirst(sortOptions));
+        PriorityQueue<Ranked> heap = new PriorityQueue<Ranked>(sortOptions.getLimit() + 1, worstFirst);
+        while (source.hasTop()) {
+            Ranked ranked = rank(source.getTopKey(), source.getTopValue(), sortOptions.getField());
+            if (heap.size() < sortOptions.getLimit() || worstFirst.compare(ranked, heap.peek()) > 0) {
+                heap.add(ranked);
+                if (heap.size() > sortOptions.getLimit())
+                    heap.poll();
+            }
+            source.next();
+        }
+
+        List<Ranked> kept = new ArrayList<Ranked>(heap);
+        Collections.sort(kept, KEY_ORDER);
+        results = kept.iterator();
+        next();
+    }
+
+    @Override
+    public Key getTopKey() {
+        return top.key;
+    }
+
+    @Override
+    public Value getTopValue() {
+        return top.value;
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env) {
+        return new TopKIterator(this, env);
+    }
+
+    private static final Comparator<Ranked> KEY_ORDER = new Comparator<Ranked>() {
+        @Override
+        public int compare(Ranked o1, Ranked o2) {
+            return o1.key.compareTo(o2.key);
+        }
+    };
+
+    /**
+     * A result along with the value it's sorted on
+     */
+    public static class Ranked {
+        private final Key key;
+        private final Value value;
+        private final String sortValue;
+
+        private Ranked(Key key, Value value, String sortValue) {
+            this.key = key;
+            this.value = value;
+            this.sortValue = sortValue;
+        }
+
+        public Key getKey() {
+            return key;
+        }
+
+        public Value getValue() {
+            return value;
+        }
+    }
+}
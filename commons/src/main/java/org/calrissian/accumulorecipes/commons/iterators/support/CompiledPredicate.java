@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.iterators.support;
+
+import java.io.StringReader;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.jexl2.parser.ASTAndNode;
+import org.apache.commons.jexl2.parser.ASTEQNode;
+import org.apache.commons.jexl2.parser.ASTFalseNode;
+import org.apache.commons.jexl2.parser.ASTGENode;
+import org.apache.commons.jexl2.parser.ASTGTNode;
+import org.apache.commons.jexl2.parser.ASTIdentifier;
+import org.apache.commons.jexl2.parser.ASTJexlScript;
+import org.apache.commons.jexl2.parser.ASTLENode;
+import org.apache.commons.jexl2.parser.ASTLTNode;
+import org.apache.commons.jexl2.parser.ASTNENode;
+import org.apache.commons.jexl2.parser.ASTNotNode;
+import org.apache.commons.jexl2.parser.ASTNullLiteral;
+import org.apache.commons.jexl2.parser.ASTOrNode;
+import org.apache.commons.jexl2.parser.ASTReference;
+import org.apache.commons.jexl2.parser.ASTStringLiteral;
+import org.apache.commons.jexl2.parser.ASTTrueNode;
+import org.apache.commons.jexl2.parser.Node;
+import org.apache.commons.jexl2.parser.ParseException;
+import org.apache.commons.jexl2.parser.Parser;
+import org.calrissian.accumulorecipes.commons.iterators.support.EventFields.FieldValue;
+
+/**
+ * A criteria expression compiled once into a tree of predicates that can be evaluated directly against the field values
+ * of an event. Comparisons are done on the encoded value bytes, so evaluating an event requires no string building and
+ * no script compilation. A comparison against a multi-valued field is true if any one of its values matches, which is
+ * the same semantic the rewritten scripts in {@link QueryEvaluator} provide. A missing field compares like a null.
+ * <p/>
+ * Only the subset of JEXL produced by {@link NodeToJexl} is supported: and, or, not and the comparison operators between
+ * an identifier and a string (or null) literal. Anything else results in an {@link UnsupportedOperationException} from
+ * {@link #compile(String)}.
+ */
+public abstract class CompiledPredicate {
+
+    /**
+     * Evaluates this predicate against the given fields, keyed by their normalized names.
+     */
+    public abstract boolean evaluate(Map<String, Set<FieldValue>> fields);
+
+    public static CompiledPredicate compile(String query) throws ParseException {
+        Parser parser = new Parser(new StringReader(";"));
+        ASTJexlScript script = parser.parse(new StringReader(query), null);
+        return compile(script);
+    }
+
+    private static CompiledPredicate compile(Node node) {
+
+        if (node instanceof ASTJexlScript || node instanceof ASTReference) {
+            if (node.jjtGetNumChildren() != 1)
+                throw unsupported(node);
+            return compile(node.jjtGetChild(0));
+        } else if (node instanceof ASTAndNode) {
+            return new And(compileChildren(node));
+        } else if (node instanceof ASTOrNode) {
+            return new Or(compileChildren(node));
+        } else if (node instanceof ASTNotNode) {
+            return new Not(compile(node.jjtGetChild(0)));
+        } else if (node instanceof ASTTrueNode) {
+            return new Constant(true);
+        } else if (node instanceof ASTFalseNode) {
+            return new Constant(false);
+        } else if (node instanceof ASTEQNode) {
+            return compileComparison(node, Operator.EQ);
+        } else if (node instanceof ASTNENode) {
+            return compileComparison(node, Operator.NE);
+        } else if (node instanceof ASTLTNode) {
+            return compileComparison(node, Operator.LT);
+        } else if (node instanceof ASTLENode) {
+            return compileComparison(node, Operator.LE);
+        } else if (node instanceof ASTGTNode) {
+            return compileComparison(node, Operator.GT);
+        } else if (node instanceof ASTGENode) {
+            return compileComparison(node, Operator.GE);
+        }
+
+        throw unsupported(node);
+    }
+
+    private static CompiledPredicate[] compileChildren(Node node) {
+        CompiledPredicate[] children = new CompiledPredicate[node.jjtGetNumChildren()];
+        for (int i = 0; i < children.length; i++)
+            children[i] = compile(node.jjtGetChild(i));
+        return children;
+    }
+
+    private static CompiledPredicate compileComparison(Node node, Operator operator) {
+        if (node.jjtGetNumChildren() != 2)
+            throw unsupported(node);
+
+        Node left = node.jjtGetChild(0);
+        Node right = node.jjtGetChild(1);
+        if (left instanceof ASTReference && left.jjtGetNumChildren() == 1)
+            left = left.jjtGetChild(0);
+
+        if (!(left instanceof ASTIdentifier))
+            throw unsupported(node);
+
+        String field = ((ASTIdentifier) left).image;
+        if (right instanceof ASTStringLiteral)
+            return new Comparison(field, operator, ((ASTStringLiteral) right).getLiteral().getBytes());
+        else if (right instanceof ASTNullLiteral)
+            return new Comparison(field, operator, null);
+
+        throw unsupported(node);
+    }
+
+    private static UnsupportedOperationException unsupported(Node node) {
+        return new UnsupportedOperationException("Unable to compile expression node: " + node.getClass().getSimpleName());
+    }
+
+    private enum Operator {
+        EQ, NE, LT, LE, GT, GE
+    }
+
+    private static class And extends CompiledPredicate {
+        private final CompiledPredicate[] children;
+
+        private And(CompiledPredicate[] children) {
+            this.children = children;
+        }
+
+        @Override
+        public boolean evaluate(Map<String, Set<FieldValue>> fields) {
+            for (CompiledPredicate child : children) {
+                if (!child.evaluate(fields))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private static class Or extends CompiledPredicate {
+        private final CompiledPredicate[] children;
+
+        private Or(CompiledPredicate[] children) {
+            this.children = children;
+        }
+
+        @Override
+        public boolean evaluate(Map<String, Set<FieldValue>> fields) {
+            for (CompiledPredicate child : children) {
+                if (child.evaluate(fields))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    private static class Not extends CompiledPredicate {
+        private final CompiledPredicate child;
+
+        private Not(CompiledPredicate child) {
+            this.child = child;
+        }
+
+        @Override
+        public boolean evaluate(Map<String, Set<FieldValue>> fields) {
+            return !child.evaluate(fields);
+        }
+    }
+
+    private static class Constant extends CompiledPredicate {
+        private final boolean value;
+
+        private Constant(boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean evaluate(Map<String, Set<FieldValue>> fields) {
+            return value;
+        }
+    }
+
+    /**
+     * Compares the values of a single field against a literal. The literal is null when comparing against null.
+     */
+    private static class Comparison extends CompiledPredicate {
+        private final String field;
+        private final Operator operator;
+        private final byte[] literal;
+
+        private Comparison(String field, Operator operator, byte[] literal) {
+            this.field = field;
+            this.operator = operator;
+            this.literal = literal;
+        }
+
+        @Override
+        public boolean evaluate(Map<String, Set<FieldValue>> fields) {
+            Set<FieldValue> values = fields.get(field);
+            if (values == null || values.isEmpty())
+                return matches(null);
+
+            for (FieldValue value : values) {
+                if (matches(value.getValue()))
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Null handling follows JEXL: null only equals null and never compares as strictly less or greater than anything.
+         */
+        private boolean matches(byte[] value) {
+            if (value == null || literal == null) {
+                boolean bothNull = value == null && literal == null;
+                switch (operator) {
+                    case EQ:
+                        return bothNull;
+                    case NE:
+                        return !bothNull;
+                    case LE:
+                    case GE:
+                        return bothNull;
+                    default:
+                        return false;
+                }
+            }
+
+            int compare = compareBytes(value, literal);
+            switch (operator) {
+                case EQ:
+                    return compare == 0;
+                case NE:
+                    return compare != 0;
+                case LT:
+                    return compare < 0;
+                case LE:
+                    return compare <= 0;
+                case GT:
+                    return compare > 0;
+                default:
+                    return compare >= 0;
+            }
+        }
+
+        private static int compareBytes(byte[] left, byte[] right) {
+            int length = Math.min(left.length, right.length);
+            for (int i = 0; i < length; i++) {
+                int compare = (left[i] & 0xff) - (right[i] & 0xff);
+                if (compare != 0)
+                    return compare;
+            }
+            return left.length - right.length;
+        }
+    }
+}
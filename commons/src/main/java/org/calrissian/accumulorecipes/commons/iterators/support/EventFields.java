@@ -36,10 +36,10 @@ import org.apache.accumulo.core.security.ColumnVisibility;
  */
 public class EventFields extends Serializer<EventFields> {
 
-    private static boolean kryoInitialized = false;
-    private static ByteArraySerializer valueSerializer = new ByteArraySerializer();
-    private static DefaultSerializers.IntSerializer intSerializer = new DefaultSerializers.IntSerializer();
-    private static DefaultSerializers.StringSerializer stringSerializer = new DefaultSerializers.StringSerializer();
+    // these serializers hold no state of their own, so they are safe to share across threads
+    private static final ByteArraySerializer valueSerializer = new ByteArraySerializer();
+    private static final DefaultSerializers.IntSerializer intSerializer = new DefaultSerializers.IntSerializer();
+    private static final DefaultSerializers.StringSerializer stringSerializer = new DefaultSerializers.StringSerializer();
 
     private Map<String, Set<FieldValue>> map = null;
 
@@ -83,13 +83,12 @@ public class EventFields extends Serializer<EventFields> {
         return this;
     }
 
-    public static synchronized void initializeKryo(Kryo kryo) {
-        if (kryoInitialized)
-            return;
-        valueSerializer = new ByteArraySerializer();
+    /**
+     * Prepares the given kryo for serializing event fields. Rather than initializing their own, callers should
+     * normally use the per-thread instance from {@link KryoContext}.
+     */
+    public static void initializeKryo(Kryo kryo) {
         kryo.register(byte[].class, valueSerializer);
-
-        kryoInitialized = true;
     }
 
     public int size() {
@@ -128,6 +127,7 @@ public class EventFields extends Serializer<EventFields> {
 
     public void clear() {
         map.clear();
+        size = 0;
     }
 
     public Set<String> keys() {
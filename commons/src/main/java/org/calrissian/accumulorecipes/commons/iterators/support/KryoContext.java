@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.iterators.support;
+
+import com.esotericsoftware.kryo.Kryo;
+
+/**
+ * Hands out the {@link Kryo} used to serialize {@link EventFields}. Kryo instances are not thread safe, so rather than
+ * sharing a single instance each thread lazily gets its own, already initialized for event fields. This lets scans on
+ * the tablet servers and result decoding on the client run on as many threads as needed.
+ * <p/>
+ * The instance returned must only be used by the calling thread and shouldn't be held on to beyond the current unit of
+ * work, as the same thread will be handed the same instance again later.
+ */
+public class KryoContext {
+
+    private static final ThreadLocal<Kryo> KRYO = new ThreadLocal<Kryo>() {
+        @Override
+        protected Kryo initialValue() {
+            Kryo kryo = new Kryo();
+            EventFields.initializeKryo(kryo);
+            return kryo;
+        }
+    };
+
+    private KryoContext() {
+    }
+
+    /**
+     * @return the kryo instance for the calling thread
+     */
+    public static Kryo get() {
+        return KRYO.get();
+    }
+}
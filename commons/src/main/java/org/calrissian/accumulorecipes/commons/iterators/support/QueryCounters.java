@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.iterators.support;
+
+import static org.calrissian.accumulorecipes.commons.support.Constants.END_BYTE;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The work done by the query iterators while evaluating a query: the field index keys read and seeks done by the
+ * {@link org.calrissian.accumulorecipes.commons.iterators.BooleanLogicIterator} and the field index iterators of each
+ * of its terms and the time spent finding candidates through them, the event keys read and seeks done by the
+ * evaluating iterator, the number of events it evaluated and matched, the time spent evaluating them and the bytes
+ * it returned.
+ * <p/>
+ * When profiling, the query iterator returns these at the end of each range it's seeked to, under a key in the same
+ * row whose column family sorts after anything in the shard table. Counters from each range are summed on the client.
+ * Values written before the timings were added are still decoded, with no time recorded.
+ */
+public class QueryCounters {
+
+    public static final String COUNTERS_COLFAM = END_BYTE + "counters";
+
+    private static final Text COUNTERS_COLFAM_TEXT = new Text(COUNTERS_COLFAM);
+    private static final ByteSequence COUNTERS_COLFAM_BYTES = new ArrayByteSequence(COUNTERS_COLFAM_TEXT.getBytes(), 0,
+        COUNTERS_COLFAM_TEXT.getLength());
+
+    private long indexKeysRead;
+    private long indexSeeks;
+    private long eventKeysRead;
+    private long eventSeeks;
+    private long candidates;
+    private long matches;
+    private long bytesReturned;
+    private long indexTimeNanos;
+    private long evaluationTimeNanos;
+
+    public QueryCounters() {
+    }
+
+    public QueryCounters(Value value) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(value.get()));
+            indexKeysRead = WritableUtils.readVLong(in);
+            indexSeeks = WritableUtils.readVLong(in);
+            eventKeysRead = WritableUtils.readVLong(in);
+            eventSeeks = WritableUtils.readVLong(in);
+            candidates = WritableUtils.readVLong(in);
+            matches = WritableUtils.readVLong(in);
+            bytesReturned = WritableUtils.readVLong(in);
+            if (in.available() > 0) {
+                indexTimeNanos = WritableUtils.readVLong(in);
+                evaluationTimeNanos = WritableUtils.readVLong(in);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the key the counters of a range in the given row are returned under
+     */
+    public static Key countersKey(Text row) {
+        return new Key(row, COUNTERS_COLFAM_TEXT);
+    }
+
+    public static boolean isCountersKey(Key key) {
+        return key.getColumnFamilyData().equals(COUNTERS_COLFAM_BYTES);
+    }
+
+    public Value toValue() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            WritableUtils.writeVLong(out, indexKeysRead);
+            WritableUtils.writeVLong(out, indexSeeks);
+            WritableUtils.writeVLong(out, eventKeysRead);
+            WritableUtils.writeVLong(out, eventSeeks);
+            WritableUtils.writeVLong(out, candidates);
+            WritableUtils.writeVLong(out, matches);
+            WritableUtils.writeVLong(out, bytesReturned);
+            WritableUtils.writeVLong(out, indexTimeNanos);
+            WritableUtils.writeVLong(out, evaluationTimeNanos);
+            out.flush();
+            return new Value(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void add(QueryCounters other) {
+        indexKeysRead += other.indexKeysRead;
+        indexSeeks += other.indexSeeks;
+        eventKeysRead += other.eventKeysRead;
+        eventSeeks += other.eventSeeks;
+        candidates += other.candidates;
+        matches += other.matches;
+        bytesReturned += other.bytesReturned;
+        indexTimeNanos += other.indexTimeNanos;
+        evaluationTimeNanos += other.evaluationTimeNanos;
+    }
+
+    public void clear() {
+        indexKeysRead = 0;
+        indexSeeks = 0;
+        eventKeysRead = 0;
+        eventSeeks = 0;
+        candidates = 0;
+        matches = 0;
+        bytesReturned = 0;
+        indexTimeNanos = 0;
+        evaluationTimeNanos = 0;
+    }
+
+    public void incrementKeysRead(boolean fieldIndex) {
+        if (fieldIndex)
+            indexKeysRead++;
+        else
+            eventKeysRead++;
+    }
+
+    public void incrementSeeks(boolean fieldIndex) {
+        if (fieldIndex)
+            indexSeeks++;
+        else
+            eventSeeks++;
+    }
+
+    public void incrementCandidates() {
+        candidates++;
+    }
+
+    public void incrementMatches(long bytes) {
+        matches++;
+        bytesReturned += bytes;
+    }
+
+    public void addIndexTime(long nanos) {
+        indexTimeNanos += nanos;
+    }
+
+    public void addEvaluationTime(long nanos) {
+        evaluationTimeNanos += nanos;
+    }
+
+    /**
+     * The number of field index keys read while finding candidate events
+     */
+    public long getIndexKeysRead() {
+        return indexKeysRead;
+    }
+
+    /**
+     * The number of seeks into the field index while finding candidate events
+     */
+    public long getIndexSeeks() {
+        return indexSeeks;
+    }
+
+    /**
+     * The number of event keys read while aggregating candidate events
+     */
+    public long getEventKeysRead() {
+        return eventKeysRead;
+    }
+
+    /**
+     * The number of seeks to candidate events
+     */
+    public long getEventSeeks() {
+        return eventSeeks;
+    }
+
+    /**
+     * The number of events evaluated against the query
+     */
+    public long getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * The number of events which matched the query
+     */
+    public long getMatches() {
+        return matches;
+    }
+
+    /**
+     * The size of the keys and values returned for matching events
+     */
+    public long getBytesReturned() {
+        return bytesReturned;
+    }
+
+    /**
+     * The time spent finding candidate events through the field index
+     */
+    public long getIndexTime(TimeUnit unit) {
+        return unit.convert(indexTimeNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The time spent evaluating candidate events against the query
+     */
+    public long getEvaluationTime(TimeUnit unit) {
+        return unit.convert(evaluationTimeNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "QueryCounters{" +
+            "indexKeysRead=" + indexKeysRead +
+            ", indexSeeks=" + indexSeeks +
+            ", eventKeysRead=" + eventKeysRead +
+            ", eventSeeks=" + eventSeeks +
+            ", candidates=" + candidates +
+            ", matches=" + matches +
+            ", bytesReturned=" + bytesReturned +
+            ", indexTimeNanos=" + indexTimeNanos +
+            ", evaluationTimeNanos=" + evaluationTimeNanos +
+            '}';
+    }
+}
@@ -18,7 +18,9 @@ package org.calrissian.accumulorecipes.commons.iterators.support;
 
 import static org.calrissian.accumulorecipes.commons.iterators.support.NodeToJexl.removeInvalidChars;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
@@ -37,6 +39,10 @@ import org.calrissian.accumulorecipes.commons.iterators.support.EventFields.Fiel
 
 /**
  * This class evaluates events against a criteria. The criteria is passed to the constructor and then parsed. It is evaluated against an event in the evaluate method.
+ * <p/>
+ * Whenever possible, the criteria is compiled into a {@link CompiledPredicate} up front so that events can be evaluated without
+ * rewriting the criteria or creating JEXL scripts. Criteria using JEXL features the compiled form doesn't support fall back
+ * to the JEXL engine.
  */
 public class QueryEvaluator {
 
@@ -55,6 +61,8 @@ public class QueryEvaluator {
     private Multimap<String, QueryParser.QueryTerm> terms = null;
     private String modifiedQuery = null;
     private JexlContext ctx = new MapContext();
+    private CompiledPredicate compiled = null;
+    private Map<String, Set<FieldValue>> boundFields = new HashMap<String, Set<FieldValue>>();
 
     public QueryEvaluator(String query) throws ParseException {
         this.query = query;
@@ -62,6 +70,12 @@ public class QueryEvaluator {
         parser.execute(query);
         this.terms = parser.getQueryTerms();
         this.literals = parser.getQueryIdentifiers();
+
+        try {
+            this.compiled = CompiledPredicate.compile(query);
+        } catch (UnsupportedOperationException e) {
+            log.debug("Falling back to JEXL script evaluation for criteria: " + query, e);
+        }
     }
 
     public String getQuery() {
@@ -144,6 +158,9 @@ public class QueryEvaluator {
      */
     public boolean evaluate(Key topKey, EventFields eventFields) {
 
+        if (compiled != null)
+            return evaluateCompiled(topKey, eventFields);
+
         this.modifiedQuery = null;
         boolean rewritten = false;
 
@@ -213,6 +230,26 @@ public class QueryEvaluator {
         }
     } // End of method
 
+    private boolean evaluateCompiled(Key topKey, EventFields eventFields) {
+
+        boundFields.clear();
+        for (Entry<String, Set<FieldValue>> field : eventFields.asMap().entrySet()) {
+            String fName = removeInvalidChars(normalizeKey(topKey, field.getKey()));
+            if (literals.contains(fName))
+                boundFields.put(fName, field.getValue());
+        }
+
+        return compiled.evaluate(boundFields);
+    }
+
+    /**
+     * Whether the given field of an event is referenced by the criteria, and so needs to be in the event for it to be
+     * evaluated.
+     */
+    public boolean isQueried(Key topKey, String fieldKey) {
+        return literals.contains(removeInvalidChars(normalizeKey(topKey, fieldKey)));
+    }
+
     public String normalizeKey(Key topKey, String fieldKey) {
       return fieldKey;
     }
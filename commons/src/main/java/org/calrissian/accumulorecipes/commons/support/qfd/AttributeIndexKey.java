@@ -21,7 +21,6 @@ import static org.calrissian.accumulorecipes.commons.support.Constants.NULL_BYTE
 import static org.calrissian.accumulorecipes.commons.support.qfd.KeyValueIndex.INDEX_SEP;
 
 import org.apache.accumulo.core.data.Key;
-import org.apache.commons.lang.StringUtils;
 
 /**
  * A attribute index key represents an entry in an index table. The reason a separate object is used
@@ -54,20 +53,27 @@ public class AttributeIndexKey {
 
     public AttributeIndexKey(Key key) {
 
+        // the row is parsed in place, rather than split, as this is done for every entry read from the index
         String row = key.getRow().toString();
-        String parts[] = StringUtils.splitByWholeSeparatorPreserveAllTokens(row, INDEX_SEP);
-        int firstNBIdx = parts[3].indexOf(NULL_BYTE);
+        int sepLen = INDEX_SEP.length();
+        int secondStart = row.indexOf(INDEX_SEP, row.indexOf(INDEX_SEP) + sepLen) + sepLen;
+        int thirdStart = row.indexOf(INDEX_SEP, secondStart) + sepLen;
+        int thirdEnd = row.indexOf(INDEX_SEP, thirdStart);
+        if (thirdEnd == -1)
+            thirdEnd = row.length();
+
+        int firstNBIdx = row.indexOf(NULL_BYTE, thirdStart);
 
         if (row.startsWith(INDEX_V)) {
-            int lastNBIdx = parts[3].lastIndexOf(NULL_BYTE);
-            this.alias = parts[2];
-            this.key = parts[3].substring(0, firstNBIdx);
-            this.normalizedValue = parts[3].substring(firstNBIdx + 1, lastNBIdx);
-            this.shard = parts[3].substring(lastNBIdx + 1, parts[3].length());
+            int lastNBIdx = row.lastIndexOf(NULL_BYTE, thirdEnd - 1);
+            this.alias = row.substring(secondStart, thirdStart - sepLen);
+            this.key = row.substring(thirdStart, firstNBIdx);
+            this.normalizedValue = row.substring(firstNBIdx + 1, lastNBIdx);
+            this.shard = row.substring(lastNBIdx + 1, thirdEnd);
         } else if (row.startsWith(INDEX_K)) {
-            this.key = parts[2];
-            this.alias = parts[3].substring(0, firstNBIdx);
-            this.shard = parts[3].substring(firstNBIdx + 1, parts[3].length());
+            this.key = row.substring(secondStart, thirdStart - sepLen);
+            this.alias = row.substring(thirdStart, firstNBIdx);
+            this.shard = row.substring(firstNBIdx + 1, thirdEnd);
         }
     }
 
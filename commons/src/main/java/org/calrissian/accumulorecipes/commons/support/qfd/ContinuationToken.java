@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.support.qfd;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import org.apache.accumulo.core.data.Key;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The state of a paged query between pages: a fingerprint of the query it was issued for, the shards left to scan in
+ * the order they're scanned in and the last event returned from the first of them. It's encoded as a compressed, url
+ * safe string so it can be handed to clients. Nothing in it is run on the tablet servers, the query is planned again
+ * from the one passed in with each page and the token is only accepted for that same query.
+ */
+class ContinuationToken {
+
+    private static final int VERSION = 2;
+
+    /**
+     * Bounds on what's read back from a token, as tokens come from clients
+     */
+    static final int MAX_ENCODED_LENGTH = 1 << 22;
+    private static final int MAX_DECODED_BYTES = 1 << 24;
+    private static final int MAX_FIELD_BYTES = 1 << 16;
+
+    private final byte[] fingerprint;
+    private final List<String> shards;
+    private final Key lastKey;
+
+    ContinuationToken(byte[] fingerprint, List<String> shards, Key lastKey) {
+        this.fingerprint = fingerprint;
+        this.shards = shards;
+        this.lastKey = lastKey;
+    }
+
+    /**
+     * @return the fingerprint of a query, given the expression it's evaluated with
+     */
+    static byte[] fingerprint(String originalJexl) {
+        return Hashing.sha256().hashString(originalJexl, Charsets.UTF_8).asBytes();
+    }
+
+    List<String> getShards() {
+        return shards;
+    }
+
+    /**
+     * The row and column family of the last event returned from the first of the shards, or null if none have been
+     * returned from it yet
+     */
+    Key getLastKey() {
+        return lastKey;
+    }
+
+    String encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes));
+            WritableUtils.writeVInt(out, VERSION);
+            writeBytes(out, fingerprint);
+            WritableUtils.writeVInt(out, shards.size());
+            for (String shard : shards)
+                writeBytes(out, shard.getBytes("UTF-8"));
+            out.writeBoolean(lastKey != null);
+            if (lastKey != null)
+                writeBytes(out, lastKey.getColumnFamilyData().toArray());
+            out.close();
+            return Base64.encodeBase64URLSafeString(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads back an encoded token, checking that it was issued for the query with the given fingerprint.
+     *
+     * @throws IllegalArgumentException if the token is malformed or was issued for another query
+     */
+    static ContinuationToken decode(String token, byte[] expectedFingerprint) {
+        if (token.length() > MAX_ENCODED_LENGTH)
+            throw new IllegalArgumentException("Invalid continuation token: longer than " + MAX_ENCODED_LENGTH + " characters");
+
+        try {
+            DataInputStream in = new DataInputStream(ByteStreams.limit(
+                new InflaterInputStream(new ByteArrayInputStream(Base64.decodeBase64(token))), MAX_DECODED_BYTES));
+            int version = WritableUtils.readVInt(in);
+            if (version != VERSION)
+                throw new IllegalArgumentException("Unsupported continuation token version: " + version);
+
+            byte[] fingerprint = readBytes(in);
+            if (!MessageDigest.isEqual(fingerprint, expectedFingerprint))
+                throw new IllegalArgumentException("The continuation token was issued for a different query");
+
+            int numShards = WritableUtils.readVInt(in);
+            if (numShards <= 0)
+                throw new IllegalArgumentException("Invalid continuation token: no shards left to scan");
+            // the shards are read one at a time, so their number is only bounded by the bytes read
+            List<String> shards = new ArrayList<String>();
+            for (int i = 0; i < numShards; i++) {
+                String shard = new String(readBytes(in), "UTF-8");
+                if (i > 0 && shard.compareTo(shards.get(i - 1)) <= 0)
+                    throw new IllegalArgumentException("Invalid continuation token: shards out of order");
+                shards.add(shard);
+            }
+
+            Key lastKey = null;
+            if (in.readBoolean())
+                lastKey = new Key(new Text(shards.get(0)), new Text(readBytes(in)));
+
+            if (in.read() != -1)
+                throw new IllegalArgumentException("Invalid continuation token: unexpected trailing data");
+
+            return new ContinuationToken(fingerprint, shards, lastKey);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid continuation token", e);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        WritableUtils.writeVInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = WritableUtils.readVInt(in);
+        if (length < 0 || length > MAX_FIELD_BYTES)
+            throw new IllegalArgumentException("Invalid continuation token: field of " + length + " bytes");
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -15,25 +15,65 @@
  */
 package org.calrissian.accumulorecipes.commons.support.qfd;
 
+import static java.util.Arrays.copyOf;
+
 import org.apache.accumulo.core.data.Value;
 
+/**
+ * The cardinality and expiration of a global index entry. Values are encoded as a version byte followed by the
+ * cardinality and expiration as zig-zag varints. The legacy "count,expiration" (or just "count") string form is
+ * still decoded so that existing index tables keep working; legacy values always start with an ascii digit or a
+ * minus sign so they can't be confused with the version byte.
+ */
 public class GlobalIndexValue {
 
+    public static final byte VERSION_BINARY = 0x01;
+
+    private static final int MAX_VARLONG_BYTES = 10;
+
     private final long cardinatlity;
     private final long expiration;
 
     public GlobalIndexValue(Value value) {
+        this(value.get());
+    }
 
-        String str = new String(value.get());
-
-        int idx = str.indexOf(",");
+    public GlobalIndexValue(byte[] bytes) {
 
-        if(idx == -1) {
-            cardinatlity = Long.parseLong(str);
-            expiration = -1;
+        if(bytes.length > 0 && bytes[0] == VERSION_BINARY) {
+            long[] decoded = new long[2];
+            int offset = 1;
+            for(int i = 0; i < decoded.length; i++) {
+                long raw = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    if(offset >= bytes.length || shift > 63)
+                        throw new IllegalArgumentException("Truncated or malformed global index value");
+                    b = bytes[offset++];
+                    raw |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while((b & 0x80) != 0);
+                decoded[i] = (raw >>> 1) ^ -(raw & 1);
+            }
+            cardinatlity = decoded[0];
+            expiration = decoded[1];
         } else {
-            cardinatlity = Long.parseLong(str.substring(0, idx));
-            expiration = Long.parseLong(str.substring(idx + 1, str.length()));
+            int idx = -1;
+            for(int i = 0; i < bytes.length; i++) {
+                if(bytes[i] == ',') {
+                    idx = i;
+                    break;
+                }
+            }
+
+            if(idx == -1) {
+                cardinatlity = parseLong(bytes, 0, bytes.length);
+                expiration = -1;
+            } else {
+                cardinatlity = parseLong(bytes, 0, idx);
+                expiration = parseLong(bytes, idx + 1, bytes.length);
+            }
         }
     }
 
@@ -52,6 +92,42 @@ public class GlobalIndexValue {
     }
 
     public Value toValue() {
-        return new Value((Long.toString(cardinatlity) + "," + Long.toString(expiration)).getBytes());
+        byte[] bytes = new byte[1 + 2 * MAX_VARLONG_BYTES];
+        bytes[0] = VERSION_BINARY;
+        int offset = writeZigZagVarLong(cardinatlity, bytes, 1);
+        offset = writeZigZagVarLong(expiration, bytes, offset);
+        return new Value(copyOf(bytes, offset));
+    }
+
+    private static int writeZigZagVarLong(long value, byte[] bytes, int offset) {
+        long raw = (value << 1) ^ (value >> 63);
+        while((raw & ~0x7FL) != 0) {
+            bytes[offset++] = (byte) ((raw & 0x7F) | 0x80);
+            raw >>>= 7;
+        }
+        bytes[offset++] = (byte) raw;
+        return offset;
+    }
+
+    /**
+     * Parses an ascii encoded long directly from the given bytes without creating an intermediate string.
+     */
+    private static long parseLong(byte[] bytes, int start, int end) {
+        if(start >= end)
+            throw new NumberFormatException("Empty global index value");
+
+        boolean negative = bytes[start] == '-';
+        int i = negative ? start + 1 : start;
+        if(i >= end)
+            throw new NumberFormatException("Malformed global index value");
+
+        long result = 0;
+        for(; i < end; i++) {
+            int digit = bytes[i] - '0';
+            if(digit < 0 || digit > 9)
+                throw new NumberFormatException("Malformed global index value");
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
     }
 }
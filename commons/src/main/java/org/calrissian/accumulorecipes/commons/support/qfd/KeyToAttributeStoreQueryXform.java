@@ -28,6 +28,7 @@ import com.google.common.base.Function;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Value;
 import org.calrissian.accumulorecipes.commons.iterators.support.EventFields;
+import org.calrissian.accumulorecipes.commons.iterators.support.KryoContext;
 import org.calrissian.accumulorecipes.commons.support.attribute.metadata.MetadataSerDe;
 import org.calrissian.mango.domain.Attribute;
 import org.calrissian.mango.domain.AttributeStore;
@@ -40,18 +41,16 @@ public abstract class KeyToAttributeStoreQueryXform<V extends AttributeStore, B
 
     public static final Logger log = LoggerFactory.getLogger(KeyToAttributeStoreQueryXform.class);
 
-    private Kryo kryo;
     private TypeRegistry<String> typeRegistry;
     private MetadataSerDe metadataSerDe;
 
-    public KeyToAttributeStoreQueryXform(Kryo kryo, TypeRegistry<String> typeRegistry, MetadataSerDe metadataSerDe) {
-        this.kryo = kryo;
+    public KeyToAttributeStoreQueryXform(TypeRegistry<String> typeRegistry, MetadataSerDe metadataSerDe) {
         this.typeRegistry = typeRegistry;
         this.metadataSerDe = metadataSerDe;
     }
 
     protected Kryo getKryo() {
-        return kryo;
+        return KryoContext.get();
     }
 
     protected TypeRegistry<String> getTypeRegistry() {
@@ -61,7 +60,7 @@ public abstract class KeyToAttributeStoreQueryXform<V extends AttributeStore, B
     @Override
     public V apply(Map.Entry<Key, Value> keyValueEntry) {
         EventFields eventFields = new EventFields();
-        eventFields.read(kryo, new Input(keyValueEntry.getValue().get()), EventFields.class);
+        eventFields.read(KryoContext.get(), new Input(keyValueEntry.getValue().get()), EventFields.class);
         B entry = buildAttributeCollectionFromKey(keyValueEntry.getKey());
         for (Map.Entry<String,Set<EventFields.FieldValue>> fieldValue : eventFields.entrySet()) {
 
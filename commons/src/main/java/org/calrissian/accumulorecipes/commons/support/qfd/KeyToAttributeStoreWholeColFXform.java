@@ -15,23 +15,18 @@
  */
 package org.calrissian.accumulorecipes.commons.support.qfd;
 
-import static org.apache.commons.lang.StringUtils.splitPreserveAllTokens;
-import static org.calrissian.accumulorecipes.commons.support.Constants.NULL_BYTE;
+import static java.util.Arrays.copyOfRange;
 import static org.calrissian.accumulorecipes.commons.support.Constants.ONE_BYTE;
-import static org.calrissian.accumulorecipes.commons.util.RowEncoderUtil.decodeRow;
 import static org.calrissian.accumulorecipes.commons.support.attribute.Metadata.Visiblity.setVisibility;
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
-import com.esotericsoftware.kryo.Kryo;
 import com.google.common.base.Function;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Value;
 import org.calrissian.accumulorecipes.commons.support.attribute.metadata.MetadataSerDe;
+import org.calrissian.accumulorecipes.commons.util.EncodedRowView;
 import org.calrissian.mango.domain.Attribute;
 import org.calrissian.mango.domain.AttributeStore;
 import org.calrissian.mango.domain.BaseAttributeStoreBuilder;
@@ -43,47 +38,39 @@ public abstract class KeyToAttributeStoreWholeColFXform<V extends AttributeStore
 
   public static final Logger log = LoggerFactory.getLogger(KeyToAttributeStoreWholeColFXform.class);
 
-  private Kryo kryo;
   private TypeRegistry<String> typeRegistry;
   private MetadataSerDe metadataSerDe;
 
-  public KeyToAttributeStoreWholeColFXform(Kryo kryo, TypeRegistry<String> typeRegistry, MetadataSerDe metadataSerDe) {
-    this.kryo = kryo;
+  public KeyToAttributeStoreWholeColFXform(TypeRegistry<String> typeRegistry, MetadataSerDe metadataSerDe) {
     this.typeRegistry = typeRegistry;
     this.metadataSerDe = metadataSerDe;
   }
 
-  protected Kryo getKryo() {
-    return kryo;
-  }
-
   @Override
   public V apply(Map.Entry<Key,Value> keyValueEntry) {
     try {
 
       B entry = buildEntryFromKey(keyValueEntry.getKey());
 
-      List<Map.Entry<Key,Value>> groupedKVs = decodeRow(keyValueEntry.getKey(), keyValueEntry.getValue());
-
-      for (Map.Entry<Key,Value> groupedEvent : groupedKVs) {
-          ByteArrayInputStream bais = new ByteArrayInputStream(groupedEvent.getValue().get());
-          DataInputStream dis = new DataInputStream(bais);
-          dis.readInt();    // number of keys/values
-          dis.readLong();   // minimum expiration of keys and values
+      EncodedRowView groupedKVs = new EncodedRowView(keyValueEntry.getValue().get());
+      ShardValueView shardValue = new ShardValueView();
+      byte[] bytes = groupedKVs.getBackingArray();
 
-        List<Map.Entry<Key,Value>> keyValues = decodeRow(groupedEvent.getKey(), bais);
+      for (int i = 0; i < groupedKVs.size(); i++) {
+        shardValue.reset(bytes, groupedKVs.getValueOffset(i), groupedKVs.getValueLength(i));
 
-        for (Map.Entry<Key,Value> curEntry : keyValues) {
+        for (int j = 0; j < shardValue.size(); j++) {
 
-          String[] colQParts = splitPreserveAllTokens(curEntry.getKey().getColumnQualifier().toString(), NULL_BYTE);
-          String[] aliasValue = splitPreserveAllTokens(colQParts[1], ONE_BYTE);
-          String visibility = curEntry.getKey().getColumnVisibility().toString();
+          String aliasValue = new String(bytes, shardValue.getAliasValueOffset(j), shardValue.getAliasValueLength(j), "UTF-8");
+          int idx = aliasValue.indexOf(ONE_BYTE);
+          String visibility = shardValue.getVisibilityString(j);
 
           try {
-            Map<String,String> meta = metadataSerDe.deserialize(curEntry.getValue().get());
+            Map<String,String> meta = metadataSerDe.deserialize(copyOfRange(bytes, shardValue.getMetadataOffset(j),
+                shardValue.getMetadataOffset(j) + shardValue.getMetadataLength(j)));
             Map<String,String> metadata = (meta == null ? new HashMap<String,String>() : new HashMap<String,String>(meta));
             setVisibility(metadata, visibility);
-            Attribute attribute = new Attribute(colQParts[0], typeRegistry.decode(aliasValue[0], aliasValue[1]), metadata);
+            Attribute attribute = new Attribute(shardValue.getKey(j), typeRegistry.decode(aliasValue.substring(0, idx), aliasValue.substring(idx + 1)), metadata);
             entry.attr(attribute);
           } catch (Exception e) {
             log.error("There was an error deserializing the metadata for a attribute", e);
@@ -17,10 +17,13 @@ package org.calrissian.accumulorecipes.commons.support.qfd;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.Collections.singletonList;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.apache.commons.lang.StringUtils.join;
 import static org.apache.commons.lang.StringUtils.splitByWholeSeparatorPreserveAllTokens;
 import static org.apache.commons.lang.StringUtils.splitPreserveAllTokens;
 import static org.calrissian.accumulorecipes.commons.support.Constants.END_BYTE;
+import static org.calrissian.accumulorecipes.commons.support.Constants.INDEX_D;
 import static org.calrissian.accumulorecipes.commons.support.Constants.INDEX_K;
 import static org.calrissian.accumulorecipes.commons.support.Constants.INDEX_V;
 import static org.calrissian.accumulorecipes.commons.support.Constants.NULL_BYTE;
@@ -28,10 +31,20 @@ import static org.calrissian.accumulorecipes.commons.support.Constants.ONE_BYTE;
 import static org.calrissian.accumulorecipes.commons.support.attribute.Metadata.Visiblity.getVisibility;
 import static org.calrissian.accumulorecipes.commons.util.Scanners.closeableIterable;
 import static org.calrissian.mango.collect.CloseableIterables.transform;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.google.common.base.Function;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
 import org.apache.accumulo.core.client.BatchScanner;
@@ -53,6 +66,7 @@ import org.calrissian.accumulorecipes.commons.iterators.GlobalIndexTypesIterator
 import org.calrissian.accumulorecipes.commons.iterators.GlobalIndexUniqueKeyValueIterator;
 import org.calrissian.accumulorecipes.commons.support.Constants;
 import org.calrissian.accumulorecipes.commons.support.attribute.Metadata;
+import org.calrissian.accumulorecipes.commons.support.qfd.planner.GlobalIndexCache;
 import org.calrissian.mango.collect.CloseableIterable;
 import org.calrissian.mango.domain.Attribute;
 import org.calrissian.mango.domain.Pair;
@@ -70,6 +84,12 @@ public class KeyValueIndex<T extends Entity> {
     private final BatchWriter writer;
     private final StoreConfig config;
 
+    private final IndexBuffer buffer;
+    private final ScheduledExecutorService bufferFlusher;
+    private volatile Exception bufferFailure;
+
+    private volatile GlobalIndexCache globalIndexCache;
+
     private static final Text EMPTY_TEXT = new Text();
 
     public KeyValueIndex(Connector connector, String indexTable, ShardBuilder<T> shardBuilder, StoreConfig config, TypeRegistry<String> typeRegistry) throws TableNotFoundException, TableExistsException, AccumuloSecurityException, AccumuloException {
@@ -85,15 +105,74 @@ public class KeyValueIndex<T extends Entity> {
             connector.tableOperations().create(indexTable);
 
         writer = connector.createBatchWriter(indexTable, config.getMaxMemory(), config.getMaxLatency(), config.getMaxWriteThreads());
+
+        if (config.getIndexBufferSize() > 0) {
+            buffer = new IndexBuffer();
+            if (config.getIndexBufferLatency() > 0) {
+                bufferFlusher = newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("index-buffer-flusher-%d").build());
+                bufferFlusher.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            flushBuffer();
+                        } catch (Exception e) {
+                            bufferFailure = e;
+                        }
+                    }
+                }, config.getIndexBufferLatency(), config.getIndexBufferLatency(), MILLISECONDS);
+            } else {
+                bufferFlusher = null;
+            }
+        } else {
+            buffer = null;
+            bufferFlusher = null;
+        }
     }
 
+    /**
+     * Aggregates the cardinalities and expirations of the given items and writes them to the global index. When the
+     * index is buffered, the aggregates are merged into the buffer instead and only written once it fills up, its
+     * latency has passed or it is flushed.
+     */
     public void indexKeyValues(Iterable<T> items) {
+        if (buffer != null) {
+            checkBufferFailure();
+            if (buffer.merge(aggregate(items)) >= config.getIndexBufferSize())
+                flushBuffer();
+        } else {
+            try {
+                writer.addMutations(buildIndexMutations(items));
+            } catch (MutationsRejectedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Aggregates the cardinalities and expirations of the given items and builds the key and value index mutations
+     * for them without writing anything. This allows the mutations to be encoded on a different thread than the one
+     * writing them.
+     */
+    public Collection<Mutation> buildIndexMutations(Iterable<T> items) {
+        return buildIndexMutations(aggregate(items));
+    }
+
+    /**
+     * Whether or not index entries are being aggregated across calls to {@link #indexKeyValues(Iterable)}.
+     */
+    public boolean isBuffered() {
+        return buffer != null;
+    }
+
+    private Map<String, IndexAggregate> aggregate(Iterable<T> items) {
 
-        Map<String, Long> indexCache = new HashMap<String, Long>();
-        Map<String, Long> expirationCache = new HashMap<String, Long>();
+        Map<String, IndexAggregate> indexCache = new HashMap<String, IndexAggregate>();
 
         for (T item : items) {
             String shardId = shardBuilder.buildShard(item);
+            long documentExpiration = Long.MIN_VALUE;
+            Set<String> documentVisibilities = new TreeSet<String>();
             for (Attribute attribute : item.getAttributes()) {
                 String[] strings = new String[]{
                     shardId,
@@ -105,28 +184,74 @@ public class KeyValueIndex<T extends Entity> {
                 };
 
                 String cacheKey = join(strings, ONE_BYTE);
-                Long count = indexCache.get(cacheKey);
-                if (count == null)
-                    count = 0l;
+                long expiration = Metadata.Expiration.getExpiration(attribute.getMetadata(), -1);
+                documentVisibilities.add(strings[4]);
 
-                Long expiration = expirationCache.get(cacheKey);
-                if(expiration == null)
-                    expiration = 0l;
+                IndexAggregate aggregate = indexCache.get(cacheKey);
+                if (aggregate == null)
+                    indexCache.put(cacheKey, new IndexAggregate(1, expiration));
+                else
+                    aggregate.merge(1, expiration);
 
-                Long curExpiration = Metadata.Expiration.getExpiration(attribute.getMetadata(), -1);
-                if(curExpiration == -1)
-                    expiration = -1l;
+                // the document is around for as long as any of its attributes are
+                if (documentExpiration == -1 || expiration == -1)
+                    documentExpiration = -1;
                 else
-                    expiration = Math.max(expiration, curExpiration);
+                    documentExpiration = Math.max(documentExpiration, expiration);
+            }
 
-                indexCache.put(cacheKey, ++count);
-                expirationCache.put(cacheKey, expiration);
+            if (documentExpiration != Long.MIN_VALUE) {
+                String cacheKey = join(new String[]{shardId, item.getType(), documentVisibility(documentVisibilities)}, ONE_BYTE);
+                IndexAggregate aggregate = indexCache.get(cacheKey);
+                if (aggregate == null)
+                    indexCache.put(cacheKey, new IndexAggregate(1, documentExpiration));
+                else
+                    aggregate.merge(1, documentExpiration);
             }
         }
 
-        for (Map.Entry<String, Long> indexCacheKey : indexCache.entrySet()) {
+        return indexCache;
+    }
+
+    /**
+     * A document can be seen by anyone who can see one of its attributes, so its visibility is the disjunction of
+     * theirs.
+     */
+    private static String documentVisibility(Set<String> attributeVisibilities) {
+        if (attributeVisibilities.contains(""))
+            return "";
+        if (attributeVisibilities.size() == 1)
+            return attributeVisibilities.iterator().next();
+
+        StringBuilder visibility = new StringBuilder();
+        for (String attributeVisibility : attributeVisibilities) {
+            if (visibility.length() > 0)
+                visibility.append("|");
+            visibility.append("(").append(attributeVisibility).append(")");
+        }
+        return visibility.toString();
+    }
+
+    private Collection<Mutation> buildIndexMutations(Map<String, IndexAggregate> indexCache) {
+
+        Collection<Mutation> mutations = new ArrayList<Mutation>(indexCache.size() * 2);
+        for (Map.Entry<String, IndexAggregate> indexCacheKey : indexCache.entrySet()) {
 
             String[] indexParts = splitPreserveAllTokens(indexCacheKey.getKey(), ONE_BYTE);
+
+            /**
+             * Document counts are kept per shard and type so that the planner can weigh scanning whole shards
+             * against using the field index. They're also kept per document visibility, so that a scan only
+             * counts the documents it's allowed to see.
+             */
+            if (indexParts.length == 3) {
+                Mutation countMutation = new Mutation(INDEX_D + INDEX_SEP + indexParts[0] + NULL_BYTE + indexParts[1]);
+                countMutation.put(EMPTY_TEXT, EMPTY_TEXT, new ColumnVisibility(indexParts[2]),
+                    indexCacheKey.getValue().toIndexValue().toValue());
+                mutations.add(countMutation);
+                continue;
+            }
+
             String alias = indexParts[2];
             String key = indexParts[1];
             String shard = indexParts[0];
@@ -137,19 +262,40 @@ public class KeyValueIndex<T extends Entity> {
             Mutation keyMutation = new Mutation(INDEX_K + INDEX_SEP + type + INDEX_SEP + key + INDEX_SEP + alias + NULL_BYTE + shard);
             Mutation valueMutation = new Mutation(INDEX_V + INDEX_SEP + type + INDEX_SEP + alias + INDEX_SEP + key + NULL_BYTE + val + NULL_BYTE + shard);
 
-            Long expiration = expirationCache.get(indexCacheKey.getKey());
-            Value value = new GlobalIndexValue(indexCacheKey.getValue(), expiration).toValue();
+            Value value = indexCacheKey.getValue().toIndexValue().toValue();
             keyMutation.put(EMPTY_TEXT, EMPTY_TEXT, new ColumnVisibility(vis), value);
             valueMutation.put(EMPTY_TEXT, EMPTY_TEXT, new ColumnVisibility(vis), value);
-            try {
-                writer.addMutation(keyMutation);
-                writer.addMutation(valueMutation);
-            } catch (MutationsRejectedException e) {
-                throw new RuntimeException(e);
-            }
+            mutations.add(keyMutation);
+            mutations.add(valueMutation);
+        }
+
+        GlobalIndexCache globalIndexCache = this.globalIndexCache;
+        if (globalIndexCache != null) {
+            Collection<Text> rows = new ArrayList<Text>(mutations.size());
+            for (Mutation mutation : mutations)
+                rows.add(new Text(mutation.getRow()));
+            globalIndexCache.invalidate(rows);
+        }
+        return mutations;
+    }
+
+    private void flushBuffer() {
+        Map<String, IndexAggregate> aggregates = buffer.drain();
+        if (aggregates.isEmpty())
+            return;
+
+        try {
+            writer.addMutations(buildIndexMutations(aggregates));
+        } catch (MutationsRejectedException e) {
+            throw new RuntimeException(e);
         }
     }
 
+    private void checkBufferFailure() {
+        if (bufferFailure != null)
+            throw new RuntimeException(bufferFailure);
+    }
+
     public CloseableIterable<Pair<String,String>> uniqueKeys(String prefix, String type, Auths auths) {
         return uniqueKeys(connector, indexTable, prefix, type, config.getMaxQueryThreads(), auths);
     }
@@ -259,11 +405,109 @@ public class KeyValueIndex<T extends Entity> {
         }
     }
 
+    /**
+     * Sets the cache of global index lookups that the rows of the mutations built from here on are invalidated in.
+     * This happens whether the mutations are written right away, by the buffer or by the ingest pipeline.
+     */
+    public void setGlobalIndexCache(GlobalIndexCache globalIndexCache) {
+        this.globalIndexCache = globalIndexCache;
+    }
+
+    public BatchWriter getWriter() {
+        return writer;
+    }
+
     public void flush() throws Exception {
+        if (buffer != null) {
+            checkBufferFailure();
+            flushBuffer();
+        }
         writer.flush();
     }
 
+    /**
+     * Lets a flush of the buffer that is already running finish before writing out whatever is left in it and
+     * closing the writer.
+     */
     public void shutdown() throws Exception {
+        if (buffer != null) {
+            if (bufferFlusher != null) {
+                bufferFlusher.shutdown();
+                bufferFlusher.awaitTermination(Long.MAX_VALUE, MILLISECONDS);
+            }
+            flushBuffer();
+        }
         writer.close();
     }
+
+    /**
+     * A running cardinality and expiration for a single global index entry. Expirations merge the same way they do
+     * in the {@link org.calrissian.accumulorecipes.commons.iterators.GlobalIndexCombiner}: any entry that never expires
+     * keeps the whole aggregate from expiring, otherwise the latest expiration wins.
+     */
+    private static class IndexAggregate {
+
+        private long cardinality;
+        private long expiration;
+
+        private IndexAggregate(long cardinality, long expiration) {
+            this.cardinality = cardinality;
+            this.expiration = expiration;
+        }
+
+        public synchronized void merge(long cardinality, long expiration) {
+            this.cardinality += cardinality;
+            if (this.expiration == -1 || expiration == -1)
+                this.expiration = -1;
+            else
+                this.expiration = Math.max(this.expiration, expiration);
+        }
+
+        public synchronized void merge(IndexAggregate other) {
+            merge(other.cardinality, other.expiration);
+        }
+
+        public synchronized GlobalIndexValue toIndexValue() {
+            return new GlobalIndexValue(cardinality, expiration);
+        }
+    }
+
+    /**
+     * Aggregates index entries across many saves from many threads. Merging only needs the read lock since the
+     * underlying map is concurrent; draining takes the write lock so that no merge can land in a map that has
+     * already been handed off to the writer.
+     */
+    private static class IndexBuffer {
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private ConcurrentMap<String, IndexAggregate> entries = new ConcurrentHashMap<String, IndexAggregate>();
+
+        /**
+         * @return the number of distinct entries in the buffer after merging
+         */
+        public int merge(Map<String, IndexAggregate> aggregates) {
+            lock.readLock().lock();
+            try {
+                for (Map.Entry<String, IndexAggregate> aggregate : aggregates.entrySet()) {
+                    IndexAggregate existing = entries.putIfAbsent(aggregate.getKey(), aggregate.getValue());
+                    if (existing != null)
+                        existing.merge(aggregate.getValue());
+                }
+                return entries.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        public Map<String, IndexAggregate> drain() {
+            lock.writeLock().lock();
+            try {
+                Map<String, IndexAggregate> drained = entries;
+                entries = new ConcurrentHashMap<String, IndexAggregate>();
+                return drained;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
 }
@@ -15,70 +15,94 @@
  */
 package org.calrissian.accumulorecipes.commons.support.qfd;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.Collections.EMPTY_LIST;
 import static java.util.EnumSet.allOf;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 import static org.apache.accumulo.core.iterators.IteratorUtil.IteratorScope;
 import static org.apache.accumulo.core.iterators.IteratorUtil.IteratorScope.majc;
-import static org.calrissian.accumulorecipes.commons.iterators.support.EventFields.initializeKryo;
+import static org.apache.commons.lang.StringUtils.splitPreserveAllTokens;
 import static org.calrissian.accumulorecipes.commons.support.Constants.END_BYTE;
 import static org.calrissian.accumulorecipes.commons.support.Constants.NULL_BYTE;
 import static org.calrissian.accumulorecipes.commons.support.Constants.ONE_BYTE;
 import static org.calrissian.accumulorecipes.commons.support.Constants.PREFIX_FI;
 import static org.calrissian.accumulorecipes.commons.support.attribute.Metadata.Visiblity.VISIBILITY;
 import static org.calrissian.accumulorecipes.commons.support.attribute.Metadata.Visiblity.getVisibility;
-import static org.calrissian.accumulorecipes.commons.util.RowEncoderUtil.encodeRow;
 import static org.calrissian.accumulorecipes.commons.util.Scanners.closeableIterable;
+import static org.calrissian.mango.collect.CloseableIterables.filter;
 import static org.calrissian.mango.collect.CloseableIterables.transform;
 import static org.calrissian.mango.collect.CloseableIterables.wrap;
 import static org.calrissian.mango.criteria.support.NodeUtils.isEmpty;
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
-import com.esotericsoftware.kryo.Kryo;
 import com.google.common.base.Function;
-import com.google.common.collect.ArrayListMultimap;
+import com.google.common.base.Predicate;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
 import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.BatchWriter;
 import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.client.IteratorSetting;
-import org.apache.accumulo.core.client.MutationsRejectedException;
+import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.client.TableExistsException;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.PartialKey;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.security.Authorizations;
 import org.apache.accumulo.core.security.ColumnVisibility;
 import org.apache.hadoop.io.Text;
 import org.calrissian.accumulorecipes.commons.domain.Auths;
+import org.calrissian.accumulorecipes.commons.domain.DecodeOptions;
+import org.calrissian.accumulorecipes.commons.domain.QueryBudget;
+import org.calrissian.accumulorecipes.commons.domain.QueryExplanation;
+import org.calrissian.accumulorecipes.commons.domain.QueryPage;
+import org.calrissian.accumulorecipes.commons.domain.QueryResults;
+import org.calrissian.accumulorecipes.commons.domain.SortOptions;
 import org.calrissian.accumulorecipes.commons.domain.StoreConfig;
 import org.calrissian.accumulorecipes.commons.iterators.BooleanLogicIterator;
 import org.calrissian.accumulorecipes.commons.iterators.EmptyEncodedRowFilter;
 import org.calrissian.accumulorecipes.commons.iterators.EvaluatingIterator;
+import org.calrissian.accumulorecipes.commons.iterators.FacetIterator;
 import org.calrissian.accumulorecipes.commons.iterators.FieldIndexExpirationFilter;
 import org.calrissian.accumulorecipes.commons.iterators.GlobalIndexCombiner;
 import org.calrissian.accumulorecipes.commons.iterators.GlobalIndexExpirationFilter;
+import org.calrissian.accumulorecipes.commons.iterators.HistogramIterator;
+import org.calrissian.accumulorecipes.commons.iterators.MatchCountIterator;
 import org.calrissian.accumulorecipes.commons.iterators.OptimizedQueryIterator;
+import org.calrissian.accumulorecipes.commons.iterators.TopKIterator;
 import org.calrissian.accumulorecipes.commons.iterators.support.NodeToJexl;
+import org.calrissian.accumulorecipes.commons.iterators.support.QueryCounters;
 import org.calrissian.accumulorecipes.commons.support.attribute.Metadata;
 import org.calrissian.accumulorecipes.commons.support.attribute.metadata.MetadataSerDe;
 import org.calrissian.accumulorecipes.commons.support.attribute.metadata.SimpleMetadataSerDe;
+import org.calrissian.accumulorecipes.commons.support.qfd.planner.GlobalIndexCache;
 import org.calrissian.accumulorecipes.commons.support.qfd.planner.QueryPlanner;
 import org.calrissian.accumulorecipes.commons.support.qfd.planner.visitors.GlobalIndexVisitor;
+import org.calrissian.accumulorecipes.commons.util.ParallelTransformIterable;
 import org.calrissian.mango.collect.CloseableIterable;
+import org.calrissian.mango.criteria.domain.EqualsLeaf;
 import org.calrissian.mango.criteria.domain.Node;
+import org.calrissian.mango.criteria.domain.ParentNode;
 import org.calrissian.mango.domain.Attribute;
 import org.calrissian.mango.domain.entity.Entity;
 import org.calrissian.mango.types.TypeRegistry;
@@ -88,7 +112,6 @@ import org.calrissian.mango.types.TypeRegistry;
 public abstract class QfdHelper<T extends Entity> {
 
 
-    private static final Kryo kryo = new Kryo();
     private final Connector connector;
     private final String indexTable;
     private final String shardTable;
@@ -100,6 +123,9 @@ public abstract class QfdHelper<T extends Entity> {
     private MetadataSerDe metadataSerDe = new SimpleMetadataSerDe();
 
     private KeyValueIndex<T> keyValueIndex;
+    private final QfdIngestPipeline<T> ingestPipeline;
+    private final GlobalIndexCache globalIndexCache;
+    private ExecutorService decoders;
 
     public QfdHelper(Connector connector, String indexTable, String shardTable, StoreConfig config,
         ShardBuilder<T> shardBuilder, TypeRegistry<String> typeRegistry, KeyValueIndex<T> keyValueIndex, NodeToJexl nodeToJexl)
@@ -148,17 +174,21 @@ public abstract class QfdHelper<T extends Entity> {
             connector.tableOperations().attachIterator(this.shardTable, emptyDataFilter, Sets.newEnumSet(scopes, IteratorScope.class));
         }
 
-        initializeKryo(kryo);
         this.shardWriter = connector.createBatchWriter(shardTable, config.getMaxMemory(), config.getMaxLatency(),
             config.getMaxWriteThreads());
-    }
 
+        this.ingestPipeline = config.getIngestThreads() > 0 ?
+            new QfdIngestPipeline<T>(this, config.getIngestThreads(), config.getIngestQueueSize()) : null;
 
-    public static Kryo getKryo() {
-        return kryo;
+        this.globalIndexCache = config.getIndexCacheSize() > 0 ?
+            new GlobalIndexCache(config.getIndexCacheSize(), config.getIndexCacheTtl()) : null;
+        keyValueIndex.setGlobalIndexCache(globalIndexCache);
     }
 
+
     public void flush() throws Exception {
+        if (ingestPipeline != null)
+            ingestPipeline.flush();
         shardWriter.flush();
         keyValueIndex.flush();
     }
@@ -168,81 +198,94 @@ public abstract class QfdHelper<T extends Entity> {
     }
 
     /**
-     * Items get saved into a sharded table to parallelize queries & ingest.
+     * Items get saved into a sharded table to parallelize queries & ingest. When the store has been configured with
+     * ingest threads, the items are encoded on the ingest pipeline instead of the calling thread.
      */
     public void save(Iterable<T> items) {
         checkNotNull(items);
 
-        Value shardVal = new Value();
-        Value fiVal = new Value();
-        Text forwardCF = new Text();
-        Text forwardCQ = new Text();
-        Text fieldIndexCF = new Text();
-        Text fieldIndexCQ = new Text();
+        if (ingestPipeline != null) {
+            ingestPipeline.save(items);
+            return;
+        }
 
         try {
-
             for (T item : items) {
+                Mutation shardMutation = buildShardMutation(item);
+                if (shardMutation != null)
+                    shardWriter.addMutation(shardMutation);
+            }
+            keyValueIndex.indexKeyValues(items);
 
-                //If there are no getAttributes then don't write anything to the data store.
-                if (item.size() > 0) {
-                    String id = buildId(item);
+        } catch (RuntimeException re) {
+            throw re;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-                    String shardId = shardBuilder.buildShard(item);
+    /**
+     * Builds the shard table mutation (both the encoded rows and the field index entries) for a single item.
+     * This is safe to call from multiple threads concurrently.
+     *
+     * @return the mutation or null if the item has no attributes to write
+     */
+    protected Mutation buildShardMutation(T item) {
 
-                    Multimap<ColumnVisibility,Map.Entry<Key,Value>> visToKeyCache = ArrayListMultimap.create();
-                    Mutation shardMutation = new Mutation(shardId);
+        //If there are no getAttributes then don't write anything to the data store.
+        if (item.size() == 0)
+            return null;
 
-                    long minExpiration = Long.MAX_VALUE;
-                    for (Attribute attribute : item.getAttributes()) {
-                        String visibility = getVisibility(attribute.getMetadata(), "");
-                        String aliasValue = typeRegistry.getAlias(attribute.getValue()) + ONE_BYTE +
-                            typeRegistry.encode(attribute.getValue());
+        Value fiVal = new Value();
+        Text fieldIndexCF = new Text();
+        Text fieldIndexCQ = new Text();
 
-                        ColumnVisibility columnVisibility = new ColumnVisibility(visibility);
+        try {
+            String id = buildId(item);
 
-                        Map<String,String> meta = new HashMap<String, String>(attribute.getMetadata());
-                        meta.remove(Metadata.Visiblity.VISIBILITY);
+            String shardId = shardBuilder.buildShard(item);
 
-                        Long expiration = Metadata.Expiration.getExpiration(meta, -1);
-                        shardVal.set(metadataSerDe.serialize(meta));
-                        fiVal.set(expiration.toString().getBytes());
+            Map<ColumnVisibility,ShardValueEncoder> visToEncoder = new LinkedHashMap<ColumnVisibility,ShardValueEncoder>();
+            Mutation shardMutation = new Mutation(shardId);
 
-                        if(expiration > -1)
-                            minExpiration = Math.min(minExpiration, expiration);
+            long timestamp  = buildAttributeTimestampForEntity(item);
+            for (Attribute attribute : item.getAttributes()) {
+                String visibility = getVisibility(attribute.getMetadata(), "");
+                String aliasValue = typeRegistry.getAlias(attribute.getValue()) + ONE_BYTE +
+                    typeRegistry.encode(attribute.getValue());
 
-                        forwardCF.set(expiration.toString());  // no need to copy the id when this is going to be rolled up anyways
-                        forwardCQ.set(attribute.getKey() + NULL_BYTE + aliasValue);
-                        fieldIndexCF.set(PREFIX_FI + NULL_BYTE + buildAttributeKey(item, attribute.getKey()));
-                        fieldIndexCQ.set(aliasValue + NULL_BYTE + id);
+                ColumnVisibility columnVisibility = new ColumnVisibility(visibility);
 
-                        long timestamp  = buildAttributeTimestampForEntity(item);
+                Map<String,String> meta = new HashMap<String, String>(attribute.getMetadata());
+                meta.remove(Metadata.Visiblity.VISIBILITY);
 
-                        Key key = new Key(new Text(shardId), forwardCF, forwardCQ, columnVisibility, timestamp);
-                        Value valuePart = new Value(shardVal);
-                        visToKeyCache.put(columnVisibility, Maps.immutableEntry(key, valuePart));
+                Long expiration = Metadata.Expiration.getExpiration(meta, -1);
+                fiVal.set(expiration.toString().getBytes());
+                // an attribute expires relative to its own timestamp, when it has one, both in the shard value and
+                // in the field index entry
+                long attributeTimestamp = Metadata.Timestamp.getTimestamp(meta, timestamp);
 
-                        shardMutation.put(fieldIndexCF,
-                            fieldIndexCQ,
-                            columnVisibility,
-                            timestamp,
-                            fiVal);
-                    }
+                fieldIndexCF.set(PREFIX_FI + NULL_BYTE + buildAttributeKey(item, attribute.getKey()));
+                fieldIndexCQ.set(aliasValue + NULL_BYTE + id);
 
-                  for(ColumnVisibility colVis : visToKeyCache.keySet()) {
-                    Collection<Map.Entry<Key,Value>> keysValuesToEncode = visToKeyCache.get(colVis);
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    DataOutputStream dout = new DataOutputStream(baos);
-                    dout.writeInt(keysValuesToEncode.size());
-                    long expirationToWrite = minExpiration == Long.MAX_VALUE ? -1 : minExpiration;
-                    dout.writeLong(expirationToWrite);   // -1 means don't expire.
-                    encodeRow(keysValuesToEncode, baos);
-                    shardMutation.put(new Text(id), new Text(), colVis, buildAttributeTimestampForEntity(item), new Value(baos.toByteArray()));
-                  }
-                  shardWriter.addMutation(shardMutation);
+                ShardValueEncoder encoder = visToEncoder.get(columnVisibility);
+                if (encoder == null) {
+                    encoder = new ShardValueEncoder();
+                    visToEncoder.put(columnVisibility, encoder);
                 }
+                encoder.add(attribute.getKey(), aliasValue.getBytes("UTF-8"), columnVisibility.getExpression(),
+                    attributeTimestamp, expiration, metadataSerDe.serialize(meta));
+
+                shardMutation.put(fieldIndexCF,
+                    fieldIndexCQ,
+                    columnVisibility,
+                    attributeTimestamp,
+                    fiVal);
             }
-            keyValueIndex.indexKeyValues(items);
+
+            for(Map.Entry<ColumnVisibility,ShardValueEncoder> visEncoder : visToEncoder.entrySet())
+                shardMutation.put(new Text(id), new Text(), visEncoder.getKey(), timestamp, visEncoder.getValue().toValue());
+            return shardMutation;
 
         } catch (RuntimeException re) {
             throw re;
@@ -253,50 +296,503 @@ public abstract class QfdHelper<T extends Entity> {
 
     public CloseableIterable<T> query(BatchScanner scanner, GlobalIndexVisitor globalIndexVisitor, Set<String> types, Node query,
         Function<Map.Entry<Key, Value>, T> transform, Set<String> selectFields, Auths auths) {
+        return query(scanner, globalIndexVisitor, types, query, transform, selectFields, auths, null);
+    }
+
+    /**
+     * Runs the given query against the shard table. When decode options are given, the results are transformed on
+     * the decode pool of the store instead of lazily on the thread consuming them.
+     */
+    public CloseableIterable<T> query(BatchScanner scanner, GlobalIndexVisitor globalIndexVisitor, Set<String> types, Node query,
+        Function<Map.Entry<Key, Value>, T> transform, Set<String> selectFields, Auths auths, DecodeOptions decodeOptions) {
+        return query(scanner, globalIndexVisitor, types, query, transform, selectFields, auths, decodeOptions, null);
+    }
+
+    /**
+     * Runs the given query against the shard table. When counters are given, the tablet servers return the counters
+     * of each range they scan along with the results. Those are removed from the results and summed into the given
+     * counters as the results are read, so they're complete once the results have been read through.
+     */
+    public CloseableIterable<T> query(BatchScanner scanner, GlobalIndexVisitor globalIndexVisitor, Set<String> types, Node query,
+        Function<Map.Entry<Key, Value>, T> transform, Set<String> selectFields, Auths auths, DecodeOptions decodeOptions,
+        final QueryCounters counters) {
         checkNotNull(query);
         checkNotNull(auths);
 
 
-        QueryPlanner queryPlan = new QueryPlanner(query, globalIndexVisitor, typeRegistry);
-
-        if (isEmpty(queryPlan.getOptimizedQuery()))
+        PlannedQuery plannedQuery = plan(globalIndexVisitor, types, query);
+        if (plannedQuery.isEmpty())
             return wrap(EMPTY_LIST);
 
-        String jexl = nodeToJexl.transform(types, queryPlan.getOptimizedQuery());
-        String originalJexl = nodeToJexl.transform(types, query);
-        Set<String> shards = queryPlan.getShards();
+        IteratorSetting setting = configure(scanner, plannedQuery, selectFields);
+        OptimizedQueryIterator.setProfile(setting, counters != null);
+        scanner.addScanIterator(setting);
 
-        Collection<Range> ranges = new HashSet<Range>();
-        // If we were able to determine from the index table that we don't have a match, let's just scan beyond the range of the table
-        if(jexl.equals("()") || jexl.equals("") || shards.size() == 0)
-            ranges.add(new Range(END_BYTE));
-        else
-            for (String shard : shards)
-                ranges.add(new Range(shard));
+        CloseableIterable<Map.Entry<Key, Value>> results = closeableIterable(scanner);
+        if (counters != null) {
+            results = filter(results, new Predicate<Map.Entry<Key, Value>>() {
+                @Override
+                public boolean apply(Map.Entry<Key, Value> entry) {
+                    if (QueryCounters.isCountersKey(entry.getKey())) {
+                        counters.add(new QueryCounters(entry.getValue()));
+                        return false;
+                    }
+                    return true;
+                }
+            });
+        }
 
+        if (decodeOptions != null)
+            return new ParallelTransformIterable<Map.Entry<Key, Value>, T>(results, transform, decodeOptions, getDecoders());
+        return transform(results, transform);
+    }
 
-        scanner.setRanges(ranges);
+    /**
+     * Runs the given query against the shard table, returning only its first results in the given order. Each tablet
+     * server keeps the best results of each range it scans in a bounded heap and only returns those, which are then
+     * merged here through a bounded heap of their own. Results are decoded once the query has been run.
+     * <p/>
+     * When sorting on an attribute which isn't one of the select fields, the attribute is returned with the results
+     * as well.
+     */
+    public CloseableIterable<T> query(BatchScanner scanner, GlobalIndexVisitor globalIndexVisitor, Set<String> types, Node query,
+        Function<Map.Entry<Key, Value>, T> transform, Set<String> selectFields, SortOptions sortOptions) {
+        checkNotNull(query);
+        checkNotNull(sortOptions);
+
+        try {
+            PlannedQuery plannedQuery = plan(globalIndexVisitor, types, query);
+            if (plannedQuery.isEmpty())
+                return wrap(EMPTY_LIST);
+
+            if (selectFields != null && sortOptions.getField() != null && !selectFields.contains(sortOptions.getField())) {
+                selectFields = new HashSet<String>(selectFields);
+                selectFields.add(sortOptions.getField());
+            }
+
+            scanner.addScanIterator(configure(scanner, plannedQuery, selectFields));
+            IteratorSetting topKSetting = new IteratorSetting(17, TopKIterator.class);
+            TopKIterator.setSortOptions(topKSetting, sortOptions);
+            scanner.addScanIterator(topKSetting);
+
+            Comparator<TopKIterator.Ranked> bestFirst = TopKIterator.bestFirst(sortOptions);
+            Comparator<TopKIterator.Ranked> worstFirst = Collections.reverseOrder(bestFirst);
+            PriorityQueue<TopKIterator.Ranked> heap = new PriorityQueue<TopKIterator.Ranked>(sortOptions.getLimit() + 1, worstFirst);
+            for (Map.Entry<Key, Value> entry : scanner) {
+                TopKIterator.Ranked ranked = TopKIterator.rank(entry.getKey(), entry.getValue(), sortOptions.getField());
+                if (heap.size() < sortOptions.getLimit() || worstFirst.compare(ranked, heap.peek()) > 0) {
+                    heap.add(ranked);
+                    if (heap.size() > sortOptions.getLimit())
+                        heap.poll();
+                }
+            }
+
+            List<TopKIterator.Ranked> sorted = new ArrayList<TopKIterator.Ranked>(heap);
+            Collections.sort(sorted, bestFirst);
+            List<T> results = new ArrayList<T>(sorted.size());
+            for (TopKIterator.Ranked ranked : sorted)
+                results.add(transform.apply(Maps.immutableEntry(ranked.getKey(), ranked.getValue())));
+            return wrap(results);
+        } finally {
+            scanner.close();
+        }
+    }
+
+    /**
+     * Runs the given query against the shard table within the given budget. The tablet servers stop evaluating each
+     * range once the deadline has passed or they've returned the maximum number of results from it, reporting the
+     * ranges they cut short. The results are read here until there are no more, the deadline passes or the maximum
+     * number of results has been read, after which the scanner is closed.
+     */
+    public QueryResults<T> query(BatchScanner scanner, GlobalIndexVisitor globalIndexVisitor, Set<String> types, Node query,
+        Function<Map.Entry<Key, Value>, T> transform, Set<String> selectFields, QueryBudget budget) {
+        checkNotNull(query);
+        checkNotNull(budget);
+
+        long deadline = System.currentTimeMillis() + budget.getTimeout(TimeUnit.MILLISECONDS);
+        try {
+            PlannedQuery plannedQuery = plan(globalIndexVisitor, types, query);
+            if (plannedQuery.isEmpty())
+                return new QueryResults<T>(Collections.<T>emptyList(), true);
+
+            IteratorSetting setting = configure(scanner, plannedQuery, selectFields);
+            OptimizedQueryIterator.setBudget(setting, deadline, budget.getMaxResults());
+            scanner.addScanIterator(setting);
+
+            List<T> results = new ArrayList<T>();
+            boolean complete = true;
+            Iterator<Map.Entry<Key, Value>> entries = scanner.iterator();
+            while (entries.hasNext()) {
+                if (System.currentTimeMillis() > deadline) {
+                    complete = false;
+                    break;
+                }
+                Map.Entry<Key, Value> entry = entries.next();
+                if (OptimizedQueryIterator.isYieldKey(entry.getKey())) {
+                    complete = false;
+                    continue;
+                }
+                if (results.size() == budget.getMaxResults()) {
+                    complete = false;
+                    break;
+                }
+                results.add(transform.apply(entry));
+            }
+            return new QueryResults<T>(results, complete);
+        } finally {
+            scanner.close();
+        }
+    }
+
+    /**
+     * Reads a page of the results of the given query. The first page is read by passing a null continuation token.
+     * Following pages are read by passing the same query along with the token returned with the previous page, and
+     * the scan picks up right after the last result returned. The query is planned again for each page, the token
+     * only holds the shards left to scan and where to resume from, and is rejected if it was issued for another query.
+     * <p/>
+     * Shards are scanned one at a time, in order, with the given scanner so that the results come back in key order
+     * and the scan can be resumed from the last key returned.
+     */
+    public QueryPage<T> queryPage(Scanner scanner, GlobalIndexVisitor globalIndexVisitor, Set<String> types, Node query,
+        Function<Map.Entry<Key, Value>, T> transform, Set<String> selectFields, int pageSize, String continuationToken) {
+        checkNotNull(query);
+        checkArgument(pageSize > 0);
+
+        PlannedQuery plannedQuery = plan(globalIndexVisitor, types, query);
+        byte[] fingerprint = ContinuationToken.fingerprint(plannedQuery.originalJexl);
+
+        List<String> shards;
+        Key lastKey = null;
+        if (continuationToken == null) {
+            shards = new ArrayList<String>(plannedQuery.planner.getShards());
+            Collections.sort(shards);
+        } else {
+            ContinuationToken token = ContinuationToken.decode(continuationToken, fingerprint);
+            shards = token.getShards();
+            lastKey = token.getLastKey();
+        }
+
+        if (plannedQuery.isEmpty() || shards.size() == 0)
+            return new QueryPage<T>(Collections.<T>emptyList(), null);
+
+        scanner.addScanIterator(buildQueryIteratorSetting(plannedQuery, selectFields));
+
+        List<T> results = new ArrayList<T>(pageSize);
+        int shard = 0;
+        while (shard < shards.size()) {
+            Range range = new Range(shards.get(shard));
+            // the whole of the last event was returned, even when its attributes are spread over several keys
+            if (lastKey != null)
+                range = new Range(lastKey.followingKey(PartialKey.ROW_COLFAM), true, range.getEndKey(), range.isEndKeyInclusive());
+            scanner.setRange(range);
+
+            Iterator<Map.Entry<Key, Value>> entries = scanner.iterator();
+            while (results.size() < pageSize && entries.hasNext()) {
+                Map.Entry<Key, Value> entry = entries.next();
+                results.add(transform.apply(entry));
+                lastKey = entry.getKey();
+            }
+
+            if (results.size() == pageSize && entries.hasNext())
+                break;
+
+            // the shard has been read through
+            shard++;
+            lastKey = null;
+            if (results.size() == pageSize)
+                break;
+        }
+
+        if (shard == shards.size())
+            return new QueryPage<T>(results, null);
+
+        return new QueryPage<T>(results, new ContinuationToken(fingerprint, shards.subList(shard, shards.size()),
+            lastKey).encode());
+    }
+
+    /**
+     * Plans the given query without running it. When profiling, the query is also run against the shard table and
+     * the counters the tablet servers return for each range are summed into the explanation; the results themselves
+     * are read through but not decoded.
+     */
+    public QueryExplanation explain(BatchScanner scanner, GlobalIndexVisitor globalIndexVisitor, Set<String> types, Node query,
+        boolean profile) {
+        checkNotNull(query);
 
+        try {
+            long startTime = System.nanoTime();
+            PlannedQuery plannedQuery = plan(globalIndexVisitor, types, query);
+            long planningTime = System.nanoTime() - startTime;
+
+            QueryPlanner queryPlan = plannedQuery.planner;
+            if (plannedQuery.isEmpty()) {
+                return new QueryExplanation(queryPlan.getOptimizedQuery(), null, plannedQuery.originalJexl, globalIndexVisitor.getCardinalities(),
+                    Collections.<String>emptySet(), Collections.<String>emptySet(), 0, planningTime, profile ? new QueryCounters() : null);
+            }
+
+            QueryCounters counters = null;
+            if (profile) {
+                counters = new QueryCounters();
+                IteratorSetting setting = configure(scanner, plannedQuery, null);
+                OptimizedQueryIterator.setProfile(setting, true);
+                scanner.addScanIterator(setting);
+                for (Map.Entry<Key, Value> entry : scanner) {
+                    if (QueryCounters.isCountersKey(entry.getKey()))
+                        counters.add(new QueryCounters(entry.getValue()));
+                }
+            }
+
+            return new QueryExplanation(queryPlan.getOptimizedQuery(), plannedQuery.jexl, plannedQuery.originalJexl,
+                globalIndexVisitor.getCardinalities(), queryPlan.getShards(), queryPlan.getScanShards(),
+                plannedQuery.buildRanges().size(), planningTime, counters);
+        } finally {
+            scanner.close();
+        }
+    }
+
+    /**
+     * Counts the results of the given query without returning them. Each tablet server evaluates the query as usual
+     * but, rather than serializing matching events, returns a single partial count for each range it scans; the
+     * partial counts are summed here.
+     * <p/>
+     * When index cardinalities are allowed and the query optimizes down to a single equality, the count is answered
+     * from the global index alone without touching the shard table. That count is only an estimate: the index counts
+     * an item each time it's been saved, and counts every item in the shards the query touches rather than only
+     * those which would pass filters applied to the shard table (such as a time range).
+     */
+    public long count(BatchScanner scanner, GlobalIndexVisitor globalIndexVisitor, Set<String> types, Node query,
+        boolean useIndexCardinalities) {
+        checkNotNull(query);
+
+        try {
+            PlannedQuery plannedQuery = plan(globalIndexVisitor, types, query);
+            if (plannedQuery.isEmpty())
+                return 0;
+
+            if (useIndexCardinalities) {
+                // the optimized query can leave out terms the field index isn't walked for, so the original is checked
+                Node node = query;
+                while (node instanceof ParentNode && node.children().size() == 1)
+                    node = node.children().get(0);
+                if (node instanceof EqualsLeaf) {
+                    EqualsLeaf leaf = (EqualsLeaf) node;
+                    Long cardinality = globalIndexVisitor.getCardinalities().get(new AttributeIndexKey(leaf.getKey(),
+                        typeRegistry.encode(leaf.getValue()), typeRegistry.getAlias(leaf.getValue())));
+                    return cardinality != null ? cardinality : 0;
+                }
+            }
+
+            IteratorSetting setting = configure(scanner, plannedQuery, null);
+            EvaluatingIterator.setCountOnly(setting);
+            scanner.addScanIterator(setting);
+            scanner.addScanIterator(new IteratorSetting(17, MatchCountIterator.class));
+
+            long count = 0;
+            for (Map.Entry<Key, Value> entry : scanner)
+                count += MatchCountIterator.decodeCount(entry.getValue());
+            return count;
+        } finally {
+            scanner.close();
+        }
+    }
+
+    /**
+     * Counts the distinct values of each of the given fields over the results of the given query. The tablet servers
+     * only return the partial counts of each range they scan, which are merged here. The values of each field are
+     * ordered by descending count and, when topK is positive, limited to the topK most frequent.
+     */
+    public Map<String, Map<Object, Long>> facets(BatchScanner scanner, GlobalIndexVisitor globalIndexVisitor, Set<String> types,
+        Node query, Set<String> fields, int topK) {
+        checkNotNull(query);
+        checkNotNull(fields);
+
+        try {
+            Map<String, Map<String, Long>> merged = new HashMap<String, Map<String, Long>>();
+
+            PlannedQuery plannedQuery = plan(globalIndexVisitor, types, query);
+            if (!plannedQuery.isEmpty() && fields.size() > 0) {
+                // only the fields being counted need to be returned by the query iterator
+                scanner.addScanIterator(configure(scanner, plannedQuery, fields));
+                IteratorSetting facetSetting = new IteratorSetting(17, FacetIterator.class);
+                FacetIterator.setFields(facetSetting, fields);
+                scanner.addScanIterator(facetSetting);
+
+                for (Map.Entry<Key, Value> entry : scanner) {
+                    for (Map.Entry<String, Map<String, Long>> facet : FacetIterator.decodeFacets(entry.getValue()).entrySet()) {
+                        Map<String, Long> counts = merged.get(facet.getKey());
+                        if (counts == null) {
+                            merged.put(facet.getKey(), facet.getValue());
+                            continue;
+                        }
+                        for (Map.Entry<String, Long> count : facet.getValue().entrySet()) {
+                            Long current = counts.get(count.getKey());
+                            counts.put(count.getKey(), current == null ? count.getValue() : current + count.getValue());
+                        }
+                    }
+                }
+            }
+
+            Map<String, Map<Object, Long>> facets = new HashMap<String, Map<Object, Long>>();
+            for (String field : fields) {
+                Map<Object, Long> values = new LinkedHashMap<Object, Long>();
+                Map<String, Long> counts = merged.get(field);
+                if (counts != null) {
+                    List<Map.Entry<String, Long>> sorted = new ArrayList<Map.Entry<String, Long>>(counts.entrySet());
+                    Collections.sort(sorted, DESCENDING_COUNT);
+                    if (topK > 0 && sorted.size() > topK)
+                        sorted = sorted.subList(0, topK);
+                    for (Map.Entry<String, Long> count : sorted) {
+                        String[] aliasVal = splitPreserveAllTokens(count.getKey(), ONE_BYTE);
+                        values.put(typeRegistry.decode(aliasVal[0], aliasVal[1]), count.getValue());
+                    }
+                }
+                facets.put(field, values);
+            }
+            return facets;
+        } finally {
+            scanner.close();
+        }
+    }
+
+    /**
+     * Counts the results of the given query by the time bucket their key timestamps fall into. Each tablet server
+     * evaluates the query as it would for a count and returns a partial histogram for each range it scans; those are
+     * summed here.
+     *
+     * @param start the timestamp the first bucket starts at
+     * @param bucketSize the number of milliseconds covered by each bucket
+     * @param buckets the number of buckets, at most {@link HistogramIterator#MAX_BUCKETS}
+     * @return the number of results in each bucket
+     */
+    public long[] histogram(BatchScanner scanner, GlobalIndexVisitor globalIndexVisitor, Set<String> types, Node query,
+        long start, long bucketSize, int buckets) {
+        checkNotNull(query);
+        checkArgument(bucketSize > 0);
+        checkArgument(buckets >= 0 && buckets <= HistogramIterator.MAX_BUCKETS);
+
+        try {
+            long[] histogram = new long[buckets];
+
+            PlannedQuery plannedQuery = plan(globalIndexVisitor, types, query);
+            if (plannedQuery.isEmpty() || buckets == 0)
+                return histogram;
+
+            IteratorSetting setting = configure(scanner, plannedQuery, null);
+            EvaluatingIterator.setCountOnly(setting);
+            scanner.addScanIterator(setting);
+            IteratorSetting histogramSetting = new IteratorSetting(17, HistogramIterator.class);
+            HistogramIterator.setBuckets(histogramSetting, start, bucketSize, buckets);
+            scanner.addScanIterator(histogramSetting);
+
+            for (Map.Entry<Key, Value> entry : scanner)
+                HistogramIterator.mergeHistogram(entry.getValue(), histogram);
+            return histogram;
+        } finally {
+            scanner.close();
+        }
+    }
+
+    private static final Comparator<Map.Entry<String, Long>> DESCENDING_COUNT = new Comparator<Map.Entry<String, Long>>() {
+        @Override
+        public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+            int comparison = o2.getValue().compareTo(o1.getValue());
+            return comparison != 0 ? comparison : o1.getKey().compareTo(o2.getKey());
+        }
+    };
+
+    /**
+     * Plans the given query against the global index and translates it into the JEXL expressions the shard table is
+     * queried with.
+     */
+    private PlannedQuery plan(GlobalIndexVisitor globalIndexVisitor, Set<String> types, Node query) {
+        QueryPlanner queryPlan = new QueryPlanner(query, globalIndexVisitor, typeRegistry);
+        String originalJexl = nodeToJexl.transform(types, query);
+        if (isEmpty(queryPlan.getOptimizedQuery()))
+            return new PlannedQuery(queryPlan, null, originalJexl);
+        return new PlannedQuery(queryPlan, nodeToJexl.transform(types, queryPlan.getOptimizedQuery()), originalJexl);
+    }
+
+    /**
+     * Sets the ranges of the shards the planned query needs to look at on the given scanner and returns the setting
+     * of the iterator evaluating it. The setting is left for the caller to add to the scanner, after adding any
+     * options of its own.
+     */
+    private IteratorSetting configure(BatchScanner scanner, PlannedQuery plannedQuery, Set<String> selectFields) {
+        scanner.setRanges(plannedQuery.buildRanges());
+        return buildQueryIteratorSetting(plannedQuery, selectFields);
+    }
+
+    private IteratorSetting buildQueryIteratorSetting(PlannedQuery plannedQuery, Set<String> selectFields) {
         IteratorSetting setting = new IteratorSetting(16, getOptimizedQueryIteratorClass());
-        setting.addOption(BooleanLogicIterator.QUERY_OPTION, originalJexl);
-        setting.addOption(BooleanLogicIterator.FIELD_INDEX_QUERY, jexl);
+        setting.addOption(BooleanLogicIterator.QUERY_OPTION, plannedQuery.originalJexl);
+        setting.addOption(BooleanLogicIterator.FIELD_INDEX_QUERY, plannedQuery.jexl);
+        OptimizedQueryIterator.setScanShards(setting, plannedQuery.planner.getScanShards());
 
         if(selectFields != null)
             EvaluatingIterator.setSelectFields(setting, selectFields);
+        return setting;
+    }
 
-        scanner.addScanIterator(setting);
+    /**
+     * A query planned against the global index, along with the JEXL expressions it's evaluated with. The field index
+     * expression is null when the global index shows the query can't match anything.
+     */
+    private static class PlannedQuery {
+
+        private final QueryPlanner planner;
+        private final String jexl;
+        private final String originalJexl;
+
+        private PlannedQuery(QueryPlanner planner, String jexl, String originalJexl) {
+            this.planner = planner;
+            this.jexl = jexl;
+            this.originalJexl = originalJexl;
+        }
 
-        return transform(closeableIterable(scanner), transform);
+        private boolean isEmpty() {
+            return jexl == null;
+        }
+
+        private Collection<Range> buildRanges() {
+            Collection<Range> ranges = new HashSet<Range>();
+            // If we were able to determine from the index table that we don't have a match, let's just scan beyond the range of the table
+            if(jexl.equals("()") || jexl.equals("") || planner.getShards().size() == 0)
+                ranges.add(new Range(END_BYTE));
+            else
+                for (String shard : planner.getShards())
+                    ranges.add(new Range(shard));
+            return ranges;
+        }
     }
 
     protected Class<? extends OptimizedQueryIterator> getOptimizedQueryIteratorClass() {
       return OptimizedQueryIterator.class;
     }
 
+    /**
+     * The pool that results of queries given decode options are decoded on. It's shared by all of those queries and
+     * only started by the first of them.
+     */
+    private synchronized ExecutorService getDecoders() {
+        if (decoders == null)
+            decoders = newFixedThreadPool(config.getDecodeThreads(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("qfd-decoder-%d").build());
+        return decoders;
+    }
+
     public void shutdown() {
+        if (ingestPipeline != null)
+            ingestPipeline.shutdown();
+        synchronized (this) {
+            if (decoders != null)
+                decoders.shutdownNow();
+        }
         try {
             getWriter().close();
-        } catch (MutationsRejectedException e) {
+            keyValueIndex.shutdown();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
@@ -329,6 +825,17 @@ public abstract class QfdHelper<T extends Entity> {
         return buildScanner(indexTable, auths);
     }
 
+    /**
+     * Builds a scanner over the shard table, which unlike a batch scanner returns results in key order
+     */
+    public Scanner buildOrderedShardScanner(Authorizations auths) {
+        try {
+            return connector.createScanner(shardTable, auths);
+        } catch (TableNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public BatchScanner buildShardScanner(Authorizations auths) {
         return buildScanner(shardTable, auths);
     }
@@ -366,6 +873,13 @@ public abstract class QfdHelper<T extends Entity> {
         return shardWriter;
     }
 
+    /**
+     * @return the cache of global index lookups used to plan queries, or null when the store wasn't configured to cache them
+     */
+    public GlobalIndexCache getGlobalIndexCache() {
+        return globalIndexCache;
+    }
+
     public KeyValueIndex<T> getKeyValueIndex() {
         return keyValueIndex;
     }
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.support.qfd;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Iterables.partition;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.data.Mutation;
+import org.calrissian.mango.domain.entity.Entity;
+
+/**
+ * A multi-stage ingest pipeline for a {@link QfdHelper}. Items being saved are partitioned into batches which are
+ * encoded into shard and index mutations by a pool of encoder threads. The encoded mutations are handed off through
+ * bounded queues to a dedicated thread per table which feeds the batch writers, so that encoding scales across cores
+ * and the encoders only block on the writers when the queues are full.
+ */
+public class QfdIngestPipeline<T extends Entity> {
+
+    private static final int ITEMS_PER_BATCH = 500;
+
+    private final QfdHelper<T> helper;
+    private final ExecutorService encoders;
+    private final MutationDrainer shardDrainer;
+    private final MutationDrainer indexDrainer;
+
+    public QfdIngestPipeline(QfdHelper<T> helper, int encoderThreads, int queueSize) {
+        checkNotNull(helper);
+        checkArgument(encoderThreads > 0, "The number of encoder threads must be greater than 0");
+        checkArgument(queueSize > 0, "The ingest queue size must be greater than 0");
+
+        this.helper = helper;
+
+        // once all encoders are busy and the backlog is full, the saving thread encodes the batch itself
+        this.encoders = new ThreadPoolExecutor(encoderThreads, encoderThreads, 0L, MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(encoderThreads * 2),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("qfd-encoder-%d").build(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+        this.shardDrainer = new MutationDrainer(helper.getWriter(), queueSize, "qfd-shard-writer");
+        this.indexDrainer = new MutationDrainer(helper.getKeyValueIndex().getWriter(), queueSize, "qfd-index-writer");
+    }
+
+    /**
+     * Encodes the given items on the encoder threads, returning once all of their mutations have been queued for
+     * writing. A {@link #flush()} is necessary to guarantee the mutations have been handed to the writers.
+     */
+    public void save(Iterable<T> items) {
+        checkNotNull(items);
+
+        List<Future<?>> encoded = new ArrayList<Future<?>>();
+        for (final List<T> batch : partition(items, ITEMS_PER_BATCH)) {
+            encoded.add(encoders.submit(new Runnable() {
+                @Override
+                public void run() {
+                    encode(batch);
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> future : encoded)
+                future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void encode(List<T> batch) {
+        Collection<Mutation> shardMutations = new ArrayList<Mutation>(batch.size());
+        for (T item : batch) {
+            Mutation mutation = helper.buildShardMutation(item);
+            if (mutation != null)
+                shardMutations.add(mutation);
+        }
+
+        KeyValueIndex<T> keyValueIndex = helper.getKeyValueIndex();
+        try {
+            shardDrainer.put(shardMutations);
+            // a buffered index aggregates across batches itself, so there's nothing to hand off to the writer yet
+            if (keyValueIndex.isBuffered())
+                keyValueIndex.indexKeyValues(batch);
+            else
+                indexDrainer.put(keyValueIndex.buildIndexMutations(batch));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Blocks until every queued mutation has been handed to its batch writer.
+     */
+    public void flush() throws Exception {
+        shardDrainer.awaitDrained();
+        indexDrainer.awaitDrained();
+    }
+
+    /**
+     * Stops the encoder threads and drains any remaining mutations into the writers.
+     */
+    public void shutdown() {
+        encoders.shutdown();
+        try {
+            shardDrainer.shutdown();
+            indexDrainer.shutdown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Hands batches of mutations from a bounded queue to a single batch writer on its own thread.
+     */
+    private static class MutationDrainer implements Runnable {
+
+        private final BatchWriter writer;
+        private final BlockingQueue<Collection<Mutation>> queue;
+        private final Thread thread;
+
+        private volatile boolean running = true;
+        private volatile Exception failure;
+        private int pending = 0;
+
+        private MutationDrainer(BatchWriter writer, int queueSize, String name) {
+            this.writer = writer;
+            this.queue = new ArrayBlockingQueue<Collection<Mutation>>(queueSize);
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        public void put(Collection<Mutation> mutations) throws InterruptedException {
+            checkFailure();
+            if (mutations.isEmpty())
+                return;
+
+            synchronized (this) {
+                pending++;
+            }
+            queue.put(mutations);
+        }
+
+        @Override
+        public void run() {
+            while (running || !queue.isEmpty()) {
+                Collection<Mutation> mutations;
+                try {
+                    mutations = queue.poll(100, MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                if (mutations == null)
+                    continue;
+
+                try {
+                    if (failure == null)
+                        writer.addMutations(mutations);
+                } catch (Exception e) {
+                    failure = e;
+                } finally {
+                    synchronized (this) {
+                        pending--;
+                        notifyAll();
+                    }
+                }
+            }
+        }
+
+        public void awaitDrained() throws InterruptedException {
+            synchronized (this) {
+                while (pending > 0)
+                    wait();
+            }
+            checkFailure();
+        }
+
+        public void shutdown() throws InterruptedException {
+            running = false;
+            thread.join();
+            checkFailure();
+        }
+
+        private void checkFailure() {
+            if (failure != null)
+                throw new RuntimeException(failure);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.support.qfd;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.accumulo.core.data.Range;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Turns sets of shard ids into as few ranges as possible. Shard ids are made up of a bucket (a time period, an
+ * entity type) followed by a delimiter and a fixed width partition number, so the shards of consecutive partitions
+ * within the same bucket are adjacent in the shard table and can be scanned with a single range rather than one
+ * range per shard. When every partition of a bucket is being scanned, that's one range for the whole bucket.
+ */
+public class ShardRanges {
+
+    public static final char PARTITION_DELIM = '_';
+
+    private ShardRanges() {/* private constructor */}
+
+    /**
+     * Builds the ranges covering exactly the rows of the given shards.
+     */
+    public static List<Range> coalesce(Collection<String> shards) {
+
+        SortedSet<String> sortedShards = new TreeSet<String>(shards);
+        List<Range> ranges = new ArrayList<Range>();
+
+        String first = null;
+        String last = null;
+        int lastPartition = -1;
+        for (String shard : sortedShards) {
+            int partition = getPartition(shard);
+            if (first != null && (partition == -1 || lastPartition == -1 || partition != lastPartition + 1 || !isSameBucket(shard, last))) {
+                ranges.add(toRange(first, last));
+                first = null;
+            }
+
+            if (first == null)
+                first = shard;
+            last = shard;
+            lastPartition = partition;
+        }
+
+        if (first != null)
+            ranges.add(toRange(first, last));
+
+        return ranges;
+    }
+
+    /**
+     * Same as {@link #coalesce(Collection)} for shards given as {@link Text}.
+     */
+    public static List<Range> coalesceText(Collection<Text> shards) {
+        List<String> shardStrings = new ArrayList<String>(shards.size());
+        for (Text shard : shards)
+            shardStrings.add(shard.toString());
+        return coalesce(shardStrings);
+    }
+
+    private static Range toRange(String first, String last) {
+        return first.equals(last) ? new Range(first) : new Range(first, true, last, true);
+    }
+
+    private static int getPartition(String shard) {
+        int idx = shard.lastIndexOf(PARTITION_DELIM);
+        if (idx == -1 || idx == shard.length() - 1)
+            return -1;
+
+        try {
+            // some shard builders pad the partition with spaces rather than zeros
+            int partition = Integer.parseInt(shard.substring(idx + 1).trim());
+            return partition >= 0 ? partition : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isSameBucket(String shard, String other) {
+        int idx = shard.lastIndexOf(PARTITION_DELIM);
+        return shard.length() == other.length() && other.lastIndexOf(PARTITION_DELIM) == idx &&
+            shard.regionMatches(0, other, 0, idx);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.support.qfd;
+
+import static java.util.Arrays.copyOf;
+import static java.util.Arrays.copyOfRange;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Value;
+
+/**
+ * Encodes the attributes an item stores in a single shard table value using the version 2 layout:
+ * <pre>
+ *   version byte ({@link ShardValueView#VERSION_2})
+ *   attribute count, time the first attribute expires at
+ *   attribute name count, then each name as length and bytes
+ *   visibility count, then each visibility as length and bytes
+ *   for each attribute:
+ *     name index, visibility index, alias/value length and bytes,
+ *     timestamp delta from the previous attribute, expiration, metadata length and bytes
+ * </pre>
+ * Counts, lengths and indexes are unsigned varints while the expiry time, timestamp deltas and expirations are
+ * zig-zag varints, so the common -1 (never expires) takes a single byte. Since the attribute names and visibilities
+ * are only written once per value, a name or visibility repeated across attributes costs a single byte each time.
+ * <p/>
+ * An encoder can be reused after {@link #reset()} and is not thread safe.
+ */
+public class ShardValueEncoder {
+
+    private final Map<String, Integer> nameIndexes = new HashMap<String, Integer>();
+    private final List<byte[]> names = new ArrayList<byte[]>();
+    private final Map<ByteSequence, Integer> visibilityIndexes = new HashMap<ByteSequence, Integer>();
+    private final List<byte[]> visibilities = new ArrayList<byte[]>();
+
+    private byte[] body = new byte[256];
+    private int bodyLength;
+    private int size;
+    private long lastTimestamp;
+    private long expiresAt = Long.MAX_VALUE;
+
+    /**
+     * Adds an attribute to the value.
+     *
+     * @param aliasValue the type alias and encoded value of the attribute, separated by a one byte
+     * @param expiration the expiration of the attribute, or -1 if it does not expire
+     */
+    public ShardValueEncoder add(String key, byte[] aliasValue, byte[] visibility, long timestamp, long expiration, byte[] metadata) {
+        return add(key, aliasValue, 0, aliasValue.length, new ArrayByteSequence(visibility), timestamp, expiration,
+            metadata, 0, metadata.length);
+    }
+
+    /**
+     * Copies the given attribute from a value of any version into this one.
+     */
+    public ShardValueEncoder add(ShardValueView view, int i) {
+        byte[] bytes = view.getBackingArray();
+        return add(view.getKey(i), bytes, view.getAliasValueOffset(i), view.getAliasValueLength(i), view.getVisibility(i),
+            view.getTimestamp(i), view.getExpiration(i), bytes, view.getMetadataOffset(i), view.getMetadataLength(i));
+    }
+
+    private ShardValueEncoder add(String key, byte[] aliasValue, int aliasValueOffset, int aliasValueLength,
+                                  ByteSequence visibility, long timestamp, long expiration,
+                                  byte[] metadata, int metadataOffset, int metadataLength) {
+
+        Integer name = nameIndexes.get(key);
+        if (name == null) {
+            name = names.size();
+            nameIndexes.put(key, name);
+            names.add(toBytes(key));
+        }
+
+        Integer vis = visibilityIndexes.get(visibility);
+        if (vis == null) {
+            vis = visibilities.size();
+            byte[] copy = visibility.toArray();
+            visibilityIndexes.put(new ArrayByteSequence(copy), vis);
+            visibilities.add(copy);
+        }
+
+        ensureCapacity(4 * 5 + 3 * 10 + aliasValueLength + metadataLength);
+        bodyLength = writeRawVarLong(name, body, bodyLength);
+        bodyLength = writeRawVarLong(vis, body, bodyLength);
+        bodyLength = writeSlice(aliasValue, aliasValueOffset, aliasValueLength, body, bodyLength);
+        bodyLength = writeVarLong(timestamp - lastTimestamp, body, bodyLength);
+        bodyLength = writeVarLong(expiration, body, bodyLength);
+        bodyLength = writeSlice(metadata, metadataOffset, metadataLength, body, bodyLength);
+
+        lastTimestamp = timestamp;
+        if (expiration > -1) {
+            // capped short of Long.MAX_VALUE, which stands for no expiration
+            long attributeExpiresAt = timestamp < Long.MAX_VALUE - 1 - expiration ? timestamp + expiration : Long.MAX_VALUE - 1;
+            expiresAt = Math.min(expiresAt, attributeExpiresAt);
+        }
+        size++;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the time the first of the attributes added so far expires at, measured from its own timestamp, or -1 if
+     * none of them expire
+     */
+    public long getExpiresAt() {
+        return expiresAt == Long.MAX_VALUE ? -1 : expiresAt;
+    }
+
+    public byte[] encode() {
+        int headerLength = 1 + 5 + 10 + 5 + 5;
+        for (byte[] name : names)
+            headerLength += 5 + name.length;
+        for (byte[] visibility : visibilities)
+            headerLength += 5 + visibility.length;
+
+        byte[] encoded = new byte[headerLength + bodyLength];
+        encoded[0] = ShardValueView.VERSION_2;
+        int offset = writeRawVarLong(size, encoded, 1);
+        offset = writeVarLong(getExpiresAt(), encoded, offset);
+        offset = writeRawVarLong(names.size(), encoded, offset);
+        for (byte[] name : names)
+            offset = writeSlice(name, 0, name.length, encoded, offset);
+        offset = writeRawVarLong(visibilities.size(), encoded, offset);
+        for (byte[] visibility : visibilities)
+            offset = writeSlice(visibility, 0, visibility.length, encoded, offset);
+
+        System.arraycopy(body, 0, encoded, offset, bodyLength);
+        return copyOfRange(encoded, 0, offset + bodyLength);
+    }
+
+    public Value toValue() {
+        return new Value(encode(), false);
+    }
+
+    public void reset() {
+        nameIndexes.clear();
+        names.clear();
+        visibilityIndexes.clear();
+        visibilities.clear();
+        bodyLength = 0;
+        size = 0;
+        lastTimestamp = 0;
+        expiresAt = Long.MAX_VALUE;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (body.length - bodyLength < needed)
+            body = copyOf(body, Math.max(body.length * 2, bodyLength + needed));
+    }
+
+    private static int writeSlice(byte[] src, int srcOffset, int length, byte[] dest, int offset) {
+        offset = writeRawVarLong(length, dest, offset);
+        System.arraycopy(src, srcOffset, dest, offset, length);
+        return offset + length;
+    }
+
+    private static int writeVarLong(long value, byte[] bytes, int offset) {
+        return writeRawVarLong((value << 1) ^ (value >> 63), bytes, offset);
+    }
+
+    private static int writeRawVarLong(long raw, byte[] bytes, int offset) {
+        while ((raw & ~0x7FL) != 0) {
+            bytes[offset++] = (byte) ((raw & 0x7F) | 0x80);
+            raw >>>= 7;
+        }
+        bytes[offset++] = (byte) raw;
+        return offset;
+    }
+
+    private static byte[] toBytes(String string) {
+        try {
+            return string.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
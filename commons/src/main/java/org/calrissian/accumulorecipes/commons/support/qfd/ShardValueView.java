@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.support.qfd;
+
+import static org.calrissian.accumulorecipes.commons.util.EncodedRowView.readInt;
+import static org.calrissian.accumulorecipes.commons.util.EncodedRowView.readLong;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.calrissian.accumulorecipes.commons.util.EncodedRowView;
+
+/**
+ * A read-only view over the attributes an item stores in a single shard table value. Two encodings are understood
+ * and detected from the first byte of the value, so both can coexist in the same table:
+ * <ul>
+ * <li>Version 1: the attribute count and minimum expiration as a fixed width int and long, followed by the attributes
+ * encoded with {@link org.calrissian.accumulorecipes.commons.util.RowEncoderUtil}. The expiration of each attribute is a
+ * decimal string in its column family and its key, alias and value are joined in its column qualifier.</li>
+ * <li>Version 2: written by {@link ShardValueEncoder}, see there for the layout. Its first byte is {@link #VERSION_2},
+ * which can never start a version 1 value since attribute counts are never negative.</li>
+ * </ul>
+ * Whatever the version, the accessors hand back offsets into the original bytes. A view can be reset onto new values
+ * any number of times and is not thread safe.
+ */
+public class ShardValueView {
+
+    public static final byte VERSION_2 = (byte) 0x82;
+
+    /**
+     * Version 1 values hold the number of attributes and their minimum expiration ahead of the encoded row.
+     */
+    public static final int V1_HEADER_LENGTH = 12;
+
+    private static final int STRIDE = 8;
+    private static final int KEY = 0;
+    private static final int ALIAS_VALUE = 2;
+    private static final int VISIBILITY = 4;
+    private static final int METADATA = 6;
+
+    private final EncodedRowView rowView = new EncodedRowView();
+
+    private byte[] bytes;
+    private int version;
+    private int size;
+    // the minimum expiration relative to the key timestamp for version 1, the time the first attribute expires at for version 2
+    private long expiration;
+
+    // offset and length pairs for the key, alias/value, visibility and metadata of each attribute
+    private int[] index = new int[STRIDE * 8];
+    // timestamp and expiration of each attribute
+    private long[] times = new long[2 * 8];
+
+    // version 2 dictionaries, as offset and length pairs, with the attribute names decoded lazily
+    private int[] names = new int[16];
+    private String[] nameStrings = new String[8];
+    private int[] nameIndexes = new int[8];
+    private int numNames;
+    private int[] visibilities = new int[8];
+
+    private int pos;
+    private int end;
+
+    /**
+     * Points this view at the given shard value, detecting its version.
+     *
+     * @throws IOException if the bytes do not hold a complete shard value
+     */
+    public ShardValueView reset(byte[] bytes) throws IOException {
+        return reset(bytes, 0, bytes.length);
+    }
+
+    public ShardValueView reset(byte[] bytes, int offset, int length) throws IOException {
+        this.bytes = bytes;
+        this.pos = offset;
+        this.end = offset + length;
+        this.numNames = 0;
+
+        if (length > 0 && bytes[offset] == VERSION_2)
+            resetV2();
+        else
+            resetV1(offset, length);
+        return this;
+    }
+
+    private void resetV1(int offset, int length) throws IOException {
+        if (length < V1_HEADER_LENGTH)
+            throw new EOFException("Shard value is truncated");
+
+        rowView.reset(bytes, offset + V1_HEADER_LENGTH, length - V1_HEADER_LENGTH);
+        version = 1;
+        expiration = readLong(bytes, offset + 4);
+        size = rowView.size();
+        ensureCapacity(size);
+
+        for (int i = 0; i < size; i++) {
+            int base = i * STRIDE;
+            int colqOffset = rowView.getColumnQualifierOffset(i);
+            int colqLength = rowView.getColumnQualifierLength(i);
+            int idx = 0;
+            while (idx < colqLength && bytes[colqOffset + idx] != 0)
+                idx++;
+            if (idx == colqLength)
+                throw new IOException("Malformed attribute column qualifier");
+
+            index[base + KEY] = colqOffset;
+            index[base + KEY + 1] = idx;
+            index[base + ALIAS_VALUE] = colqOffset + idx + 1;
+            index[base + ALIAS_VALUE + 1] = colqLength - idx - 1;
+            index[base + VISIBILITY] = rowView.getColumnVisibilityOffset(i);
+            index[base + VISIBILITY + 1] = rowView.getColumnVisibilityLength(i);
+            index[base + METADATA] = rowView.getValueOffset(i);
+            index[base + METADATA + 1] = rowView.getValueLength(i);
+            times[i * 2] = rowView.getTimestamp(i);
+            try {
+                times[i * 2 + 1] = rowView.getColumnFamilyAsLong(i);
+            } catch (NumberFormatException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private void resetV2() throws IOException {
+        pos++;
+        version = 2;
+        size = readVarInt();
+        expiration = readVarLong();
+        // every attribute takes at least a byte, which guards against allocating for a corrupt count
+        if (size > end - pos)
+            throw new EOFException("Shard value is truncated");
+        ensureCapacity(size);
+
+        numNames = readVarInt();
+        if (numNames > end - pos)
+            throw new EOFException("Shard value is truncated");
+        if (names.length < numNames * 2) {
+            names = new int[numNames * 2];
+            nameStrings = new String[numNames];
+        } else {
+            Arrays.fill(nameStrings, 0, numNames, null);
+        }
+        for (int i = 0; i < numNames; i++)
+            readSlice(names, i * 2);
+
+        int numVisibilities = readVarInt();
+        if (numVisibilities > end - pos)
+            throw new EOFException("Shard value is truncated");
+        if (visibilities.length < numVisibilities * 2)
+            visibilities = new int[numVisibilities * 2];
+        for (int i = 0; i < numVisibilities; i++)
+            readSlice(visibilities, i * 2);
+
+        long timestamp = 0;
+        for (int i = 0; i < size; i++) {
+            int base = i * STRIDE;
+
+            int name = readVarInt();
+            int visibility = readVarInt();
+            if (name >= numNames || visibility >= numVisibilities)
+                throw new IOException("Invalid dictionary reference in shard value");
+
+            nameIndexes[i] = name;
+            index[base + KEY] = names[name * 2];
+            index[base + KEY + 1] = names[name * 2 + 1];
+            index[base + VISIBILITY] = visibilities[visibility * 2];
+            index[base + VISIBILITY + 1] = visibilities[visibility * 2 + 1];
+            readSlice(index, base + ALIAS_VALUE);
+            timestamp += readVarLong();
+            times[i * 2] = timestamp;
+            times[i * 2 + 1] = readVarLong();
+            readSlice(index, base + METADATA);
+        }
+    }
+
+    private void ensureCapacity(int numAttributes) throws IOException {
+        if (numAttributes < 0)
+            throw new IOException("Invalid number of attributes: " + numAttributes);
+        if (index.length < numAttributes * STRIDE) {
+            index = new int[numAttributes * STRIDE];
+            times = new long[numAttributes * 2];
+            nameIndexes = new int[numAttributes];
+        }
+    }
+
+    private void readSlice(int[] slices, int slot) throws IOException {
+        int length = readVarInt();
+        if (length < 0 || end - pos < length)
+            throw new EOFException("Shard value is truncated");
+        slices[slot] = pos;
+        slices[slot + 1] = length;
+        pos += length;
+    }
+
+    private int readVarInt() throws IOException {
+        long value = readRawVarLong();
+        if (value < 0 || value > Integer.MAX_VALUE)
+            throw new IOException("Invalid length in shard value");
+        return (int) value;
+    }
+
+    private long readVarLong() throws IOException {
+        long raw = readRawVarLong();
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    private long readRawVarLong() throws IOException {
+        long raw = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (pos >= end || shift > 63)
+                throw new EOFException("Shard value is truncated");
+            b = bytes[pos++];
+            raw |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return raw;
+    }
+
+    /**
+     * Reads only the number of attributes in the given shard value.
+     */
+    public static int getSize(byte[] bytes) throws IOException {
+        if (bytes.length > 0 && bytes[0] == VERSION_2) {
+            long size = readRawVarLong(bytes, 1);
+            if (size < 0 || size > Integer.MAX_VALUE)
+                throw new IOException("Invalid number of attributes: " + size);
+            return (int) size;
+        }
+        if (bytes.length < 4)
+            throw new EOFException("Shard value is truncated");
+        return readInt(bytes, 0);
+    }
+
+    /**
+     * Reads only the time the first attribute of the given shard value expires at, -1 if none of them expire. Version
+     * 1 values only hold the minimum expiration of their attributes, which is taken from the given key timestamp.
+     */
+    public static long getExpiresAt(byte[] bytes, long keyTimestamp) throws IOException {
+        if (bytes.length > 0 && bytes[0] == VERSION_2) {
+            int pos = 1;
+            while (pos < bytes.length && (bytes[pos] & 0x80) != 0)
+                pos++;
+            long raw = readRawVarLong(bytes, pos + 1);
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+        if (bytes.length < V1_HEADER_LENGTH)
+            throw new EOFException("Shard value is truncated");
+        return v1ExpiresAt(readLong(bytes, 4), keyTimestamp);
+    }
+
+    private static long v1ExpiresAt(long minExpiration, long keyTimestamp) {
+        return minExpiration > -1 ? keyTimestamp + minExpiration : -1;
+    }
+
+    private static long readRawVarLong(byte[] bytes, int pos) throws IOException {
+        long raw = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (pos >= bytes.length || shift > 63)
+                throw new EOFException("Shard value is truncated");
+            b = bytes[pos++];
+            raw |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return raw;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the time the first attribute expires at, or -1 if none of them expire. Version 1 values only hold the
+     * minimum expiration of their attributes, which is taken from the given key timestamp.
+     */
+    public long getExpiresAt(long keyTimestamp) {
+        return version == 2 ? expiration : v1ExpiresAt(expiration, keyTimestamp);
+    }
+
+    public byte[] getBackingArray() {
+        return bytes;
+    }
+
+    public String getKey(int i) {
+        if (version == 2) {
+            int name = nameIndexes[i];
+            if (nameStrings[name] == null)
+                nameStrings[name] = toString(getKeyOffset(i), getKeyLength(i));
+            return nameStrings[name];
+        }
+        return toString(getKeyOffset(i), getKeyLength(i));
+    }
+
+    public int getKeyOffset(int i) {
+        return index[i * STRIDE + KEY];
+    }
+
+    public int getKeyLength(int i) {
+        return index[i * STRIDE + KEY + 1];
+    }
+
+    /**
+     * The type alias and encoded value of the attribute, separated by a one byte.
+     */
+    public int getAliasValueOffset(int i) {
+        return index[i * STRIDE + ALIAS_VALUE];
+    }
+
+    public int getAliasValueLength(int i) {
+        return index[i * STRIDE + ALIAS_VALUE + 1];
+    }
+
+    public int getVisibilityOffset(int i) {
+        return index[i * STRIDE + VISIBILITY];
+    }
+
+    public int getVisibilityLength(int i) {
+        return index[i * STRIDE + VISIBILITY + 1];
+    }
+
+    /**
+     * Wraps the visibility of the given attribute without copying it.
+     */
+    public ByteSequence getVisibility(int i) {
+        return new ArrayByteSequence(bytes, getVisibilityOffset(i), getVisibilityLength(i));
+    }
+
+    public String getVisibilityString(int i) {
+        return toString(getVisibilityOffset(i), getVisibilityLength(i));
+    }
+
+    /**
+     * The serialized metadata of the attribute.
+     */
+    public int getMetadataOffset(int i) {
+        return index[i * STRIDE + METADATA];
+    }
+
+    public int getMetadataLength(int i) {
+        return index[i * STRIDE + METADATA + 1];
+    }
+
+    public long getTimestamp(int i) {
+        return times[i * 2];
+    }
+
+    public long getExpiration(int i) {
+        return times[i * 2 + 1];
+    }
+
+    private String toString(int off, int len) {
+        try {
+            return new String(bytes, off, len, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.support.qfd.planner;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.calrissian.accumulorecipes.commons.support.qfd.AttributeIndexKey;
+import org.calrissian.mango.criteria.domain.AbstractKeyValueLeaf;
+import org.calrissian.mango.criteria.domain.AndNode;
+import org.calrissian.mango.criteria.domain.EqualsLeaf;
+import org.calrissian.mango.criteria.domain.HasNotLeaf;
+import org.calrissian.mango.criteria.domain.Leaf;
+import org.calrissian.mango.criteria.domain.Node;
+import org.calrissian.mango.criteria.domain.OrNode;
+import org.calrissian.mango.types.TypeRegistry;
+
+/**
+ * Estimates, per shard, whether a query is cheaper to evaluate by walking the field index or by scanning and
+ * evaluating every document in the shard. Walking the field index is usually the better choice, but when even the
+ * most selective term of a query matches most of a shard, seeking through the field index ranges of every term and
+ * then to each matching document costs more than reading the documents sequentially.
+ * <p/>
+ * Costs are relative to reading a single field index entry:
+ * <ul>
+ * <li>a leaf costs the number of field index entries it matches in the shard</li>
+ * <li>an AND only needs to seek into the entries of each child for the matches of its most selective child</li>
+ * <li>an OR reads the entries of all its children</li>
+ * <li>each document matched through the index then needs to be sought to and evaluated</li>
+ * </ul>
+ * whereas a full scan evaluates every document in the shard. Shards without a document count in the index are always
+ * evaluated through the field index.
+ */
+public class EvaluationCostModel {
+
+    /**
+     * Seeking within the field index, relative to reading its next entry
+     */
+    public static final double INDEX_SEEK_COST = 2;
+
+    /**
+     * Seeking to and evaluating a document found through the field index
+     */
+    public static final double DOCUMENT_SEEK_COST = 2;
+
+    /**
+     * Reading and evaluating a document while scanning a whole shard
+     */
+    public static final double DOCUMENT_SCAN_COST = 3;
+
+    private final ShardStatistics statistics;
+    private final TypeRegistry<String> registry;
+    private final Map<String, Set<AttributeIndexKey>> keysByName = new HashMap<String, Set<AttributeIndexKey>>();
+
+    public EvaluationCostModel(ShardStatistics statistics, TypeRegistry<String> registry) {
+        this.statistics = statistics;
+        this.registry = registry;
+
+        // only the entries of the key index are needed for leaves other than equalities
+        for (AttributeIndexKey key : statistics.keySet()) {
+            if (key.getNormalizedValue() != null)
+                continue;
+            Set<AttributeIndexKey> keys = keysByName.get(key.getKey());
+            if (keys == null) {
+                keys = new HashSet<AttributeIndexKey>();
+                keysByName.put(key.getKey(), keys);
+            }
+            keys.add(key);
+        }
+    }
+
+    /**
+     * @return the given shards which are cheaper to scan in full than to evaluate through the field index
+     */
+    public Set<String> chooseScanShards(Node query, Collection<String> shards) {
+        Set<String> scanShards = new HashSet<String>();
+        for (String shard : shards) {
+            Double scanCost = scanCost(shard);
+            if (scanCost != null && scanCost < indexCost(query, shard))
+                scanShards.add(shard);
+        }
+        return scanShards;
+    }
+
+    /**
+     * @return the estimated cost of evaluating the given query in the given shard through the field index
+     */
+    public double indexCost(Node query, String shard) {
+        Estimate estimate = estimate(query, shard, statistics.getDocumentCount(shard));
+        return estimate.cost + DOCUMENT_SEEK_COST * estimate.matches;
+    }
+
+    /**
+     * @return the estimated cost of evaluating every document in the given shard, or null if the index holds no
+     * document count for the shard
+     */
+    public Double scanCost(String shard) {
+        Long documents = statistics.getDocumentCount(shard);
+        return documents != null ? DOCUMENT_SCAN_COST * documents : null;
+    }
+
+    private Estimate estimate(Node node, String shard, Long documents) {
+
+        if (node instanceof Leaf)
+            return estimate((Leaf) node, shard, documents);
+
+        Estimate result = new Estimate();
+        if (node instanceof AndNode) {
+            result.matches = Double.MAX_VALUE;
+            List<Estimate> children = new ArrayList<Estimate>();
+            for (Node child : node.children()) {
+                Estimate childEstimate = estimate(child, shard, documents);
+                children.add(childEstimate);
+                result.matches = Math.min(result.matches, childEstimate.matches);
+            }
+            if (children.isEmpty())
+                result.matches = 0;
+            for (Estimate childEstimate : children)
+                result.cost += Math.min(childEstimate.cost, INDEX_SEEK_COST * result.matches);
+        } else if (node instanceof OrNode) {
+            for (Node child : node.children()) {
+                Estimate childEstimate = estimate(child, shard, documents);
+                result.matches += childEstimate.matches;
+                result.cost += childEstimate.cost;
+            }
+            if (documents != null)
+                result.matches = Math.min(result.matches, documents);
+        }
+        return result;
+    }
+
+    private Estimate estimate(Leaf leaf, String shard, Long documents) {
+        AbstractKeyValueLeaf kvLeaf = (AbstractKeyValueLeaf) leaf;
+
+        Estimate result = new Estimate();
+        if (leaf instanceof EqualsLeaf) {
+            String alias = registry.getAlias(kvLeaf.getValue());
+            String normalizedVal = registry.encode(kvLeaf.getValue());
+            result.cost = statistics.getCardinality(new AttributeIndexKey(kvLeaf.getKey(), normalizedVal, alias), shard);
+        } else {
+            // ranges, has and negations need to read through the entries of the key for every value it has
+            Set<AttributeIndexKey> keys = keysByName.get(kvLeaf.getKey());
+            if (keys != null) {
+                for (AttributeIndexKey key : keys)
+                    result.cost += statistics.getCardinality(key, shard);
+            }
+        }
+
+        // has not matches the documents which don't have the entries being read
+        if (leaf instanceof HasNotLeaf && documents != null)
+            result.matches = Math.max(documents - result.cost, 0);
+        else
+            result.matches = result.cost;
+
+        return result;
+    }
+
+    private static class Estimate {
+        private double matches;
+        private double cost;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.support.qfd.planner;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.Maps.immutableEntry;
+import static java.util.Collections.unmodifiableList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.Text;
+import org.calrissian.accumulorecipes.commons.domain.Auths;
+
+/**
+ * A bounded cache of global index lookups so that repeated queries don't need to go back to the index table before
+ * they can start scanning shards. Entries are cached per index range and set of authorizations. The range a query
+ * leaf maps to already identifies the leaf, the type and the shards covered by the query's time window, so the same
+ * leaf queried over a window within the same shards will share a cache entry.
+ * <p/>
+ * Entries expire after the configured time to live. The store invalidates the ranges covering the index rows it
+ * writes as it hands them to its writer, so that its own writes become visible to the planner right away; writes from
+ * other clients become visible once the entries covering them have expired.
+ */
+public class GlobalIndexCache {
+
+    private final Cache<CacheKey, List<Map.Entry<Key, Value>>> cache;
+
+    // bumped on every invalidation so that a lookup racing with it doesn't cache what it scanned before it
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param maxSize the maximum number of index ranges to hold results for
+     * @param ttl     time in milliseconds to hold on to the results of a range
+     */
+    public GlobalIndexCache(int maxSize, long ttl) {
+        checkArgument(maxSize > 0, "The index cache size must be greater than 0");
+        checkArgument(ttl > 0, "The index cache time to live must be greater than 0");
+
+        this.cache = CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(ttl, MILLISECONDS)
+            .recordStats()
+            .<CacheKey, List<Map.Entry<Key, Value>>>build();
+    }
+
+    /**
+     * Returns the global index entries for the given ranges. Ranges that have been cached for the given auths are
+     * answered from the cache, the rest are scanned through the given scanner and cached. The given scanner must
+     * have been created with the given auths.
+     */
+    public Iterable<Map.Entry<Key, Value>> scan(BatchScanner scanner, Collection<Range> ranges, Auths auths) {
+
+        long startGeneration = generation.get();
+
+        // keyed on the index key so that an entry covered by more than one range is only returned once
+        Map<Key, Value> entries = new LinkedHashMap<Key, Value>();
+        List<Range> misses = new ArrayList<Range>();
+        for (Range range : new LinkedHashSet<Range>(ranges)) {
+            List<Map.Entry<Key, Value>> cached = cache.getIfPresent(new CacheKey(range, auths));
+            if (cached == null)
+                misses.add(range);
+            else
+                for (Map.Entry<Key, Value> entry : cached)
+                    entries.put(entry.getKey(), entry.getValue());
+        }
+
+        if (misses.isEmpty())
+            return entries.entrySet();
+
+        Map<Range, List<Map.Entry<Key, Value>>> scanned = new LinkedHashMap<Range, List<Map.Entry<Key, Value>>>();
+        for (Range range : misses)
+            scanned.put(range, new ArrayList<Map.Entry<Key, Value>>());
+
+        NavigableMap<Key, List<Range>> missesByStart = groupOverlapping(misses);
+
+        scanner.setRanges(misses);
+        for (Map.Entry<Key, Value> entry : scanner) {
+            Map.Entry<Key, Value> copy = immutableEntry(new Key(entry.getKey()), new Value(entry.getValue()));
+            Map.Entry<Key, List<Range>> candidates = missesByStart.floorEntry(copy.getKey());
+            if (candidates != null) {
+                for (Range range : candidates.getValue()) {
+                    if (range.contains(copy.getKey()))
+                        scanned.get(range).add(copy);
+                }
+            }
+            entries.put(copy.getKey(), copy.getValue());
+        }
+
+        synchronized (this) {
+            if (generation.get() == startGeneration) {
+                for (Map.Entry<Range, List<Map.Entry<Key, Value>>> rangeEntries : scanned.entrySet())
+                    cache.put(new CacheKey(rangeEntries.getKey(), auths), unmodifiableList(rangeEntries.getValue()));
+            }
+        }
+
+        return entries.entrySet();
+    }
+
+    /**
+     * Groups the given ranges by the start of the overlapping ranges they merge into. As the merged ranges don't
+     * overlap, a key can only fall within the ranges of the group with the greatest start at or before it.
+     */
+    private static NavigableMap<Key, List<Range>> groupOverlapping(Collection<Range> ranges) {
+        NavigableMap<Key, List<Range>> groups = new TreeMap<Key, List<Range>>();
+        for (Range merged : Range.mergeOverlapping(ranges))
+            groups.put(startOf(merged), new ArrayList<Range>());
+        for (Range range : ranges)
+            groups.floorEntry(startOf(range)).getValue().add(range);
+        return groups;
+    }
+
+    private static Key startOf(Range range) {
+        return range.isInfiniteStartKey() ? new Key() : range.getStartKey();
+    }
+
+    /**
+     * Drops the cached lookups of any range that could cover one of the given index rows. Ranges are compared by row
+     * only, so a range ending within a row is dropped along with those covering all of it.
+     */
+    public synchronized void invalidate(Collection<Text> rows) {
+        if (rows.isEmpty())
+            return;
+
+        generation.incrementAndGet();
+
+        TreeSet<Text> sortedRows = new TreeSet<Text>(rows);
+        Iterator<CacheKey> keys = cache.asMap().keySet().iterator();
+        while (keys.hasNext()) {
+            Range range = keys.next().range;
+            Text row = range.isInfiniteStartKey() ? sortedRows.first() : sortedRows.ceiling(range.getStartKey().getRow());
+            if (row != null && (range.isInfiniteStopKey() || row.compareTo(range.getEndKey().getRow()) <= 0))
+                keys.remove();
+        }
+    }
+
+    /**
+     * Drops all cached lookups.
+     */
+    public synchronized void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return the number of index ranges answered from the cache
+     */
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    /**
+     * @return the number of index ranges that had to be scanned
+     */
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    /**
+     * @return the number of index ranges currently cached
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    private static class CacheKey {
+
+        private final Range range;
+        private final Set<String> auths;
+
+        private CacheKey(Range range, Auths auths) {
+            this.range = range;
+            this.auths = new HashSet<String>(auths);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+
+            CacheKey that = (CacheKey) o;
+            return range.equals(that.range) && auths.equals(that.auths);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * range.hashCode() + auths.hashCode();
+        }
+    }
+}
@@ -43,6 +43,7 @@ public class QueryPlanner implements NodeVisitor {
 
     protected Node node;
     protected Set<String> shards = Sets.newHashSet();
+    protected Set<String> scanShards = Sets.newHashSet();
     protected GlobalIndexVisitor indexVisitor;
     protected TypeRegistry<String> typeRegistry;
 
@@ -78,7 +79,7 @@ public class QueryPlanner implements NodeVisitor {
                 /**
                  * Tries to minimize the number of shards that need to be scanned
                  */
-                CalculateShardsVisitor calculateShardsVisitor = new CalculateShardsVisitor(indexVisitor.getShards(), typeRegistry);
+                CalculateShardsVisitor calculateShardsVisitor = new CalculateShardsVisitor(indexVisitor.getShardBitmaps(), typeRegistry);
                 node.accept(calculateShardsVisitor);
                 shards = calculateShardsVisitor.getShards();
             }
@@ -94,6 +95,14 @@ public class QueryPlanner implements NodeVisitor {
                 previous = node.clone(null);
             }
 
+            /**
+             * Chooses, per shard, between walking the field index and evaluating every document in the shard
+             */
+            if (indexVisitor != null && !isEmpty(node)) {
+                EvaluationCostModel costModel = new EvaluationCostModel(indexVisitor.getShardStatistics(), typeRegistry);
+                scanShards = costModel.chooseScanShards(node, shards);
+            }
+
         }
     }
 
@@ -141,4 +150,16 @@ public class QueryPlanner implements NodeVisitor {
         else
             throw new RuntimeException("A global index visitor was not configured on this optimizer.");
     }
+
+    /**
+     * @return the shards, out of {@link #getShards()}, which are cheaper to evaluate by scanning every document in
+     * them than by walking their field index
+     */
+    public Set<String> getScanShards() {
+
+        if (indexVisitor != null)
+            return scanShards;
+        else
+            throw new RuntimeException("A global index visitor was not configured on this optimizer.");
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.support.qfd.planner;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.calrissian.accumulorecipes.commons.support.qfd.AttributeIndexKey;
+
+/**
+ * The shards found in the global index for each {@link AttributeIndexKey} of a query. Every distinct shard is given
+ * a dense ordinal as it's added and the shards of each key are held as a bitmap of those ordinals, so that the
+ * intersections and unions done while planning a query are bitwise operations rather than operations on sets of
+ * strings. Bitmaps are only turned back into shard ids once the final set of shards has been calculated.
+ */
+public class ShardBitmaps {
+
+    private final Map<String, Integer> ordinals = new HashMap<String, Integer>();
+    private final List<String> shards = new ArrayList<String>();
+    private final Map<AttributeIndexKey, BitSet> keysToShards = new HashMap<AttributeIndexKey, BitSet>();
+
+    public ShardBitmaps() {
+    }
+
+    public ShardBitmaps(Map<AttributeIndexKey, Set<String>> keysToShards) {
+        for (Map.Entry<AttributeIndexKey, Set<String>> entry : keysToShards.entrySet()) {
+            for (String shard : entry.getValue())
+                add(entry.getKey(), shard);
+        }
+    }
+
+    public void add(AttributeIndexKey key, String shard) {
+        Integer ordinal = ordinals.get(shard);
+        if (ordinal == null) {
+            ordinal = shards.size();
+            ordinals.put(shard, ordinal);
+            shards.add(shard);
+        }
+
+        BitSet bits = keysToShards.get(key);
+        if (bits == null) {
+            bits = new BitSet();
+            keysToShards.put(key, bits);
+        }
+        bits.set(ordinal);
+    }
+
+    /**
+     * @return the bitmap of the shards for the given key, or null if the key wasn't found in the index. The returned
+     * bitmap is shared and must be copied before being modified.
+     */
+    public BitSet get(AttributeIndexKey key) {
+        return keysToShards.get(key);
+    }
+
+    public Set<AttributeIndexKey> keySet() {
+        return keysToShards.keySet();
+    }
+
+    /**
+     * @return the number of distinct shards that have been added
+     */
+    public int size() {
+        return shards.size();
+    }
+
+    /**
+     * Converts the given bitmap back into the shard ids it represents.
+     */
+    public Set<String> toShards(BitSet bits) {
+        Set<String> result = new HashSet<String>(bits.cardinality() * 2);
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1))
+            result.add(shards.get(i));
+        return result;
+    }
+
+    public Map<AttributeIndexKey, Set<String>> toMap() {
+        Map<AttributeIndexKey, Set<String>> result = new HashMap<AttributeIndexKey, Set<String>>();
+        for (Map.Entry<AttributeIndexKey, BitSet> entry : keysToShards.entrySet())
+            result.put(entry.getKey(), toShards(entry.getValue()));
+        return result;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.support.qfd.planner;
+
+import static org.calrissian.accumulorecipes.commons.support.Constants.INDEX_D;
+import static org.calrissian.accumulorecipes.commons.support.Constants.NULL_BYTE;
+import static org.calrissian.accumulorecipes.commons.support.qfd.KeyValueIndex.INDEX_SEP;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.calrissian.accumulorecipes.commons.support.qfd.AttributeIndexKey;
+
+/**
+ * The per shard numbers read from the global index while planning a query: how many documents each shard holds and
+ * how many of them each {@link AttributeIndexKey} of the query matches. These are what the {@link EvaluationCostModel}
+ * uses to choose how each shard gets evaluated.
+ */
+public class ShardStatistics {
+
+    private final Map<AttributeIndexKey, Map<String, Long>> cardinalities = new HashMap<AttributeIndexKey, Map<String, Long>>();
+    private final Map<String, Long> documentCounts = new HashMap<String, Long>();
+
+    public void addCardinality(AttributeIndexKey key, String shard, long cardinality) {
+        Map<String, Long> shardCardinalities = cardinalities.get(key);
+        if (shardCardinalities == null) {
+            shardCardinalities = new HashMap<String, Long>();
+            cardinalities.put(key, shardCardinalities);
+        }
+        add(shardCardinalities, shard, cardinality);
+    }
+
+    /**
+     * @return the global index rows holding the number of documents of each of the given types in each of the given
+     * shards
+     */
+    public static List<Range> documentCountRanges(Collection<String> shards, Collection<String> types) {
+        List<Range> ranges = new ArrayList<Range>(shards.size() * types.size());
+        for (String shard : shards) {
+            for (String type : types)
+                ranges.add(Range.exact(INDEX_D + INDEX_SEP + shard + NULL_BYTE + type));
+        }
+        return ranges;
+    }
+
+    /**
+     * Adds the count of a document count entry from the global index, whose row holds the shard followed by the type.
+     * Each row holds a count per document visibility, so the documents of a shard are only those counted by the
+     * entries the index scan was authorized to read.
+     */
+    public void addDocumentCount(Key key, long count) {
+        String row = key.getRow().toString();
+        int shardStart = INDEX_D.length() + INDEX_SEP.length();
+        addDocumentCount(row.substring(shardStart, row.indexOf(NULL_BYTE, shardStart)), count);
+    }
+
+    public void addDocumentCount(String shard, long count) {
+        add(documentCounts, shard, count);
+    }
+
+    /**
+     * @return the number of documents in the given shard the key matches, 0 if it wasn't found in the shard
+     */
+    public long getCardinality(AttributeIndexKey key, String shard) {
+        Map<String, Long> shardCardinalities = cardinalities.get(key);
+        if (shardCardinalities == null)
+            return 0;
+        Long cardinality = shardCardinalities.get(shard);
+        return cardinality != null ? cardinality : 0;
+    }
+
+    /**
+     * @return the number of documents in the given shard or null if the index holds no count for it
+     */
+    public Long getDocumentCount(String shard) {
+        return documentCounts.get(shard);
+    }
+
+    public Set<AttributeIndexKey> keySet() {
+        return cardinalities.keySet();
+    }
+
+    private static void add(Map<String, Long> counts, String shard, long count) {
+        Long existing = counts.get(shard);
+        counts.put(shard, existing != null ? existing + count : count);
+    }
+}
@@ -15,13 +15,14 @@
  */
 package org.calrissian.accumulorecipes.commons.support.qfd.planner.visitors;
 
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
-import com.google.common.collect.Sets;
 import org.calrissian.accumulorecipes.commons.support.qfd.AttributeIndexKey;
+import org.calrissian.accumulorecipes.commons.support.qfd.planner.ShardBitmaps;
 import org.calrissian.mango.criteria.domain.AbstractKeyValueLeaf;
 import org.calrissian.mango.criteria.domain.AndNode;
 import org.calrissian.mango.criteria.domain.HasLeaf;
@@ -40,17 +41,22 @@ import org.calrissian.mango.types.TypeRegistry;
  * An optimization function that calculates the sets of shards for each section of a given query
  * tree and tries to eliminate as many shards as possible by determining shards that will
  * never match the given query. This is done by taking intersections of the shards in AND
- * trees and taking unions of shards in OR trees.
+ * trees and taking unions of shards in OR trees. The sets of shards are held as bitmaps
+ * (see {@link ShardBitmaps}) until the final set has been calculated.
  */
 public class CalculateShardsVisitor implements NodeVisitor {
 
-    private final Map<AttributeIndexKey,Set<String>> keysToShards;
+    private final ShardBitmaps keysToShards;
     private Map<String, Set<AttributeIndexKey>> accumuloKeyToAttributeIndexKey = new HashMap<String, Set<AttributeIndexKey>>();
     private TypeRegistry<String> registry;
 
     private Set<String> finalShards;
 
     public CalculateShardsVisitor(Map<AttributeIndexKey,Set<String>> shards, TypeRegistry<String> registry) {
+        this(new ShardBitmaps(shards), registry);
+    }
+
+    public CalculateShardsVisitor(ShardBitmaps shards, TypeRegistry<String> registry) {
         this.keysToShards = shards;
         this.registry = registry;
 
@@ -67,7 +73,7 @@ public class CalculateShardsVisitor implements NodeVisitor {
     @Override
     public void begin(ParentNode parentNode) {
         if(finalShards == null)
-            finalShards = getShards(parentNode);
+            finalShards = keysToShards.toShards(getShards(parentNode));
     }
 
     @Override
@@ -84,56 +90,45 @@ public class CalculateShardsVisitor implements NodeVisitor {
         return finalShards;
     }
 
-    private Set<String> getShards(ParentNode node) {
-
-        /**
-         * First, we grab all shards for all subtrees (until we reach the leaves).
-         */
-        Set<Set<String>> resultShards = new HashSet<Set<String>>();
-        for (Node child : node.children()) {
-            if (child instanceof AndNode || child instanceof OrNode)
-                resultShards.add(getShards((ParentNode) child));
-            else if (child instanceof Leaf)  {
-                Set<String> childShards = getShards((Leaf) child);
-                resultShards.add(childShards);
-            }
-        }
+    /**
+     * Returns a new bitmap which is free to be modified by the caller.
+     */
+    private BitSet getShards(ParentNode node) {
 
-        Set<String> combinedSet = null;
+        BitSet combinedSet = null;
 
         /**
          * We want to intersect the shards for all AND queries since the query will only return true for
          * shards that will all make the tree return true.
-         */
-
-        // if the parent is an AndNode, we need to intersect keysToShards
-        if(node instanceof AndNode) {
-            for(Set<String> curShards : resultShards) {
-                if(combinedSet == null)
-                    combinedSet = curShards;
-                else {
-                    Set<String> intersected = Sets.intersection(combinedSet, curShards);
-                    combinedSet = new HashSet<String>(intersected);
-                }
-            }
-
-        /**
+         *
          * For OR nodes, we can just union the shards together because any one of the shards
          * will make the tree return true.
          */
+        for (Node child : node.children()) {
 
-        } else {
-            for(Set<String> curShards : resultShards) {
-                if(combinedSet == null)
-                    combinedSet = Sets.newHashSet();
-                combinedSet.addAll(curShards);
-            }
+            BitSet curShards;
+            if (child instanceof AndNode || child instanceof OrNode)
+                curShards = getShards((ParentNode) child);
+            else if (child instanceof Leaf)
+                curShards = getShards((Leaf) child);
+            else
+                continue;
+
+            if (combinedSet == null)
+                combinedSet = (BitSet) curShards.clone();
+            else if (node instanceof AndNode)
+                combinedSet.and(curShards);
+            else
+                combinedSet.or(curShards);
         }
 
-        return (combinedSet != null ? combinedSet : Sets.<String>newHashSet());
+        return (combinedSet != null ? combinedSet : new BitSet());
     }
 
-    private Set<String> getShards(Leaf leaf) {
+    /**
+     * Returns a bitmap that may be shared and must not be modified by the caller.
+     */
+    private BitSet getShards(Leaf leaf) {
         AbstractKeyValueLeaf kvLeaf = (AbstractKeyValueLeaf) leaf;
 
         /**
@@ -145,13 +140,13 @@ public class CalculateShardsVisitor implements NodeVisitor {
         // hasKey and hasNotKey need special treatment since we don't know the aliases
         if (leaf instanceof HasLeaf || leaf instanceof HasNotLeaf || NodeUtils.isRangeLeaf(leaf) || leaf instanceof NotEqualsLeaf) {
             Set<AttributeIndexKey> attributeIndexKeys = accumuloKeyToAttributeIndexKey.get(kvLeaf.getKey());
-            Set<String> unionedShards = new HashSet<String>();
+            BitSet unionedShards = new BitSet();
             if (attributeIndexKeys == null) {
                 if (leaf instanceof NegationLeaf)
                     return unionedShards;
             } else {
                 for (AttributeIndexKey key : attributeIndexKeys) {
-                    unionedShards.addAll(this.keysToShards.get(key));
+                    unionedShards.or(this.keysToShards.get(key));
                 }
             }
 
@@ -168,10 +163,10 @@ public class CalculateShardsVisitor implements NodeVisitor {
             normalizedVal = registry.encode(kvLeaf.getValue());
 
             AttributeIndexKey attributeIndexKey = new AttributeIndexKey(kvLeaf.getKey(), normalizedVal, alias);
-            Set<String> leafShards = keysToShards.get(attributeIndexKey);
+            BitSet leafShards = keysToShards.get(attributeIndexKey);
 
             if (leafShards == null)
-                return Sets.newHashSet();
+                return new BitSet();
 
             return leafShards;
         }
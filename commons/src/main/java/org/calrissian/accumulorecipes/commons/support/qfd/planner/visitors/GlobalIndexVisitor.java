@@ -19,6 +19,8 @@ import java.util.Map;
 import java.util.Set;
 
 import org.calrissian.accumulorecipes.commons.support.qfd.AttributeIndexKey;
+import org.calrissian.accumulorecipes.commons.support.qfd.planner.ShardBitmaps;
+import org.calrissian.accumulorecipes.commons.support.qfd.planner.ShardStatistics;
 import org.calrissian.mango.criteria.visitor.NodeVisitor;
 
 /**
@@ -33,5 +35,15 @@ public interface GlobalIndexVisitor extends NodeVisitor {
 
     Map<AttributeIndexKey, Set<String>> getShards();
 
+    /**
+     * The same shards as {@link #getShards()}, held as bitmaps for the planner to combine.
+     */
+    ShardBitmaps getShardBitmaps();
+
+    /**
+     * The cardinalities of each key and the number of documents in each of the shards that were looked up.
+     */
+    ShardStatistics getShardStatistics();
+
     void exec();
 }
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+
+/**
+ * An indexed, read-only view over a row that was encoded with {@link RowEncoderUtil#encodeRow}. Resetting the view
+ * walks the encoded bytes once to record where each entry's column family, qualifier, visibility, timestamp and value
+ * live. The accessors then hand back offsets into the original bytes rather than copies, so callers can inspect or
+ * rewrite entries without materializing a {@link Key} and {@link Value} for each one.
+ * <p/>
+ * A view can be reset onto new bytes any number of times and only grows its index when it sees a row with more
+ * entries than it has seen before. It is not thread safe.
+ */
+public class EncodedRowView {
+
+    private static final int STRIDE = 5;
+    private static final int ENTRY = 0;
+    private static final int COLF = 1;
+    private static final int COLQ = 2;
+    private static final int COLVIS = 3;
+    private static final int VALUE = 4;
+
+    private byte[] bytes;
+    private int size;
+    private int[] index = new int[STRIDE * 8];
+
+    public EncodedRowView() {
+    }
+
+    public EncodedRowView(byte[] bytes) throws IOException {
+        reset(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Points this view at the encoded row held in the given range of bytes.
+     *
+     * @throws IOException if the bytes do not hold a complete encoded row
+     */
+    public EncodedRowView reset(byte[] bytes, int offset, int length) throws IOException {
+        int end = offset + length;
+        int pos = offset;
+
+        checkAvailable(pos, 4, end);
+        int numEntries = readInt(bytes, pos);
+        pos += 4;
+        if (numEntries < 0)
+            throw new IOException("Invalid number of encoded entries: " + numEntries);
+
+        if (index.length < numEntries * STRIDE)
+            index = Arrays.copyOf(index, Math.max(numEntries, index.length / STRIDE * 2) * STRIDE);
+
+        for (int i = 0; i < numEntries; i++) {
+            int base = i * STRIDE;
+            index[base + ENTRY] = pos;
+            pos = indexSection(bytes, pos, end, base + COLF);
+            pos = indexSection(bytes, pos, end, base + COLQ);
+            pos = indexSection(bytes, pos, end, base + COLVIS);
+            checkAvailable(pos, 8, end);
+            pos += 8;
+            pos = indexSection(bytes, pos, end, base + VALUE);
+        }
+
+        this.bytes = bytes;
+        this.size = numEntries;
+        return this;
+    }
+
+    private int indexSection(byte[] bytes, int pos, int end, int slot) throws IOException {
+        checkAvailable(pos, 4, end);
+        int len = readInt(bytes, pos);
+        pos += 4;
+        if (len < 0)
+            throw new IOException("Invalid encoded length: " + len);
+        checkAvailable(pos, len, end);
+        index[slot] = pos;
+        return pos + len;
+    }
+
+    private static void checkAvailable(int pos, int needed, int end) throws EOFException {
+        if (end - pos < needed)
+            throw new EOFException("Encoded row is truncated");
+    }
+
+    /**
+     * @return the number of entries encoded in the row
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the bytes the offsets returned from this view refer to
+     */
+    public byte[] getBackingArray() {
+        return bytes;
+    }
+
+    /**
+     * The offset and length of an entry's complete encoding. Copying these bytes as-is, behind a new entry count, is
+     * enough to build a new encoded row from a subset of the entries of this one.
+     */
+    public int getEntryOffset(int i) {
+        return index[i * STRIDE + ENTRY];
+    }
+
+    public int getEntryLength(int i) {
+        return getValueOffset(i) + getValueLength(i) - getEntryOffset(i);
+    }
+
+    public int getColumnFamilyOffset(int i) {
+        return index[i * STRIDE + COLF];
+    }
+
+    public int getColumnFamilyLength(int i) {
+        return lengthOf(i * STRIDE + COLF);
+    }
+
+    public int getColumnQualifierOffset(int i) {
+        return index[i * STRIDE + COLQ];
+    }
+
+    public int getColumnQualifierLength(int i) {
+        return lengthOf(i * STRIDE + COLQ);
+    }
+
+    public int getColumnVisibilityOffset(int i) {
+        return index[i * STRIDE + COLVIS];
+    }
+
+    public int getColumnVisibilityLength(int i) {
+        return lengthOf(i * STRIDE + COLVIS);
+    }
+
+    public long getTimestamp(int i) {
+        return readLong(bytes, getColumnVisibilityOffset(i) + getColumnVisibilityLength(i));
+    }
+
+    public int getValueOffset(int i) {
+        return index[i * STRIDE + VALUE];
+    }
+
+    public int getValueLength(int i) {
+        return lengthOf(i * STRIDE + VALUE);
+    }
+
+    private int lengthOf(int slot) {
+        return readInt(bytes, index[slot] - 4);
+    }
+
+    /**
+     * Wraps the column family of the given entry without copying it.
+     */
+    public ByteSequence getColumnFamily(int i) {
+        return new ArrayByteSequence(bytes, getColumnFamilyOffset(i), getColumnFamilyLength(i));
+    }
+
+    public ByteSequence getColumnQualifier(int i) {
+        return new ArrayByteSequence(bytes, getColumnQualifierOffset(i), getColumnQualifierLength(i));
+    }
+
+    public ByteSequence getColumnVisibility(int i) {
+        return new ArrayByteSequence(bytes, getColumnVisibilityOffset(i), getColumnVisibilityLength(i));
+    }
+
+    public ByteSequence getValue(int i) {
+        return new ArrayByteSequence(bytes, getValueOffset(i), getValueLength(i));
+    }
+
+    public String getColumnFamilyString(int i) {
+        return toString(getColumnFamilyOffset(i), getColumnFamilyLength(i));
+    }
+
+    public String getColumnQualifierString(int i) {
+        return toString(getColumnQualifierOffset(i), getColumnQualifierLength(i));
+    }
+
+    public String getColumnVisibilityString(int i) {
+        return toString(getColumnVisibilityOffset(i), getColumnVisibilityLength(i));
+    }
+
+    public String getValueString(int i) {
+        return toString(getValueOffset(i), getValueLength(i));
+    }
+
+    /**
+     * Parses the column family of the given entry as a decimal long, the way expirations are stored, without
+     * building a string first.
+     */
+    public long getColumnFamilyAsLong(int i) {
+        int off = getColumnFamilyOffset(i);
+        int end = off + getColumnFamilyLength(i);
+        if (off == end)
+            throw new NumberFormatException("Empty column family");
+
+        boolean negative = bytes[off] == '-';
+        if (negative)
+            off++;
+
+        long result = 0;
+        for (; off < end; off++) {
+            int digit = bytes[off] - '0';
+            if (digit < 0 || digit > 9)
+                throw new NumberFormatException("Invalid column family: " + getColumnFamilyString(i));
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * @return the position of the first occurrence of the given byte in the column qualifier of the entry, relative
+     * to the start of the qualifier, or -1 if it does not occur.
+     */
+    public int indexOfInColumnQualifier(int i, byte b) {
+        int off = getColumnQualifierOffset(i);
+        int len = getColumnQualifierLength(i);
+        for (int j = 0; j < len; j++) {
+            if (bytes[off + j] == b)
+                return j;
+        }
+        return -1;
+    }
+
+    /**
+     * Materializes the given entry as a key under the given row. Only callers that need an actual {@link Key} should
+     * pay for this copy.
+     */
+    public Key toKey(Key rowKey, int i) {
+        return new Key(rowKey.getRowData().toArray(), copy(getColumnFamilyOffset(i), getColumnFamilyLength(i)),
+            copy(getColumnQualifierOffset(i), getColumnQualifierLength(i)),
+            copy(getColumnVisibilityOffset(i), getColumnVisibilityLength(i)), getTimestamp(i), false, false);
+    }
+
+    public Value toValue(int i) {
+        return new Value(copy(getValueOffset(i), getValueLength(i)), false);
+    }
+
+    private byte[] copy(int off, int len) {
+        return Arrays.copyOfRange(bytes, off, off + len);
+    }
+
+    private String toString(int off, int len) {
+        try {
+            return new String(bytes, off, len, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static int readInt(byte[] bytes, int off) {
+        return ((bytes[off] & 0xff) << 24) | ((bytes[off + 1] & 0xff) << 16) |
+            ((bytes[off + 2] & 0xff) << 8) | (bytes[off + 3] & 0xff);
+    }
+
+    public static long readLong(byte[] bytes, int off) {
+        return ((long) readInt(bytes, off) << 32) | (readInt(bytes, off + 4) & 0xffffffffL);
+    }
+}
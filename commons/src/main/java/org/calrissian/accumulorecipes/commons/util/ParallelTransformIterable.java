@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.Collections.newSetFromMap;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.base.Function;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.Futures;
+import org.calrissian.accumulorecipes.commons.domain.DecodeOptions;
+import org.calrissian.mango.collect.CloseableIterable;
+import org.calrissian.mango.collect.FluentCloseableIterable;
+
+/**
+ * Transforms the items of a {@link CloseableIterable} on a shared pool of worker threads. A feeder thread reads the
+ * source in batches and hands them to the workers, while the thread consuming this iterable only picks up the
+ * transformed batches. The number of batches in flight is bounded by the queue size of the {@link DecodeOptions}, so
+ * the source is only read as fast as the results are consumed, and the number of them being transformed at once by
+ * its decode threads, so one query can't take over the pool.
+ * <p/>
+ * The given function will be called from several threads at once and must therefore be thread safe. The workers are
+ * owned by the caller, while each iterator starts its own feeder thread. The feeder stops once the iterator is
+ * exhausted or this iterable is closed, or after waiting longer than the timeout of the {@link DecodeOptions} for the
+ * consumer to pick up results, in which case the source is closed and the consumer gets an error if it comes back.
+ */
+public class ParallelTransformIterable<F, T> extends FluentCloseableIterable<T> {
+
+    private final CloseableIterable<F> source;
+    private final Function<? super F, ? extends T> function;
+    private final DecodeOptions options;
+    private final Executor workers;
+
+    private final List<TransformingIterator> iterators = new CopyOnWriteArrayList<TransformingIterator>();
+
+    public ParallelTransformIterable(CloseableIterable<F> source, Function<? super F, ? extends T> function,
+        DecodeOptions options, Executor workers) {
+        this.source = checkNotNull(source);
+        this.function = checkNotNull(function);
+        this.options = checkNotNull(options);
+        this.workers = checkNotNull(workers);
+    }
+
+    @Override
+    protected void doClose() throws IOException {
+        for (TransformingIterator iterator : iterators)
+            iterator.shutdown();
+        source.close();
+    }
+
+    @Override
+    protected Iterator<T> retrieveIterator() {
+        TransformingIterator iterator = new TransformingIterator(source.iterator());
+        iterators.add(iterator);
+        iterator.start();
+        return iterator;
+    }
+
+    private class TransformingIterator extends AbstractIterator<T> implements Runnable {
+
+        private final Iterator<F> sourceIterator;
+        private final Thread feeder;
+
+        // batches are queued as they are submitted when ordered, or as they complete otherwise
+        private final BlockingQueue<Future<List<T>>> results = new LinkedBlockingQueue<Future<List<T>>>();
+        private final Set<Future<List<T>>> pending = newSetFromMap(new ConcurrentHashMap<Future<List<T>>, Boolean>());
+        private final Semaphore permits;
+        private final Semaphore decoding;
+        private final Future<List<T>> end = Futures.immediateFuture(Collections.<T>emptyList());
+
+        private Iterator<T> current = Collections.<T>emptyList().iterator();
+
+        private TransformingIterator(Iterator<F> sourceIterator) {
+            this.sourceIterator = sourceIterator;
+            this.permits = new Semaphore(options.getQueueSize());
+            this.decoding = new Semaphore(options.getDecodeThreads());
+            this.feeder = new Thread(this, "qfd-decode-feeder");
+            this.feeder.setDaemon(true);
+        }
+
+        private void start() {
+            feeder.start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<F> batch = new ArrayList<F>(options.getBatchSize());
+                while (sourceIterator.hasNext()) {
+                    batch.add(sourceIterator.next());
+                    if (batch.size() == options.getBatchSize()) {
+                        submit(batch);
+                        batch = new ArrayList<F>(options.getBatchSize());
+                    }
+                }
+                if (batch.size() > 0)
+                    submit(batch);
+
+                // unordered batches are only queued once complete, so wait until all of them have been picked up
+                if (!options.isOrdered())
+                    acquire(permits, options.getQueueSize());
+                results.put(end);
+            } catch (InterruptedException e) {
+                // we've been shut down
+            } catch (TimeoutException e) {
+                // the consumer has gone away without closing us, so let go of the source rather than holding it forever
+                results.add(Futures.<List<T>>immediateFailedFuture(new RuntimeException(e)));
+                iterators.remove(this);
+                source.closeQuietly();
+            } catch (RuntimeException e) {
+                results.add(Futures.<List<T>>immediateFailedFuture(e));
+            }
+        }
+
+        private void acquire(Semaphore semaphore, int count) throws InterruptedException, TimeoutException {
+            if (!semaphore.tryAcquire(count, options.getTimeout(), MILLISECONDS))
+                throw new TimeoutException("Results were not consumed within " + options.getTimeout() + "ms");
+        }
+
+        private void submit(final List<F> batch) throws InterruptedException, TimeoutException {
+            acquire(permits, 1);
+            acquire(decoding, 1);
+            FutureTask<List<T>> task = new FutureTask<List<T>>(new Callable<List<T>>() {
+                @Override
+                public List<T> call() throws Exception {
+                    List<T> transformed = new ArrayList<T>(batch.size());
+                    for (F item : batch)
+                        transformed.add(function.apply(item));
+                    return transformed;
+                }
+            }) {
+                @Override
+                protected void done() {
+                    pending.remove(this);
+                    decoding.release();
+                    if (!options.isOrdered())
+                        results.add(this);
+                }
+            };
+
+            pending.add(task);
+            if (options.isOrdered())
+                results.put(task);
+            try {
+                workers.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.cancel(false);
+                throw e;
+            }
+        }
+
+        @Override
+        protected T computeNext() {
+            while (!current.hasNext()) {
+                Future<List<T>> next;
+                try {
+                    next = results.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    shutdown();
+                    throw new RuntimeException(e);
+                }
+
+                if (next == end) {
+                    shutdown();
+                    return endOfData();
+                }
+
+                try {
+                    current = next.get().iterator();
+                } catch (CancellationException e) {
+                    shutdown();
+                    throw e;
+                } catch (ExecutionException e) {
+                    shutdown();
+                    if (e.getCause() instanceof RuntimeException)
+                        throw (RuntimeException) e.getCause();
+                    throw new RuntimeException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    shutdown();
+                    throw new RuntimeException(e);
+                }
+                permits.release();
+            }
+            return current.next();
+        }
+
+        private void shutdown() {
+            feeder.interrupt();
+            // the workers are shared, so only the batches of this iterator are cancelled
+            for (Future<List<T>> task : pending)
+                task.cancel(true);
+            iterators.remove(this);
+        }
+    }
+}
@@ -46,19 +46,19 @@ public class RowEncoderUtil {
             {
                 int len = din.readInt();
                 cf = new byte[len];
-                din.read(cf);
+                din.readFully(cf);
             }
             // read the col qual
             {
                 int len = din.readInt();
                 cq = new byte[len];
-                din.read(cq);
+                din.readFully(cq);
             }
             // read the col visibility
             {
                 int len = din.readInt();
                 cv = new byte[len];
-                din.read(cv);
+                din.readFully(cv);
             }
             // read the timestamp
             long timestamp = din.readLong();
@@ -66,7 +66,7 @@ public class RowEncoderUtil {
             {
                 int len = din.readInt();
                 valBytes = new byte[len];
-                din.read(valBytes);
+                din.readFully(valBytes);
             }
             map.add(immutableEntry(new Key(rowKey.getRowData().toArray(), cf, cq, cv, timestamp, false, false), new Value(valBytes, false)));
         }
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.cli;
+
+import static com.google.common.collect.Maps.immutableEntry;
+import static org.calrissian.accumulorecipes.commons.support.qfd.ShardValueEncoderTest.encodeV1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.mock.MockInstance;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorUtil.IteratorScope;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.accumulo.core.security.ColumnVisibility;
+import org.apache.hadoop.io.Text;
+import org.calrissian.accumulorecipes.commons.domain.StoreConfig;
+import org.calrissian.accumulorecipes.commons.iterators.FieldIndexExpirationFilter;
+import org.calrissian.accumulorecipes.commons.support.qfd.ShardValueView;
+import org.junit.Test;
+
+public class ShardTableRewriterTest {
+
+    @Test
+    public void testRewrite() throws Exception {
+        Connector connector = new MockInstance().getConnector("root", "".getBytes());
+        connector.tableOperations().create("shardV1", false);
+        connector.tableOperations().attachIterator("shardV1", new IteratorSetting(6, "fiExpiration", FieldIndexExpirationFilter.class));
+        connector.tableOperations().addSplits("shardV1", new TreeSet<Text>(Collections.singleton(new Text("m"))));
+
+        List<Map.Entry<Key,Value>> entries = new ArrayList<Map.Entry<Key,Value>>();
+        entries.add(immutableEntry(new Key("a_1", "-1", "name\u0000string\u0001bob", "", 1000), new Value(new byte[0])));
+        entries.add(immutableEntry(new Key("a_1", "-1", "age\u0000integer\u00015", "", 1000), new Value(new byte[0])));
+
+        BatchWriter writer = connector.createBatchWriter("shardV1", 100000L, 1000L, 1);
+        Mutation mutation = new Mutation("a_1");
+        mutation.put(new Text("e\u0001type\u0001id"), new Text(), new ColumnVisibility(), 1000, new Value(encodeV1(-1, entries)));
+        mutation.put(new Text("fi\u0000type__name"), new Text("string\u0001bob\u0000e\u0001type\u0001id"), new ColumnVisibility(), 1000, new Value("-1".getBytes()));
+        writer.addMutation(mutation);
+        writer.close();
+
+        ShardTableRewriter rewriter = new ShardTableRewriter(connector, new StoreConfig());
+        rewriter.rewrite("shardV1", "shardV2", new Authorizations());
+
+        assertEquals(2, rewriter.getNumKeys());
+        assertEquals(1, rewriter.getNumRewritten());
+        assertEquals(1, connector.tableOperations().listSplits("shardV2").size());
+        assertEquals(connector.tableOperations().listIterators("shardV1"), connector.tableOperations().listIterators("shardV2"));
+        assertNotNull(connector.tableOperations().getIteratorSetting("shardV2", "fiExpiration", IteratorScope.scan));
+
+        Scanner scanner = connector.createScanner("shardV2", new Authorizations());
+        int count = 0;
+        for (Map.Entry<Key,Value> entry : scanner) {
+            assertEquals(1000, entry.getKey().getTimestamp());
+            if (entry.getKey().getColumnFamily().toString().startsWith("e")) {
+                ShardValueView view = new ShardValueView().reset(entry.getValue().get());
+                assertEquals(2, view.getVersion());
+                assertEquals(2, view.size());
+                assertEquals("name", view.getKey(0));
+                assertEquals("age", view.getKey(1));
+            } else {
+                assertEquals("-1", new String(entry.getValue().get()));
+            }
+            count++;
+        }
+        assertEquals(2, count);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRewrite_destConfiguredDifferently() throws Exception {
+        Connector connector = new MockInstance().getConnector("root", "".getBytes());
+        connector.tableOperations().create("shardV1Configured", false);
+        connector.tableOperations().attachIterator("shardV1Configured", new IteratorSetting(6, "fiExpiration", FieldIndexExpirationFilter.class));
+        connector.tableOperations().create("shardV2Unconfigured", false);
+
+        new ShardTableRewriter(connector, new StoreConfig()).rewrite("shardV1Configured", "shardV2Unconfigured", new Authorizations());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.iterators;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.mock.MockInstance;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.io.Text;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ColumnFamilyPrefixIteratorTest {
+
+    private Connector connector;
+
+    @Before
+    public void setUp() throws Exception {
+        connector = new MockInstance("ColumnFamilyPrefixIteratorTest").getConnector("root", "".getBytes());
+        if (connector.tableOperations().exists("test"))
+            connector.tableOperations().delete("test");
+        connector.tableOperations().create("test");
+
+        BatchWriter writer = connector.createBatchWriter("test", 100000L, 1000L, 1);
+        for (String row : asList("row1", "row2", "row3")) {
+            Mutation mutation = new Mutation(row);
+            for (String cf : asList("a\u0001x", "b\u0001x", "b\u0001y", "c\u0001x", "d\u0001x"))
+                mutation.put(new Text(cf), new Text("cq"), new Value("".getBytes()));
+            writer.addMutation(mutation);
+        }
+        writer.close();
+    }
+
+    private List<String> scan(Range range, String... prefixes) throws Exception {
+        Scanner scanner = connector.createScanner("test", new Authorizations());
+        scanner.setRange(range);
+
+        IteratorSetting setting = new IteratorSetting(5, ColumnFamilyPrefixIterator.class);
+        ColumnFamilyPrefixIterator.setPrefixes(setting, asList(prefixes));
+        scanner.addScanIterator(setting);
+
+        List<String> results = new ArrayList<String>();
+        for (Map.Entry<Key, Value> entry : scanner)
+            results.add(entry.getKey().getRow() + ":" + entry.getKey().getColumnFamily());
+        return results;
+    }
+
+    @Test
+    public void testPrefixesAcrossRows() throws Exception {
+        assertEquals(asList(
+            "row1:b\u0001x", "row1:b\u0001y", "row1:d\u0001x",
+            "row2:b\u0001x", "row2:b\u0001y", "row2:d\u0001x",
+            "row3:b\u0001x", "row3:b\u0001y", "row3:d\u0001x"
+        ), scan(new Range(), "d", "b\u0001"));
+    }
+
+    @Test
+    public void testHonorsRangeEnd() throws Exception {
+        assertEquals(asList("row1:a\u0001x", "row2:a\u0001x"),
+            scan(new Range("row1", true, "row2", true), "a\u0001"));
+    }
+
+    @Test
+    public void testNoMatches() throws Exception {
+        assertEquals(0, scan(new Range(), "e").size());
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.iterators;
+
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import com.esotericsoftware.kryo.io.Output;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.mock.MockInstance;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.accumulo.core.security.ColumnVisibility;
+import org.apache.hadoop.io.Text;
+import org.calrissian.accumulorecipes.commons.iterators.support.EventFields;
+import org.calrissian.accumulorecipes.commons.iterators.support.KryoContext;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FacetIteratorTest {
+
+    Connector connector;
+
+    @Before
+    public void setUp() throws Exception {
+        connector = new MockInstance().getConnector("user", "".getBytes());
+        if (!connector.tableOperations().exists("facetTest")) {
+            connector.tableOperations().create("facetTest");
+
+            BatchWriter writer = connector.createBatchWriter("facetTest", 1000, 1000, 1);
+            Mutation m = new Mutation("shard");
+            // the same color under two visibilities is still a single value of the event
+            m.put(new Text("event1"), new Text(), new Value(serialize(
+                "color", "red", "A", "color", "red", "B", "size", "large", "A")));
+            m.put(new Text("event2"), new Text(), new Value(serialize(
+                "color", "red", "", "color", "blue", "B")));
+            m.put(new Text("event3"), new Text(), new Value(serialize(
+                "size", "small", "")));
+            writer.addMutation(m);
+            writer.close();
+        }
+    }
+
+    private static byte[] serialize(String... fieldValueVis) {
+        EventFields eventFields = new EventFields();
+        for (int i = 0; i < fieldValueVis.length; i += 3)
+            eventFields.put(fieldValueVis[i], new EventFields.FieldValue(new ColumnVisibility(fieldValueVis[i + 2]),
+                fieldValueVis[i + 1].getBytes(), "".getBytes()));
+        Output output = new Output(1024, -1);
+        eventFields.write(KryoContext.get(), output, eventFields);
+        return output.toBytes();
+    }
+
+    private static IteratorSetting facetSetting(String... fields) {
+        IteratorSetting setting = new IteratorSetting(5, FacetIterator.class);
+        FacetIterator.setFields(setting, new HashSet<String>(Arrays.asList(fields)));
+        return setting;
+    }
+
+    @Test
+    public void testCountsDistinctValuesOfEachEvent() throws Exception {
+        Scanner scanner = connector.createScanner("facetTest", new Authorizations());
+        scanner.addScanIterator(facetSetting("color", "size"));
+
+        int entries = 0;
+        for (Map.Entry<Key, Value> entry : scanner) {
+            entries++;
+            assertEquals(new Text("shard"), entry.getKey().getRow());
+
+            Map<String, Map<String, Long>> facets = FacetIterator.decodeFacets(entry.getValue());
+            assertEquals(2, facets.size());
+            assertEquals(2, (long) facets.get("color").get("red"));
+            assertEquals(1, (long) facets.get("color").get("blue"));
+            assertEquals(1, (long) facets.get("size").get("large"));
+            assertEquals(1, (long) facets.get("size").get("small"));
+        }
+        assertEquals(1, entries);
+    }
+
+    @Test
+    public void testOnlyConfiguredFieldsCounted() throws Exception {
+        Scanner scanner = connector.createScanner("facetTest", new Authorizations());
+        scanner.addScanIterator(facetSetting("size"));
+
+        for (Map.Entry<Key, Value> entry : scanner) {
+            Map<String, Map<String, Long>> facets = FacetIterator.decodeFacets(entry.getValue());
+            assertEquals(singleton("size"), facets.keySet());
+        }
+    }
+
+    @Test
+    public void testKeyOfLastResultWhenRangeEndsInRow() throws Exception {
+        Scanner scanner = connector.createScanner("facetTest", new Authorizations());
+        // the range ends within the shard row, before the column family the facets are normally returned under
+        scanner.setRange(new Range(new Key("shard"), true, new Key("shard", "event2"), false));
+        scanner.addScanIterator(facetSetting("color"));
+
+        int entries = 0;
+        for (Map.Entry<Key, Value> entry : scanner) {
+            entries++;
+            assertTrue(entry.getKey().equals(new Key("shard", "event1"), PartialKey.ROW_COLFAM));
+
+            Map<String, Map<String, Long>> facets = FacetIterator.decodeFacets(entry.getValue());
+            assertEquals(1, (long) facets.get("color").get("red"));
+            assertNull(facets.get("color").get("blue"));
+        }
+        assertEquals(1, entries);
+    }
+
+    @Test
+    public void testNothingReturnedForRangeWithoutResults() throws Exception {
+        Scanner scanner = connector.createScanner("facetTest", new Authorizations());
+        scanner.setRange(new Range("other"));
+        scanner.addScanIterator(facetSetting("color"));
+
+        assertFalse(scanner.iterator().hasNext());
+    }
+}
@@ -84,4 +84,24 @@ public class GlobalIndexCombinerTest {
         assertEquals(5, actualGiv.getCardinatlity());
         assertEquals(-1, actualGiv.getExpiration());
     }
+
+    /**
+     * Tests that values written in the legacy string form combine with binary values
+     */
+    @Test
+    public void testWithLegacyValues() {
+
+        GlobalIndexCombiner combiner = new GlobalIndexCombiner();
+
+        Collection<Value> values = new ArrayList<Value>();
+        values.add(new Value("1,2".getBytes()));
+        values.add(new Value("3,50".getBytes()));
+        values.add(new GlobalIndexValue(2, 10).toValue());
+
+        Value actualVal = combiner.reduce(new Key(), values.iterator());
+
+        GlobalIndexValue actualGiv = new GlobalIndexValue(actualVal);
+        assertEquals(6, actualGiv.getCardinatlity());
+        assertEquals(50, actualGiv.getExpiration());
+    }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.iterators;
+
+import static org.junit.Assert.assertEquals;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.mock.MockInstance;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.io.Text;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MatchCountIteratorTest {
+
+    Connector connector;
+
+    @Before
+    public void setUp() throws Exception {
+        connector = new MockInstance().getConnector("user", "".getBytes());
+        if (!connector.tableOperations().exists("matchCountTest")) {
+            connector.tableOperations().create("matchCountTest");
+
+            BatchWriter writer = connector.createBatchWriter("matchCountTest", 1000, 1000, 1);
+            for (int row = 0; row < 4; row++) {
+                Mutation m = new Mutation(Integer.toString(row));
+                for (int i = 0; i < 5; i++)
+                    m.put(new Text(Integer.toString(i)), new Text(), new Value("".getBytes()));
+                writer.addMutation(m);
+            }
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testSingleCountForRange() throws Exception {
+        Scanner scanner = connector.createScanner("matchCountTest", new Authorizations());
+        scanner.addScanIterator(new IteratorSetting(5, MatchCountIterator.class));
+
+        List<Long> counts = new ArrayList<Long>();
+        for (Map.Entry<Key, Value> entry : scanner)
+            counts.add(MatchCountIterator.decodeCount(entry.getValue()));
+
+        assertEquals(1, counts.size());
+        assertEquals(20, (long) counts.get(0));
+    }
+
+    @Test
+    public void testCountPerRange() throws Exception {
+        BatchScanner scanner = connector.createBatchScanner("matchCountTest", new Authorizations(), 2);
+        List<Range> ranges = new ArrayList<Range>();
+        for (int row = 0; row < 4; row++)
+            ranges.add(new Range(Integer.toString(row)));
+        ranges.add(new Range("9"));
+        scanner.setRanges(ranges);
+        scanner.addScanIterator(new IteratorSetting(5, MatchCountIterator.class));
+
+        int entries = 0;
+        long total = 0;
+        for (Map.Entry<Key, Value> entry : scanner) {
+            assertEquals(5, MatchCountIterator.decodeCount(entry.getValue()));
+            entries++;
+            total += MatchCountIterator.decodeCount(entry.getValue());
+        }
+        scanner.close();
+
+        // nothing is returned for the range without entries
+        assertEquals(4, entries);
+        assertEquals(20, total);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.iterators.support;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.apache.accumulo.core.security.ColumnVisibility;
+import org.junit.Test;
+
+public class KryoContextTest {
+
+    @Test
+    public void testInstancePerThread() throws Exception {
+        final Kryo mine = KryoContext.get();
+        assertSame(mine, KryoContext.get());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Kryo theirs = executor.submit(new Callable<Kryo>() {
+                @Override
+                public Kryo call() throws Exception {
+                    return KryoContext.get();
+                }
+            }).get();
+            assertNotSame(mine, theirs);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentRoundTrips() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < 8; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        for (int i = 0; i < 500; i++) {
+                            EventFields fields = new EventFields();
+                            byte[] value = ("string\u0001" + thread + "_" + i).getBytes();
+                            fields.put("key", new EventFields.FieldValue(new ColumnVisibility("A"), value, new byte[0]));
+
+                            Output output = new Output(1024);
+                            fields.write(KryoContext.get(), output, fields);
+
+                            EventFields read = new EventFields();
+                            read.read(KryoContext.get(), new Input(output.toBytes()), EventFields.class);
+                            assertArrayEquals(value, read.get("key").iterator().next().getValue());
+                        }
+                        return thread;
+                    }
+                }));
+            }
+
+            for (int t = 0; t < futures.size(); t++)
+                assertEquals(t, (int) futures.get(t).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
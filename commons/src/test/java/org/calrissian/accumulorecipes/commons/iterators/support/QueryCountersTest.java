@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.iterators.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.junit.Test;
+
+public class QueryCountersTest {
+
+    @Test
+    public void testValueRoundTripAndAdd() {
+        QueryCounters counters = new QueryCounters();
+        counters.incrementKeysRead(true);
+        counters.incrementKeysRead(true);
+        counters.incrementSeeks(true);
+        counters.incrementKeysRead(false);
+        counters.incrementSeeks(false);
+        counters.incrementCandidates();
+        counters.incrementCandidates();
+        counters.incrementMatches(300);
+        counters.addIndexTime(1000);
+        counters.addEvaluationTime(2000);
+
+        QueryCounters total = new QueryCounters(counters.toValue());
+        total.add(counters);
+
+        assertEquals(4, total.getIndexKeysRead());
+        assertEquals(2, total.getIndexSeeks());
+        assertEquals(2, total.getEventKeysRead());
+        assertEquals(2, total.getEventSeeks());
+        assertEquals(4, total.getCandidates());
+        assertEquals(2, total.getMatches());
+        assertEquals(600, total.getBytesReturned());
+        assertEquals(2000, total.getIndexTime(TimeUnit.NANOSECONDS));
+        assertEquals(4, total.getEvaluationTime(TimeUnit.MICROSECONDS));
+
+        total.clear();
+        assertEquals(0, total.getMatches());
+        assertEquals(0, total.getBytesReturned());
+    }
+
+    @Test
+    public void testDecodesValuesWithoutTimings() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (long counter = 1; counter <= 7; counter++)
+            WritableUtils.writeVLong(out, counter);
+        out.flush();
+
+        QueryCounters counters = new QueryCounters(new Value(bytes.toByteArray()));
+        assertEquals(1, counters.getIndexKeysRead());
+        assertEquals(7, counters.getBytesReturned());
+        assertEquals(0, counters.getIndexTime(TimeUnit.NANOSECONDS));
+        assertEquals(0, counters.getEvaluationTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testCountersKey() {
+        Key key = QueryCounters.countersKey(new Text("20140101_1"));
+        assertTrue(QueryCounters.isCountersKey(key));
+        assertFalse(QueryCounters.isCountersKey(new Key("20140101_1", "e\u0001type\u0001id")));
+
+        // sorts after the events and field index of the shard
+        assertTrue(key.compareTo(new Key("20140101_1", "fi\u0000key")) > 0);
+    }
+}
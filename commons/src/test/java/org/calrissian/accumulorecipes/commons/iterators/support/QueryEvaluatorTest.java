@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.iterators.support;
+
+import static java.util.Collections.singleton;
+import static org.calrissian.mango.criteria.builder.QueryBuilder.create;
+import static org.calrissian.mango.types.LexiTypeEncoders.LEXI_TYPES;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.security.ColumnVisibility;
+import org.calrissian.accumulorecipes.commons.iterators.support.EventFields.FieldValue;
+import org.calrissian.mango.criteria.domain.Node;
+import org.junit.Test;
+
+public class QueryEvaluatorTest {
+
+    private NodeToJexl nodeToJexl = new NodeToJexl(LEXI_TYPES);
+
+    private boolean evaluate(Node query, EventFields fields) throws Exception {
+        return new QueryEvaluator(nodeToJexl.transform(singleton(""), query)).evaluate(new Key(), fields);
+    }
+
+    private static EventFields fields(Object... keysAndValues) {
+        EventFields fields = new EventFields();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            Object value = keysAndValues[i + 1];
+            String encoded = LEXI_TYPES.getAlias(value) + "\u0001" + LEXI_TYPES.encode(value);
+            fields.put((String) keysAndValues[i], new FieldValue(new ColumnVisibility(), encoded.getBytes(), new byte[0]));
+        }
+        return fields;
+    }
+
+    @Test
+    public void testAndOr() throws Exception {
+        EventFields event = fields("key1", "val1", "key2", "val2");
+
+        assertTrue(evaluate(create().and().eq("key1", "val1").eq("key2", "val2").end().build(), event));
+        assertFalse(evaluate(create().and().eq("key1", "val1").eq("key2", "val3").end().build(), event));
+        assertTrue(evaluate(create().or().eq("key1", "nope").eq("key2", "val2").end().build(), event));
+    }
+
+    @Test
+    public void testMultiValuedFieldsMatchAny() throws Exception {
+        EventFields event = fields("key1", "a", "key1", "b", "key1", "c", "key2", 5);
+
+        assertTrue(evaluate(create().and().eq("key1", "b").eq("key2", 5).end().build(), event));
+        assertFalse(evaluate(create().and().eq("key1", "d").eq("key2", 5).end().build(), event));
+        assertTrue(evaluate(create().and().greaterThan("key1", "b").end().build(), event));
+        assertFalse(evaluate(create().and().greaterThan("key1", "c").end().build(), event));
+    }
+
+    @Test
+    public void testRanges() throws Exception {
+        EventFields event = fields("key1", 10);
+
+        assertTrue(evaluate(create().and().range("key1", 5, 15).end().build(), event));
+        assertTrue(evaluate(create().and().greaterThanEq("key1", 10).lessThan("key1", 11).end().build(), event));
+        assertFalse(evaluate(create().and().lessThan("key1", 10).end().build(), event));
+        assertFalse(evaluate(create().and().range("key1", -5, 5).end().build(), event));
+    }
+
+    @Test
+    public void testMissingFields() throws Exception {
+        EventFields event = fields("key1", "val1");
+
+        assertTrue(evaluate(create().and().has("key1").end().build(), event));
+        assertFalse(evaluate(create().and().has("key2").end().build(), event));
+        assertTrue(evaluate(create().and().hasNot("key2").end().build(), event));
+        assertFalse(evaluate(create().and().hasNot("key1").end().build(), event));
+        assertTrue(evaluate(create().and().eq("key1", "val1").notEq("key2", "val2").end().build(), event));
+        assertFalse(evaluate(create().and().eq("key1", "val1").lessThan("key2", "val2").end().build(), event));
+    }
+
+    @Test
+    public void testInNotIn() throws Exception {
+        EventFields event = fields("key1", "val1");
+
+        assertTrue(evaluate(create().and().in("key1", "val0", "val1").end().build(), event));
+        assertFalse(evaluate(create().and().notIn("key1", "val0", "val1").end().build(), event));
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.support.qfd;
+
+import static org.calrissian.accumulorecipes.commons.support.Constants.INDEX_K;
+import static org.calrissian.accumulorecipes.commons.support.Constants.INDEX_V;
+import static org.calrissian.accumulorecipes.commons.support.Constants.NULL_BYTE;
+import static org.calrissian.accumulorecipes.commons.support.qfd.KeyValueIndex.INDEX_SEP;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.accumulo.core.data.Key;
+import org.junit.Test;
+
+public class AttributeIndexKeyTest {
+
+    @Test
+    public void testValueIndexRow() {
+        AttributeIndexKey key = new AttributeIndexKey(new Key(
+            INDEX_V + INDEX_SEP + "type" + INDEX_SEP + "string" + INDEX_SEP + "key1" + NULL_BYTE + "val1" + NULL_BYTE + "20140101_01"));
+
+        assertEquals("key1", key.getKey());
+        assertEquals("val1", key.getNormalizedValue());
+        assertEquals("string", key.getAlias());
+        assertEquals("20140101_01", key.getShard());
+        assertEquals(new AttributeIndexKey("key1", "val1", "string"), key);
+    }
+
+    @Test
+    public void testKeyIndexRow() {
+        AttributeIndexKey key = new AttributeIndexKey(new Key(
+            INDEX_K + INDEX_SEP + "type" + INDEX_SEP + "key1" + INDEX_SEP + "integer" + NULL_BYTE + "type_ 1"));
+
+        assertEquals("key1", key.getKey());
+        assertNull(key.getNormalizedValue());
+        assertEquals("integer", key.getAlias());
+        assertEquals("type_ 1", key.getShard());
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.support.qfd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.accumulo.core.data.Value;
+import org.junit.Test;
+
+public class GlobalIndexValueTest {
+
+    @Test
+    public void testRoundTrip() {
+        long[][] pairs = new long[][] {
+            {0, -1}, {1, 2}, {5, 1400000000000l}, {Long.MAX_VALUE, Long.MIN_VALUE}, {-3, 0}
+        };
+
+        for (long[] pair : pairs) {
+            GlobalIndexValue actual = new GlobalIndexValue(new GlobalIndexValue(pair[0], pair[1]).toValue());
+            assertEquals(pair[0], actual.getCardinatlity());
+            assertEquals(pair[1], actual.getExpiration());
+        }
+    }
+
+    @Test
+    public void testBinaryIsSmallerThanLegacy() {
+        Value value = new GlobalIndexValue(1, -1).toValue();
+        assertEquals(GlobalIndexValue.VERSION_BINARY, value.get()[0]);
+        assertEquals(3, value.getSize());
+        assertTrue(new GlobalIndexValue(1000, 1400000000000l).toValue().getSize() < "1000,1400000000000".length());
+    }
+
+    @Test
+    public void testLegacyValues() {
+        GlobalIndexValue value = new GlobalIndexValue(new Value("25,1400000000000".getBytes()));
+        assertEquals(25, value.getCardinatlity());
+        assertEquals(1400000000000l, value.getExpiration());
+
+        value = new GlobalIndexValue(new Value("3,-1".getBytes()));
+        assertEquals(3, value.getCardinatlity());
+        assertEquals(-1, value.getExpiration());
+
+        value = new GlobalIndexValue(new Value("1".getBytes()));
+        assertEquals(1, value.getCardinatlity());
+        assertEquals(-1, value.getExpiration());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedValue() {
+        new GlobalIndexValue(new byte[] {GlobalIndexValue.VERSION_BINARY, (byte) 0x80});
+    }
+}
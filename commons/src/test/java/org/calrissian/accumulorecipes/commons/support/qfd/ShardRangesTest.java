@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.support.qfd;
+
+import static java.util.Arrays.asList;
+import static org.calrissian.accumulorecipes.commons.support.qfd.ShardRanges.coalesce;
+import static org.calrissian.accumulorecipes.commons.support.qfd.ShardRanges.coalesceText;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.Collections;
+
+import org.apache.accumulo.core.data.Range;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+public class ShardRangesTest {
+
+    @Test
+    public void testConsecutivePartitionsCoalesce() {
+        assertEquals(asList(new Range("20140101_0", true, "20140101_3", true)),
+            coalesce(asList("20140101_2", "20140101_0", "20140101_3", "20140101_1")));
+    }
+
+    @Test
+    public void testGapsSplitRanges() {
+        assertEquals(asList(new Range("20140101_0", true, "20140101_1", true), new Range("20140101_3")),
+            coalesce(asList("20140101_0", "20140101_1", "20140101_3")));
+    }
+
+    @Test
+    public void testBucketsSplitRanges() {
+        assertEquals(asList(new Range("20140101_0", true, "20140101_1", true), new Range("20140102_0", true, "20140102_1", true)),
+            coalesce(asList("20140101_0", "20140101_1", "20140102_0", "20140102_1")));
+    }
+
+    @Test
+    public void testPaddedPartitions() {
+        assertEquals(asList(new Range("type_ 8", true, "type_11", true)),
+            coalesce(asList("type_ 8", "type_ 9", "type_10", "type_11")));
+        assertEquals(asList(new Range("20140101_08", true, "20140101_11", true)),
+            coalesceText(asList(new Text("20140101_08"), new Text("20140101_09"), new Text("20140101_10"), new Text("20140101_11"))));
+    }
+
+    @Test
+    public void testUnpartitionedShardsAreKeptApart() {
+        assertEquals(asList(new Range("a"), new Range("b_x"), new Range("c")), coalesce(asList("c", "b_x", "a")));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertTrue(coalesce(Collections.<String>emptyList()).isEmpty());
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.support.qfd;
+
+import static com.google.common.collect.Maps.immutableEntry;
+import static java.util.Arrays.copyOfRange;
+import static org.calrissian.accumulorecipes.commons.util.RowEncoderUtil.encodeRow;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.junit.Test;
+
+public class ShardValueEncoderTest {
+
+    /**
+     * Builds a shard value the way they were written before the version 2 encoding.
+     */
+    public static byte[] encodeV1(long minExpiration, List<Map.Entry<Key,Value>> entries) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(baos);
+        dout.writeInt(entries.size());
+        dout.writeLong(minExpiration);
+        encodeRow(entries, baos);
+        return baos.toByteArray();
+    }
+
+    private static List<Map.Entry<Key,Value>> v1Entries() {
+        List<Map.Entry<Key,Value>> entries = new ArrayList<Map.Entry<Key,Value>>();
+        entries.add(immutableEntry(new Key("shard", "-1", "name\u0000string\u0001bob", "A", 1000), new Value("meta".getBytes())));
+        entries.add(immutableEntry(new Key("shard", "50000", "age\u0000integer\u00015", "A", 1000), new Value(new byte[0])));
+        entries.add(immutableEntry(new Key("shard", "-1", "name\u0000string\u0001jim", "A", 1000), new Value("meta".getBytes())));
+        return entries;
+    }
+
+    private static String slice(byte[] bytes, int offset, int length) {
+        return new String(copyOfRange(bytes, offset, offset + length));
+    }
+
+    private static void assertMatchesV1Entries(ShardValueView view) {
+        assertEquals(3, view.size());
+        assertEquals(51000, view.getExpiresAt(1000));
+
+        byte[] bytes = view.getBackingArray();
+        assertEquals("name", view.getKey(0));
+        assertEquals("string\u0001bob", slice(bytes, view.getAliasValueOffset(0), view.getAliasValueLength(0)));
+        assertEquals("A", view.getVisibilityString(0));
+        assertEquals("meta", slice(bytes, view.getMetadataOffset(0), view.getMetadataLength(0)));
+        assertEquals(1000, view.getTimestamp(0));
+        assertEquals(-1, view.getExpiration(0));
+
+        assertEquals("age", view.getKey(1));
+        assertEquals("integer\u00015", slice(bytes, view.getAliasValueOffset(1), view.getAliasValueLength(1)));
+        assertEquals(0, view.getMetadataLength(1));
+        assertEquals(50000, view.getExpiration(1));
+
+        assertEquals("name", view.getKey(2));
+        assertEquals("string\u0001jim", slice(bytes, view.getAliasValueOffset(2), view.getAliasValueLength(2)));
+        assertEquals(1000, view.getTimestamp(2));
+    }
+
+    @Test
+    public void testReadsV1() throws Exception {
+        byte[] v1 = encodeV1(50000, v1Entries());
+
+        ShardValueView view = new ShardValueView().reset(v1);
+        assertEquals(1, view.getVersion());
+        assertMatchesV1Entries(view);
+
+        assertEquals(3, ShardValueView.getSize(v1));
+        assertEquals(51000, ShardValueView.getExpiresAt(v1, 1000));
+    }
+
+    @Test
+    public void testRewritesV1AsV2() throws Exception {
+        byte[] v1 = encodeV1(50000, v1Entries());
+        ShardValueView view = new ShardValueView().reset(v1);
+
+        ShardValueEncoder encoder = new ShardValueEncoder();
+        for (int i = 0; i < view.size(); i++)
+            encoder.add(view, i);
+        byte[] v2 = encoder.encode();
+
+        assertEquals(ShardValueView.VERSION_2, v2[0]);
+        assertTrue(v2.length < v1.length * 2 / 3);
+        assertEquals(3, ShardValueView.getSize(v2));
+        assertEquals(51000, ShardValueView.getExpiresAt(v2, 1000));
+
+        ShardValueView rewritten = new ShardValueView().reset(v2);
+        assertEquals(2, rewritten.getVersion());
+        assertMatchesV1Entries(rewritten);
+    }
+
+    @Test
+    public void testEncoderReuse() throws Exception {
+        ShardValueEncoder encoder = new ShardValueEncoder();
+        encoder.add("key1", "string\u0001val1".getBytes(), "A&B".getBytes(), 5, 100, new byte[0]);
+        encoder.add("key2", "string\u0001val2".getBytes(), "".getBytes(), Long.MAX_VALUE, 10, "m".getBytes());
+        encoder.add("key1", "string\u0001val3".getBytes(), "A&B".getBytes(), 3, -1, new byte[0]);
+
+        ShardValueView view = new ShardValueView().reset(encoder.encode());
+        assertEquals(3, view.size());
+        assertEquals(105, view.getExpiresAt(0));
+        assertEquals("A&B", view.getVisibilityString(0));
+        assertEquals("", view.getVisibilityString(1));
+        assertEquals(Long.MAX_VALUE, view.getTimestamp(1));
+        assertEquals(3, view.getTimestamp(2));
+        assertEquals("key1", view.getKey(2));
+        assertArrayEquals("m".getBytes(), copyOfRange(view.getBackingArray(), view.getMetadataOffset(1),
+            view.getMetadataOffset(1) + view.getMetadataLength(1)));
+
+        encoder.reset();
+        encoder.add("other", "string\u0001x".getBytes(), "".getBytes(), 1, -1, new byte[0]);
+        view.reset(encoder.encode());
+        assertEquals(1, view.size());
+        assertEquals(-1, view.getExpiresAt(0));
+        assertEquals("other", view.getKey(0));
+    }
+}
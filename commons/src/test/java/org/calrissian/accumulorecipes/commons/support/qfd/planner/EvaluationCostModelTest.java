@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.support.qfd.planner;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static org.calrissian.mango.types.LexiTypeEncoders.LEXI_TYPES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.calrissian.accumulorecipes.commons.support.qfd.AttributeIndexKey;
+import org.calrissian.mango.criteria.builder.QueryBuilder;
+import org.calrissian.mango.criteria.domain.Node;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EvaluationCostModelTest {
+
+    private ShardStatistics statistics;
+
+    @Before
+    public void setUp() {
+        statistics = new ShardStatistics();
+        for (String shard : asList("shard1", "shard2")) {
+            statistics.addCardinality(new AttributeIndexKey("key1", "val1", "string"), shard, 1000);
+            statistics.addCardinality(new AttributeIndexKey("key2", "val2", "string"), shard, 950);
+            statistics.addCardinality(new AttributeIndexKey("key3", "val3", "string"), shard, 2);
+        }
+        statistics.addDocumentCount("shard1", 1000);
+    }
+
+    @Test
+    public void testUnselectiveQueryScansShard() {
+        Node query = QueryBuilder.create().and().eq("key1", "val1").eq("key2", "val2").end().build();
+        EvaluationCostModel model = new EvaluationCostModel(statistics, LEXI_TYPES);
+
+        assertTrue(model.scanCost("shard1") < model.indexCost(query, "shard1"));
+        assertEquals(singleton("shard1"), model.chooseScanShards(query, asList("shard1", "shard2")));
+    }
+
+    @Test
+    public void testSelectiveQueryUsesIndex() {
+        Node query = QueryBuilder.create().and().eq("key1", "val1").eq("key3", "val3").end().build();
+        EvaluationCostModel model = new EvaluationCostModel(statistics, LEXI_TYPES);
+
+        assertEquals(0, model.chooseScanShards(query, asList("shard1", "shard2")).size());
+    }
+
+    @Test
+    public void testShardWithoutDocumentCountUsesIndex() {
+        Node query = QueryBuilder.create().and().eq("key1", "val1").eq("key2", "val2").end().build();
+        EvaluationCostModel model = new EvaluationCostModel(statistics, LEXI_TYPES);
+
+        assertEquals(null, model.scanCost("shard2"));
+        assertEquals(0, model.chooseScanShards(query, singleton("shard2")).size());
+    }
+}
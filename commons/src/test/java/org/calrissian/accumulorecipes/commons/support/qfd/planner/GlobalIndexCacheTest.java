@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.support.qfd.planner;
+
+import static com.google.common.collect.Iterables.size;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.mock.MockInstance;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.accumulo.core.security.ColumnVisibility;
+import org.apache.hadoop.io.Text;
+import org.calrissian.accumulorecipes.commons.domain.Auths;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GlobalIndexCacheTest {
+
+    private Connector connector;
+
+    @Before
+    public void setup() throws Exception {
+        connector = new MockInstance("GlobalIndexCacheTest").getConnector("root", "".getBytes());
+        if (connector.tableOperations().exists("index"))
+            connector.tableOperations().delete("index");
+        connector.tableOperations().create("index");
+        connector.securityOperations().changeUserAuthorizations("root", new Authorizations("A", "B"));
+    }
+
+    private void write(String row, String vis) throws Exception {
+        BatchWriter writer = connector.createBatchWriter("index", 100000L, 1000L, 1);
+        Mutation mutation = new Mutation(row);
+        mutation.put(new Text(""), new Text(""), new ColumnVisibility(vis), new Value("1".getBytes()));
+        writer.addMutation(mutation);
+        writer.close();
+    }
+
+    private int scan(GlobalIndexCache cache, Collection<Range> ranges, Auths auths) throws Exception {
+        return size(cache.scan(connector.createBatchScanner("index", auths.getAuths(), 1), ranges, auths));
+    }
+
+    @Test
+    public void testCachesPerRange() throws Exception {
+        write("a_1", "");
+        write("a_2", "");
+        write("b_1", "");
+
+        GlobalIndexCache cache = new GlobalIndexCache(100, 60000);
+        Range aRange = Range.prefix("a");
+        Range bRange = Range.prefix("b");
+
+        assertEquals(2, scan(cache, asList(aRange), new Auths()));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // only the b range should need scanning
+        assertEquals(3, scan(cache, asList(aRange, bRange), new Auths()));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.size());
+
+        // the cache doesn't see writes until it's invalidated
+        write("a_3", "");
+        assertEquals(2, scan(cache, asList(aRange), new Auths()));
+        assertEquals(2, cache.getHitCount());
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertEquals(3, scan(cache, asList(aRange), new Auths()));
+    }
+
+    @Test
+    public void testInvalidatesRangesCoveringRows() throws Exception {
+        write("a_1", "");
+        write("b_1", "");
+
+        GlobalIndexCache cache = new GlobalIndexCache(100, 60000);
+        Range aRange = Range.prefix("a");
+        Range bRange = Range.prefix("b");
+        assertEquals(2, scan(cache, asList(aRange, bRange), new Auths()));
+        assertEquals(2, cache.size());
+
+        write("a_2", "");
+        cache.invalidate(asList(new Text("a_2")));
+        assertEquals(1, cache.size());
+        assertEquals(2, scan(cache, asList(aRange), new Auths()));
+        assertEquals(1, scan(cache, asList(bRange), new Auths()));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testCachesPerAuths() throws Exception {
+        write("a_1", "A");
+        write("a_2", "B");
+
+        GlobalIndexCache cache = new GlobalIndexCache(100, 60000);
+        Range range = Range.prefix("a");
+
+        assertEquals(1, scan(cache, asList(range), new Auths("A")));
+        assertEquals(2, scan(cache, asList(range), new Auths("A", "B")));
+        assertEquals(2, scan(cache, asList(range), new Auths("B", "A")));
+        assertEquals(1, scan(cache, asList(range), new Auths("B")));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testExpires() throws Exception {
+        write("a_1", "");
+
+        GlobalIndexCache cache = new GlobalIndexCache(100, 50);
+        Range range = Range.prefix("a");
+
+        assertEquals(1, scan(cache, asList(range), new Auths()));
+        write("a_2", "");
+        Thread.sleep(100);
+        assertEquals(2, scan(cache, asList(range), new Auths()));
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testCachesOverlappingAndManyRanges() throws Exception {
+        List<Range> ranges = new ArrayList<Range>();
+        for (int i = 0; i < 50; i++) {
+            write("c_" + i + "_x", "");
+            ranges.add(Range.prefix("c_" + i + "_"));
+        }
+        Range all = Range.prefix("c_");
+        Range some = Range.prefix("c_1");
+        ranges.add(all);
+        ranges.add(some);
+
+        GlobalIndexCache cache = new GlobalIndexCache(100, 60000);
+        assertEquals(50, scan(cache, ranges, new Auths()));
+        assertEquals(52, cache.size());
+
+        // each range should have been cached with exactly the entries it covers
+        assertEquals(50, scan(cache, asList(all), new Auths()));
+        assertEquals(11, scan(cache, asList(some), new Auths()));
+        assertEquals(1, scan(cache, asList(Range.prefix("c_7_")), new Auths()));
+        assertEquals(3, cache.getHitCount());
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.util;
+
+import static com.google.common.collect.Maps.immutableEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.calrissian.accumulorecipes.commons.util.RowEncoderUtil.decodeRow;
+import static org.calrissian.accumulorecipes.commons.util.RowEncoderUtil.encodeRow;
+import java.io.EOFException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.junit.Test;
+
+public class EncodedRowViewTest {
+
+    private static final Key ROW = new Key("row");
+
+    private List<Map.Entry<Key,Value>> entries() {
+        List<Map.Entry<Key,Value>> entries = new ArrayList<Map.Entry<Key,Value>>();
+        entries.add(immutableEntry(new Key("row", "-1", "key1\u0000val1", "A", 5), new Value("meta1".getBytes())));
+        entries.add(immutableEntry(new Key("row", "1000", "key2\u0000val2", "", 10), new Value(new byte[0])));
+        entries.add(immutableEntry(new Key("row", "25", "key3", "A&B", Long.MAX_VALUE), new Value("meta3".getBytes())));
+        return entries;
+    }
+
+    @Test
+    public void testMatchesDecodedRow() throws Exception {
+        List<Map.Entry<Key,Value>> entries = entries();
+        Value encoded = encodeRow(entries);
+
+        EncodedRowView view = new EncodedRowView(encoded.get());
+        List<Map.Entry<Key,Value>> decoded = decodeRow(ROW, encoded);
+
+        assertEquals(decoded.size(), view.size());
+        for (int i = 0; i < view.size(); i++) {
+            Key key = decoded.get(i).getKey();
+            assertEquals(key, view.toKey(ROW, i));
+            assertEquals(decoded.get(i).getValue(), view.toValue(i));
+            assertEquals(key.getColumnFamily().toString(), view.getColumnFamilyString(i));
+            assertEquals(key.getColumnQualifier().toString(), view.getColumnQualifierString(i));
+            assertEquals(key.getColumnVisibility().toString(), view.getColumnVisibilityString(i));
+            assertEquals(key.getTimestamp(), view.getTimestamp(i));
+            assertEquals(Long.parseLong(key.getColumnFamily().toString()), view.getColumnFamilyAsLong(i));
+        }
+
+        assertEquals(4, view.indexOfInColumnQualifier(0, (byte) 0));
+        assertEquals(-1, view.indexOfInColumnQualifier(2, (byte) 0));
+    }
+
+    @Test
+    public void testResetAtOffsetAndEntrySlices() throws Exception {
+        List<Map.Entry<Key,Value>> entries = entries();
+        byte[] encoded = encodeRow(entries).get();
+
+        // prefix the row with a header, the way shard values carry their count and expiration
+        byte[] bytes = new byte[encoded.length + 12];
+        System.arraycopy(encoded, 0, bytes, 12, encoded.length);
+
+        EncodedRowView view = new EncodedRowView().reset(bytes, 12, encoded.length);
+        assertEquals(3, view.size());
+        assertEquals("key2\u0000val2", view.getColumnQualifierString(1));
+
+        // copying the slices of a subset of entries must give a valid encoded row of just those entries
+        int length = 4 + view.getEntryLength(0) + view.getEntryLength(2);
+        byte[] subset = new byte[length];
+        subset[3] = 2;
+        System.arraycopy(bytes, view.getEntryOffset(0), subset, 4, view.getEntryLength(0));
+        System.arraycopy(bytes, view.getEntryOffset(2), subset, 4 + view.getEntryLength(0), view.getEntryLength(2));
+
+        List<Map.Entry<Key,Value>> decoded = decodeRow(ROW, new Value(subset));
+        assertEquals(Arrays.asList(entries.get(0).getKey(), entries.get(2).getKey()),
+            Arrays.asList(decoded.get(0).getKey(), decoded.get(1).getKey()));
+    }
+
+    @Test
+    public void testTruncatedRow() throws Exception {
+        byte[] encoded = encodeRow(entries()).get();
+        try {
+            new EncodedRowView().reset(encoded, 0, encoded.length - 1);
+            fail("Expected a truncated row to be rejected");
+        } catch (EOFException e) {
+        }
+    }
+}
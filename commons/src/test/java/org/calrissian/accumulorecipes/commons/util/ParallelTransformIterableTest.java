@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2013 The Calrissian Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.calrissian.accumulorecipes.commons.util;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Sets.newHashSet;
+import static org.calrissian.mango.collect.CloseableIterables.wrap;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Function;
+import org.calrissian.accumulorecipes.commons.domain.DecodeOptions;
+import org.calrissian.mango.collect.CloseableIterable;
+import org.calrissian.mango.collect.FluentCloseableIterable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelTransformIterableTest {
+
+    private static final Function<Integer, String> SLOW_TO_STRING = new Function<Integer, String>() {
+        private final Random random = new Random();
+
+        @Override
+        public String apply(Integer input) {
+            try {
+                Thread.sleep(random.nextInt(2));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return Integer.toString(input);
+        }
+    };
+
+    private ExecutorService workers;
+
+    @Before
+    public void setUp() {
+        workers = newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        workers.shutdownNow();
+    }
+
+    private static List<Integer> ints(int count) {
+        List<Integer> ints = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++)
+            ints.add(i);
+        return ints;
+    }
+
+    private static List<String> strings(int count) {
+        List<String> strings = new ArrayList<String>();
+        for (int i = 0; i < count; i++)
+            strings.add(Integer.toString(i));
+        return strings;
+    }
+
+    @Test
+    public void testOrdered() {
+        CloseableIterable<String> transformed = new ParallelTransformIterable<Integer, String>(wrap(ints(1000)),
+            SLOW_TO_STRING, new DecodeOptions(4, 3, 7, true), workers);
+
+        assertEquals(strings(1000), newArrayList(transformed));
+        transformed.closeQuietly();
+    }
+
+    @Test
+    public void testUnordered() {
+        CloseableIterable<String> transformed = new ParallelTransformIterable<Integer, String>(wrap(ints(1000)),
+            SLOW_TO_STRING, new DecodeOptions(4, 3, 7, false), workers);
+
+        List<String> results = newArrayList(transformed);
+        assertEquals(1000, results.size());
+        assertEquals(newHashSet(strings(1000)), newHashSet(results));
+        transformed.closeQuietly();
+    }
+
+    @Test
+    public void testEmpty() {
+        CloseableIterable<String> transformed = new ParallelTransformIterable<Integer, String>(wrap(ints(0)),
+            SLOW_TO_STRING, new DecodeOptions(2, false), workers);
+
+        assertEquals(0, newArrayList(transformed).size());
+        transformed.closeQuietly();
+    }
+
+    @Test
+    public void testFailurePropagates() {
+        Function<Integer, String> failing = new Function<Integer, String>() {
+            @Override
+            public String apply(Integer input) {
+                if (input == 50)
+                    throw new IllegalStateException("bad input");
+                return Integer.toString(input);
+            }
+        };
+
+        CloseableIterable<String> transformed = new ParallelTransformIterable<Integer, String>(wrap(ints(100)),
+            failing, new DecodeOptions(2, 2, 10, true), workers);
+
+        Iterator<String> iterator = transformed.iterator();
+        try {
+            while (iterator.hasNext())
+                iterator.next();
+            fail("The failure should have been thrown to the consumer");
+        } catch (IllegalStateException e) {
+            assertEquals("bad input", e.getMessage());
+        }
+        transformed.closeQuietly();
+    }
+
+    @Test
+    public void testCloseBeforeExhausted() {
+        CloseableIterable<String> transformed = new ParallelTransformIterable<Integer, String>(wrap(ints(10000)),
+            SLOW_TO_STRING, new DecodeOptions(2, 1, 10, false), workers);
+
+        Iterator<String> iterator = transformed.iterator();
+        assertTrue(iterator.hasNext());
+        iterator.next();
+        transformed.closeQuietly();
+    }
+
+    @Test
+    public void testAbandonedIteratorTimesOut() throws InterruptedException {
+        final AtomicBoolean sourceClosed = new AtomicBoolean(false);
+        CloseableIterable<Integer> source = new FluentCloseableIterable<Integer>() {
+            @Override
+            protected void doClose() {
+                sourceClosed.set(true);
+            }
+
+            @Override
+            protected Iterator<Integer> retrieveIterator() {
+                return ints(10000).iterator();
+            }
+        };
+
+        CloseableIterable<String> transformed = new ParallelTransformIterable<Integer, String>(source,
+            SLOW_TO_STRING, new DecodeOptions(2, 1, 10, true, 50), workers);
+
+        Iterator<String> iterator = transformed.iterator();
+        assertEquals("0", iterator.next());
+
+        // never closed, so the feeder has to let go of the source on its own
+        for (int i = 0; i < 100 && !sourceClosed.get(); i++)
+            Thread.sleep(20);
+        assertTrue(sourceClosed.get());
+
+        try {
+            while (iterator.hasNext())
+                iterator.next();
+            fail("The consumer should have been told its results were abandoned");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+}
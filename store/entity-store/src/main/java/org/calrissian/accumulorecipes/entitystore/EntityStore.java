@@ -17,9 +17,17 @@ package org.calrissian.accumulorecipes.entitystore;
 
 
 import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 
 import org.calrissian.accumulorecipes.commons.domain.Auths;
+import org.calrissian.accumulorecipes.commons.domain.DecodeOptions;
+import org.calrissian.accumulorecipes.commons.domain.QueryBudget;
+import org.calrissian.accumulorecipes.commons.domain.QueryExplanation;
+import org.calrissian.accumulorecipes.commons.domain.QueryPage;
+import org.calrissian.accumulorecipes.commons.domain.QueryResults;
+import org.calrissian.accumulorecipes.commons.domain.SortOptions;
+import org.calrissian.accumulorecipes.commons.iterators.support.QueryCounters;
 import org.calrissian.mango.collect.CloseableIterable;
 import org.calrissian.mango.criteria.domain.Node;
 import org.calrissian.mango.domain.Pair;
@@ -89,6 +97,79 @@ public interface EntityStore {
      */
     CloseableIterable<Entity> query(Set<String> types, Node query, Set<String> selectFields, Auths auths);
 
+    /**
+     * Retrieves all entities for the specified types that match the given query, decoding the results on the decode
+     * pool of the store as described by the given decode options. Only fields included in the set of select fields
+     * (or all fields, when null) will be returned for each entity.
+     * @param types
+     * @param query
+     * @param selectFields
+     * @param auths
+     * @param decodeOptions
+     * @return
+     */
+    CloseableIterable<Entity> query(Set<String> types, Node query, Set<String> selectFields, Auths auths, DecodeOptions decodeOptions);
+
+    /**
+     * Retrieves all entities for the specified types that match the given query, summing the work the tablet servers
+     * do to run the query into the given counters as the results are read. The counters are complete once the results
+     * have been read through. Decode options may be null to decode results on the thread consuming them.
+     *
+     * @param types
+     * @param query
+     * @param selectFields
+     * @param auths
+     * @param decodeOptions
+     * @param counters
+     * @return
+     */
+    CloseableIterable<Entity> query(Set<String> types, Node query, Set<String> selectFields, Auths auths, DecodeOptions decodeOptions,
+        QueryCounters counters);
+
+    /**
+     * Query the store using criteria specified, returning only the first results in the order given by the sort
+     * options. Only the best results of each shard are returned from the tablet servers. When sorting by timestamp,
+     * entities are sorted on the timestamp of their attributes.
+     *
+     * @param types
+     * @param query
+     * @param selectFields
+     * @param sortOptions
+     * @param auths
+     * @return
+     */
+    CloseableIterable<Entity> query(Set<String> types, Node query, Set<String> selectFields, SortOptions sortOptions, Auths auths);
+
+    /**
+     * Query the store using criteria specified, within the given budget. Once the query runs out of time or has
+     * returned the maximum number of results, the tablet servers stop evaluating it and the results found so far are
+     * returned, flagged as incomplete.
+     *
+     * @param types
+     * @param query
+     * @param selectFields
+     * @param budget
+     * @param auths
+     * @return
+     */
+    QueryResults<Entity> query(Set<String> types, Node query, Set<String> selectFields, QueryBudget budget, Auths auths);
+
+    /**
+     * Query the store using criteria specified, a page of results at a time. The first page is read by passing a
+     * null continuation token, and following pages by passing the token returned with the previous page along with
+     * the same query. Each page picks up right after the last entity returned. A token is rejected with an
+     * IllegalArgumentException when it was returned for a different query.
+     *
+     * @param types
+     * @param query
+     * @param selectFields
+     * @param pageSize
+     * @param continuationToken
+     * @param auths
+     * @return
+     */
+    QueryPage<Entity> query(Set<String> types, Node query, Set<String> selectFields, int pageSize, String continuationToken, Auths auths);
+
     /**
      * Retrives all entities for the specified types that match the given query. Only attributes matching the
      * given auths will be included in the resulting entities.
@@ -99,6 +180,77 @@ public interface EntityStore {
      */
     CloseableIterable<Entity> query(Set<String> types, Node query, Auths auths);
 
+    /**
+     * Plans the given query, without running it, to describe how it would be run.
+     *
+     * @param types
+     * @param query
+     * @param auths
+     * @return
+     */
+    QueryExplanation explain(Set<String> types, Node query, Auths auths);
+
+    /**
+     * Runs the given query, without returning its results, to describe how it was planned along with the work the
+     * tablet servers did to run it.
+     *
+     * @param types
+     * @param query
+     * @param auths
+     * @return
+     */
+    QueryExplanation profile(Set<String> types, Node query, Auths auths);
+
+    /**
+     * Counts the entities matching the given query without returning them. The tablet servers count the matches of
+     * each shard they evaluate and only those counts are returned.
+     *
+     * @param types
+     * @param query
+     * @param auths
+     * @return
+     */
+    long count(Set<String> types, Node query, Auths auths);
+
+    /**
+     * Counts the entities matching the given query. When index cardinalities are allowed and the query is a single
+     * equality, the count is taken from the global index without evaluating any entities. That count is approximate,
+     * as it includes every time an entity was saved.
+     *
+     * @param types
+     * @param query
+     * @param auths
+     * @param useIndexCardinalities
+     * @return
+     */
+    long count(Set<String> types, Node query, Auths auths, boolean useIndexCardinalities);
+
+    /**
+     * Counts the distinct values of each of the given fields over the entities matching the given query. Only the
+     * counts are returned from the tablet servers, not the entities. The values of each field are ordered by
+     * descending count.
+     *
+     * @param types
+     * @param query
+     * @param fields
+     * @param auths
+     * @return
+     */
+    Map<String, Map<Object, Long>> facets(Set<String> types, Node query, Set<String> fields, Auths auths);
+
+    /**
+     * Counts the distinct values of each of the given fields over the entities matching the given query, keeping
+     * only the topK most frequent values of each field.
+     *
+     * @param types
+     * @param query
+     * @param fields
+     * @param topK
+     * @param auths
+     * @return
+     */
+    Map<String, Map<Object, Long>> facets(Set<String> types, Node query, Set<String> fields, int topK, Auths auths);
+
 
     public CloseableIterable<Pair<String,String>> uniqueKeys(String prefix, String type, Auths auths);
     public CloseableIterable<Object> uniqueValuesForKey(String prefix, String type, String alias, String key, Auths auths);
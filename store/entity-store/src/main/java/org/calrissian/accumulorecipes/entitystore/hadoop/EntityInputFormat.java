@@ -18,7 +18,6 @@ package org.calrissian.accumulorecipes.entitystore.hadoop;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.Collections.singleton;
 import static org.apache.accumulo.core.data.Range.prefix;
-import static org.calrissian.accumulorecipes.commons.iterators.support.EventFields.initializeKryo;
 import static org.calrissian.accumulorecipes.commons.support.Constants.ONE_BYTE;
 import static org.calrissian.accumulorecipes.entitystore.impl.AccumuloEntityStore.DEFAULT_IDX_TABLE_NAME;
 import static org.calrissian.accumulorecipes.entitystore.impl.AccumuloEntityStore.DEFAULT_SHARD_BUILDER;
@@ -32,7 +31,6 @@ import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
 
-import com.esotericsoftware.kryo.Kryo;
 import com.google.common.base.Function;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
@@ -139,13 +137,10 @@ public class EntityInputFormat extends BaseQfdInputFormat<Entity, EntityWritable
 
             MetadataSerDe metadataSerDe = new SimpleMetadataSerDe();
 
-            Kryo kryo = new Kryo();
-            initializeKryo(kryo);
-
             if(configuration.getBoolean(QUERY, false))
-                return new EntityQfdHelper.QueryXform(kryo, typeRegistry, metadataSerDe);
+                return new EntityQfdHelper.QueryXform(typeRegistry, metadataSerDe);
             else
-                return new EntityQfdHelper.WholeColFXform(kryo, typeRegistry, metadataSerDe);
+                return new EntityQfdHelper.WholeColFXform(typeRegistry, metadataSerDe);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -17,17 +17,18 @@ package org.calrissian.accumulorecipes.entitystore.impl;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
-import static java.util.Collections.singleton;
 import static org.apache.accumulo.core.data.Range.exact;
-import static org.apache.accumulo.core.data.Range.prefix;
 import static org.calrissian.accumulorecipes.commons.support.Constants.DEFAULT_PARTITION_SIZE;
 import static org.calrissian.accumulorecipes.commons.support.Constants.ONE_BYTE;
 import static org.calrissian.accumulorecipes.commons.support.Constants.PREFIX_E;
+import static org.calrissian.accumulorecipes.commons.support.qfd.ShardRanges.coalesceText;
 import static org.calrissian.accumulorecipes.commons.util.Scanners.closeableIterable;
 import static org.calrissian.mango.collect.CloseableIterables.transform;
 import static org.calrissian.mango.types.LexiTypeEncoders.LEXI_TYPES;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.accumulo.core.client.AccumuloException;
@@ -36,17 +37,26 @@ import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.client.IteratorSetting;
 import org.apache.accumulo.core.client.MutationsRejectedException;
+import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.client.TableExistsException;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.data.Range;
-import org.apache.hadoop.io.Text;
 import org.calrissian.accumulorecipes.commons.domain.Auths;
+import org.calrissian.accumulorecipes.commons.domain.DecodeOptions;
+import org.calrissian.accumulorecipes.commons.domain.QueryBudget;
+import org.calrissian.accumulorecipes.commons.domain.QueryExplanation;
+import org.calrissian.accumulorecipes.commons.domain.QueryPage;
+import org.calrissian.accumulorecipes.commons.domain.QueryResults;
+import org.calrissian.accumulorecipes.commons.domain.SortOptions;
 import org.calrissian.accumulorecipes.commons.domain.StoreConfig;
+import org.calrissian.accumulorecipes.commons.iterators.ColumnFamilyPrefixIterator;
 import org.calrissian.accumulorecipes.commons.iterators.EmptyEncodedRowFilter;
 import org.calrissian.accumulorecipes.commons.iterators.MetadataExpirationFilter;
 import org.calrissian.accumulorecipes.commons.iterators.SelectFieldsExtractor;
 import org.calrissian.accumulorecipes.commons.iterators.WholeColumnFamilyIterator;
+import org.calrissian.accumulorecipes.commons.iterators.support.QueryCounters;
 import org.calrissian.accumulorecipes.commons.support.qfd.KeyValueIndex;
+import org.calrissian.accumulorecipes.commons.support.qfd.planner.GlobalIndexCache;
 import org.calrissian.accumulorecipes.commons.support.qfd.planner.visitors.GlobalIndexVisitor;
 import org.calrissian.accumulorecipes.entitystore.EntityStore;
 import org.calrissian.accumulorecipes.entitystore.support.EntityGlobalIndexVisitor;
@@ -152,14 +162,17 @@ public class AccumuloEntityStore implements EntityStore {
 
             BatchScanner scanner = helper.buildShardScanner(auths.getAuths());
 
-            Collection<Range> ranges = new LinkedList<Range>();
-            for (String type : types) {
-                Set<Text> shards = shardBuilder.buildShardsForTypes(singleton(type));
-                for (Text shard : shards)
-                    ranges.add(prefix(shard.toString(), PREFIX_E + ONE_BYTE + type));
-            }
+            // the shards of a type are adjacent, so they are scanned as a single range per type with the
+            // restriction on types pushed down as column family prefixes
+            scanner.setRanges(coalesceText(shardBuilder.buildShardsForTypes(types)));
 
-            scanner.setRanges(ranges);
+            Collection<String> typePrefixes = new ArrayList<String>(types.size());
+            for (String type : types)
+                typePrefixes.add(PREFIX_E + ONE_BYTE + type + ONE_BYTE);
+
+            IteratorSetting typeFilter = new IteratorSetting(5, ColumnFamilyPrefixIterator.class);
+            ColumnFamilyPrefixIterator.setPrefixes(typeFilter, typePrefixes);
+            scanner.addScanIterator(typeFilter);
 
             if (selectFields != null && selectFields.size() > 0) {
                 IteratorSetting iteratorSetting = new IteratorSetting(16, SelectFieldsExtractor.class);
@@ -192,6 +205,17 @@ public class AccumuloEntityStore implements EntityStore {
 
     @Override
     public CloseableIterable<Entity> query(Set<String> types, Node query, Set<String> selectFields, Auths auths) {
+        return query(types, query, selectFields, auths, null);
+    }
+
+    @Override
+    public CloseableIterable<Entity> query(Set<String> types, Node query, Set<String> selectFields, Auths auths, DecodeOptions decodeOptions) {
+        return query(types, query, selectFields, auths, decodeOptions, null);
+    }
+
+    @Override
+    public CloseableIterable<Entity> query(Set<String> types, Node query, Set<String> selectFields, Auths auths, DecodeOptions decodeOptions,
+        QueryCounters counters) {
 
         checkNotNull(types);
         checkNotNull(query);
@@ -200,20 +224,167 @@ public class AccumuloEntityStore implements EntityStore {
         checkArgument(types.size() > 0);
 
         BatchScanner indexScanner = helper.buildIndexScanner(auths.getAuths());
-        GlobalIndexVisitor globalIndexVisitor = new EntityGlobalIndexVisitor(indexScanner, shardBuilder, types);
+        GlobalIndexVisitor globalIndexVisitor = new EntityGlobalIndexVisitor(indexScanner, shardBuilder, types,
+            helper.getGlobalIndexCache(), auths);
 
         BatchScanner scanner = helper.buildShardScanner(auths.getAuths());
         CloseableIterable<Entity> entities = helper.query(scanner, globalIndexVisitor, types, query,
-                helper.buildQueryXform(), selectFields, auths);
+                helper.buildQueryXform(), selectFields, auths, decodeOptions, counters);
         indexScanner.close();
 
         return entities;
     }
 
+    @Override
+    public CloseableIterable<Entity> query(Set<String> types, Node query, Set<String> selectFields, SortOptions sortOptions, Auths auths) {
+
+        checkNotNull(types);
+        checkNotNull(query);
+        checkNotNull(sortOptions);
+        checkNotNull(auths);
+
+        checkArgument(types.size() > 0);
+
+        BatchScanner indexScanner = helper.buildIndexScanner(auths.getAuths());
+        GlobalIndexVisitor globalIndexVisitor = new EntityGlobalIndexVisitor(indexScanner, shardBuilder, types,
+            helper.getGlobalIndexCache(), auths);
+
+        try {
+            return helper.query(helper.buildShardScanner(auths.getAuths()), globalIndexVisitor, types, query,
+                helper.buildQueryXform(), selectFields, sortOptions);
+        } finally {
+            indexScanner.close();
+        }
+    }
+
+    @Override
+    public QueryResults<Entity> query(Set<String> types, Node query, Set<String> selectFields, QueryBudget budget, Auths auths) {
+
+        checkNotNull(types);
+        checkNotNull(query);
+        checkNotNull(budget);
+        checkNotNull(auths);
+
+        checkArgument(types.size() > 0);
+
+        BatchScanner indexScanner = helper.buildIndexScanner(auths.getAuths());
+        GlobalIndexVisitor globalIndexVisitor = new EntityGlobalIndexVisitor(indexScanner, shardBuilder, types,
+            helper.getGlobalIndexCache(), auths);
+
+        try {
+            return helper.query(helper.buildShardScanner(auths.getAuths()), globalIndexVisitor, types, query,
+                helper.buildQueryXform(), selectFields, budget);
+        } finally {
+            indexScanner.close();
+        }
+    }
+
+    @Override
+    public QueryPage<Entity> query(Set<String> types, Node query, Set<String> selectFields, int pageSize, String continuationToken,
+        Auths auths) {
+
+        checkNotNull(types);
+        checkNotNull(query);
+        checkNotNull(auths);
+        checkArgument(types.size() > 0);
+
+        Scanner scanner = helper.buildOrderedShardScanner(auths.getAuths());
+        BatchScanner indexScanner = helper.buildIndexScanner(auths.getAuths());
+        GlobalIndexVisitor globalIndexVisitor = new EntityGlobalIndexVisitor(indexScanner, shardBuilder, types,
+            helper.getGlobalIndexCache(), auths);
+
+        try {
+            return helper.queryPage(scanner, globalIndexVisitor, types, query, helper.buildQueryXform(), selectFields, pageSize,
+                continuationToken);
+        } finally {
+            indexScanner.close();
+        }
+    }
+
     @Override public CloseableIterable<Entity> query(Set<String> types, Node query, Auths auths) {
         return query(types, query, null, auths);
     }
 
+    @Override
+    public QueryExplanation explain(Set<String> types, Node query, Auths auths) {
+        return explain(types, query, auths, false);
+    }
+
+    @Override
+    public QueryExplanation profile(Set<String> types, Node query, Auths auths) {
+        return explain(types, query, auths, true);
+    }
+
+    private QueryExplanation explain(Set<String> types, Node query, Auths auths, boolean profile) {
+
+        checkNotNull(types);
+        checkNotNull(query);
+        checkNotNull(auths);
+
+        checkArgument(types.size() > 0);
+
+        BatchScanner indexScanner = helper.buildIndexScanner(auths.getAuths());
+        GlobalIndexVisitor globalIndexVisitor = new EntityGlobalIndexVisitor(indexScanner, shardBuilder, types,
+            helper.getGlobalIndexCache(), auths);
+
+        try {
+            return helper.explain(helper.buildShardScanner(auths.getAuths()), globalIndexVisitor, types, query, profile);
+        } finally {
+            indexScanner.close();
+        }
+    }
+
+    @Override
+    public long count(Set<String> types, Node query, Auths auths) {
+        return count(types, query, auths, false);
+    }
+
+    @Override
+    public long count(Set<String> types, Node query, Auths auths, boolean useIndexCardinalities) {
+
+        checkNotNull(types);
+        checkNotNull(query);
+        checkNotNull(auths);
+
+        checkArgument(types.size() > 0);
+
+        BatchScanner indexScanner = helper.buildIndexScanner(auths.getAuths());
+        GlobalIndexVisitor globalIndexVisitor = new EntityGlobalIndexVisitor(indexScanner, shardBuilder, types,
+            helper.getGlobalIndexCache(), auths);
+
+        try {
+            return helper.count(helper.buildShardScanner(auths.getAuths()), globalIndexVisitor, types, query, useIndexCardinalities);
+        } finally {
+            indexScanner.close();
+        }
+    }
+
+    @Override
+    public Map<String, Map<Object, Long>> facets(Set<String> types, Node query, Set<String> fields, Auths auths) {
+        return facets(types, query, fields, 0, auths);
+    }
+
+    @Override
+    public Map<String, Map<Object, Long>> facets(Set<String> types, Node query, Set<String> fields, int topK, Auths auths) {
+
+        checkNotNull(types);
+        checkNotNull(query);
+        checkNotNull(fields);
+        checkNotNull(auths);
+
+        checkArgument(types.size() > 0);
+
+        BatchScanner indexScanner = helper.buildIndexScanner(auths.getAuths());
+        GlobalIndexVisitor globalIndexVisitor = new EntityGlobalIndexVisitor(indexScanner, shardBuilder, types,
+            helper.getGlobalIndexCache(), auths);
+
+        try {
+            return helper.facets(helper.buildShardScanner(auths.getAuths()), globalIndexVisitor, types, query, fields, topK);
+        } finally {
+            indexScanner.close();
+        }
+    }
+
 
     public CloseableIterable<Pair<String,String>> uniqueKeys(String prefix, String type, Auths auths) {
         return helper.getKeyValueIndex().uniqueKeys(prefix, type, auths);
@@ -233,6 +404,13 @@ public class AccumuloEntityStore implements EntityStore {
         helper.flush();
     }
 
+    /**
+     * @return the cache of global index lookups used to plan queries, or null when the store wasn't configured to cache them
+     */
+    public GlobalIndexCache getGlobalIndexCache() {
+        return helper.getGlobalIndexCache();
+    }
+
     protected EntityQfdHelper getHelper() {
         return helper;
     }
@@ -32,8 +32,12 @@ import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
+import org.calrissian.accumulorecipes.commons.domain.Auths;
 import org.calrissian.accumulorecipes.commons.support.qfd.GlobalIndexValue;
 import org.calrissian.accumulorecipes.commons.support.qfd.AttributeIndexKey;
+import org.calrissian.accumulorecipes.commons.support.qfd.planner.GlobalIndexCache;
+import org.calrissian.accumulorecipes.commons.support.qfd.planner.ShardBitmaps;
+import org.calrissian.accumulorecipes.commons.support.qfd.planner.ShardStatistics;
 import org.calrissian.accumulorecipes.commons.support.qfd.planner.visitors.GlobalIndexVisitor;
 import org.calrissian.mango.criteria.domain.AbstractKeyValueLeaf;
 import org.calrissian.mango.criteria.domain.HasLeaf;
@@ -52,16 +56,31 @@ public class EntityGlobalIndexVisitor implements GlobalIndexVisitor {
     private EntityShardBuilder shardBuilder;
 
     private Map<AttributeIndexKey, Long> cardinalities = new HashMap<AttributeIndexKey, Long>();
-    private Map<AttributeIndexKey, Set<String>> mappedShards = new HashMap<AttributeIndexKey, Set<String>>();
+    private ShardBitmaps mappedShards = new ShardBitmaps();
+    private ShardStatistics statistics = new ShardStatistics();
 
     private Set<String> types;
 
     private Set<Leaf> leaves = new HashSet<Leaf>();
 
+    private GlobalIndexCache indexCache;
+    private Auths auths;
+
     public EntityGlobalIndexVisitor(BatchScanner indexScanner, EntityShardBuilder shardBuilder, Set<String> types) {
+        this(indexScanner, shardBuilder, types, null, null);
+    }
+
+    /**
+     * Looks up the global index through the given cache, when not null. The auths must be those the index scanner
+     * was created with.
+     */
+    public EntityGlobalIndexVisitor(BatchScanner indexScanner, EntityShardBuilder shardBuilder, Set<String> types,
+        GlobalIndexCache indexCache, Auths auths) {
         this.indexScanner = indexScanner;
         this.shardBuilder = shardBuilder;
         this.types = types;
+        this.indexCache = indexCache;
+        this.auths = auths;
     }
 
     @Override
@@ -71,9 +90,19 @@ public class EntityGlobalIndexVisitor implements GlobalIndexVisitor {
 
     @Override
     public Map<AttributeIndexKey, Set<String>> getShards() {
+        return mappedShards.toMap();
+    }
+
+    @Override
+    public ShardBitmaps getShardBitmaps() {
         return mappedShards;
     }
 
+    @Override
+    public ShardStatistics getShardStatistics() {
+        return statistics;
+    }
+
     @Override
     public void begin(ParentNode parentNode) {
     }
@@ -84,6 +113,7 @@ public class EntityGlobalIndexVisitor implements GlobalIndexVisitor {
 
     public void exec() {
         Collection<Range> ranges = new ArrayList<Range>();
+
         for (Leaf leaf : leaves) {
 
             AbstractKeyValueLeaf kvLeaf = (AbstractKeyValueLeaf) leaf;
@@ -130,10 +160,8 @@ public class EntityGlobalIndexVisitor implements GlobalIndexVisitor {
 
         }
 
-        indexScanner.setRanges(ranges);
-
-
-        for (Map.Entry<Key,Value> entry : indexScanner) {
+        Set<String> candidateShards = new HashSet<String>();
+        for (Map.Entry<Key,Value> entry : lookup(ranges)) {
 
             AttributeIndexKey key = new AttributeIndexKey(entry.getKey());
             Long cardinality = cardinalities.get(key);
@@ -141,21 +169,30 @@ public class EntityGlobalIndexVisitor implements GlobalIndexVisitor {
                 cardinality = 0l;
             GlobalIndexValue value = new GlobalIndexValue(entry.getValue());
             cardinalities.put(key, cardinality + value.getCardinatlity());
+            statistics.addCardinality(key, key.getShard(), value.getCardinatlity());
 
-            Set<String> shardsForKey = mappedShards.get(key);
-            if (shardsForKey == null) {
-                shardsForKey = new HashSet<String>();
-                mappedShards.put(key, shardsForKey);
-            }
-
-            shardsForKey.add(key.getShard());
+            mappedShards.add(key, key.getShard());
+            candidateShards.add(key.getShard());
         }
 
-        System.out.println(mappedShards);
+        // the number of documents of the queried types in each candidate shard, which the planner weighs the
+        // cardinalities against
+        if (!candidateShards.isEmpty()) {
+            for (Map.Entry<Key, Value> entry : lookup(ShardStatistics.documentCountRanges(candidateShards, types)))
+                statistics.addDocumentCount(entry.getKey(), new GlobalIndexValue(entry.getValue()).getCardinatlity());
+        }
 
         indexScanner.close();
     }
 
+    private Iterable<Map.Entry<Key, Value>> lookup(Collection<Range> ranges) {
+        if (indexCache != null)
+            return indexCache.scan(indexScanner, ranges, auths);
+
+        indexScanner.setRanges(ranges);
+        return indexScanner;
+    }
+
 
     private void buildRangeForSingleAlias(Collection<Range> ranges, String key, String alias, String startShard, String stopShard) {
 
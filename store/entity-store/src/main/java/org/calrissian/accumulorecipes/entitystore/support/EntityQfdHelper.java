@@ -19,7 +19,6 @@ import static org.calrissian.accumulorecipes.commons.support.Constants.ONE_BYTE;
 import static org.calrissian.accumulorecipes.commons.support.Constants.PREFIX_E;
 import java.util.Set;
 
-import com.esotericsoftware.kryo.Kryo;
 import com.google.common.collect.Sets;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
@@ -58,7 +57,7 @@ public class EntityQfdHelper extends QfdHelper<Entity> {
     }
 
     public QueryXform buildQueryXform() {
-        return new QueryXform(getKryo(), getTypeRegistry(), getMetadataSerDe());
+        return new QueryXform(getTypeRegistry(), getMetadataSerDe());
     }
 
     @Override
@@ -72,7 +71,7 @@ public class EntityQfdHelper extends QfdHelper<Entity> {
     }
 
     public WholeColFXform buildWholeColFXform() {
-        return new WholeColFXform(getKryo(), getTypeRegistry(), getMetadataSerDe());
+        return new WholeColFXform(getTypeRegistry(), getMetadataSerDe());
     }
 
     @Override
@@ -89,8 +88,8 @@ public class EntityQfdHelper extends QfdHelper<Entity> {
 
     public static class QueryXform extends KeyToAttributeStoreQueryXform<Entity,EntityBuilder> {
 
-        public QueryXform(Kryo kryo, TypeRegistry<String> typeRegistry, MetadataSerDe metadataSerDe) {
-            super(kryo, typeRegistry, metadataSerDe);
+        public QueryXform(TypeRegistry<String> typeRegistry, MetadataSerDe metadataSerDe) {
+            super(typeRegistry, metadataSerDe);
         }
 
         @Override
@@ -102,8 +101,8 @@ public class EntityQfdHelper extends QfdHelper<Entity> {
 
     public static class WholeColFXform extends KeyToAttributeStoreWholeColFXform<Entity, EntityBuilder> {
 
-        public WholeColFXform(Kryo kryo, TypeRegistry<String> typeRegistry, MetadataSerDe metadataSerDe) {
-            super(kryo, typeRegistry, metadataSerDe);
+        public WholeColFXform(TypeRegistry<String> typeRegistry, MetadataSerDe metadataSerDe) {
+            super(typeRegistry, metadataSerDe);
         }
 
         @Override
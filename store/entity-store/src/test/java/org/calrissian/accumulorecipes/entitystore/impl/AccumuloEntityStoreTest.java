@@ -17,6 +17,7 @@ package org.calrissian.accumulorecipes.entitystore.impl;
 
 import static com.google.common.collect.Iterables.get;
 import static com.google.common.collect.Iterables.size;
+import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Sets.newHashSet;
 import static java.lang.System.currentTimeMillis;
 import static java.util.Arrays.asList;
@@ -24,13 +25,19 @@ import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
 import static org.calrissian.accumulorecipes.entitystore.impl.AccumuloEntityStore.DEFAULT_SHARD_TABLE_NAME;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.collect.Iterables;
 import org.apache.accumulo.core.client.AccumuloException;
@@ -45,7 +52,15 @@ import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.security.Authorizations;
 import org.calrissian.accumulorecipes.commons.domain.Auths;
+import org.calrissian.accumulorecipes.commons.domain.DecodeOptions;
+import org.calrissian.accumulorecipes.commons.domain.QueryBudget;
+import org.calrissian.accumulorecipes.commons.domain.QueryExplanation;
+import org.calrissian.accumulorecipes.commons.domain.QueryPage;
+import org.calrissian.accumulorecipes.commons.domain.QueryResults;
+import org.calrissian.accumulorecipes.commons.domain.SortOptions;
+import org.calrissian.accumulorecipes.commons.iterators.support.QueryCounters;
 import org.calrissian.accumulorecipes.commons.support.attribute.MetadataBuilder;
+import org.calrissian.accumulorecipes.commons.support.qfd.AttributeIndexKey;
 import org.calrissian.accumulorecipes.entitystore.EntityStore;
 import org.calrissian.accumulorecipes.test.AccumuloTestUtils;
 import org.calrissian.mango.collect.CloseableIterable;
@@ -110,6 +125,24 @@ public class AccumuloEntityStoreTest {
 
 
 
+    @Test
+    public void testGetAllByType_overlappingTypeNames() throws Exception {
+
+        Entity entity = EntityBuilder.create("overlap", "id")
+            .attr(new Attribute("key1", "val1", meta))
+            .build();
+
+        Entity entity2 = EntityBuilder.create("overlap_10", "id")
+            .attr(new Attribute("key1", "val1", meta))
+            .build();
+
+        store.save(asList(entity, entity2));
+
+        List<Entity> actualEntities = newArrayList(store.getAllByType(singleton("overlap"), DEFAULT_AUTHS));
+        assertEquals(1, actualEntities.size());
+        assertEquals("overlap", actualEntities.get(0).getType());
+    }
+
     @Test
     public void testGet_withVisibilities() {
 
@@ -744,4 +777,190 @@ public class AccumuloEntityStoreTest {
         assertEquals(0, size(itr));
     }
 
+    @Test
+    public void testQuery_parallelDecode() throws Exception {
+
+        List<Entity> entities = new ArrayList<Entity>();
+        for (int i = 0; i < 250; i++) {
+            entities.add(EntityBuilder.create("type", "id" + i)
+                .attr(new Attribute("key1", "val1", meta))
+                .attr(new Attribute("key2", i, meta))
+                .build());
+        }
+
+        store.save(entities);
+
+        Node query = QueryBuilder.create().eq("key1", "val1").build();
+        for (boolean ordered : new boolean[] {true, false}) {
+            CloseableIterable<Entity> itr = store.query(singleton("type"), query, null, DEFAULT_AUTHS,
+                new DecodeOptions(4, 2, 10, ordered));
+
+            assertEquals(new HashSet<Entity>(entities), newHashSet(itr));
+            itr.closeQuietly();
+        }
+    }
+
+    @Test
+    public void testExplainAndProfile() throws Exception {
+
+        List<Entity> entities = new ArrayList<Entity>();
+        for (int i = 0; i < 10; i++) {
+            entities.add(EntityBuilder.create("explainType", "id" + i)
+                .attr(new Attribute("key1", "val1", meta))
+                .attr(new Attribute("key2", i % 2 == 0 ? "even" : "odd", meta))
+                .build());
+        }
+        store.save(entities);
+
+        Node query = QueryBuilder.create().and().eq("key1", "val1").eq("key2", "even").end().build();
+
+        QueryExplanation explanation = store.explain(singleton("explainType"), query, DEFAULT_AUTHS);
+        assertNotNull(explanation.getFieldIndexJexl());
+        assertEquals(Long.valueOf(10), explanation.getCardinalities().get(new AttributeIndexKey("key1", "val1", "string")));
+        assertEquals(Long.valueOf(5), explanation.getCardinalities().get(new AttributeIndexKey("key2", "even", "string")));
+        assertEquals(explanation.getShards().size(), explanation.getRanges());
+        assertNull(explanation.getCounters());
+
+        QueryExplanation profile = store.profile(singleton("explainType"), query, DEFAULT_AUTHS);
+        assertEquals(5, profile.getCounters().getMatches());
+        assertTrue(profile.getCounters().getBytesReturned() > 0);
+    }
+
+    @Test
+    public void testQuery_counters() throws Exception {
+
+        List<Entity> entities = new ArrayList<Entity>();
+        for (int i = 0; i < 20; i++) {
+            entities.add(EntityBuilder.create("countersType", "id" + i)
+                .attr(new Attribute("key1", "val1", meta))
+                .build());
+        }
+        store.save(entities);
+
+        QueryCounters counters = new QueryCounters();
+        CloseableIterable<Entity> results = store.query(singleton("countersType"), QueryBuilder.create().eq("key1", "val1").build(),
+            null, DEFAULT_AUTHS, null, counters);
+
+        // the counters are stripped from the results
+        assertEquals(new HashSet<Entity>(entities), newHashSet(results));
+        results.closeQuietly();
+
+        assertEquals(entities.size(), counters.getMatches());
+        assertTrue(counters.getBytesReturned() > 0);
+    }
+
+    @Test
+    public void testCount() throws Exception {
+
+        List<Entity> entities = new ArrayList<Entity>();
+        for (int i = 0; i < 20; i++) {
+            entities.add(EntityBuilder.create("countType", "id" + i)
+                .attr(new Attribute("key1", "val1", meta))
+                .attr(new Attribute("key2", i, meta))
+                .build());
+        }
+        store.save(entities);
+
+        Node query = QueryBuilder.create().eq("key1", "val1").build();
+        assertEquals(20, store.count(singleton("countType"), query, DEFAULT_AUTHS));
+        assertEquals(20, store.count(singleton("countType"), query, DEFAULT_AUTHS, true));
+
+        query = QueryBuilder.create().and().eq("key1", "val1").lessThan("key2", 5).end().build();
+        assertEquals(5, store.count(singleton("countType"), query, DEFAULT_AUTHS));
+
+        query = QueryBuilder.create().eq("key1", "val2").build();
+        assertEquals(0, store.count(singleton("countType"), query, DEFAULT_AUTHS));
+    }
+
+    @Test
+    public void testFacets() throws Exception {
+
+        String[] colors = new String[] {"red", "green", "blue"};
+        List<Entity> entities = new ArrayList<Entity>();
+        for (int i = 0; i < 20; i++) {
+            entities.add(EntityBuilder.create("facetType", "id" + i)
+                .attr(new Attribute("key1", "val1", meta))
+                .attr(new Attribute("color", colors[i % 3], meta))
+                .build());
+        }
+        store.save(entities);
+
+        Node query = QueryBuilder.create().eq("key1", "val1").build();
+        Map<String, Map<Object, Long>> facets = store.facets(singleton("facetType"), query, singleton("color"), DEFAULT_AUTHS);
+        assertEquals(3, facets.get("color").size());
+        assertEquals(7, (long) facets.get("color").get("red"));
+        assertEquals(6, (long) facets.get("color").get("blue"));
+
+        facets = store.facets(singleton("facetType"), query, singleton("color"), 2, DEFAULT_AUTHS);
+        assertEquals(newHashSet("red", "green"), facets.get("color").keySet());
+    }
+
+    @Test
+    public void testQuery_sorted() throws Exception {
+
+        List<Entity> entities = new ArrayList<Entity>();
+        for (int i = 0; i < 20; i++) {
+            entities.add(EntityBuilder.create("sortType", "id" + i)
+                .attr(new Attribute("key1", "val1", meta))
+                .attr(new Attribute("score", (i * 7) % 20, meta))
+                .build());
+        }
+        store.save(entities);
+
+        List<Object> scores = new ArrayList<Object>();
+        for (Entity entity : store.query(singleton("sortType"), QueryBuilder.create().eq("key1", "val1").build(), null,
+            new SortOptions("score", 4, true), DEFAULT_AUTHS))
+            scores.add(entity.get("score").getValue());
+
+        assertEquals(Arrays.<Object>asList(19, 18, 17, 16), scores);
+    }
+
+    @Test
+    public void testQuery_paged() throws Exception {
+
+        List<Entity> entities = new ArrayList<Entity>();
+        for (int i = 0; i < 20; i++) {
+            entities.add(EntityBuilder.create("pageType", "id" + i)
+                .attr(new Attribute("key1", "val1", meta))
+                .build());
+        }
+        store.save(entities);
+
+        Node query = QueryBuilder.create().eq("key1", "val1").build();
+        Set<Entity> actual = new HashSet<Entity>();
+        int pages = 0;
+        String token = null;
+        do {
+            QueryPage<Entity> page = store.query(singleton("pageType"), query, null, 6, token, DEFAULT_AUTHS);
+            assertTrue(page.getResults().size() <= 6);
+            actual.addAll(page.getResults());
+            token = page.getContinuationToken();
+            pages++;
+        } while (token != null);
+
+        assertEquals(4, pages);
+        assertEquals(new HashSet<Entity>(entities), actual);
+    }
+
+    @Test
+    public void testQuery_budget() throws Exception {
+
+        List<Entity> entities = new ArrayList<Entity>();
+        for (int i = 0; i < 20; i++) {
+            entities.add(EntityBuilder.create("budgetType", "id" + i)
+                .attr(new Attribute("key1", "val1", meta))
+                .build());
+        }
+        store.save(entities);
+
+        Node query = QueryBuilder.create().eq("key1", "val1").build();
+        QueryResults<Entity> results = store.query(singleton("budgetType"), query, null, new QueryBudget(1, TimeUnit.MINUTES, 50),
+            DEFAULT_AUTHS);
+        assertTrue(results.isComplete());
+        assertEquals(new HashSet<Entity>(entities), new HashSet<Entity>(results.getResults()));
+
+        results = store.query(singleton("budgetType"), query, null, new QueryBudget(1, TimeUnit.MINUTES, 8), DEFAULT_AUTHS);
+        assertFalse(results.isComplete());
+        assertEquals(8, results.getResults().size());
+    }
 }
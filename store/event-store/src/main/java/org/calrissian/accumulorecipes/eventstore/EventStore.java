@@ -17,9 +17,19 @@ package org.calrissian.accumulorecipes.eventstore;
 
 import java.util.Collection;
 import java.util.Date;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
 
 import org.calrissian.accumulorecipes.commons.domain.Auths;
+import org.calrissian.accumulorecipes.commons.domain.DecodeOptions;
+import org.calrissian.accumulorecipes.commons.domain.QueryBudget;
+import org.calrissian.accumulorecipes.commons.domain.QueryExplanation;
+import org.calrissian.accumulorecipes.commons.domain.QueryPage;
+import org.calrissian.accumulorecipes.commons.domain.QueryResults;
+import org.calrissian.accumulorecipes.commons.domain.SortOptions;
+import org.calrissian.accumulorecipes.commons.iterators.support.QueryCounters;
 import org.calrissian.accumulorecipes.commons.support.qfd.QfdStore;
 import org.calrissian.mango.collect.CloseableIterable;
 import org.calrissian.mango.criteria.domain.Node;
@@ -63,6 +73,93 @@ public interface EventStore extends QfdStore<Event, EventIdentifier> {
 
     CloseableIterable<Event> query(Date start, Date end, Set<String> types, Node node, Set<String> selectFields, Auths auths);
 
+    /**
+     * Query the store using criteria specified, decoding the results on the decode pool of the store as described by
+     * the given decode options. Only fields included in the set of select fields (or all fields, when null) will be
+     * returned for each event.
+     *
+     * @param start
+     * @param end
+     * @param types
+     * @param node
+     * @param selectFields
+     * @param auths
+     * @param decodeOptions
+     * @return
+     */
+    CloseableIterable<Event> query(Date start, Date end, Set<String> types, Node node, Set<String> selectFields, Auths auths,
+        DecodeOptions decodeOptions);
+
+    /**
+     * Query the store using criteria specified, summing the work the tablet servers do to run the query into the
+     * given counters as the results are read. The counters are complete once the results have been read through.
+     * Decode options may be null to decode results on the thread consuming them.
+     *
+     * @param start
+     * @param end
+     * @param types
+     * @param node
+     * @param selectFields
+     * @param auths
+     * @param decodeOptions
+     * @param counters
+     * @return
+     */
+    CloseableIterable<Event> query(Date start, Date end, Set<String> types, Node node, Set<String> selectFields, Auths auths,
+        DecodeOptions decodeOptions, QueryCounters counters);
+
+    /**
+     * Query the store using criteria specified, returning only the first results in the order given by the sort
+     * options. Only the best results of each shard are returned from the tablet servers.
+     *
+     * @param start
+     * @param end
+     * @param types
+     * @param node
+     * @param selectFields
+     * @param sortOptions
+     * @param auths
+     * @return
+     */
+    CloseableIterable<Event> query(Date start, Date end, Set<String> types, Node node, Set<String> selectFields, SortOptions sortOptions,
+        Auths auths);
+
+    /**
+     * Query the store using criteria specified, within the given budget. Once the query runs out of time or has
+     * returned the maximum number of results, the tablet servers stop evaluating it and the results found so far are
+     * returned, flagged as incomplete.
+     *
+     * @param start
+     * @param end
+     * @param types
+     * @param node
+     * @param selectFields
+     * @param budget
+     * @param auths
+     * @return
+     */
+    QueryResults<Event> query(Date start, Date end, Set<String> types, Node node, Set<String> selectFields, QueryBudget budget,
+        Auths auths);
+
+    /**
+     * Query the store using criteria specified, a page of results at a time. The first page is read by passing a
+     * null continuation token, and following pages by passing the token returned with the previous page along with
+     * the same query and time range. Each page picks up right after the last event returned. A token is rejected
+     * with an IllegalArgumentException when it was returned for a different query.
+     *
+     * @param start
+     * @param end
+     * @param types
+     * @param node
+     * @param selectFields
+     * @param pageSize
+     * @param continuationToken
+     * @param auths
+     * @return
+     */
+    QueryPage<Event> query(Date start, Date end, Set<String> types, Node node, Set<String> selectFields, int pageSize,
+        String continuationToken, Auths auths);
+
   /**
      * Query the store using criteria specified
      *
@@ -78,6 +175,108 @@ public interface EventStore extends QfdStore<Event, EventIdentifier> {
 
     CloseableIterable<Event> query(Date start, Date end, Set<String> types, Node node, Auths auths);
 
+    /**
+     * Plans the given query, without running it, to describe how it would be run.
+     *
+     * @param start
+     * @param end
+     * @param types
+     * @param node
+     * @param auths
+     * @return
+     */
+    QueryExplanation explain(Date start, Date end, Set<String> types, Node node, Auths auths);
+
+    /**
+     * Runs the given query, without returning its results, to describe how it was planned along with the work the
+     * tablet servers did to run it.
+     *
+     * @param start
+     * @param end
+     * @param types
+     * @param node
+     * @param auths
+     * @return
+     */
+    QueryExplanation profile(Date start, Date end, Set<String> types, Node node, Auths auths);
+
+    /**
+     * Counts the events matching the given query without returning them. The tablet servers count the matches of
+     * each shard they evaluate and only those counts are returned.
+     *
+     * @param start
+     * @param end
+     * @param types
+     * @param node
+     * @param auths
+     * @return
+     */
+    long count(Date start, Date end, Set<String> types, Node node, Auths auths);
+
+    /**
+     * Counts the events matching the given query. When index cardinalities are allowed and the query is a single
+     * equality, the count is taken from the global index without evaluating any events. That count is approximate:
+     * it includes every time an event was saved and every matching event in the shards the time range touches, even
+     * those outside of the time range.
+     *
+     * @param start
+     * @param end
+     * @param types
+     * @param node
+     * @param auths
+     * @param useIndexCardinalities
+     * @return
+     */
+    long count(Date start, Date end, Set<String> types, Node node, Auths auths, boolean useIndexCardinalities);
+
+    /**
+     * Counts the distinct values of each of the given fields over the events matching the given query. Only the
+     * counts are returned from the tablet servers, not the events. The values of each field are ordered by
+     * descending count.
+     *
+     * @param start
+     * @param end
+     * @param types
+     * @param node
+     * @param fields
+     * @param auths
+     * @return
+     */
+    Map<String, Map<Object, Long>> facets(Date start, Date end, Set<String> types, Node node, Set<String> fields, Auths auths);
+
+    /**
+     * Counts the distinct values of each of the given fields over the events matching the given query, keeping only
+     * the topK most frequent values of each field.
+     *
+     * @param start
+     * @param end
+     * @param types
+     * @param node
+     * @param fields
+     * @param topK
+     * @param auths
+     * @return
+     */
+    Map<String, Map<Object, Long>> facets(Date start, Date end, Set<String> types, Node node, Set<String> fields, int topK, Auths auths);
+
+    /**
+     * Counts the events matching the given query by the time bucket their timestamps fall into. Buckets cover a
+     * single unit of time (a minute, hour, day, etc...) and are aligned to the epoch, so the first and last buckets
+     * only count the events within the given time range. Every bucket from the one holding the start of the range to
+     * the one holding its end is returned, keyed by the time it starts at, even when it holds no events, so the range
+     * may span at most {@link org.calrissian.accumulorecipes.commons.iterators.HistogramIterator#MAX_BUCKETS} buckets.
+     * Only the counts of the buckets holding events are returned from the tablet servers, not the events.
+     *
+     * @param start
+     * @param end
+     * @param types
+     * @param node
+     * @param unit
+     * @param auths
+     * @return
+     */
+    SortedMap<Date, Long> histogram(Date start, Date end, Set<String> types, Node node, TimeUnit unit, Auths auths);
+
   /**
      * If an event is already being indexed in another store, it's often useful to query a bunch
      * back in batches. This method allows the selection of specific fields.
@@ -16,7 +16,6 @@
 package org.calrissian.accumulorecipes.eventstore.hadoop;
 
 import static org.apache.accumulo.core.data.Range.prefix;
-import static org.calrissian.accumulorecipes.commons.iterators.support.EventFields.initializeKryo;
 import static org.calrissian.accumulorecipes.commons.support.Constants.ONE_BYTE;
 import static org.calrissian.accumulorecipes.commons.support.Constants.PREFIX_E;
 import static org.calrissian.accumulorecipes.eventstore.impl.AccumuloEventStore.DEFAULT_IDX_TABLE_NAME;
@@ -33,7 +32,6 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
-import com.esotericsoftware.kryo.Kryo;
 import com.google.common.base.Function;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
@@ -203,13 +201,11 @@ public class EventInputFormat extends BaseQfdInputFormat<Event, EventWritable> {
             TypeRegistry<String> typeRegistry = fromBase64(configuration.get("typeRegistry").getBytes());
 
             MetadataSerDe metadataSerDe = new SimpleMetadataSerDe();
-            final Kryo kryo = new Kryo();
-            initializeKryo(kryo);
 
             if(configuration.get(XFORM_KEY).equals(QUERY_XFORM))
-              return new QueryXform(kryo, typeRegistry, metadataSerDe);
+              return new QueryXform(typeRegistry, metadataSerDe);
             else
-              return new WholeColFXForm(kryo, typeRegistry,metadataSerDe);
+              return new WholeColFXForm(typeRegistry,metadataSerDe);
 
         } catch(Exception e) {
             throw new RuntimeException(e);
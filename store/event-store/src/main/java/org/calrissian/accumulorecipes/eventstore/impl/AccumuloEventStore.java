@@ -15,20 +15,28 @@
  */
 package org.calrissian.accumulorecipes.eventstore.impl;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.apache.accumulo.core.data.Range.prefix;
+import static org.calrissian.accumulorecipes.commons.iterators.HistogramIterator.MAX_BUCKETS;
 import static org.calrissian.accumulorecipes.commons.support.Constants.DEFAULT_PARTITION_SIZE;
 import static org.calrissian.accumulorecipes.commons.support.Constants.ONE_BYTE;
 import static org.calrissian.accumulorecipes.commons.support.Constants.PREFIX_E;
+import static org.calrissian.accumulorecipes.commons.support.qfd.ShardRanges.coalesceText;
 import static org.calrissian.accumulorecipes.commons.util.Scanners.closeableIterable;
 import static org.calrissian.mango.collect.CloseableIterables.transform;
 import static org.calrissian.mango.types.LexiTypeEncoders.LEXI_TYPES;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
@@ -36,19 +44,28 @@ import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.client.IteratorSetting;
 import org.apache.accumulo.core.client.MutationsRejectedException;
+import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.client.TableExistsException;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.data.Range;
-import org.apache.hadoop.io.Text;
 import org.calrissian.accumulorecipes.commons.domain.Auths;
+import org.calrissian.accumulorecipes.commons.domain.DecodeOptions;
+import org.calrissian.accumulorecipes.commons.domain.QueryBudget;
+import org.calrissian.accumulorecipes.commons.domain.QueryExplanation;
+import org.calrissian.accumulorecipes.commons.domain.QueryPage;
+import org.calrissian.accumulorecipes.commons.domain.QueryResults;
+import org.calrissian.accumulorecipes.commons.domain.SortOptions;
 import org.calrissian.accumulorecipes.commons.domain.StoreConfig;
+import org.calrissian.accumulorecipes.commons.iterators.ColumnFamilyPrefixIterator;
 import org.calrissian.accumulorecipes.commons.iterators.EmptyEncodedRowFilter;
 import org.calrissian.accumulorecipes.commons.iterators.MetadataExpirationFilter;
 import org.calrissian.accumulorecipes.commons.iterators.SelectFieldsExtractor;
 import org.calrissian.accumulorecipes.commons.iterators.TimeLimitingFilter;
 import org.calrissian.accumulorecipes.commons.iterators.WholeColumnFamilyIterator;
 import org.calrissian.accumulorecipes.commons.iterators.WholeColumnQualifierIterator;
+import org.calrissian.accumulorecipes.commons.iterators.support.QueryCounters;
 import org.calrissian.accumulorecipes.commons.support.qfd.KeyValueIndex;
+import org.calrissian.accumulorecipes.commons.support.qfd.planner.GlobalIndexCache;
 import org.calrissian.accumulorecipes.commons.support.qfd.planner.visitors.GlobalIndexVisitor;
 import org.calrissian.accumulorecipes.eventstore.EventStore;
 import org.calrissian.accumulorecipes.eventstore.support.EventGlobalIndexVisitor;
@@ -114,6 +131,13 @@ public class AccumuloEventStore implements EventStore {
         helper.shutdown();
     }
 
+    /**
+     * @return the cache of global index lookups used to plan queries, or null when the store wasn't configured to cache them
+     */
+    public GlobalIndexCache getGlobalIndexCache() {
+        return helper.getGlobalIndexCache();
+    }
+
 
 
     /**
@@ -145,25 +169,231 @@ public class AccumuloEventStore implements EventStore {
 
     @Override
     public CloseableIterable<Event> query(Date start, Date end, Set<String> types, Node node, Set<String> selectFields, Auths auths) {
+        return query(start, end, types, node, selectFields, auths, null);
+    }
+
+    @Override
+    public CloseableIterable<Event> query(Date start, Date end, Set<String> types, Node node, Set<String> selectFields, Auths auths,
+        DecodeOptions decodeOptions) {
+        return query(start, end, types, node, selectFields, auths, decodeOptions, null);
+    }
+
+    @Override
+    public CloseableIterable<Event> query(Date start, Date end, Set<String> types, Node node, Set<String> selectFields, Auths auths,
+        DecodeOptions decodeOptions, QueryCounters counters) {
+        checkNotNull(start);
+        checkNotNull(end);
+        checkNotNull(types);
+        checkNotNull(node);
+        checkNotNull(auths);
+
+        BatchScanner indexScanner = helper.buildIndexScanner(auths.getAuths());
+        GlobalIndexVisitor globalIndexVisitor = new EventGlobalIndexVisitor(start, end, types, indexScanner, shardBuilder,
+            helper.getGlobalIndexCache(), auths);
+        BatchScanner scanner = buildQueryScanner(start, end, auths);
+
+        CloseableIterable<Event> events = helper.query(scanner, globalIndexVisitor, types, node, helper.buildQueryXform(), selectFields, auths,
+            decodeOptions, counters);
+        indexScanner.close();
+
+        return events;
+    }
+
+    @Override
+    public CloseableIterable<Event> query(Date start, Date end, Set<String> types, Node node, Set<String> selectFields,
+        SortOptions sortOptions, Auths auths) {
+        checkNotNull(start);
+        checkNotNull(end);
+        checkNotNull(types);
+        checkNotNull(node);
+        checkNotNull(sortOptions);
+        checkNotNull(auths);
+
+        BatchScanner indexScanner = helper.buildIndexScanner(auths.getAuths());
+        GlobalIndexVisitor globalIndexVisitor = new EventGlobalIndexVisitor(start, end, types, indexScanner, shardBuilder,
+            helper.getGlobalIndexCache(), auths);
+
+        try {
+            return helper.query(buildQueryScanner(start, end, auths), globalIndexVisitor, types, node, helper.buildQueryXform(),
+                selectFields, sortOptions);
+        } finally {
+            indexScanner.close();
+        }
+    }
+
+    @Override
+    public QueryResults<Event> query(Date start, Date end, Set<String> types, Node node, Set<String> selectFields,
+        QueryBudget budget, Auths auths) {
         checkNotNull(start);
         checkNotNull(end);
         checkNotNull(types);
         checkNotNull(node);
+        checkNotNull(budget);
         checkNotNull(auths);
 
         BatchScanner indexScanner = helper.buildIndexScanner(auths.getAuths());
-        GlobalIndexVisitor globalIndexVisitor = new EventGlobalIndexVisitor(start, end, types, indexScanner, shardBuilder);
+        GlobalIndexVisitor globalIndexVisitor = new EventGlobalIndexVisitor(start, end, types, indexScanner, shardBuilder,
+            helper.getGlobalIndexCache(), auths);
+
+        try {
+            return helper.query(buildQueryScanner(start, end, auths), globalIndexVisitor, types, node, helper.buildQueryXform(),
+                selectFields, budget);
+        } finally {
+            indexScanner.close();
+        }
+    }
+
+    @Override
+    public QueryPage<Event> query(Date start, Date end, Set<String> types, Node node, Set<String> selectFields, int pageSize,
+        String continuationToken, Auths auths) {
+        checkNotNull(start);
+        checkNotNull(end);
+        checkNotNull(types);
+        checkNotNull(auths);
+
+        checkNotNull(node);
+
+        Scanner scanner = helper.buildOrderedShardScanner(auths.getAuths());
+        scanner.addScanIterator(buildTimeFilter(start, end));
+
+        BatchScanner indexScanner = helper.buildIndexScanner(auths.getAuths());
+        GlobalIndexVisitor globalIndexVisitor = new EventGlobalIndexVisitor(start, end, types, indexScanner, shardBuilder,
+            helper.getGlobalIndexCache(), auths);
+
+        try {
+            return helper.queryPage(scanner, globalIndexVisitor, types, node, helper.buildQueryXform(), selectFields, pageSize,
+                continuationToken);
+        } finally {
+            indexScanner.close();
+        }
+    }
+
+    @Override
+    public QueryExplanation explain(Date start, Date end, Set<String> types, Node node, Auths auths) {
+        return explain(start, end, types, node, auths, false);
+    }
+
+    @Override
+    public QueryExplanation profile(Date start, Date end, Set<String> types, Node node, Auths auths) {
+        return explain(start, end, types, node, auths, true);
+    }
+
+    private QueryExplanation explain(Date start, Date end, Set<String> types, Node node, Auths auths, boolean profile) {
+        checkNotNull(start);
+        checkNotNull(end);
+        checkNotNull(types);
+        checkNotNull(node);
+        checkNotNull(auths);
+
+        BatchScanner indexScanner = helper.buildIndexScanner(auths.getAuths());
+        GlobalIndexVisitor globalIndexVisitor = new EventGlobalIndexVisitor(start, end, types, indexScanner, shardBuilder,
+            helper.getGlobalIndexCache(), auths);
+
+        try {
+            return helper.explain(buildQueryScanner(start, end, auths), globalIndexVisitor, types, node, profile);
+        } finally {
+            indexScanner.close();
+        }
+    }
+
+    @Override
+    public long count(Date start, Date end, Set<String> types, Node node, Auths auths) {
+        return count(start, end, types, node, auths, false);
+    }
+
+    @Override
+    public long count(Date start, Date end, Set<String> types, Node node, Auths auths, boolean useIndexCardinalities) {
+        checkNotNull(start);
+        checkNotNull(end);
+        checkNotNull(types);
+        checkNotNull(node);
+        checkNotNull(auths);
+
+        BatchScanner indexScanner = helper.buildIndexScanner(auths.getAuths());
+        GlobalIndexVisitor globalIndexVisitor = new EventGlobalIndexVisitor(start, end, types, indexScanner, shardBuilder,
+            helper.getGlobalIndexCache(), auths);
+
+        try {
+            return helper.count(buildQueryScanner(start, end, auths), globalIndexVisitor, types, node, useIndexCardinalities);
+        } finally {
+            indexScanner.close();
+        }
+    }
+
+    @Override
+    public Map<String, Map<Object, Long>> facets(Date start, Date end, Set<String> types, Node node, Set<String> fields, Auths auths) {
+        return facets(start, end, types, node, fields, 0, auths);
+    }
+
+    @Override
+    public Map<String, Map<Object, Long>> facets(Date start, Date end, Set<String> types, Node node, Set<String> fields, int topK,
+        Auths auths) {
+        checkNotNull(start);
+        checkNotNull(end);
+        checkNotNull(types);
+        checkNotNull(node);
+        checkNotNull(fields);
+        checkNotNull(auths);
+
+        BatchScanner indexScanner = helper.buildIndexScanner(auths.getAuths());
+        GlobalIndexVisitor globalIndexVisitor = new EventGlobalIndexVisitor(start, end, types, indexScanner, shardBuilder,
+            helper.getGlobalIndexCache(), auths);
+
+        try {
+            return helper.facets(buildQueryScanner(start, end, auths), globalIndexVisitor, types, node, fields, topK);
+        } finally {
+            indexScanner.close();
+        }
+    }
+
+    @Override
+    public SortedMap<Date, Long> histogram(Date start, Date end, Set<String> types, Node node, TimeUnit unit, Auths auths) {
+        checkNotNull(start);
+        checkNotNull(end);
+        checkNotNull(types);
+        checkNotNull(node);
+        checkNotNull(unit);
+        checkNotNull(auths);
+
+        long bucketSize = unit.toMillis(1);
+        checkArgument(bucketSize > 0, "Buckets need to cover at least a millisecond");
+        checkArgument(!end.before(start));
+
+        long firstBucket = start.getTime() - (start.getTime() % bucketSize);
+        long buckets = (end.getTime() - firstBucket) / bucketSize + 1;
+        checkArgument(buckets <= MAX_BUCKETS, "The time range spans more than " + MAX_BUCKETS + " buckets");
+
+        BatchScanner indexScanner = helper.buildIndexScanner(auths.getAuths());
+        GlobalIndexVisitor globalIndexVisitor = new EventGlobalIndexVisitor(start, end, types, indexScanner, shardBuilder,
+            helper.getGlobalIndexCache(), auths);
+
+        try {
+            long[] counts = helper.histogram(buildQueryScanner(start, end, auths), globalIndexVisitor, types, node,
+                firstBucket, bucketSize, (int) buckets);
+
+            SortedMap<Date, Long> histogram = new TreeMap<Date, Long>();
+            for (int i = 0; i < counts.length; i++)
+                histogram.put(new Date(firstBucket + i * bucketSize), counts[i]);
+            return histogram;
+        } finally {
+            indexScanner.close();
+        }
+    }
+
+    /**
+     * Builds a shard table scanner which only returns events within the given time range.
+     */
+    private BatchScanner buildQueryScanner(Date start, Date end, Auths auths) {
         BatchScanner scanner = helper.buildShardScanner(auths.getAuths());
+        scanner.addScanIterator(buildTimeFilter(start, end));
+        return scanner;
+    }
 
+    private static IteratorSetting buildTimeFilter(Date start, Date end) {
         IteratorSetting timeFilter = new IteratorSetting(5, TimeLimitingFilter.class);
         TimeLimitingFilter.setCurrentTime(timeFilter, end.getTime());
         TimeLimitingFilter.setTTL(timeFilter, end.getTime() - start.getTime());
-        scanner.addScanIterator(timeFilter);
-
-        CloseableIterable<Event> events = helper.query(scanner, globalIndexVisitor, types, node, helper.buildQueryXform(), selectFields, auths);
-        indexScanner.close();
-
-        return events;
+        return timeFilter;
     }
 
     @Override
@@ -228,14 +458,17 @@ public class AccumuloEventStore implements EventStore {
 
             BatchScanner scanner = helper.buildShardScanner(auths.getAuths());
 
-            Collection<Range> ranges = new LinkedList<Range>();
-            for (String type : types) {
-                Set<Text> shards = shardBuilder.buildShardsInRange(start, stop);
-                for (Text shard : shards)
-                    ranges.add(prefix(shard.toString(), PREFIX_E + ONE_BYTE + type + ONE_BYTE));
-            }
+            // the shards of a time range are mostly adjacent, so they are scanned as a few contiguous ranges with
+            // the restriction on types pushed down as column family prefixes
+            scanner.setRanges(coalesceText(shardBuilder.buildShardsInRange(start, stop)));
+
+            Collection<String> typePrefixes = new ArrayList<String>(types.size());
+            for (String type : types)
+                typePrefixes.add(PREFIX_E + ONE_BYTE + type + ONE_BYTE);
 
-            scanner.setRanges(ranges);
+            IteratorSetting typeFilter = new IteratorSetting(11, ColumnFamilyPrefixIterator.class);
+            ColumnFamilyPrefixIterator.setPrefixes(typeFilter, typePrefixes);
+            scanner.addScanIterator(typeFilter);
 
             if (selectFields != null && selectFields.size() > 0) {
                 IteratorSetting iteratorSetting = new IteratorSetting(16, SelectFieldsExtractor.class);
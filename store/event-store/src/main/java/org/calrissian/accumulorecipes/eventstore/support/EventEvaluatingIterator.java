@@ -19,6 +19,8 @@ import static org.apache.commons.lang.StringUtils.splitPreserveAllTokens;
 import static org.calrissian.accumulorecipes.commons.support.Constants.ONE_BYTE;
 import static org.calrissian.accumulorecipes.eventstore.support.EventQfdHelper.FI_TYPE_KEY_SEP;
 
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.Key;
 import org.apache.commons.jexl2.parser.ParseException;
 import org.calrissian.accumulorecipes.commons.iterators.EvaluatingIterator;
@@ -39,12 +41,19 @@ public class EventEvaluatingIterator extends EvaluatingIterator {
       super(query);
     }
 
+    // the type prefix of the last column family seen, as every field of an event is normalized with the same one
+    private ByteSequence lastColumnFamily;
+    private String typePrefix;
+
     @Override
     public String normalizeKey(Key topKey, String fieldKey) {
-      String cf = topKey.getColumnFamily().toString();
-      String rewrittenKey =  splitPreserveAllTokens(cf, ONE_BYTE)[1] + FI_TYPE_KEY_SEP + fieldKey;
+      ByteSequence cf = topKey.getColumnFamilyData();
+      if (!cf.equals(lastColumnFamily)) {
+        lastColumnFamily = new ArrayByteSequence(cf.toArray());
+        typePrefix = splitPreserveAllTokens(cf.toString(), ONE_BYTE)[1] + FI_TYPE_KEY_SEP;
+      }
 
-      return rewrittenKey;
+      return typePrefix + fieldKey;
     }
   }
 }
@@ -20,7 +20,6 @@ import static org.calrissian.accumulorecipes.commons.support.Constants.ONE_BYTE;
 import static org.calrissian.accumulorecipes.commons.support.Constants.PREFIX_E;
 import java.util.Set;
 
-import com.esotericsoftware.kryo.Kryo;
 import com.google.common.collect.Sets;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
@@ -67,11 +66,11 @@ public class EventQfdHelper extends QfdHelper<Event> {
     }
 
     public QueryXform buildQueryXform() {
-        return new QueryXform(getKryo(), getTypeRegistry(), getMetadataSerDe());
+        return new QueryXform(getTypeRegistry(), getMetadataSerDe());
     }
 
     public WholeColFXForm buildWholeColFXform() {
-        return new WholeColFXForm(getKryo(), getTypeRegistry(), getMetadataSerDe());
+        return new WholeColFXForm(getTypeRegistry(), getMetadataSerDe());
     }
 
     @Override
@@ -108,8 +107,8 @@ public class EventQfdHelper extends QfdHelper<Event> {
 
     public static class QueryXform extends KeyToAttributeStoreQueryXform<Event,EventBuilder> {
 
-        public QueryXform(Kryo kryo, TypeRegistry<String> typeRegistry, MetadataSerDe metadataSerDe) {
-            super(kryo, typeRegistry, metadataSerDe);
+        public QueryXform(TypeRegistry<String> typeRegistry, MetadataSerDe metadataSerDe) {
+            super(typeRegistry, metadataSerDe);
         }
 
         @Override
@@ -119,8 +118,8 @@ public class EventQfdHelper extends QfdHelper<Event> {
     }
 
     public static class WholeColFXForm extends KeyToAttributeStoreWholeColFXform<Event, EventBuilder> {
-        public WholeColFXForm(Kryo kryo, TypeRegistry<String> typeRegistry, MetadataSerDe metadataSerDe) {
-            super(kryo, typeRegistry, metadataSerDe);
+        public WholeColFXForm(TypeRegistry<String> typeRegistry, MetadataSerDe metadataSerDe) {
+            super(typeRegistry, metadataSerDe);
         }
 
         @Override
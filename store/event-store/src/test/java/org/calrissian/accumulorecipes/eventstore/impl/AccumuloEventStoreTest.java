@@ -18,10 +18,18 @@ package org.calrissian.accumulorecipes.eventstore.impl;
 import static com.google.common.collect.Iterables.size;
 import static java.lang.System.currentTimeMillis;
 import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.calrissian.accumulorecipes.eventstore.impl.AccumuloEventStore.DEFAULT_SHARD_BUILDER;
+import static org.calrissian.accumulorecipes.eventstore.impl.AccumuloEventStore.DEFAULT_STORE_CONFIG;
+import static org.calrissian.mango.types.LexiTypeEncoders.LEXI_TYPES;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
@@ -29,20 +37,46 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
 import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.client.TableExistsException;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.client.mock.MockInstance;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.security.Authorizations;
 import org.calrissian.accumulorecipes.commons.domain.Auths;
+import org.calrissian.accumulorecipes.commons.domain.DecodeOptions;
+import org.calrissian.accumulorecipes.commons.domain.QueryBudget;
+import org.calrissian.accumulorecipes.commons.domain.QueryExplanation;
+import org.calrissian.accumulorecipes.commons.domain.QueryPage;
+import org.calrissian.accumulorecipes.commons.domain.QueryResults;
+import org.calrissian.accumulorecipes.commons.domain.SortOptions;
+import org.calrissian.accumulorecipes.commons.domain.StoreConfig;
+import org.calrissian.accumulorecipes.commons.iterators.BooleanLogicIterator;
+import org.calrissian.accumulorecipes.commons.iterators.OptimizedQueryIterator;
+import org.calrissian.accumulorecipes.commons.iterators.support.QueryCounters;
 import org.calrissian.accumulorecipes.commons.support.attribute.MetadataBuilder;
+import org.calrissian.accumulorecipes.commons.support.qfd.AttributeIndexKey;
+import org.calrissian.accumulorecipes.commons.support.qfd.planner.QueryPlanner;
 import org.calrissian.accumulorecipes.eventstore.EventStore;
+import org.calrissian.accumulorecipes.eventstore.support.EventGlobalIndexVisitor;
+import org.calrissian.accumulorecipes.eventstore.support.EventOptimizedQueryIterator;
+import org.calrissian.accumulorecipes.eventstore.support.EventQfdHelper;
+import org.calrissian.accumulorecipes.eventstore.support.shard.DailyShardBuilder;
+import org.calrissian.accumulorecipes.eventstore.support.shard.EventShardBuilder;
 import org.calrissian.accumulorecipes.test.AccumuloTestUtils;
 import org.calrissian.mango.collect.CloseableIterable;
 import org.calrissian.mango.criteria.builder.QueryBuilder;
@@ -405,6 +439,40 @@ public class AccumuloEventStoreTest {
         assertEquals(2, count);
     }
 
+    @Test
+    public void testQuery_withSelectionOfUnqueriedFields() throws Exception {
+
+        Event event = EventBuilder.create("", UUID.randomUUID().toString(), currentTimeMillis())
+            .attr(new Attribute("projKey1", "val1", meta))
+            .attr(new Attribute("projKey2", 3, meta))
+            .attr(new Attribute("projKey3", "val3", meta))
+            .build();
+
+        Event event2 = EventBuilder.create("", UUID.randomUUID().toString(), currentTimeMillis())
+            .attr(new Attribute("projKey1", "val1", meta))
+            .attr(new Attribute("projKey2", 30, meta))
+            .attr(new Attribute("projKey3", "val3", meta))
+            .build();
+
+        store.save(asList(event, event2));
+
+        // the range is only evaluated against the events, so its field is needed even though it's not selected
+        Node query = QueryBuilder.create().and().eq("projKey1", "val1").range("projKey2", 0, 5).end().build();
+
+        List<Event> results = Lists.newArrayList(store.query(new Date(currentTimeMillis() - 5000),
+            new Date(), query, singleton("projKey3"), DEFAULT_AUTHS));
+
+        assertEquals(1, results.size());
+        assertEquals(event.getId(), results.get(0).getId());
+        assertEquals(1, results.get(0).getAttributes().size());
+        assertEquals("val3", results.get(0).get("projKey3").getValue());
+
+        // selecting every field returns them all
+        CloseableIterable<Event> actualEvent = store.get(singletonList(new EventIdentifier(event.getId(), event.getTimestamp())),
+            Sets.newHashSet("projKey1", "projKey2", "projKey3"), DEFAULT_AUTHS);
+        assertEquals(3, actualEvent.iterator().next().getAttributes().size());
+    }
+
     @Test
     public void testQuery_AndQuery() throws Exception {
 
@@ -662,4 +730,653 @@ public class AccumuloEventStoreTest {
         assertEquals(event, Iterables.get(itr, 0));
     }
 
+    @Test
+    public void testSave_ingestPipeline() throws Exception {
+
+        StoreConfig config = new StoreConfig(3, 100000L, 10000L, 3).withIngest(4, 10);
+        AccumuloEventStore pipelinedStore = new AccumuloEventStore(connector, "pipelineIndex", "pipelineShard", config,
+            LEXI_TYPES, DEFAULT_SHARD_BUILDER);
+
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 1200; i++) {
+            events.add(EventBuilder.create("", UUID.randomUUID().toString(), currentTimeMillis())
+                .attr(new Attribute("key1", "val1", meta))
+                .attr(new Attribute("key2", i, meta))
+                .build());
+        }
+
+        pipelinedStore.save(events);
+        pipelinedStore.flush();
+
+        Node query = QueryBuilder.create().and().eq("key1", "val1").lessThan("key2", 600).end().build();
+        Iterable<Event> itr = pipelinedStore.query(new Date(currentTimeMillis() - 50000), new Date(), query, null, DEFAULT_AUTHS);
+        assertEquals(600, Iterables.size(itr));
+
+        pipelinedStore.shutdown();
+    }
+
+    @Test
+    public void testQuery_parallelDecode() throws Exception {
+
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 250; i++) {
+            events.add(EventBuilder.create("", UUID.randomUUID().toString(), currentTimeMillis())
+                .attr(new Attribute("key1", "val1", meta))
+                .attr(new Attribute("key2", i, meta))
+                .build());
+        }
+
+        store.save(events);
+
+        Node query = QueryBuilder.create().eq("key1", "val1").build();
+        for (boolean ordered : new boolean[] {true, false}) {
+            CloseableIterable<Event> itr = store.query(new Date(currentTimeMillis() - 50000), new Date(), Collections.singleton(""),
+                query, null, DEFAULT_AUTHS, new DecodeOptions(4, 2, 10, ordered));
+
+            assertEquals(new HashSet<Event>(events), Sets.newHashSet(itr));
+            itr.closeQuietly();
+        }
+    }
+
+    @Test
+    public void testExplainAndProfile() throws Exception {
+
+        AccumuloEventStore explainStore = new AccumuloEventStore(connector, "explainIndex", "explainShard", DEFAULT_STORE_CONFIG,
+            LEXI_TYPES, DEFAULT_SHARD_BUILDER);
+
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 10; i++) {
+            events.add(EventBuilder.create("", UUID.randomUUID().toString(), currentTimeMillis())
+                .attr(new Attribute("key1", "val1", meta))
+                .attr(new Attribute("key2", i % 2 == 0 ? "even" : "odd", meta))
+                .build());
+        }
+        explainStore.save(events);
+
+        Date start = new Date(currentTimeMillis() - 50000);
+        Date end = new Date(currentTimeMillis() + 50000);
+        Node query = QueryBuilder.create().and().eq("key1", "val1").eq("key2", "even").end().build();
+
+        QueryExplanation explanation = explainStore.explain(start, end, singleton(""), query, DEFAULT_AUTHS);
+        assertNotNull(explanation.getOptimizedQuery());
+        assertNotNull(explanation.getFieldIndexJexl());
+        assertNotNull(explanation.getJexl());
+        assertEquals(Long.valueOf(10), explanation.getCardinalities().get(new AttributeIndexKey("key1", "val1", "string")));
+        assertEquals(Long.valueOf(5), explanation.getCardinalities().get(new AttributeIndexKey("key2", "even", "string")));
+        assertFalse(explanation.getShards().isEmpty());
+        assertEquals(explanation.getShards().size(), explanation.getRanges());
+        assertNull(explanation.getCounters());
+
+        QueryExplanation profile = explainStore.profile(start, end, singleton(""), query, DEFAULT_AUTHS);
+        assertEquals(explanation.getShards(), profile.getShards());
+        assertEquals(5, profile.getCounters().getMatches());
+        assertTrue(profile.getCounters().getCandidates() >= 5);
+        // shards holding few events may be scanned rather than found through their field index
+        if (profile.getScanShards().size() < profile.getShards().size())
+            assertTrue(profile.getCounters().getIndexKeysRead() > 0);
+        assertTrue(profile.getCounters().getEventKeysRead() >= 5);
+        assertTrue(profile.getCounters().getBytesReturned() > 0);
+
+        Node noMatches = QueryBuilder.create().and().eq("key1", "val1").eq("key2", "none").end().build();
+        profile = explainStore.profile(start, end, singleton(""), noMatches, DEFAULT_AUTHS);
+        assertEquals(0, profile.getCounters().getMatches());
+        assertEquals(0, profile.getCounters().getBytesReturned());
+
+        explainStore.shutdown();
+    }
+
+    @Test
+    public void testQuery_counters() throws Exception {
+
+        AccumuloEventStore countersStore = new AccumuloEventStore(connector, "countersIndex", "countersShard", DEFAULT_STORE_CONFIG,
+            LEXI_TYPES, DEFAULT_SHARD_BUILDER);
+
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 20; i++) {
+            events.add(EventBuilder.create("", UUID.randomUUID().toString(), currentTimeMillis())
+                .attr(new Attribute("key1", "val1", meta))
+                .attr(new Attribute("key2", i, meta))
+                .build());
+        }
+        countersStore.save(events);
+
+        Date start = new Date(currentTimeMillis() - 50000);
+        Date end = new Date(currentTimeMillis() + 50000);
+        Node query = QueryBuilder.create().eq("key1", "val1").build();
+
+        for (DecodeOptions decodeOptions : asList(null, new DecodeOptions(2, false))) {
+            QueryCounters counters = new QueryCounters();
+            CloseableIterable<Event> results = countersStore.query(start, end, singleton(""), query, null, DEFAULT_AUTHS,
+                decodeOptions, counters);
+
+            // the counters are stripped from the results
+            List<Event> actual = Lists.newArrayList(results);
+            results.closeQuietly();
+            assertEquals(events.size(), actual.size());
+            assertEquals(new HashSet<Event>(events), new HashSet<Event>(actual));
+
+            assertEquals(events.size(), counters.getMatches());
+            assertTrue(counters.getCandidates() >= events.size());
+            assertTrue(counters.getEventKeysRead() >= events.size());
+            assertTrue(counters.getBytesReturned() > 0);
+            assertTrue(counters.getEvaluationTime(TimeUnit.NANOSECONDS) > 0);
+        }
+
+        countersStore.shutdown();
+    }
+
+    @Test
+    public void testCount() throws Exception {
+
+        AccumuloEventStore countStore = new AccumuloEventStore(connector, "countIndex", "countShard", DEFAULT_STORE_CONFIG,
+            LEXI_TYPES, DEFAULT_SHARD_BUILDER);
+
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 20; i++) {
+            events.add(EventBuilder.create("", UUID.randomUUID().toString(), currentTimeMillis())
+                .attr(new Attribute("key1", "val1", meta))
+                .attr(new Attribute("key2", i, meta))
+                .build());
+        }
+        countStore.save(events);
+
+        Date start = new Date(currentTimeMillis() - 50000);
+        Date end = new Date(currentTimeMillis() + 50000);
+
+        Node query = QueryBuilder.create().eq("key1", "val1").build();
+        assertEquals(20, countStore.count(start, end, singleton(""), query, DEFAULT_AUTHS));
+        assertEquals(20, countStore.count(start, end, singleton(""), query, DEFAULT_AUTHS, true));
+
+        query = QueryBuilder.create().and().eq("key1", "val1").lessThan("key2", 5).end().build();
+        CloseableIterable<Event> results = countStore.query(start, end, singleton(""), query, null, DEFAULT_AUTHS);
+        int expected = size(results);
+        results.closeQuietly();
+        assertEquals(5, expected);
+        assertEquals(expected, countStore.count(start, end, singleton(""), query, DEFAULT_AUTHS));
+        assertEquals(expected, countStore.count(start, end, singleton(""), query, DEFAULT_AUTHS, true));
+
+        query = QueryBuilder.create().eq("key1", "val2").build();
+        assertEquals(0, countStore.count(start, end, singleton(""), query, DEFAULT_AUTHS));
+        assertEquals(0, countStore.count(start, end, singleton(""), query, DEFAULT_AUTHS, true));
+
+        countStore.shutdown();
+    }
+
+    @Test
+    public void testFacets() throws Exception {
+
+        AccumuloEventStore facetStore = new AccumuloEventStore(connector, "facetIndex", "facetShard", DEFAULT_STORE_CONFIG,
+            LEXI_TYPES, DEFAULT_SHARD_BUILDER);
+
+        String[] colors = new String[] {"red", "green", "blue"};
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 20; i++) {
+            events.add(EventBuilder.create("", UUID.randomUUID().toString(), currentTimeMillis())
+                .attr(new Attribute("key1", "val1", meta))
+                .attr(new Attribute("color", colors[i % 3], meta))
+                .attr(new Attribute("parity", i % 2, meta))
+                .build());
+        }
+        facetStore.save(events);
+
+        Date start = new Date(currentTimeMillis() - 50000);
+        Date end = new Date(currentTimeMillis() + 50000);
+        Node query = QueryBuilder.create().eq("key1", "val1").build();
+
+        Map<String, Map<Object, Long>> facets = facetStore.facets(start, end, singleton(""), query,
+            Sets.newHashSet("color", "parity"), DEFAULT_AUTHS);
+        assertEquals(2, facets.size());
+        assertEquals(asList("green", "red", "blue"), new ArrayList<Object>(facets.get("color").keySet()));
+        assertEquals(7, (long) facets.get("color").get("red"));
+        assertEquals(7, (long) facets.get("color").get("green"));
+        assertEquals(6, (long) facets.get("color").get("blue"));
+        assertEquals(10, (long) facets.get("parity").get(0));
+        assertEquals(10, (long) facets.get("parity").get(1));
+
+        facets = facetStore.facets(start, end, singleton(""), query, singleton("color"), 1, DEFAULT_AUTHS);
+        assertEquals(1, facets.get("color").size());
+        assertEquals(7, (long) facets.get("color").get("green"));
+
+        query = QueryBuilder.create().eq("key1", "val2").build();
+        facets = facetStore.facets(start, end, singleton(""), query, singleton("color"), DEFAULT_AUTHS);
+        assertTrue(facets.get("color").isEmpty());
+
+        facetStore.shutdown();
+    }
+
+    @Test
+    public void testHistogram() throws Exception {
+
+        AccumuloEventStore histogramStore = new AccumuloEventStore(connector, "histogramIndex", "histogramShard", DEFAULT_STORE_CONFIG,
+            LEXI_TYPES, DEFAULT_SHARD_BUILDER);
+
+        long hour = TimeUnit.HOURS.toMillis(1);
+        long base = currentTimeMillis() - (currentTimeMillis() % hour) - 3 * hour;
+        long[] timestamps = new long[] {
+            base + 10000,   // before the start of the range
+            base + 60000, base + 120000, base + 180000,
+            base + hour + 300000, base + hour + 400000,
+            base + 2 * hour + 1800000
+        };
+
+        List<Event> events = new ArrayList<Event>();
+        for (long timestamp : timestamps) {
+            events.add(EventBuilder.create("", UUID.randomUUID().toString(), timestamp)
+                .attr(new Attribute("key1", "val1", meta))
+                .build());
+        }
+        // doesn't match the query
+        events.add(EventBuilder.create("", UUID.randomUUID().toString(), base + 60000)
+            .attr(new Attribute("key1", "val2", meta))
+            .build());
+        histogramStore.save(events);
+
+        Node query = QueryBuilder.create().eq("key1", "val1").build();
+        SortedMap<Date, Long> histogram = histogramStore.histogram(new Date(base + 30000), new Date(base + 3 * hour + 600000),
+            singleton(""), query, TimeUnit.HOURS, DEFAULT_AUTHS);
+
+        assertEquals(asList(new Date(base), new Date(base + hour), new Date(base + 2 * hour), new Date(base + 3 * hour)),
+            new ArrayList<Date>(histogram.keySet()));
+        assertEquals(asList(3l, 2l, 1l, 0l), new ArrayList<Long>(histogram.values()));
+
+        query = QueryBuilder.create().eq("key1", "val3").build();
+        histogram = histogramStore.histogram(new Date(base + 30000), new Date(base + 3 * hour + 600000),
+            singleton(""), query, TimeUnit.HOURS, DEFAULT_AUTHS);
+        assertEquals(4, histogram.size());
+        assertEquals(asList(0l, 0l, 0l, 0l), new ArrayList<Long>(histogram.values()));
+
+        histogramStore.shutdown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHistogram_tooManyBuckets() throws Exception {
+        Node query = QueryBuilder.create().eq("key1", "val1").build();
+        store.histogram(new Date(0), new Date(currentTimeMillis()), singleton(""), query, TimeUnit.SECONDS, DEFAULT_AUTHS);
+    }
+
+    @Test
+    public void testQuery_sorted() throws Exception {
+
+        AccumuloEventStore sortStore = new AccumuloEventStore(connector, "sortIndex", "sortShard", DEFAULT_STORE_CONFIG,
+            LEXI_TYPES, DEFAULT_SHARD_BUILDER);
+
+        long base = currentTimeMillis() - 100000;
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 30; i++) {
+            events.add(EventBuilder.create("", UUID.randomUUID().toString(), base + i * 1000)
+                .attr(new Attribute("key1", "val1", meta))
+                .attr(new Attribute("score", (i * 7) % 30, meta))
+                .build());
+        }
+        sortStore.save(events);
+
+        Date start = new Date(base - 1000);
+        Date end = new Date(currentTimeMillis() + 50000);
+        Node query = QueryBuilder.create().eq("key1", "val1").build();
+
+        List<Long> timestamps = new ArrayList<Long>();
+        for (Event event : sortStore.query(start, end, singleton(""), query, null, new SortOptions(5, true), DEFAULT_AUTHS))
+            timestamps.add(event.getTimestamp());
+        assertEquals(asList(base + 29000, base + 28000, base + 27000, base + 26000, base + 25000), timestamps);
+
+        List<Object> scores = new ArrayList<Object>();
+        for (Event event : sortStore.query(start, end, singleton(""), query, singleton("key1"),
+            new SortOptions("score", 3, false), DEFAULT_AUTHS)) {
+            // the sort field is returned even though it wasn't selected
+            scores.add(event.get("score").getValue());
+            assertEquals("val1", event.get("key1").getValue());
+        }
+        assertEquals(Arrays.<Object>asList(0, 1, 2), scores);
+
+        query = QueryBuilder.create().eq("key1", "val2").build();
+        assertEquals(0, size(sortStore.query(start, end, singleton(""), query, null, new SortOptions(5, true), DEFAULT_AUTHS)));
+
+        sortStore.shutdown();
+    }
+
+    @Test
+    public void testQuery_paged() throws Exception {
+
+        AccumuloEventStore pageStore = new AccumuloEventStore(connector, "pageIndex", "pageShard", DEFAULT_STORE_CONFIG,
+            LEXI_TYPES, DEFAULT_SHARD_BUILDER);
+
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 25; i++) {
+            events.add(EventBuilder.create("", UUID.randomUUID().toString(), currentTimeMillis())
+                .attr(new Attribute("key1", "val1", meta))
+                .attr(new Attribute("key2", i, meta))
+                .build());
+        }
+        pageStore.save(events);
+
+        Date start = new Date(currentTimeMillis() - 50000);
+        Date end = new Date(currentTimeMillis() + 50000);
+        Node query = QueryBuilder.create().eq("key1", "val1").build();
+
+        List<Integer> pageSizes = new ArrayList<Integer>();
+        List<Event> actual = new ArrayList<Event>();
+        String token = null;
+        do {
+            QueryPage<Event> page = pageStore.query(start, end, singleton(""), query, null, 7, token, DEFAULT_AUTHS);
+            pageSizes.add(page.getResults().size());
+            actual.addAll(page.getResults());
+            token = page.getContinuationToken();
+        } while (token != null);
+
+        assertEquals(asList(7, 7, 7, 4), pageSizes);
+        assertEquals(events.size(), actual.size());
+        assertEquals(new HashSet<Event>(events), new HashSet<Event>(actual));
+
+        query = QueryBuilder.create().eq("key1", "val2").build();
+        QueryPage<Event> page = pageStore.query(start, end, singleton(""), query, null, 7, null, DEFAULT_AUTHS);
+        assertTrue(page.getResults().isEmpty());
+        assertFalse(page.hasMore());
+
+        pageStore.shutdown();
+    }
+
+    @Test
+    public void testQuery_pagedWithinShard() throws Exception {
+
+        // a single shard with few matches, so that the pages are read through the field index and resume mid shard
+        AccumuloEventStore pageStore = new AccumuloEventStore(connector, "pageShardIndex", "pageShardShard", DEFAULT_STORE_CONFIG,
+            LEXI_TYPES, new DailyShardBuilder(1));
+
+        Set<Event> expected = new HashSet<Event>();
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 10; i++) {
+            Event event = EventBuilder.create("", UUID.randomUUID().toString(), currentTimeMillis())
+                .attr(new Attribute("key1", i < 3 ? "val1" : "val2", meta))
+                .build();
+            events.add(event);
+            if (i < 3)
+                expected.add(event);
+        }
+        pageStore.save(events);
+
+        Date start = new Date(currentTimeMillis() - 50000);
+        Date end = new Date(currentTimeMillis() + 50000);
+        Node query = QueryBuilder.create().eq("key1", "val1").build();
+
+        List<Event> actual = new ArrayList<Event>();
+        String token = null;
+        do {
+            QueryPage<Event> page = pageStore.query(start, end, singleton(""), query, null, 1, token, DEFAULT_AUTHS);
+            actual.addAll(page.getResults());
+            token = page.getContinuationToken();
+        } while (token != null);
+
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected, new HashSet<Event>(actual));
+
+        pageStore.shutdown();
+    }
+
+    @Test
+    public void testQuery_pagedMultipleVisibilities() throws Exception {
+
+        // a single shard, so that every page but the last ends within the shard on an event whose attributes are held
+        // under several visibilities, and so in several keys
+        AccumuloEventStore pageStore = new AccumuloEventStore(connector, "pageVisIndex", "pageVisShard", DEFAULT_STORE_CONFIG,
+            LEXI_TYPES, new DailyShardBuilder(1));
+
+        Map<String, String> otherMeta = new MetadataBuilder().setVisibility("B").build();
+        Set<Event> expected = new HashSet<Event>();
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 10; i++) {
+            Event event = EventBuilder.create("", UUID.randomUUID().toString(), currentTimeMillis())
+                .attr(new Attribute("key1", i < 4 ? "val1" : "val2", meta))
+                .attr(new Attribute("key2", i, otherMeta))
+                .attr(new Attribute("key3", "val3", meta))
+                .build();
+            events.add(event);
+            if (i < 4)
+                expected.add(event);
+        }
+        pageStore.save(events);
+
+        Date start = new Date(currentTimeMillis() - 50000);
+        Date end = new Date(currentTimeMillis() + 50000);
+        Auths auths = new Auths("A,B");
+
+        // through the field index
+        List<Event> actual = queryAllPages(pageStore, start, end, QueryBuilder.create().eq("key1", "val1").build(), auths);
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected, new HashSet<Event>(actual));
+
+        // through full scans of the shard
+        actual = queryAllPages(pageStore, start, end, QueryBuilder.create().eq("key3", "val3").build(), auths);
+        assertEquals(events.size(), actual.size());
+        assertEquals(new HashSet<Event>(events), new HashSet<Event>(actual));
+
+        pageStore.shutdown();
+    }
+
+    private static List<Event> queryAllPages(EventStore store, Date start, Date end, Node query, Auths auths) {
+        List<Event> results = new ArrayList<Event>();
+        String token = null;
+        do {
+            QueryPage<Event> page = store.query(start, end, singleton(""), query, null, 1, token, auths);
+            results.addAll(page.getResults());
+            token = page.getContinuationToken();
+            // a page resuming from within an event it already returned would never get anywhere
+            assertTrue(results.size() <= 1000);
+        } while (token != null);
+        return results;
+    }
+
+    @Test
+    public void testQuery_pagedTokenForOtherQuery() throws Exception {
+
+        AccumuloEventStore pageStore = new AccumuloEventStore(connector, "pageTokenIndex", "pageTokenShard", DEFAULT_STORE_CONFIG,
+            LEXI_TYPES, new DailyShardBuilder(1));
+
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 5; i++) {
+            events.add(EventBuilder.create("", UUID.randomUUID().toString(), currentTimeMillis())
+                .attr(new Attribute("key1", "val1", meta))
+                .attr(new Attribute("key2", "val2", meta))
+                .build());
+        }
+        pageStore.save(events);
+
+        Date start = new Date(currentTimeMillis() - 50000);
+        Date end = new Date(currentTimeMillis() + 50000);
+        Node query = QueryBuilder.create().eq("key1", "val1").build();
+        QueryPage<Event> page = pageStore.query(start, end, singleton(""), query, null, 2, null, DEFAULT_AUTHS);
+        assertTrue(page.hasMore());
+
+        Node otherQuery = QueryBuilder.create().eq("key2", "val2").build();
+        try {
+            pageStore.query(start, end, singleton(""), otherQuery, null, 2, page.getContinuationToken(), DEFAULT_AUTHS);
+            fail("The token of another query should be rejected");
+        } catch (IllegalArgumentException e) {
+        }
+
+        try {
+            pageStore.query(start, end, singleton(""), query, null, 2, "not" + page.getContinuationToken(), DEFAULT_AUTHS);
+            fail("A malformed token should be rejected");
+        } catch (IllegalArgumentException e) {
+        }
+
+        pageStore.shutdown();
+    }
+
+    @Test
+    public void testQuery_budget() throws Exception {
+
+        // a single shard, so that the tablet server has to cut the range short itself
+        AccumuloEventStore budgetStore = new AccumuloEventStore(connector, "budgetIndex", "budgetShard", DEFAULT_STORE_CONFIG,
+            LEXI_TYPES, new DailyShardBuilder(1));
+
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 30; i++) {
+            events.add(EventBuilder.create("", UUID.randomUUID().toString(), currentTimeMillis())
+                .attr(new Attribute("key1", "val1", meta))
+                .build());
+        }
+        budgetStore.save(events);
+
+        Date start = new Date(currentTimeMillis() - 50000);
+        Date end = new Date(currentTimeMillis() + 50000);
+        Node query = QueryBuilder.create().eq("key1", "val1").build();
+
+        QueryResults<Event> results = budgetStore.query(start, end, singleton(""), query, null,
+            new QueryBudget(1, TimeUnit.MINUTES, 100), DEFAULT_AUTHS);
+        assertTrue(results.isComplete());
+        assertEquals(new HashSet<Event>(events), new HashSet<Event>(results.getResults()));
+
+        results = budgetStore.query(start, end, singleton(""), query, null, new QueryBudget(1, TimeUnit.MINUTES, 5), DEFAULT_AUTHS);
+        assertFalse(results.isComplete());
+        assertEquals(5, results.getResults().size());
+        assertTrue(events.containsAll(results.getResults()));
+
+        budgetStore.shutdown();
+    }
+
+    @Test
+    public void testQuery_budgetYield() throws Exception {
+
+        EventShardBuilder shardBuilder = new DailyShardBuilder(1);
+        AccumuloEventStore budgetStore = new AccumuloEventStore(connector, "yieldIndex", "yieldShard", DEFAULT_STORE_CONFIG,
+            LEXI_TYPES, shardBuilder);
+
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 5; i++) {
+            events.add(EventBuilder.create("", UUID.randomUUID().toString(), currentTimeMillis())
+                .attr(new Attribute("key1", "val1", meta))
+                .build());
+        }
+        budgetStore.save(events);
+
+        Range shard = new Range(shardBuilder.buildShard(events.get(0)));
+        Node query = QueryBuilder.create().eq("key1", "val1").build();
+        String jexl = new EventQfdHelper.EventNodeToJexl(LEXI_TYPES).transform(singleton(""), query);
+
+        // a deadline that's already passed cuts the range short before anything is returned
+        List<Key> keys = scanWithBudget(shard, jexl, 1, 0);
+        assertEquals(1, keys.size());
+        assertTrue(OptimizedQueryIterator.isYieldKey(keys.get(0)));
+
+        // a range holding exactly as many results as it may return isn't cut short
+        keys = scanWithBudget(shard, jexl, 0, 5);
+        assertEquals(5, keys.size());
+        assertFalse(OptimizedQueryIterator.isYieldKey(keys.get(4)));
+
+        keys = scanWithBudget(shard, jexl, 0, 4);
+        assertEquals(5, keys.size());
+        assertTrue(OptimizedQueryIterator.isYieldKey(keys.get(4)));
+
+        budgetStore.shutdown();
+    }
+
+    private List<Key> scanWithBudget(Range range, String jexl, long deadline, long resultLimit) throws Exception {
+        Scanner scanner = connector.createScanner("yieldShard", DEFAULT_AUTHS.getAuths());
+        scanner.setRange(range);
+        IteratorSetting setting = new IteratorSetting(16, EventOptimizedQueryIterator.class);
+        setting.addOption(BooleanLogicIterator.QUERY_OPTION, jexl);
+        setting.addOption(BooleanLogicIterator.FIELD_INDEX_QUERY, jexl);
+        OptimizedQueryIterator.setBudget(setting, deadline, resultLimit);
+        scanner.addScanIterator(setting);
+
+        List<Key> keys = new ArrayList<Key>();
+        for (Map.Entry<Key, Value> entry : scanner)
+            keys.add(entry.getKey());
+        return keys;
+    }
+
+    @Test
+    public void testQuery_fullShardScan() throws Exception {
+
+        // few partitions so that each shard holds enough events for the choice to matter
+        EventShardBuilder shardBuilder = new DailyShardBuilder(2);
+        AccumuloEventStore scanStore = new AccumuloEventStore(connector, "scanIndex", "scanShard", DEFAULT_STORE_CONFIG,
+            LEXI_TYPES, shardBuilder);
+
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 100; i++) {
+            events.add(EventBuilder.create("", UUID.randomUUID().toString(), currentTimeMillis())
+                .attr(new Attribute("key1", "val1", meta))
+                .attr(new Attribute("key2", "val2", meta))
+                .attr(new Attribute("key3", i, meta))
+                .build());
+        }
+        scanStore.save(events);
+
+        Date start = new Date(currentTimeMillis() - 50000);
+        Date end = new Date(currentTimeMillis() + 50000);
+
+        // every event matches both terms, so each shard is cheaper to scan than to walk through its index
+        Node query = QueryBuilder.create().and().eq("key1", "val1").eq("key2", "val2").end().build();
+        QueryPlanner plan = new QueryPlanner(query, new EventGlobalIndexVisitor(start, end, singleton(""),
+            connector.createBatchScanner("scanIndex", DEFAULT_AUTHS.getAuths(), 1), shardBuilder), LEXI_TYPES);
+        assertFalse(plan.getShards().isEmpty());
+        assertEquals(plan.getShards(), plan.getScanShards());
+        assertEquals(new HashSet<Event>(events), Sets.newHashSet(scanStore.query(start, end, query, null, DEFAULT_AUTHS)));
+
+        // a single event matches, so the index is walked
+        Node selective = QueryBuilder.create().and().eq("key1", "val1").eq("key3", 5).end().build();
+        plan = new QueryPlanner(selective, new EventGlobalIndexVisitor(start, end, singleton(""),
+            connector.createBatchScanner("scanIndex", DEFAULT_AUTHS.getAuths(), 1), shardBuilder), LEXI_TYPES);
+        assertEquals(0, plan.getScanShards().size());
+
+        // the document counts are only read for the shards the terms were found in
+        EventGlobalIndexVisitor visitor = new EventGlobalIndexVisitor(start, end, singleton(""),
+            connector.createBatchScanner("scanIndex", DEFAULT_AUTHS.getAuths(), 1), shardBuilder);
+        plan = new QueryPlanner(QueryBuilder.create().eq("key3", 5).build(), visitor, LEXI_TYPES);
+        assertEquals(1, plan.getShards().size());
+        for (int partition = 0; partition < shardBuilder.numPartitions(); partition++) {
+            String shard = shardBuilder.buildShard(events.get(5).getTimestamp(), partition);
+            assertEquals(plan.getShards().contains(shard), visitor.getShardStatistics().getDocumentCount(shard) != null);
+        }
+        assertEquals(singleton(events.get(5)), Sets.newHashSet(scanStore.query(start, end, selective, null, DEFAULT_AUTHS)));
+
+        scanStore.shutdown();
+    }
+
+    @Test
+    public void testQuery_indexCache() throws Exception {
+
+        StoreConfig config = new StoreConfig(3, 100000L, 10000L, 3).withIndexCache(100, 60000);
+        AccumuloEventStore cachingStore = new AccumuloEventStore(connector, "cachingIndex", "cachingShard", config,
+            LEXI_TYPES, DEFAULT_SHARD_BUILDER);
+
+        Event event = EventBuilder.create("", UUID.randomUUID().toString(), currentTimeMillis())
+            .attr(new Attribute("key1", "val1", meta))
+            .build();
+        cachingStore.save(singletonList(event));
+
+        Node query = QueryBuilder.create().eq("key1", "val1").build();
+        Date start = new Date(currentTimeMillis() - 50000);
+        Date end = new Date(currentTimeMillis() + 50000);
+
+        assertEquals(1, Iterables.size(cachingStore.query(start, end, query, null, DEFAULT_AUTHS)));
+        assertEquals(0, cachingStore.getGlobalIndexCache().getHitCount());
+        long misses = cachingStore.getGlobalIndexCache().getMissCount();
+
+        // every index range of the second query is answered from the cache
+        assertEquals(1, Iterables.size(cachingStore.query(start, end, query, null, DEFAULT_AUTHS)));
+        assertEquals(misses, cachingStore.getGlobalIndexCache().getHitCount());
+        assertEquals(misses, cachingStore.getGlobalIndexCache().getMissCount());
+
+        Node otherQuery = QueryBuilder.create().eq("key2", "val2").build();
+        assertEquals(0, Iterables.size(cachingStore.query(start, end, otherQuery, null, DEFAULT_AUTHS)));
+
+        // saving invalidates the lookups of the index rows it writes so the new event is found right away, the
+        // lookups of the other rows stay cached
+        Event event2 = EventBuilder.create("", UUID.randomUUID().toString(), currentTimeMillis())
+            .attr(new Attribute("key1", "val1", meta))
+            .build();
+        cachingStore.save(singletonList(event2));
+        assertEquals(2, Iterables.size(cachingStore.query(start, end, query, null, DEFAULT_AUTHS)));
+
+        long hits = cachingStore.getGlobalIndexCache().getHitCount();
+        misses = cachingStore.getGlobalIndexCache().getMissCount();
+        assertEquals(0, Iterables.size(cachingStore.query(start, end, otherQuery, null, DEFAULT_AUTHS)));
+        assertEquals(hits + 1, cachingStore.getGlobalIndexCache().getHitCount());
+        assertEquals(misses, cachingStore.getGlobalIndexCache().getMissCount());
+
+        cachingStore.shutdown();
+    }
+
 }
@@ -15,6 +15,9 @@
  */
 package org.calrissian.accumulorecipes.eventstore.support;
 
+import static java.util.Collections.singletonList;
+import static org.calrissian.accumulorecipes.commons.support.Constants.INDEX_D;
+import static org.calrissian.accumulorecipes.commons.support.qfd.KeyValueIndex.INDEX_SEP;
 import static org.calrissian.accumulorecipes.eventstore.impl.AccumuloEventStore.DEFAULT_IDX_TABLE_NAME;
 import static org.calrissian.accumulorecipes.eventstore.impl.AccumuloEventStore.DEFAULT_SHARD_BUILDER;
 import static org.calrissian.accumulorecipes.eventstore.impl.AccumuloEventStore.DEFAULT_STORE_CONFIG;
@@ -22,16 +25,25 @@ import static org.calrissian.accumulorecipes.test.AccumuloTestUtils.dumpTable;
 import static org.calrissian.mango.types.LexiTypeEncoders.LEXI_TYPES;
 import static org.junit.Assert.assertEquals;
 import java.util.Arrays;
+import java.util.Map;
 
 import com.google.common.collect.Iterables;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
 import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.client.Instance;
+import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.client.TableExistsException;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.client.mock.MockInstance;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
 import org.calrissian.accumulorecipes.commons.domain.Auths;
+import org.calrissian.accumulorecipes.commons.domain.StoreConfig;
+import org.calrissian.accumulorecipes.commons.support.attribute.MetadataBuilder;
+import org.calrissian.accumulorecipes.commons.support.qfd.GlobalIndexValue;
 import org.calrissian.accumulorecipes.commons.support.qfd.KeyValueIndex;
 import org.calrissian.accumulorecipes.eventstore.EventStore;
 import org.calrissian.accumulorecipes.eventstore.impl.AccumuloEventStore;
@@ -209,4 +221,73 @@ public class EventKeyValueIndexTest {
         assertEquals("val2", Iterables.get(types, 1));
     }
 
+    @Test
+    public void testBufferedAcrossCalls() throws Exception {
+
+        Instance instance = new MockInstance();
+        Connector connector = instance.getConnector("root", "".getBytes());
+
+        KeyValueIndex<Event> eventKeyValueIndex = new KeyValueIndex<Event>(
+            connector, "bufferedIndex", DEFAULT_SHARD_BUILDER, new StoreConfig(1, 100000L, 10000L, 1).withIndexBuffer(1000, 0),
+            LEXI_TYPES
+        );
+
+        // the same id and timestamp land every event in the same shard
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            Event event = EventBuilder.create("type1", "id", timestamp)
+                .attr(new Attribute("key1", "val1"))
+                .attr(new Attribute("key2", "val2")).build();
+            eventKeyValueIndex.indexKeyValues(singletonList(event));
+        }
+
+        Scanner scanner = connector.createScanner("bufferedIndex", Auths.EMPTY.getAuths());
+        assertEquals(0, Iterables.size(scanner));
+
+        eventKeyValueIndex.flush();
+
+        // one key and one value entry for each attribute and the document count of the shard, with the
+        // cardinality of all 5 calls
+        assertEquals(5, Iterables.size(scanner));
+        for (Map.Entry<Key, Value> entry : scanner)
+            assertEquals(5, new GlobalIndexValue(entry.getValue()).getCardinatlity());
+    }
+
+    @Test
+    public void testDocumentCountsPerVisibility() throws Exception {
+
+        Instance instance = new MockInstance();
+        Connector connector = instance.getConnector("root", "".getBytes());
+        connector.securityOperations().changeUserAuthorizations("root", new Authorizations("A", "B"));
+
+        KeyValueIndex<Event> eventKeyValueIndex = new KeyValueIndex<Event>(
+            connector, "docCountIndex", DEFAULT_SHARD_BUILDER, DEFAULT_STORE_CONFIG, LEXI_TYPES
+        );
+
+        // the same id and timestamp land every event in the same shard
+        long timestamp = System.currentTimeMillis();
+        Event seenByA = EventBuilder.create("type1", "id", timestamp)
+            .attr(new Attribute("key1", "val1", new MetadataBuilder().setVisibility("A").build())).build();
+        Event seenByAOrB = EventBuilder.create("type1", "id", timestamp)
+            .attr(new Attribute("key1", "val1", new MetadataBuilder().setVisibility("A").build()))
+            .attr(new Attribute("key2", "val2", new MetadataBuilder().setVisibility("B").build())).build();
+        Event seenByAll = EventBuilder.create("type1", "id", timestamp)
+            .attr(new Attribute("key1", "val1")).build();
+        eventKeyValueIndex.indexKeyValues(Arrays.asList(seenByA, seenByAOrB, seenByAll));
+        eventKeyValueIndex.flush();
+
+        assertEquals(3, documentCount(connector, new Authorizations("A", "B")));
+        assertEquals(3, documentCount(connector, new Authorizations("A")));
+        assertEquals(2, documentCount(connector, new Authorizations("B")));
+        assertEquals(1, documentCount(connector, new Authorizations()));
+    }
+
+    private static long documentCount(Connector connector, Authorizations auths) throws TableNotFoundException {
+        Scanner scanner = connector.createScanner("docCountIndex", auths);
+        scanner.setRange(Range.prefix(INDEX_D + INDEX_SEP));
+        long count = 0;
+        for (Map.Entry<Key, Value> entry : scanner)
+            count += new GlobalIndexValue(entry.getValue()).getCardinatlity();
+        return count;
+    }
 }
@@ -28,7 +28,6 @@ import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -50,7 +49,7 @@ import org.apache.accumulo.core.security.ColumnVisibility;
 import org.apache.hadoop.io.Text;
 import org.calrissian.accumulorecipes.commons.domain.Auths;
 import org.calrissian.accumulorecipes.commons.domain.StoreConfig;
-import org.calrissian.accumulorecipes.commons.util.RowEncoderUtil;
+import org.calrissian.accumulorecipes.commons.util.EncodedRowView;
 import org.calrissian.accumulorecipes.geospatialstore.GeoSpatialStore;
 import org.calrissian.accumulorecipes.geospatialstore.support.BoundingBoxFilter;
 import org.calrissian.accumulorecipes.geospatialstore.support.PrefixedColumnQualifierIterator;
@@ -72,12 +71,13 @@ public class AccumuloGeoSpatialStore implements GeoSpatialStore {
             String cf = keyValueEntry.getKey().getColumnFamily().toString();
             EntityBuilder entry = null;
             try {
-                List<Map.Entry<Key, Value>> map = RowEncoderUtil.decodeRow(keyValueEntry.getKey(), keyValueEntry.getValue());
-                for (Map.Entry<Key, Value> curEntry : map) {
-                    String[] cqParts = splitPreserveAllTokens(curEntry.getKey().getColumnQualifier().toString(), NULL_BYTE);
+                byte[] bytes = keyValueEntry.getValue().get();
+                EncodedRowView row = new EncodedRowView().reset(bytes, 0, bytes.length);
+                for (int i = 0; i < row.size(); i++) {
+                    String[] cqParts = splitPreserveAllTokens(row.getColumnQualifierString(i), NULL_BYTE);
                     if(entry == null)
                         entry =EntityBuilder.create(cf, cqParts[0]);
-                    String vis = curEntry.getKey().getColumnVisibility().toString();
+                    String vis = row.getColumnVisibilityString(i);
                     Attribute attribute = new Attribute(cqParts[3], registry.decode(cqParts[4], cqParts[5]), setVisibility(new HashMap<String, String>(1), vis));
                     entry.attr(attribute);
                 }
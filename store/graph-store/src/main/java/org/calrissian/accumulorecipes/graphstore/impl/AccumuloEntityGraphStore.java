@@ -64,7 +64,7 @@ import org.apache.accumulo.core.security.ColumnVisibility;
 import org.apache.hadoop.io.Text;
 import org.calrissian.accumulorecipes.commons.domain.Auths;
 import org.calrissian.accumulorecipes.commons.domain.StoreConfig;
-import org.calrissian.accumulorecipes.commons.util.RowEncoderUtil;
+import org.calrissian.accumulorecipes.commons.util.EncodedRowView;
 import org.calrissian.accumulorecipes.entitystore.impl.AccumuloEntityStore;
 import org.calrissian.accumulorecipes.entitystore.support.EntityShardBuilder;
 import org.calrissian.accumulorecipes.graphstore.GraphStore;
@@ -109,16 +109,17 @@ public class AccumuloEntityGraphStore extends AccumuloEntityStore implements Gra
             try {
                 EntityIdentifier edgeRel = (EntityIdentifier) typeRegistry.decode(ENTITY_IDENTIFIER_ALIAS, edge);
                 EntityBuilder entity = EntityBuilder.create(edgeRel.getType(), edgeRel.getId());
-                List<Map.Entry<Key, Value>> entries = RowEncoderUtil.decodeRow(keyValueEntry.getKey(), keyValueEntry.getValue());
+                byte[] bytes = keyValueEntry.getValue().get();
+                EncodedRowView row = new EncodedRowView().reset(bytes, 0, bytes.length);
 
-                for (Map.Entry<Key, Value> entry : entries) {
-                    if (entry.getKey().getColumnQualifier().toString().indexOf(ONE_BYTE) == -1)
+                for (int i = 0; i < row.size(); i++) {
+                    if (row.indexOfInColumnQualifier(i, (byte) ONE_BYTE.charAt(0)) == -1)
                         continue;
 
-                    String[] qualParts = splitPreserveAllTokens(entry.getKey().getColumnQualifier().toString(), ONE_BYTE);
+                    String[] qualParts = splitPreserveAllTokens(row.getColumnQualifierString(i), ONE_BYTE);
                     String[] keyALiasValue = splitPreserveAllTokens(qualParts[1], NULL_BYTE);
 
-                    String vis = entry.getKey().getColumnVisibility().toString();
+                    String vis = row.getColumnVisibilityString(i);
                     Attribute attribute = new Attribute(keyALiasValue[0], typeRegistry.decode(keyALiasValue[1], keyALiasValue[2]), setVisibility(new HashMap<String, String>(1), vis));
                     entity.attr(attribute);
 
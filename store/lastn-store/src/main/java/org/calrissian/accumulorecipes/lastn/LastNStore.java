@@ -15,6 +15,9 @@
  */
 package org.calrissian.accumulorecipes.lastn;
 
+import java.util.Collection;
+import java.util.Map;
+
 import org.calrissian.accumulorecipes.commons.domain.Auths;
 import org.calrissian.mango.domain.event.Event;
 
@@ -45,4 +48,14 @@ public interface LastNStore {
      */
     Iterable<Event> get(String group, Auths auths);
 
+    /**
+     * Returns the last N store entries under each of the specified groups- starting with the most recent. Every group
+     * is in the returned map, in the order given, even when it has no entries.
+     *
+     * @param groups
+     * @param auths
+     * @return
+     */
+    Map<String, Iterable<Event>> get(Collection<String> groups, Auths auths);
+
 }
@@ -17,20 +17,35 @@ package org.calrissian.accumulorecipes.lastn.impl;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.Iterables.transform;
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.immutableEntry;
 import static java.util.EnumSet.allOf;
 import static java.util.Map.Entry;
 import static org.apache.accumulo.core.iterators.IteratorUtil.IteratorScope;
+import static org.apache.commons.lang.StringUtils.splitPreserveAllTokens;
 import static org.calrissian.accumulorecipes.commons.support.Constants.END_BYTE;
 import static org.calrissian.accumulorecipes.commons.support.Constants.NULL_BYTE;
 import static org.calrissian.accumulorecipes.commons.support.Constants.ONE_BYTE;
 import static org.calrissian.accumulorecipes.commons.support.attribute.Metadata.Visiblity.getVisibility;
+import static org.calrissian.accumulorecipes.commons.support.attribute.Metadata.Visiblity.setVisibility;
+import static org.calrissian.accumulorecipes.commons.util.RowEncoderUtil.decodeRow;
+import static org.calrissian.accumulorecipes.commons.util.RowEncoderUtil.encodeRow;
 import static org.calrissian.accumulorecipes.commons.util.WritableUtils2.asWritable;
 import static org.calrissian.mango.types.LexiTypeEncoders.LEXI_TYPES;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.google.common.base.Function;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.BatchWriter;
 import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.client.IteratorSetting;
@@ -52,6 +67,7 @@ import org.calrissian.accumulorecipes.lastn.iterator.EntryIterator;
 import org.calrissian.accumulorecipes.lastn.iterator.IndexEntryFilteringIterator;
 import org.calrissian.mango.domain.Attribute;
 import org.calrissian.mango.domain.event.Event;
+import org.calrissian.mango.domain.event.EventBuilder;
 import org.calrissian.mango.types.TypeRegistry;
 
 /**
@@ -59,16 +75,28 @@ import org.calrissian.mango.types.TypeRegistry;
  * if the necessary permissions have been granted. NOTE: If the tables need to be created manually, be sure to set the
  * maxVersions property for all scopes of the versioning iterator to your N value. Also, add the IndexEntryFilteringIterator
  * at priority 40.
+ * <p/>
+ * By default, the attributes of each entry are stored in their own cells after the index, so reading an entry means
+ * seeking to them. The store can instead be created to store the attributes inline, next to the index, so the last N
+ * entries of a group are read sequentially. The attributes of an entry are grouped by their visibility and each group
+ * is encoded with the {@link org.calrissian.accumulorecipes.commons.util.RowEncoderUtil} into a cell of the index
+ * family labeled with that visibility, so the tablet servers only return those the scan is authorized for. The index
+ * cell itself only holds the type and id of the entry, as in the default layout, and remains what the versioning
+ * iterator evicts entries by. A table should only ever be written with one of the layouts. A manually created table
+ * is configured the same way for either of them.
  */
 public class AccumuloLastNStore implements LastNStore {
 
     private static final String DEFAULT_TABLE_NAME = "lastN";
+    private static final String INLINE_ATTRIBUTES = "attributes";
     private static final StoreConfig DEFAULT_STORE_CONFIG = new StoreConfig(1, 100000L, 10000L, 3);
     private static final IteratorSetting EVENT_FILTER_SETTING =
             new IteratorSetting(40, "eventFilter", IndexEntryFilteringIterator.class);
 
     private final Connector connector;
     private final String tableName;
+    private final StoreConfig config;
+    private final boolean inlineAttributes;
     private final BatchWriter writer;
 
     private final TypeRegistry<String> typeRegistry;
@@ -108,6 +136,17 @@ public class AccumuloLastNStore implements LastNStore {
      * @param connector
      */
     public AccumuloLastNStore(Connector connector, String tableName, StoreConfig config, int maxVersions, TypeRegistry<String> typeRegistry) throws TableNotFoundException, TableExistsException, AccumuloSecurityException, AccumuloException {
+        this(connector, tableName, config, maxVersions, typeRegistry, false);
+    }
+
+    /**
+     * Uses the specified tableName, store config, and maxVersions
+     *
+     * @param connector
+     * @param inlineAttributes whether the attributes of each entry are stored inline with its index
+     */
+    public AccumuloLastNStore(Connector connector, String tableName, StoreConfig config, int maxVersions, TypeRegistry<String> typeRegistry,
+                              boolean inlineAttributes) throws TableNotFoundException, TableExistsException, AccumuloSecurityException, AccumuloException {
         checkNotNull(connector);
         checkNotNull(tableName);
         checkNotNull(config);
@@ -115,7 +154,9 @@ public class AccumuloLastNStore implements LastNStore {
 
         this.connector = connector;
         this.tableName = tableName;
+        this.config = config;
         this.typeRegistry = typeRegistry;
+        this.inlineAttributes = inlineAttributes;
 
         if (!connector.tableOperations().exists(this.tableName)) {
             connector.tableOperations().create(this.tableName, true);
@@ -162,6 +203,11 @@ public class AccumuloLastNStore implements LastNStore {
         checkNotNull(group);
         checkNotNull(entry);
 
+        if (inlineAttributes) {
+            putInline(group, entry);
+            return;
+        }
+
         // first put the main index pointing to the contextId (The column family is prefixed with the NULL_BYTE to guarantee it shows up first
         Mutation indexMutation = new Mutation(group);
         indexMutation.put(NULL_BYTE + "INDEX", "", new ColumnVisibility(), entry.getTimestamp(), new Value((entry.getType() + ONE_BYTE + entry.getId()).getBytes()));
@@ -187,6 +233,103 @@ public class AccumuloLastNStore implements LastNStore {
         }
     }
 
+    /**
+     * Puts the index with the type and id of the entry and, for each visibility of its attributes, a cell of the index
+     * family labeled with it. The attributes are encoded into its value after a key with the type and id of the entry.
+     * The attribute cells have their own qualifier so the versioning iterator keeps the last N of each visibility
+     * apart from the index, which means they outlive the index of their entry at most until N newer entries have
+     * attributes with the same visibility.
+     */
+    private void putInline(String group, Event entry) {
+        String fam = entry.getType() + ONE_BYTE + entry.getId();
+        Key entryKey = new Key(group, fam, "", "", entry.getTimestamp());
+
+        try {
+            Map<String, List<Entry<Key, Value>>> visToKeyValues = new LinkedHashMap<String, List<Entry<Key, Value>>>();
+            for (Attribute attribute : entry.getAttributes()) {
+                String visibility = getVisibility(attribute, "");
+                List<Entry<Key, Value>> keyValues = visToKeyValues.get(visibility);
+                if (keyValues == null) {
+                    keyValues = new ArrayList<Entry<Key, Value>>();
+                    keyValues.add(immutableEntry(entryKey, new Value("".getBytes())));
+                    visToKeyValues.put(visibility, keyValues);
+                }
+
+                Object value = attribute.getValue();
+                String qual = attribute.getKey() + NULL_BYTE + typeRegistry.encode(value) + NULL_BYTE + typeRegistry.getAlias(value);
+                keyValues.add(immutableEntry(new Key(group, fam, qual, visibility, entry.getTimestamp()), new Value("".getBytes())));
+            }
+
+            Mutation indexMutation = new Mutation(group);
+            indexMutation.put(NULL_BYTE + "INDEX", "", new ColumnVisibility(), entry.getTimestamp(), new Value(fam.getBytes()));
+            for (Entry<String, List<Entry<Key, Value>>> visKeyValues : visToKeyValues.entrySet()) {
+                indexMutation.put(NULL_BYTE + "INDEX", INLINE_ATTRIBUTES, new ColumnVisibility(visKeyValues.getKey()), entry.getTimestamp(),
+                        encodeRow(visKeyValues.getValue()));
+            }
+            writer.addMutation(indexMutation);
+        } catch (MutationsRejectedException ex) {
+            throw new RuntimeException("There was an error writing the mutation for [index=" + group + ",entryId=" + entry.getId() + "]", ex);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Builds the entries of a group, starting with the most recent, from the cells of its index family. The attribute
+     * cells the scan could see are matched back up with the index of their entry by its type, id and timestamp, which
+     * leaves out those of entries the versioning iterator has already evicted.
+     */
+    private List<Event> decodeInlineEntries(List<Entry<Key, Value>> cells) {
+        Map<String, EventBuilder> events = new LinkedHashMap<String, EventBuilder>();
+        List<Entry<Key, Value>> attributeCells = new ArrayList<Entry<Key, Value>>();
+        for (Entry<Key, Value> cell : cells) {
+            if (cell.getKey().getColumnQualifierData().length() != 0) {
+                attributeCells.add(cell);
+                continue;
+            }
+
+            String entryId = new String(cell.getValue().get());
+            String eventKey = entryId + NULL_BYTE + cell.getKey().getTimestamp();
+            if (!events.containsKey(eventKey)) {
+                int oneByte = entryId.indexOf(ONE_BYTE);
+                events.put(eventKey, EventBuilder.create(entryId.substring(0, oneByte), entryId.substring(oneByte + 1),
+                        cell.getKey().getTimestamp()));
+            }
+        }
+
+        try {
+            // duplicate puts of an entry leave several cells with the same visibility
+            Set<String> decoded = new HashSet<String>();
+            for (Entry<Key, Value> cell : attributeCells) {
+                List<Entry<Key, Value>> keyValues = decodeRow(cell.getKey(), cell.getValue());
+                if (keyValues.isEmpty())
+                    continue;
+
+                String eventKey = keyValues.get(0).getKey().getColumnFamily() + NULL_BYTE + cell.getKey().getTimestamp();
+                EventBuilder event = events.get(eventKey);
+                if (event == null || !decoded.add(eventKey + NULL_BYTE + cell.getKey().getColumnVisibility()))
+                    continue;
+
+                for (Entry<Key, Value> keyValue : keyValues.subList(1, keyValues.size())) {
+                    Key key = keyValue.getKey();
+                    String[] keyValueDatatype = splitPreserveAllTokens(key.getColumnQualifier().toString(), NULL_BYTE);
+                    event.attr(new Attribute(
+                            keyValueDatatype[0],
+                            typeRegistry.decode(keyValueDatatype[2], keyValueDatatype[1]),
+                            setVisibility(new HashMap<String, String>(1), key.getColumnVisibility().toString())
+                    ));
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        List<Event> entries = new ArrayList<Event>(events.size());
+        for (EventBuilder event : events.values())
+            entries.add(event.build());
+        return entries;
+    }
+
     @Override
     public void flush() throws Exception {
         writer.flush();
@@ -209,10 +352,11 @@ public class AccumuloLastNStore implements LastNStore {
             scanner.setRange(new Range(index));
             scanner.fetchColumnFamily(new Text(NULL_BYTE + "INDEX"));
 
-            IteratorSetting iteratorSetting = new IteratorSetting(16, "eventIterator", EntryIterator.class);
-            EntryIterator.setTypeRegistry(iteratorSetting, typeRegistry);
-            scanner.addScanIterator(iteratorSetting);
+            // the index family holds a cell per visibility for each of the last N entries at most
+            if (inlineAttributes)
+                return decodeInlineEntries(newArrayList(scanner));
 
+            scanner.addScanIterator(buildEntrySetting());
             return transform(scanner, storeTransform);
 
         } catch (RuntimeException e) {
@@ -221,6 +365,62 @@ public class AccumuloLastNStore implements LastNStore {
             throw new RuntimeException(e);
         }
     }
-}
 
+    /**
+     * Pull back the last N entries of each of the groups through a single batch scanner. Each group is a single row,
+     * so its entries are still returned from the most recent even though the groups are scanned in parallel.
+     */
+    @Override
+    public Map<String, Iterable<Event>> get(Collection<String> groups, Auths auths) {
+        checkNotNull(groups);
+        checkNotNull(auths);
 
+        Map<String, List<Event>> entries = new LinkedHashMap<String, List<Event>>();
+        for (String group : groups)
+            entries.put(group, new ArrayList<Event>());
+
+        Map<String, List<Entry<Key, Value>>> inlineCells = new HashMap<String, List<Entry<Key, Value>>>();
+        List<Range> ranges = new ArrayList<Range>(entries.size());
+        for (String group : entries.keySet()) {
+            ranges.add(new Range(group));
+            inlineCells.put(group, new ArrayList<Entry<Key, Value>>());
+        }
+
+        if (!ranges.isEmpty()) {
+            try {
+                BatchScanner scanner = connector.createBatchScanner(tableName, auths.getAuths(), config.getMaxQueryThreads());
+                try {
+                    scanner.setRanges(ranges);
+                    scanner.fetchColumnFamily(new Text(NULL_BYTE + "INDEX"));
+                    if (!inlineAttributes)
+                        scanner.addScanIterator(buildEntrySetting());
+
+                    for (Entry<Key, Value> entry : scanner) {
+                        String group = entry.getKey().getRow().toString();
+                        if (inlineAttributes)
+                            inlineCells.get(group).add(entry);
+                        else
+                            entries.get(group).add(storeTransform.apply(entry));
+                    }
+                } finally {
+                    scanner.close();
+                }
+            } catch (TableNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        if (inlineAttributes) {
+            for (Entry<String, List<Entry<Key, Value>>> groupCells : inlineCells.entrySet())
+                entries.put(groupCells.getKey(), decodeInlineEntries(groupCells.getValue()));
+        }
+
+        return new LinkedHashMap<String, Iterable<Event>>(entries);
+    }
+
+    private IteratorSetting buildEntrySetting() {
+        IteratorSetting iteratorSetting = new IteratorSetting(16, "eventIterator", EntryIterator.class);
+        EntryIterator.setTypeRegistry(iteratorSetting, typeRegistry);
+        return iteratorSetting;
+    }
+}
@@ -73,7 +73,9 @@ public class IndexEntryFilteringIterator extends Filter {
                     uuidSet = new HashSet<String>();
                 }
 
-                uuidSet.add(new String(value.get()));
+                // the attribute cells stored inline with the index have a qualifier of their own
+                if (key.getColumnQualifierData().length() == 0)
+                    uuidSet.add(new String(value.get()));
 
                 return true;
             }
@@ -16,16 +16,32 @@
 package org.calrissian.accumulorecipes.lastn.impl;
 
 
+import static org.calrissian.accumulorecipes.commons.support.attribute.Metadata.Visiblity.setVisibility;
+import static org.calrissian.mango.types.LexiTypeEncoders.LEXI_TYPES;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
 import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
 import org.apache.accumulo.core.client.mock.MockInstance;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorUtil.IteratorScope;
+import org.apache.accumulo.core.security.Authorizations;
 import org.calrissian.accumulorecipes.commons.domain.Auths;
+import org.calrissian.accumulorecipes.commons.domain.StoreConfig;
+import org.calrissian.accumulorecipes.lastn.iterator.IndexEntryFilteringIterator;
 import org.calrissian.mango.domain.Attribute;
 import org.calrissian.mango.domain.event.BaseEvent;
 import org.calrissian.mango.domain.event.Event;
@@ -68,4 +84,133 @@ public class AccumuloLastNStoreTest {
         assertEquals(entry3, results.get(1));
         assertEquals(entry2, results.get(2));
     }
+
+    @Test
+    public void testInlineAttributes() throws Exception {
+        Connector connector = getConnector();
+        connector.securityOperations().changeUserAuthorizations("root", new Authorizations("A"));
+        AccumuloLastNStore lastNStore = new AccumuloLastNStore(connector, "lastNInline", new StoreConfig(), 3, LEXI_TYPES, true);
+
+        List<Event> entries = Lists.newArrayList();
+        for (int i = 0; i < 4; i++) {
+            Event entry = new BaseEvent(UUID.randomUUID().toString(), System.currentTimeMillis() - 5000 + i);
+            entry.put(new Attribute("key1", "val1"));
+            entry.put(new Attribute("key2", i));
+            entry.put(new Attribute("key3", "val3", setVisibility(new HashMap<String, String>(1), "A")));
+            entries.add(entry);
+            lastNStore.put("index1", entry);
+        }
+
+        List<Event> results = Lists.newArrayList(lastNStore.get("index1", new Auths("A")));
+        assertEquals(3, results.size());
+        assertEquals(entries.get(3), results.get(0));
+        assertEquals(entries.get(2), results.get(1));
+        assertEquals(entries.get(1), results.get(2));
+
+        // attributes the scan isn't authorized for are left out
+        results = Lists.newArrayList(lastNStore.get("index1", Auths.EMPTY));
+        assertEquals(3, results.size());
+        assertEquals(2, results.get(0).getAttributes().size());
+        assertNull(results.get(0).get("key3"));
+    }
+
+    @Test
+    public void testInlineAttributes_visibilities() throws Exception {
+        Connector connector = getConnector();
+        connector.securityOperations().changeUserAuthorizations("root", new Authorizations("A"));
+        AccumuloLastNStore lastNStore = new AccumuloLastNStore(connector, "lastNInlineVis", new StoreConfig(), 3, LEXI_TYPES, true);
+
+        Event protectedEntry = new BaseEvent(UUID.randomUUID().toString(), System.currentTimeMillis() - 5000);
+        protectedEntry.put(new Attribute("key1", "val1"));
+        protectedEntry.put(new Attribute("key2", "secret", setVisibility(new HashMap<String, String>(1), "A")));
+        lastNStore.put("index1", protectedEntry);
+        lastNStore.flush();
+
+        // the protected attribute never leaves the tablet servers without the authorization
+        for (Map.Entry<Key, Value> entry : connector.createScanner("lastNInlineVis", new Authorizations()))
+            assertFalse(new String(entry.getValue().get()).contains("secret"));
+
+        List<Event> results = Lists.newArrayList(lastNStore.get("index1", new Auths("A")));
+        assertEquals(1, results.size());
+        assertEquals(protectedEntry, results.get(0));
+
+        // once evicted from the index, the entry's attributes aren't returned even though their cell is still there
+        List<Event> entries = Lists.newArrayList();
+        for (int i = 0; i < 3; i++) {
+            Event entry = new BaseEvent(UUID.randomUUID().toString(), System.currentTimeMillis() - 4000 + i);
+            entry.put(new Attribute("key1", "val" + i));
+            entries.add(entry);
+            lastNStore.put("index1", entry);
+        }
+
+        results = Lists.newArrayList(lastNStore.get("index1", new Auths("A")));
+        assertEquals(Arrays.asList(entries.get(2), entries.get(1), entries.get(0)), results);
+
+        Map<String, Iterable<Event>> groups = lastNStore.get(Arrays.asList("index1"), new Auths("A"));
+        assertEquals(results, Lists.newArrayList(groups.get("index1")));
+    }
+
+    @Test
+    public void testInlineAttributes_manualTableSetup() throws Exception {
+        Connector connector = getConnector();
+        connector.securityOperations().changeUserAuthorizations("root", new Authorizations("A,B"));
+
+        // the table is set up the way the store documents for creating it manually, so the store doesn't configure it
+        connector.tableOperations().create("lastNManual");
+        for (IteratorScope scope : IteratorScope.values())
+            connector.tableOperations().setProperty("lastNManual", "table.iterator." + scope.name() + ".vers.opt.maxVersions", "2");
+        connector.tableOperations().attachIterator("lastNManual",
+            new IteratorSetting(40, "eventFilter", IndexEntryFilteringIterator.class), EnumSet.allOf(IteratorScope.class));
+
+        AccumuloLastNStore lastNStore = new AccumuloLastNStore(connector, "lastNManual", new StoreConfig(), 2, LEXI_TYPES, true);
+
+        List<Event> entries = Lists.newArrayList();
+        for (int i = 0; i < 3; i++) {
+            Event entry = new BaseEvent(UUID.randomUUID().toString(), System.currentTimeMillis() - 5000 + i);
+            entry.put(new Attribute("key1", "val" + i));
+            entry.put(new Attribute("key2", "val" + i, setVisibility(new HashMap<String, String>(1), "A")));
+            entry.put(new Attribute("key3", "val" + i, setVisibility(new HashMap<String, String>(1), "B")));
+            entries.add(entry);
+            lastNStore.put("index1", entry);
+        }
+
+        List<Event> results = Lists.newArrayList(lastNStore.get("index1", new Auths("A,B")));
+        assertEquals(Arrays.asList(entries.get(2), entries.get(1)), results);
+
+        results = Lists.newArrayList(lastNStore.get("index1", new Auths("A")));
+        assertEquals(2, results.size());
+        assertEquals(2, results.get(0).getAttributes().size());
+        assertNull(results.get(0).get("key3"));
+    }
+
+    @Test
+    public void testMultipleGroups() throws Exception {
+        for (boolean inlineAttributes : new boolean[] {false, true}) {
+            AccumuloLastNStore lastNStore = new AccumuloLastNStore(getConnector(), "lastNGroups" + inlineAttributes,
+                new StoreConfig(), 2, LEXI_TYPES, inlineAttributes);
+
+            Event entry1 = new BaseEvent(UUID.randomUUID().toString(), System.currentTimeMillis() - 5000);
+            entry1.put(new Attribute("key1", "val1"));
+
+            Event entry2 = new BaseEvent(UUID.randomUUID().toString(), System.currentTimeMillis() - 1000);
+            entry2.put(new Attribute("key1", "val2"));
+
+            Event entry3 = new BaseEvent(UUID.randomUUID().toString(), System.currentTimeMillis());
+            entry3.put(new Attribute("key1", "val3"));
+
+            Event entry4 = new BaseEvent(UUID.randomUUID().toString(), System.currentTimeMillis());
+            entry4.put(new Attribute("key1", "val4"));
+
+            lastNStore.put("group1", entry1);
+            lastNStore.put("group1", entry2);
+            lastNStore.put("group1", entry3);
+            lastNStore.put("group2", entry4);
+
+            Map<String, Iterable<Event>> results = lastNStore.get(Arrays.asList("group1", "group2", "group3"), Auths.EMPTY);
+            assertEquals(Arrays.asList("group1", "group2", "group3"), Lists.newArrayList(results.keySet()));
+            assertEquals(Arrays.asList(entry3, entry2), Lists.newArrayList(results.get("group1")));
+            assertEquals(Arrays.asList(entry4), Lists.newArrayList(results.get("group2")));
+            assertEquals(0, Iterables.size(results.get("group3")));
+        }
+    }
 }
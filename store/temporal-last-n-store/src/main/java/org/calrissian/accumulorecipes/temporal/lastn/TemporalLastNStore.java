@@ -16,6 +16,7 @@
 package org.calrissian.accumulorecipes.temporal.lastn;
 
 import java.util.Date;
+import java.util.Map;
 import java.util.Set;
 
 import org.calrissian.accumulorecipes.commons.domain.Auths;
@@ -36,6 +37,16 @@ public interface TemporalLastNStore {
      */
     void put(String group, Event entry);
 
+    /**
+     * Puts several events into the store under the specified group.
+     */
+    void put(String group, Iterable<Event> entries);
+
+    /**
+     * Puts the events of several groups into the store, keyed by their group.
+     */
+    void put(Map<String, ? extends Iterable<Event>> entries);
+
     void flush() throws Exception;
 
     /**
@@ -15,8 +15,8 @@
  */
 package org.calrissian.accumulorecipes.temporal.lastn.impl;
 
-import static com.google.common.collect.Iterables.transform;
-import static java.util.Collections.singletonList;
+import static java.util.Collections.singleton;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 import static org.apache.accumulo.core.client.admin.TimeType.LOGICAL;
 import static org.apache.commons.lang.StringUtils.join;
 import static org.apache.commons.lang.StringUtils.splitPreserveAllTokens;
@@ -25,25 +25,31 @@ import static org.calrissian.accumulorecipes.commons.support.Constants.NULL_BYTE
 import static org.calrissian.accumulorecipes.commons.support.Constants.ONE_BYTE;
 import static org.calrissian.accumulorecipes.commons.support.attribute.Metadata.Visiblity.getVisibility;
 import static org.calrissian.accumulorecipes.commons.support.attribute.Metadata.Visiblity.setVisibility;
-import static org.calrissian.accumulorecipes.commons.util.RowEncoderUtil.decodeRow;
 import static org.calrissian.accumulorecipes.commons.util.TimestampUtil.generateTimestamp;
 import static org.calrissian.mango.collect.CloseableIterables.wrap;
 import static org.calrissian.mango.types.SimpleTypeEncoders.SIMPLE_TYPES;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
-import com.google.common.base.Function;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
-import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.BatchWriter;
 import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.MutationsRejectedException;
+import org.apache.accumulo.core.client.Scanner;
 import org.apache.accumulo.core.client.TableExistsException;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.data.Key;
@@ -51,13 +57,13 @@ import org.apache.accumulo.core.data.Mutation;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.security.ColumnVisibility;
-import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.io.Text;
 import org.calrissian.accumulorecipes.commons.domain.Auths;
 import org.calrissian.accumulorecipes.commons.domain.StoreConfig;
 import org.calrissian.accumulorecipes.commons.iterators.FirstNEntriesInRowIterator;
 import org.calrissian.accumulorecipes.commons.iterators.WholeColumnQualifierIterator;
 import org.calrissian.accumulorecipes.commons.support.TimeUnit;
+import org.calrissian.accumulorecipes.commons.util.EncodedRowView;
 import org.calrissian.accumulorecipes.temporal.lastn.TemporalLastNStore;
 import org.calrissian.accumulorecipes.temporal.lastn.support.EventMergeJoinIterable;
 import org.calrissian.mango.collect.CloseableIterable;
@@ -76,39 +82,9 @@ public class AccumuloTemporalLastNStore implements TemporalLastNStore {
     private final String tableName;
     private final BatchWriter writer;
     private final TypeRegistry<String> typeRegistry;
+    private final StoreConfig config;
     private static final LongReverseEncoder encoder = new LongReverseEncoder();
-
-    private final Function<List<Map.Entry<Key, Value>>, Event> entryXform = new Function<List<Map.Entry<Key, Value>>, Event>() {
-        @Override
-        public Event apply(List<Map.Entry<Key, Value>> entries) {
-            EventBuilder toReturn = null;
-
-            for (Map.Entry<Key, Value> attributeCol : entries) {
-                String[] splits = splitPreserveAllTokens(new String(attributeCol.getValue().get()), NULL_BYTE);
-                String cq = attributeCol.getKey().getColumnQualifier().toString();
-                String[] cqParts = StringUtils.splitPreserveAllTokens(cq, ONE_BYTE);
-                int idx = cq.lastIndexOf(ONE_BYTE);
-                if (toReturn == null)
-                    toReturn = EventBuilder.create(cqParts[1], cqParts[2], encoder.decode(cqParts[0]));
-                String vis = splits[3];
-                toReturn.attr(new Attribute(splits[0], typeRegistry.decode(splits[1], splits[2]), setVisibility(new HashMap<String,String>(1), vis)));
-            }
-
-            return toReturn.build();
-        }
-    };
-
-    Function<Map.Entry<Key, Value>, List<Map.Entry<Key, Value>>> rowDecodeXform =
-        new Function<Map.Entry<Key, Value>, List<Map.Entry<Key, Value>>>() {
-            @Override
-            public List<Map.Entry<Key, Value>> apply(Map.Entry<Key, Value> keyValueEntry) {
-                try {
-                    return decodeRow(keyValueEntry.getKey(), keyValueEntry.getValue());
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-        };
+    private ExecutorService openers;
 
     public AccumuloTemporalLastNStore(Connector connector)
         throws TableNotFoundException, AccumuloSecurityException, AccumuloException, TableExistsException {
@@ -120,6 +96,7 @@ public class AccumuloTemporalLastNStore implements TemporalLastNStore {
         this.connector = connector;
         this.tableName = tableName;
         this.typeRegistry = SIMPLE_TYPES;
+        this.config = config;
 
         if (!connector.tableOperations().exists(this.tableName))
             connector.tableOperations().create(this.tableName, false, LOGICAL);
@@ -130,16 +107,52 @@ public class AccumuloTemporalLastNStore implements TemporalLastNStore {
 
     @Override
     public void put(String group, Event entry) {
+        put(group, singleton(entry));
+    }
+
+    @Override
+    public void put(String group, Iterable<Event> entries) {
+        put(group, entries, new TimeBuckets());
+    }
+
+    @Override
+    public void put(Map<String, ? extends Iterable<Event>> entries) {
+        TimeBuckets buckets = new TimeBuckets();
+        for (Map.Entry<String, ? extends Iterable<Event>> groupEntries : entries.entrySet())
+            put(groupEntries.getKey(), groupEntries.getValue(), buckets);
+    }
+
+    /**
+     * Writes a single mutation per event, as all of its attributes share the same row. The attributes of each
+     * visibility are written together into a single cell, as they also share the same column and would otherwise
+     * be written to the same key.
+     */
+    private void put(String group, Iterable<Event> entries, TimeBuckets buckets) {
         try {
-            for (Attribute attribute : entry.getAttributes()) {
-                Mutation m = new Mutation(group + GROUP_DELIM + generateTimestamp(entry.getTimestamp(), TimeUnit.DAYS));
-                m.put(
-                    new Text(generateTimestamp(entry.getTimestamp(), TimeUnit.MINUTES)),
-                    new Text(encoder.encode(entry.getTimestamp()) + ONE_BYTE + entry.getType() + ONE_BYTE + entry.getId()),
-                    new ColumnVisibility(getVisibility(attribute, "")),
-                    new Value(buildEventValue(attribute).getBytes())
-                );
-                writer.addMutation(m);
+            for (Event entry : entries) {
+                Mutation m = new Mutation(group + GROUP_DELIM + buckets.day(entry.getTimestamp()));
+                Text minute = new Text(buckets.minute(entry.getTimestamp()));
+                Text colQual = new Text(encoder.encode(entry.getTimestamp()) + ONE_BYTE + entry.getType() + ONE_BYTE + entry.getId());
+                Map<String, List<String>> visToAttributes = new LinkedHashMap<String, List<String>>();
+                for (Attribute attribute : entry.getAttributes()) {
+                    String vis = getVisibility(attribute, "");
+                    List<String> attributes = visToAttributes.get(vis);
+                    if (attributes == null) {
+                        attributes = new ArrayList<String>();
+                        visToAttributes.put(vis, attributes);
+                    }
+                    attributes.add(buildEventValue(attribute));
+                }
+                for (Map.Entry<String, List<String>> attributes : visToAttributes.entrySet()) {
+                    m.put(
+                        minute,
+                        colQual,
+                        new ColumnVisibility(attributes.getKey()),
+                        new Value(join(attributes.getValue(), NULL_BYTE).getBytes())
+                    );
+                }
+                if (m.size() > 0)
+                    writer.addMutation(m);
             }
 
         } catch (Exception e) {
@@ -152,6 +165,19 @@ public class AccumuloTemporalLastNStore implements TemporalLastNStore {
         writer.flush();
     }
 
+    /**
+     * Free up threads from the batch writer and those the groups are opened on.
+     *
+     * @throws MutationsRejectedException
+     */
+    public void shutdown() throws MutationsRejectedException {
+        synchronized (this) {
+            if (openers != null)
+                openers.shutdownNow();
+        }
+        writer.close();
+    }
+
     private String buildEventValue(Attribute attribute) {
 
         String[] fields = new String[]{
@@ -164,47 +190,207 @@ public class AccumuloTemporalLastNStore implements TemporalLastNStore {
         return join(fields, NULL_BYTE);
     }
 
+    /**
+     * Builds an event from the attributes grouped into a single row by the {@link WholeColumnQualifierIterator},
+     * reading them straight out of the encoded bytes. Each value holds one or more attributes of the same visibility.
+     */
+    private Event decodeEvent(EncodedRowView row) {
+        EventBuilder toReturn = null;
+
+        for (int i = 0; i < row.size(); i++) {
+            String[] splits = splitPreserveAllTokens(row.getValueString(i), NULL_BYTE);
+            if (toReturn == null) {
+                String[] cqParts = splitPreserveAllTokens(row.getColumnQualifierString(i), ONE_BYTE);
+                toReturn = EventBuilder.create(cqParts[1], cqParts[2], encoder.decode(cqParts[0]));
+            }
+            for (int j = 0; j + 3 < splits.length; j += 4) {
+                String vis = splits[j + 3];
+                toReturn.attr(new Attribute(splits[j], typeRegistry.decode(splits[j + 1], splits[j + 2]),
+                    setVisibility(new HashMap<String,String>(1), vis)));
+            }
+        }
+
+        return toReturn.build();
+    }
+
     @Override
     public CloseableIterable<Event> get(Date start, Date stop, Set<String> groups, int n, Auths auths) {
 
-        List<Iterable<Event>> cursors = new LinkedList<Iterable<Event>>();
+        List<GroupCursor> cursors = new ArrayList<GroupCursor>(groups.size());
         String stopDay = generateTimestamp(start.getTime(), TimeUnit.DAYS);
         String startDay = generateTimestamp(stop.getTime(), TimeUnit.DAYS);
 
         String stopMinute = generateTimestamp(start.getTime(), TimeUnit.MINUTES);
-        String startMinute = generateTimestamp(stop.getTime(), TimeUnit.MINUTES);
-
         String stopMillis = encoder.encode(start.getTime());
-        String startMillis = encoder.encode(stop.getTime());
 
         for (String group : groups) {
 
-            Key startKey = new Key(group + GROUP_DELIM + startDay, startMinute, startMillis + ONE_BYTE);
+            // the first n entries of each row are always read from the start of the row, so the range starts there
+            // as well, otherwise the key returned for the first row would fall before it
+            Key startKey = new Key(group + GROUP_DELIM + startDay);
             Key stopKey = new Key(group + GROUP_DELIM + stopDay, stopMinute, stopMillis + ONE_BYTE + END_BYTE);
 
+            cursors.add(new GroupCursor(new Range(startKey, stopKey), n, auths));
+        }
+
+        open(cursors);
+
+        // no more than n events are needed overall, so the merge stops reading from the groups once it has them
+        return wrap(new EventMergeJoinIterable(cursors, n));
+    }
+
+    /**
+     * Reads the first batch of each group over up to {@link StoreConfig#getMaxQueryThreads()} threads, so that a
+     * lookup over many groups takes about as long as its slowest group rather than a round trip per group. The rest
+     * of each group is only read as the merge gets to it.
+     */
+    private void open(List<GroupCursor> cursors) {
+        if (cursors.size() < 2) {
+            for (GroupCursor cursor : cursors)
+                cursor.open();
+            return;
+        }
+
+        ExecutorService executor = getOpeners();
+        List<Future<?>> opened = new ArrayList<Future<?>>(cursors.size());
+        try {
+            for (final GroupCursor cursor : cursors) {
+                opened.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        cursor.open();
+                    }
+                }));
+            }
+            for (Future<?> future : opened)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // a group that failed to open leaves the others to be cancelled
+            for (Future<?> future : opened)
+                future.cancel(true);
+        }
+    }
+
+    /**
+     * The pool that groups are opened on. It's shared by all lookups and only started by the first of them that
+     * reads more than one group.
+     */
+    private synchronized ExecutorService getOpeners() {
+        if (openers == null)
+            openers = newFixedThreadPool(config.getMaxQueryThreads(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("temporal-last-n-%d").build());
+        return openers;
+    }
+
+    /**
+     * The events of a single group, latest first. Since the timestamps are reversed in the keys, the rows of the group
+     * are scanned in order and each holds the first n events of its day, which are only decoded as they're read.
+     */
+    private class GroupCursor implements Iterable<Event> {
+
+        private final Range range;
+        private final int n;
+        private final Auths auths;
+        private Iterator<Map.Entry<Key, Value>> opened;
+
+        private GroupCursor(Range range, int n, Auths auths) {
+            this.range = range;
+            this.n = n;
+            this.auths = auths;
+        }
+
+        /**
+         * Starts the scan of the group and waits for its first rows, which the next iterator picks up from.
+         */
+        private void open() {
+            opened = scan();
+            opened.hasNext();
+        }
+
+        private Iterator<Map.Entry<Key, Value>> scan() {
+            final Scanner scanner;
             try {
-                BatchScanner scanner = connector.createBatchScanner(tableName, auths.getAuths(), 1);
-                scanner.setRanges(singletonList(new Range(startKey, stopKey)));
+                scanner = connector.createScanner(tableName, auths.getAuths());
+            } catch (TableNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+            scanner.setRange(range);
+
+            IteratorSetting setting = new IteratorSetting(7, WholeColumnQualifierIterator.class);
+            scanner.addScanIterator(setting);
 
-                IteratorSetting setting = new IteratorSetting(7, WholeColumnQualifierIterator.class);
-                scanner.addScanIterator(setting);
+            IteratorSetting setting2 = new IteratorSetting(15, FirstNEntriesInRowIterator.class);
+            FirstNEntriesInRowIterator.setNumKeysToReturn(setting2, n);
+            scanner.addScanIterator(setting2);
+
+            return scanner.iterator();
+        }
+
+        @Override
+        public Iterator<Event> iterator() {
+            final Iterator<Map.Entry<Key, Value>> rows = opened != null ? opened : scan();
+            opened = null;
+            return new AbstractIterator<Event>() {
 
-                IteratorSetting setting2 = new IteratorSetting(15, FirstNEntriesInRowIterator.class);
-                FirstNEntriesInRowIterator.setNumKeysToReturn(setting2, n);
-                scanner.addScanIterator(setting2);
+                // each value holds the first n events of the row, each of which is itself an encoded row of attributes
+                private final EncodedRowView topEntries = new EncodedRowView();
+                private final EncodedRowView eventRow = new EncodedRowView();
+                private byte[] bytes;
+                private int next;
 
-                for (Map.Entry<Key, Value> entry : scanner) {
-                    List<Map.Entry<Key, Value>> topEntries = decodeRow(entry.getKey(), entry.getValue());
-                    Iterable<List<Map.Entry<Key, Value>>> entries = transform(topEntries, rowDecodeXform);
-                    cursors.add(transform(entries, entryXform));
+                @Override
+                protected Event computeNext() {
+                    try {
+                        while (bytes == null || next == topEntries.size()) {
+                            if (!rows.hasNext())
+                                return endOfData();
+                            bytes = rows.next().getValue().get();
+                            topEntries.reset(bytes, 0, bytes.length);
+                            next = 0;
+                        }
+                        int i = next++;
+                        return decodeEvent(eventRow.reset(bytes, topEntries.getValueOffset(i), topEntries.getValueLength(i)));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
                 }
+            };
+        }
+    }
 
-                scanner.close();
+    /**
+     * Remembers the day and minute buckets of the last timestamp seen, as events put together tend to fall into the
+     * same ones and generating them means normalizing the timestamp. Not thread safe, so one is used per put.
+     */
+    private static class TimeBuckets {
 
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+        private static final long MINUTE_MILLIS = 60 * 1000L;
+        private static final long DAY_MILLIS = 24 * 60 * MINUTE_MILLIS;
+
+        private long dayStart = Long.MIN_VALUE;
+        private String day;
+        private long minuteStart = Long.MIN_VALUE;
+        private String minute;
+
+        String day(long timestamp) {
+            if (day == null || timestamp < dayStart || timestamp - dayStart >= DAY_MILLIS) {
+                dayStart = TimeUnit.DAYS.normalize(timestamp);
+                day = encoder.encode(dayStart);
+            }
+            return day;
+        }
+
+        String minute(long timestamp) {
+            if (minute == null || timestamp < minuteStart || timestamp - minuteStart >= MINUTE_MILLIS) {
+                minuteStart = TimeUnit.MINUTES.normalize(timestamp);
+                minute = encoder.encode(minuteStart);
             }
+            return minute;
         }
-        return wrap(new EventMergeJoinIterable(cursors));
     }
 }
@@ -15,65 +15,100 @@
  */
 package org.calrissian.accumulorecipes.temporal.lastn.support;
 
-import static org.calrissian.mango.collect.CloseableIterators.peekingIterator;
-import static org.calrissian.mango.collect.CloseableIterators.wrap;
+import static com.google.common.collect.Iterators.peekingIterator;
+import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 
-import org.calrissian.mango.collect.PeekingCloseableIterator;
+import com.google.common.collect.PeekingIterator;
 import org.calrissian.mango.domain.event.Event;
 
 /**
- * Given several iterables which are sorted and contain events in ascending order,
- * this iterable will
+ * Given several iterables which are sorted and contain events in descending order of their timestamps, this
+ * iterable merges them into a single one in the same order. The cursors are kept in a heap ordered by their next
+ * event, so each event costs O(log n) in the number of cursors, and the cursors are only ever read one event ahead.
+ * Events with the same timestamp are returned in the order of the cursors they came from.
+ * <p/>
+ * When a limit is given, the merge stops after that many events without reading any further from the cursors.
  */
 public class EventMergeJoinIterable implements Iterable<Event> {
 
-    private Iterable<Iterable<Event>> cursors;
+    private final Iterable<? extends Iterable<Event>> cursors;
+    private final int limit;
 
-    public EventMergeJoinIterable(Iterable<Iterable<Event>> cursors) {
+    public EventMergeJoinIterable(Iterable<? extends Iterable<Event>> cursors) {
+        this(cursors, -1);
+    }
+
+    /**
+     * @param limit the maximum number of events to return, or -1 to return all of them
+     */
+    public EventMergeJoinIterable(Iterable<? extends Iterable<Event>> cursors, int limit) {
         this.cursors = cursors;
+        this.limit = limit;
     }
 
     @Override
     public Iterator<Event> iterator() {
 
-        final List<PeekingCloseableIterator<Event>> iterators =
-            new LinkedList<PeekingCloseableIterator<Event>>();
-        for (Iterable<Event> entries : cursors)
-            iterators.add(peekingIterator(wrap(entries.iterator())));
+        final PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>(11, LATEST_FIRST);
+        int index = 0;
+        for (Iterable<Event> entries : cursors) {
+            if (limit == 0)
+                break;
+            PeekingIterator<Event> events = peekingIterator(entries.iterator());
+            if (events.hasNext())
+                heap.add(new Cursor(events, index));
+            index++;
+        }
 
         return new Iterator<Event>() {
+
+            private int returned = 0;
+
             @Override
             public boolean hasNext() {
-
-                for (Iterator<Event> entry : iterators) {
-                    if (entry.hasNext())
-                        return true;
-                }
-                return false;
+                return !heap.isEmpty() && (limit < 0 || returned < limit);
             }
 
             @Override
             public Event next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
 
-                PeekingCloseableIterator<Event> curEntry = null;
-                for (PeekingCloseableIterator<Event> itr : iterators) {
-                    if (itr.hasNext() && (curEntry == null ||
-                        (itr.peek()).getTimestamp() > curEntry.peek().getTimestamp()))
-                        curEntry = itr;
-                }
+                Cursor cursor = heap.poll();
+                Event event = cursor.events.next();
+                returned++;
 
-                return curEntry.next();
+                // only move the cursor ahead when more events can still be returned
+                if ((limit < 0 || returned < limit) && cursor.events.hasNext())
+                    heap.add(cursor);
+                return event;
             }
 
             @Override
             public void remove() {
-                for (Iterator<Event> itr : iterators)
-                    itr.remove();
+                throw new UnsupportedOperationException();
             }
         };
+    }
+
+    private static final Comparator<Cursor> LATEST_FIRST = new Comparator<Cursor>() {
+        @Override
+        public int compare(Cursor o1, Cursor o2) {
+            int comparison = Long.valueOf(o2.events.peek().getTimestamp()).compareTo(o1.events.peek().getTimestamp());
+            return comparison != 0 ? comparison : (o1.index < o2.index ? -1 : (o1.index == o2.index ? 0 : 1));
+        }
+    };
+
+    private static class Cursor {
+        private final PeekingIterator<Event> events;
+        private final int index;
 
+        private Cursor(PeekingIterator<Event> events, int index) {
+            this.events = events;
+            this.index = index;
+        }
     }
 }
@@ -17,10 +17,15 @@ package org.calrissian.accumulorecipes.temporal.lastn.impl;
 
 import static java.lang.System.currentTimeMillis;
 import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
 import static java.util.UUID.randomUUID;
 import static org.junit.Assert.assertEquals;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
@@ -193,5 +198,87 @@ public class AccumuloTemporalLastNTest {
         assertEquals(new HashSet(actualEntry.getAttributes()), new HashSet(testEntry2.getAttributes()));
     }
 
+    @Test
+    public void testLimit_acrossGroups() throws Exception {
+
+        Event testEntry = new BaseEvent(randomUUID().toString(), currentTimeMillis() - 1000);
+        testEntry.put(new Attribute("key1", "val1"));
+
+        Event testEntry2 = new BaseEvent(randomUUID().toString(), currentTimeMillis() - 5000);
+        testEntry2.put(new Attribute("key1", "val1"));
+
+        Event testEntry3 = new BaseEvent(randomUUID().toString(), currentTimeMillis() - 500);
+        testEntry3.put(new Attribute("key1", "val1"));
+
+        Event testEntry4 = new BaseEvent(randomUUID().toString(), currentTimeMillis() - 3000);
+        testEntry4.put(new Attribute("key1", "val1"));
+
+        store.put("limitGroup", testEntry);
+        store.put("limitGroup", testEntry2);
+        store.put("limitGroup1", testEntry3);
+        store.put("limitGroup1", testEntry4);
+
+        store.flush();
+
+        // only the last 2 events of both groups together are returned
+        Iterable<Event> results = store.get(new Date(currentTimeMillis() - 50000), new Date(currentTimeMillis() + 50000),
+            Sets.newHashSet("limitGroup", "limitGroup1"), 2, Auths.EMPTY);
+
+        assertEquals(2, Iterables.size(results));
+        assertEquals(testEntry3.getId(), Iterables.get(results, 0).getId());
+        assertEquals(testEntry.getId(), Iterables.get(results, 1).getId());
+    }
+
+    @Test
+    public void testGroupsWithoutEvents() throws Exception {
+
+        Event testEntry = new BaseEvent(randomUUID().toString());
+        testEntry.put(new Attribute("key1", "val1"));
+
+        store.put("fetchedGroup", testEntry);
+        store.flush();
 
+        Iterable<Event> results = store.get(new Date(currentTimeMillis() - 50000), new Date(currentTimeMillis() + 50000),
+            Sets.newHashSet("fetchedGroup", "emptyGroup"), 5, Auths.EMPTY);
+
+        assertEquals(1, Iterables.size(results));
+        assertEquals(testEntry.getId(), Iterables.get(results, 0).getId());
+
+        results = store.get(new Date(currentTimeMillis() - 50000), new Date(currentTimeMillis() + 50000),
+            new HashSet<String>(), 5, Auths.EMPTY);
+
+        assertEquals(0, Iterables.size(results));
+    }
+
+    @Test
+    public void testPut_bulk() throws Exception {
+
+        Event testEntry = new BaseEvent(randomUUID().toString(), currentTimeMillis() - 1000);
+        testEntry.put(new Attribute("key1", "val1"));
+        testEntry.put(new Attribute("key2", "val2"));
+        testEntry.put(new Attribute("key3", 3));
+
+        Event testEntry2 = new BaseEvent(randomUUID().toString(), currentTimeMillis() - 2000);
+        testEntry2.put(new Attribute("key1", "val1"));
+
+        Event testEntry3 = new BaseEvent(randomUUID().toString(), currentTimeMillis() - 500);
+        testEntry3.put(new Attribute("key1", "val1"));
+
+        store.put("bulkGroup", Arrays.asList(testEntry, testEntry2));
+
+        Map<String, List<Event>> entries = new HashMap<String, List<Event>>();
+        entries.put("bulkGroup1", singletonList(testEntry3));
+        store.put(entries);
+
+        store.flush();
+
+        Iterable<Event> results = store.get(new Date(currentTimeMillis() - 50000), new Date(currentTimeMillis() + 50000),
+            Sets.newHashSet("bulkGroup", "bulkGroup1"), 5, Auths.EMPTY);
+
+        assertEquals(3, Iterables.size(results));
+        assertEquals(testEntry3.getId(), Iterables.get(results, 0).getId());
+        assertEquals(testEntry.getId(), Iterables.get(results, 1).getId());
+        assertEquals(new HashSet(testEntry.getAttributes()), new HashSet(Iterables.get(results, 1).getAttributes()));
+        assertEquals(testEntry2.getId(), Iterables.get(results, 2).getId());
+    }
 }
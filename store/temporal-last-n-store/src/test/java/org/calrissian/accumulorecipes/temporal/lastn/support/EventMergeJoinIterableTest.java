@@ -50,4 +50,24 @@ public class EventMergeJoinIterableTest {
         assertEquals(entry1, Iterables.get(iterable, 2));
 
     }
+
+    @Test
+    public void testLimit() {
+
+        Event entry1 = new BaseEvent(randomUUID().toString(), currentTimeMillis() - 5000);
+        Event entry2 = new BaseEvent(randomUUID().toString(), currentTimeMillis());
+        Event entry3 = new BaseEvent(randomUUID().toString(), currentTimeMillis() - 30);
+        Event entry4 = new BaseEvent(randomUUID().toString(), currentTimeMillis() - 60);
+
+        List<Iterable<Event>> entryIter = new LinkedList<Iterable<Event>>();
+        entryIter.add(Arrays.asList(new Event[]{entry2, entry1}));
+        entryIter.add(Arrays.asList(new Event[]{entry3, entry4}));
+
+        EventMergeJoinIterable iterable = new EventMergeJoinIterable(entryIter, 3);
+
+        assertEquals(3, Iterables.size(iterable));
+        assertEquals(entry2, Iterables.get(iterable, 0));
+        assertEquals(entry3, Iterables.get(iterable, 1));
+        assertEquals(entry4, Iterables.get(iterable, 2));
+    }
 }